@@ -16,6 +16,7 @@ import org.rapla.storage.StorageOperator;
 import org.rapla.storage.dbrm.LoginTokens;
 import org.rapla.storage.dbrm.RemoteAuthentificationService;
 import org.rapla.storage.dbrm.RemoteConnectionInfo;
+import org.rapla.storage.dbrm.RemoteOperator;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -88,6 +89,11 @@ public class RaplaGwtStarter implements GwtStarter
         final StorageOperator operator = this.operator.get();
         ((ClientFacadeImpl)facadeImpl).setOperator(operator);
         Promise<Void> load = facadeImpl.load();
+        if (operator instanceof RemoteOperator)
+        {
+            // the gwt client does not poll, so the changes are pushed by the server
+            return load.thenRun(() -> ((RemoteOperator) operator).startWaitingForChanges());
+        }
         return load;
     }
 
@@ -567,6 +567,8 @@ public class RaplaClientServiceImpl implements ClientService, UpdateErrorListene
     private void initRefresh() throws RaplaException {
         int intervalLength = facade.getRaplaFacade().getSystemPreferences().getEntryAsInteger(ClientFacade.REFRESH_INTERVAL_ENTRY, ClientFacade.REFRESH_INTERVAL_DEFAULT);
         schedule = commandScheduler.schedule(()->operator.triggerRefresh(), 0, intervalLength);
+        // the polling above is skipped as long as the server pushes the changes
+        operator.startWaitingForChanges();
     }
 
     public void updateError(RaplaException ex)
@@ -19,14 +19,12 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
-
 public class RaplaContentHandler extends DefaultHandler
 {
     Locator locator;
     RaplaSAXHandler handler;
+    // reused for every element, the handlers must not keep a reference to the attributes
+    final RaplaSAXAttributes attributes = new RaplaSAXAttributes();
     public RaplaContentHandler(RaplaSAXHandler handler) {
     	this.handler = handler;
     }
@@ -44,35 +42,15 @@ public class RaplaContentHandler extends DefaultHandler
     {
     	try
         {
-    		Map<String,String> attributeMap;
+    		attributes.clear();
 			if ( atts != null) {
 				int length = atts.getLength();
-				if ( length == 0)
-				{
-					attributeMap = Collections.emptyMap();
-				}
-				else if ( length == 1)
+				for ( int i=0;i<length;i++)
 				{
-					String key = atts.getLocalName( 0);
-					String value = atts.getValue( 0);
-					attributeMap = Collections.singletonMap(key, value);
+				    attributes.add( atts.getLocalName( i), atts.getValue( i));
 				}
-				else
-				{
-					attributeMap = new LinkedHashMap<>();
-					for ( int i=0;i<length;i++)
-					{
-					    String key = atts.getLocalName( i);
-					    String value = atts.getValue( i);
-					    attributeMap.put( key, value);
-					}	
-				}
-			}
-			else
-			{
-				attributeMap = Collections.emptyMap();
 			}
-    		handler.startElement( namespaceURI, localName,  new RaplaSAXAttributes(attributeMap)  );
+    		handler.startElement( namespaceURI, localName,  attributes  );
         }
         catch (RaplaSAXParseException ex)
         {
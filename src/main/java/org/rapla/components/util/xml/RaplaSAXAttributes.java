@@ -1,30 +1,98 @@
 package org.rapla.components.util.xml;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-public class RaplaSAXAttributes 
+/** The attributes of an xml element. The attributes are stored in two arrays so a parser can reuse the same instance
+ * for every element with {@link #clear()} and {@link #add(String, String)}. Elements have only few attributes, so a linear
+ * search is faster than a hash lookup. The attribute names are usually interned by the parser, so the lookup first compares the references.
+ * Instances that are filled by the parser are only valid during the startElement call.
+ */
+public class RaplaSAXAttributes
 {
-	final Map<String,String> attributeMap;
+	private String[] names;
+	private String[] values;
+	private int length;
+
+	public RaplaSAXAttributes()
+	{
+		names = new String[8];
+		values = new String[8];
+	}
+
 	public RaplaSAXAttributes(Map<String,String> map)
 	{
-		this.attributeMap = map;
+		final int size = map.size();
+		names = new String[Math.max(size, 1)];
+		values = new String[Math.max(size, 1)];
+		for (Map.Entry<String,String> entry : map.entrySet())
+		{
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public void clear()
+	{
+		Arrays.fill(values, 0, length, null);
+		length = 0;
+	}
+
+	public void add(String key, String value)
+	{
+		if (length == names.length)
+		{
+			names = Arrays.copyOf(names, length * 2);
+			values = Arrays.copyOf(values, length * 2);
+		}
+		names[length] = key;
+		values[length] = value;
+		length++;
+	}
+
+	public int getLength()
+	{
+		return length;
 	}
-	
+
 	public String getValue(@SuppressWarnings("unused") String uri,String key)
 	{
 		return getValue( key);
 	}
-	
+
 	public String getValue(String key)
 	{
-		return attributeMap.get( key);
+		for (int i = 0; i < length; i++)
+		{
+			if (names[i] == key)
+			{
+				return values[i];
+			}
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (names[i].equals(key))
+			{
+				return values[i];
+			}
+		}
+		return null;
 	}
-	
+
 	public Map<String, String> getMap()
 	{
+		if (length == 0)
+		{
+			return Collections.emptyMap();
+		}
+		Map<String,String> attributeMap = new LinkedHashMap<>();
+		for (int i = 0; i < length; i++)
+		{
+			attributeMap.put(names[i], values[i]);
+		}
 		return Collections.unmodifiableMap( attributeMap);
 	}
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,153 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org .       |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.components.util.xml;
+
+import org.rapla.framework.RaplaException;
+import org.xml.sax.InputSource;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+
+/** Feeds a {@link RaplaSAXHandler} from a StAX pull parser. Does the same as a SAX parser with a {@link RaplaContentHandler}
+ * but with less overhead: there is no SAX attributes object per element and the same {@link RaplaSAXAttributes} is reused for all elements.
+ * The attribute names reported by the parser are interned, so the attribute lookup in the readers is a reference comparison.
+ */
+final public class RaplaStaxReader
+{
+    static XMLInputFactory factory;
+
+    private RaplaStaxReader()
+    {
+    }
+
+    static private XMLInputFactory getFactory()
+    {
+        if (factory == null)
+        {
+            XMLInputFactory f = XMLInputFactory.newInstance();
+            f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+            f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+            f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory = f;
+        }
+        return factory;
+    }
+
+    public static void parse(InputSource source, RaplaSAXHandler handler) throws RaplaException
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = createReader(source);
+            parse(reader, handler);
+        }
+        catch (XMLStreamException ex)
+        {
+            throw createException(ex.getLocation(), ex.getMessage(), ex);
+        }
+        catch (RaplaSAXParseException ex)
+        {
+            Throwable cause = ex;
+            while (cause.getCause() != null)
+            {
+                cause = cause.getCause();
+            }
+            // exceptions of the readers, e.g. an EntityNotFoundException, are passed unchanged
+            if (cause instanceof RaplaException && !(cause instanceof RaplaSAXParseException))
+            {
+                throw (RaplaException) cause;
+            }
+            throw createException(reader != null ? reader.getLocation() : null, cause.getMessage(), cause);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    private static XMLStreamReader createReader(InputSource source) throws XMLStreamException
+    {
+        final XMLInputFactory f = getFactory();
+        if (source.getCharacterStream() != null)
+        {
+            return f.createXMLStreamReader(source.getCharacterStream());
+        }
+        if (source.getByteStream() != null)
+        {
+            final String encoding = source.getEncoding();
+            return encoding != null ? f.createXMLStreamReader(source.getByteStream(), encoding) : f.createXMLStreamReader(source.getByteStream());
+        }
+        return f.createXMLStreamReader(new StreamSource(source.getSystemId()));
+    }
+
+    private static void parse(XMLStreamReader reader, RaplaSAXHandler handler) throws XMLStreamException, RaplaSAXParseException
+    {
+        final RaplaSAXAttributes attributes = new RaplaSAXAttributes();
+        while (reader.hasNext())
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                {
+                    attributes.clear();
+                    final int count = reader.getAttributeCount();
+                    for (int i = 0; i < count; i++)
+                    {
+                        attributes.add(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                    handler.startElement(getNamespaceURI(reader), reader.getLocalName(), attributes);
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT:
+                    handler.endElement(getNamespaceURI(reader), reader.getLocalName());
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    handler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String getNamespaceURI(XMLStreamReader reader)
+    {
+        final String namespaceURI = reader.getNamespaceURI();
+        // sax reports no namespace as empty string
+        return namespaceURI != null ? namespaceURI : "";
+    }
+
+    private static RaplaException createException(Location location, String message, Throwable cause)
+    {
+        if (location == null)
+        {
+            return new RaplaException(message, cause);
+        }
+        return new RaplaException("Line: " + location.getLineNumber() + " Column: " + location.getColumnNumber() + " " + message, cause);
+    }
+}
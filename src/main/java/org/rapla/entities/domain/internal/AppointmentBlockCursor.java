@@ -0,0 +1,178 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org .       |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.entities.domain.internal;
+
+import org.rapla.components.util.Assert;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentBlock;
+
+/**
+ * Iterates over the blocks of an appointment that overlap a period without creating an {@link AppointmentBlock} for each occurrence.
+ * The start and end of the current block are available as primitive longs after each successful call to {@link #next()}.
+ * <pre>
+ * AppointmentBlockCursor cursor = appointment.blockCursor(start, end, true);
+ * while (cursor.next())
+ * {
+ *     long blockStart = cursor.getStart();
+ *     long blockEnd = cursor.getEnd();
+ * }
+ * </pre>
+ * A cursor can be reused for other appointments or periods with {@link #reset(Appointment, long, long, boolean)}.
+ * The blocks are returned in the same order as {@link AppointmentImpl#createBlocks(java.util.Date, java.util.Date, java.util.Collection, boolean)} creates them.
+ * The appointment must not be changed while it is iterated.
+ */
+public final class AppointmentBlockCursor
+{
+    private static final int INITIAL = 0;
+    private static final int REPEATING = 1;
+    private static final int DONE = 2;
+
+    private AppointmentImpl appointment;
+    private RepeatingImpl repeating;
+    private boolean excludeExceptions;
+    private long c1;
+    private long c2;
+    private long s;
+    private long e;
+    private int state = DONE;
+
+    private long currentPos;
+    private long blockLength;
+    private int maxNumber;
+    private long maxEnding;
+    private boolean endIsCut;
+
+    private long blockStart;
+    private long blockEnd;
+    private boolean blockException;
+
+    public AppointmentBlockCursor()
+    {
+    }
+
+    public AppointmentBlockCursor(Appointment appointment, long start, long end, boolean excludeExceptions)
+    {
+        reset(appointment, start, end, excludeExceptions);
+    }
+
+    /** starts a new iteration over the blocks of the appointment that overlap the start-end period*/
+    public AppointmentBlockCursor reset(Appointment appointment, long start, long end, boolean excludeExceptions)
+    {
+        this.appointment = (AppointmentImpl) appointment;
+        this.repeating = this.appointment.getRepeating();
+        this.excludeExceptions = excludeExceptions;
+        this.c1 = start;
+        this.c2 = end;
+        this.s = appointment.getStart().getTime();
+        this.e = appointment.getEnd().getTime();
+        this.state = INITIAL;
+        return this;
+    }
+
+    /** moves to the next block. Returns false if there are no more blocks in the period*/
+    public boolean next()
+    {
+        if (state == INITIAL)
+        {
+            if (repeating == null)
+            {
+                state = DONE;
+                return s < c2 && e > c1 && setBlock(s, e, false);
+            }
+            initRepeating();
+            state = REPEATING;
+            if (s < c2 && e > c1)
+            {
+                boolean isException = repeating.isException(s);
+                if (!isException || !excludeExceptions)
+                {
+                    return setBlock(s, e, isException);
+                }
+            }
+        }
+        if (state == REPEATING)
+        {
+            while (currentPos <= c2 && (maxNumber < 0 || (currentPos <= maxEnding)))
+            {
+                final long pos = currentPos;
+                currentPos += repeating.getIntervalLength(pos);
+                if ((pos + blockLength > c1) && (pos < c2) && ((!endIsCut || !repeating.isDaily() || pos < maxEnding)))
+                {
+                    boolean isException = repeating.isException(pos);
+                    if (!isException || !excludeExceptions)
+                    {
+                        return setBlock(pos, pos + blockLength, isException);
+                    }
+                }
+            }
+            state = DONE;
+        }
+        return false;
+    }
+
+    private void initRepeating()
+    {
+        long l = repeating.getIntervalLength(s);
+        Assert.isTrue(l > 0);
+        long timeFromStart = l;
+        if (repeating.isFixedIntervalLength())
+        {
+            timeFromStart = Math.max(l, ((c1 - e) / l) * l);
+        }
+        maxNumber = repeating.getNumber();
+        maxEnding = Long.MAX_VALUE;
+        if (maxNumber >= 0)
+        {
+            maxEnding = repeating.getEnd().getTime();
+        }
+        currentPos = s + timeFromStart;
+        blockLength = Math.max(0, e - s);
+        endIsCut = DateTools.cutDate(c2) == c2;
+    }
+
+    private boolean setBlock(long start, long end, boolean isException)
+    {
+        blockStart = start;
+        blockEnd = end;
+        blockException = isException;
+        return true;
+    }
+
+    public long getStart()
+    {
+        return blockStart;
+    }
+
+    public long getEnd()
+    {
+        return blockEnd;
+    }
+
+    /** returns true if the current block is an exception of the repeating. Only possible if exceptions are not excluded*/
+    public boolean isException()
+    {
+        return blockException;
+    }
+
+    public Appointment getAppointment()
+    {
+        return appointment;
+    }
+
+    /** creates an AppointmentBlock object for the current block*/
+    public AppointmentBlock createBlock()
+    {
+        return new AppointmentBlock(blockStart, blockEnd, appointment, blockException);
+    }
+}
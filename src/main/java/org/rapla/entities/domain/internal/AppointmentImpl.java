@@ -222,6 +222,12 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         return repeating;
     }
 
+    /** adds the dates as exceptions of the repeating in one step. Does nothing if the appointment doesn't repeat*/
+    public void addRepeatingExceptions(Collection<Date> dates) {
+        if (repeating != null)
+            getRepeating().addExceptions(dates);
+    }
+
     public void setRepeatingEnabled(boolean enableRepeating) {
         checkWritable();
         if (this.repeating == null) {
@@ -360,86 +366,24 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
     }
     
 
+    /** returns a cursor over the blocks that overlap the start-end period. Unlike createBlocks no AppointmentBlock objects are created.
+     * @see AppointmentBlockCursor*/
+    public AppointmentBlockCursor blockCursor(long start,long end, boolean excludeExceptions) {
+        return new AppointmentBlockCursor(this, start, end, excludeExceptions);
+    }
+
     /* returns true if there is at least one block in an array. If the passed blocks array is not null it will contain all blocks
      * that overlap the start,end period after a call.*/
     private boolean processBlocks(long start,long end,Collection<AppointmentBlock> blocks, boolean excludeExceptions) {
-        long c1 = start;
-        long c2 = end;
-        long s = this.start.getTime();
-        long e = this.end.getTime();
-        RepeatingImpl repeating = getRepeating();
-        // if there is no repeating
-        if (repeating==null) {
-            if (s <c2 && e>c1) {
-                // check only
-                if ( blocks == null )
-                {
-                	return true;
-                }
-                else
-                {
-                    AppointmentBlock block = new AppointmentBlock(s,e,this, false);
-                    blocks.add(block);
-                }
-            } 
-            return false;
-        }
-
-        DD=DE?BUG: print("s = appointmentstart, e = appointmentend, c1 = intervalstart c2 = intervalend");
-        DD=DE?BUG: print("s:" + n(s) + " e:" + n(e) + " c2:" + n(c2) + " c1:" + n(c1));
-        if (s <c2 && e>c1  && (!repeating.isException(s) || !excludeExceptions)) {
-            // check only
-            if ( blocks == null) 
-            {
-                return true;
-            } 
-            else 
-            {
-                AppointmentBlock block = new AppointmentBlock(s,e,this, repeating.isException(s));
-                blocks.add(block);
-            }
-        }
-        
-        long l = repeating.getIntervalLength( s  );
-        //System.out.println( "l in days " + l / DateTools.MILLISECONDS_PER_DAY );
-        Assert.isTrue(l>0);
-        long timeFromStart = l ;
-        if ( repeating.isFixedIntervalLength())
+        AppointmentBlockCursor cursor = blockCursor(start, end, excludeExceptions);
+        // check only
+        if ( blocks == null )
         {
-            timeFromStart = Math.max(l,((c1-e) / l)* l);
+            return cursor.next();
         }
-        int maxNumber = repeating.getNumber();
-        long maxEnding = Long.MAX_VALUE;
-        if ( maxNumber >= 0)
+        while (cursor.next())
         {
-            Date end2 = repeating.getEnd();
-            maxEnding = end2.getTime();
-        }
-        
-        DD=DE?BUG: print("l = repeatingInterval (in minutes), x = stepcount");
-        DD=DE?BUG: print("Maxend " + f( maxEnding));
-        long currentPos = s + timeFromStart;
-        DD=DE?BUG: print( " currentPos:" + n(currentPos) + " c2-s:" + n(c2-s) + " c1-e:" + n(c1-e));
-        long blockLength = Math.max(0, e - s);
-        while (currentPos <= c2 && (maxNumber<0 || (currentPos<=maxEnding ))) {
-            DD=DE?BUG: print(" current pos:" + f(currentPos));
-            if (( currentPos + blockLength > c1  )  && ( currentPos < c2 ) && (( end!=DateTools.cutDate(end) || !repeating.isDaily() || currentPos < maxEnding))) {
-                boolean isException =repeating.isException( currentPos ); 
-                if ((!isException || !excludeExceptions)) {
-                    // check only
-                    if ( blocks == null ) 
-                    {
-                        return true;
-                    } 
-                    else 
-                    {
-                        AppointmentBlock block = new AppointmentBlock(currentPos,currentPos + blockLength,this, isException);
-                        blocks.add( block);
-                    }
-                }
-            }
-            currentPos += repeating.getIntervalLength( currentPos) ;
-            
+            blocks.add( cursor.createBlock());
         }
         return false;
     }
@@ -625,7 +569,6 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
     private boolean overlapsHard( AppointmentImpl a2 )
     {
         Repeating r2 = a2.getRepeating();
-        Collection<AppointmentBlock> array = new ArrayList<>();
         Date maxEnd =r2.getEnd();
         // overlaps will be checked two  250 weeks (5 years) from now on
         long maxCheck = System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 250;
@@ -633,11 +576,11 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         {
         	maxEnd = new Date(maxCheck); 
         }
-        createBlocks( getStart(), maxEnd, array);
-        for ( AppointmentBlock block:array)
+        AppointmentBlockCursor cursor = blockCursor( getStart().getTime(), maxEnd.getTime(), true);
+        while ( cursor.next())
         {
-            long start = block.getStart();
-            long end = block.getEnd();
+            long start = cursor.getStart();
+            long end = cursor.getEnd();
             if (a2.overlaps( start, end, true))
             {
                 return true;
@@ -667,65 +610,15 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
         long l1 = r1.getFixedIntervalLength();
         long l2 = r2.getFixedIntervalLength();
         long gap = (l1 * l2) / gcd(l1,l2);
-        Date[] exceptions1 = r1.getExceptions();
-        Date[] exceptions2 = r2.getExceptions();
         DD=DE?BUG: print(" Testing Exceptions for overlapp " + f(s1) + " with " + f(s2) + " gap " + n(gap));
-        int i1 = 0;
-        int i2 = 0;
         long x = 0;
-        if (exceptions1.length>i1)
-            DD=DE?BUG: print("Exception a1: " + fe(exceptions1[i1].getTime()));
-        if (exceptions2.length>i2)
-            DD=DE?BUG: print("Exception a2: " + fe(exceptions2[i2].getTime()));
-        long exceptionTime1 = 0;
-        long exceptionTime2 = 0;
-  
         while (s1 + x * gap < end.getTime()) {
             DD=DE?BUG: print("Looking for exception for gap " + x + " s1: " + fe(s1+x*gap) + " s2: " + fe(s2+x*gap));
             long pos1 = s1 + x*gap;
             long pos2 = s2 + x*gap;
-           
-            // Find first exception from app1 that matches gap
-            while (i1<exceptions1.length)
-            {
-               	exceptionTime1=exceptions1[i1].getTime();
-            	if ( exceptionTime1  >= pos1)
-            	{
-            		DD=DE?BUG: print("Exception  a1: " + fe(exceptionTime1));
-            		break;
-            	}
-            	i1 ++;            	
-            }
-
-            // Find first exception from app2 that matches gap
-            while (i2<exceptions2.length)
-            {
-            	exceptionTime2 = exceptions2[i2].getTime();
-            	if ( exceptionTime2 >= pos1)
-            	{
-            		DD=DE?BUG: print("Exception a2: " + fe(exceptionTime2));
-            		break;
-            	}
-            	i2 ++;
-            }
-            
-            boolean matches1 = false;
-            if (pos1 >= exceptionTime1 && pos1<= exceptionTime1 +  DateTools.MILLISECONDS_PER_DAY) 
-            {
-            	DD=DE?BUG: print("Exception from a1 matches!");
-            	matches1=true;
-            }
-            
-            boolean matches2 = false;
-    	    if ((pos2 >= exceptionTime2  && pos2 <= exceptionTime2 + DateTools.MILLISECONDS_PER_DAY)) 
-            { 
-    	    	DD=DE?BUG: print("Exception from a2 matches!");
-                matches2=true;
-            }     	    
-  
-    	    if (!matches1 && !matches2)
+            if (!r1.isException(pos1) && !r2.isException(pos2))
             {
-    	    	DD=DE?BUG: print("No matching exception found at date " + fe(pos1) + " or " + fe(pos2) );
+                DD=DE?BUG: print("No matching exception found at date " + fe(pos1) + " or " + fe(pos2) );
                 return false;
             }
             DD=DE?BUG: print("Exception found for gap " + x);
@@ -848,6 +741,12 @@ public final class AppointmentImpl extends SimpleEntity implements Appointment
 		
 		boolean excludeExceptions = true;
 		SortedSet<Appointment> appointmentsToTest = AppointmentImpl.getAppointments(appointmentSet, null, start, end, excludeExceptions);
+		return filterConflictingAppointments(appointmentsToTest, appointment, ignoreList, onlyFirstConflictingAppointment);
+	}
+
+	/** returns all appointments from appointmentsToTest that are in conflict with the passed appointment. The appointmentsToTest should already be restricted to the ones overlapping the appointment period*/
+	public static Set<Appointment> filterConflictingAppointments(Collection<Appointment> appointmentsToTest, Appointment appointment, Collection<Reservation> ignoreList, boolean onlyFirstConflictingAppointment) {
+		Set<Appointment> conflictingAppointments = new HashSet<>();
 		for ( Appointment overlappingAppointment: appointmentsToTest)
 		{
 		    Reservation r1 = appointment.getReservation();
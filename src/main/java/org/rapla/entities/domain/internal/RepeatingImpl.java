@@ -18,15 +18,16 @@ import org.rapla.components.util.DateTools.DateWithoutTimezone;
 import org.rapla.components.util.TimeInterval;
 import org.rapla.entities.ReadOnlyException;
 import org.rapla.entities.domain.Appointment;
-import org.rapla.entities.domain.AppointmentBlock;
 import org.rapla.entities.domain.Repeating;
 import org.rapla.entities.domain.RepeatingType;
 
-import java.util.ArrayList;
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -41,10 +42,12 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     private int number = -1;
     private Date end;
     private RepeatingType repeatingType;
+    /** the exception days. This is the persisted and transferred form. After a change it is the ExceptionDays, so the dates are only created when the set is serialized.*/
     private Set<Date> exceptions;
     private Set<Integer> weekdays;
-    transient private Date[] exceptionArray;
-    transient private boolean arrayUpToDate = false;
+    /** the sorted exception days. Created from the exceptions on the first lookup after the deserialization. Shared repeatings are read by many threads*/
+    transient private volatile ExceptionDays exceptionDays;
+    transient private volatile Date[] exceptionArray;
     transient private Appointment appointment;
     private int frequency;
     boolean monthly;
@@ -285,21 +288,53 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     public boolean isException(long time) {
         if (!hasExceptions())
             return false;
+        return getExceptionDays().containsDay(toDay(time));
+    }
 
-        Date[] exceptions = getExceptions();
-        if (exceptions.length == 0) {
-            //          System.out.println("no exceptions");
-            return false;
-        }
-        for (int i=0;i<exceptions.length;i++) {
-            //System.out.println("Comparing exception " + exceptions[i] + " with " + new Date(time));
-            if (exceptions[i].getTime()<=time
-                && time<exceptions[i].getTime() + DateTools.MILLISECONDS_PER_DAY) {
-                //System.out.println("Exception matched " + exceptions[i]);
-                return true;
-            }
+    /** returns the start of the first exception day that starts at or after time or Long.MAX_VALUE if there is none*/
+    public long getNextException(long time) {
+        if (!hasExceptions())
+            return Long.MAX_VALUE;
+        ExceptionDays exceptionDays = getExceptionDays();
+        int index = exceptionDays.indexOf(toDay(time));
+        if (index < exceptionDays.size() && toTime(exceptionDays.get(index)) < time)
+            index++;
+        if (index >= exceptionDays.size())
+            return Long.MAX_VALUE;
+        return toTime(exceptionDays.get(index));
+    }
+
+    /** returns the number of exception days that overlap the start-end interval*/
+    public int getExceptionCount(long start,long end) {
+        if (!hasExceptions() || start >= end)
+            return 0;
+        ExceptionDays exceptionDays = getExceptionDays();
+        int from = exceptionDays.indexOf(toDay(start));
+        // end is exclusive
+        int to = exceptionDays.indexOf(toDay(end - 1) + 1);
+        return to - from;
+    }
+
+    /** returns the exceptions that overlap the start-end interval*/
+    public Date[] getExceptions(long start,long end) {
+        int count = getExceptionCount(start, end);
+        if (count == 0)
+            return DATE_ARRAY;
+        ExceptionDays exceptionDays = getExceptionDays();
+        int from = exceptionDays.indexOf(toDay(start));
+        Date[] result = new Date[count];
+        for (int i=0;i<count;i++) {
+            result[i] = new Date(toTime(exceptionDays.get(from + i)));
         }
-        return false;
+        return result;
+    }
+
+    private static int toDay(long time) {
+        return (int) (DateTools.cutDate(time) / DateTools.MILLISECONDS_PER_DAY);
+    }
+
+    private static long toTime(int day) {
+        return day * DateTools.MILLISECONDS_PER_DAY;
     }
 
     public int getNumber() {
@@ -340,47 +375,84 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         {
         	return;
         }
-        if (exceptions == null)
-            exceptions = new TreeSet<>();
-        exceptions.add(DateTools.cutDate(date));
-        arrayUpToDate = false;
+        ExceptionDays exceptionDays = getExceptionDays();
+        if (exceptionDays.addDay(toDay(date.getTime())))
+            changed(exceptionDays);
     }
 
     public void addExceptions(TimeInterval interval) {
         checkWritable();
-        if (exceptions == null)
-            exceptions = new TreeSet<>();
         final AppointmentImpl appointment = (AppointmentImpl)getAppointment();
-        Collection<AppointmentBlock> blocks = new ArrayList<>();
-        appointment.createBlocks(interval.getStart(),interval.getEnd(), blocks);
-        for (AppointmentBlock appointmentBlock:blocks)
+        AppointmentBlockCursor cursor = appointment.blockCursor(interval.getStart().getTime(), interval.getEnd().getTime(), true);
+        int[] days = new int[8];
+        int count = 0;
+        while (cursor.next())
         {
-            final long l = DateTools.cutDate(appointmentBlock.getStart());
-            exceptions.add(new Date(l));
+            if (count == days.length)
+            {
+                days = Arrays.copyOf(days, count * 2);
+            }
+            days[count++] = toDay(cursor.getStart());
+        }
+        addExceptionDays(days, count);
+    }
+
+    /** adds all dates as exceptions with a single merge, e.g. when the exceptions of an appointment are loaded*/
+    void addExceptions(Collection<Date> dates) {
+        checkWritable();
+        int[] days = new int[dates.size()];
+        int count = 0;
+        for (Date date : dates) {
+            if (date != null)
+                days[count++] = toDay(date.getTime());
         }
-        arrayUpToDate = false;
+        addExceptionDays(days, count);
+    }
+
+    /** merges the first count days into the exceptions*/
+    private void addExceptionDays(int[] days, int count) {
+        if (count == 0)
+            return;
+        ExceptionDays exceptionDays = getExceptionDays();
+        exceptionDays.addDays(days, count);
+        changed(exceptionDays);
     }
 
     public void removeException(Date date) {
         checkWritable();
-        if (exceptions == null)
+        if (!hasExceptions())
             return;
         if ( date == null)
         {
         	return;
         }
-        exceptions.remove(DateTools.cutDate(date));
-        if (exceptions.size()==0)
-            exceptions = null;
-        arrayUpToDate = false;
+        ExceptionDays exceptionDays = getExceptionDays();
+        if (exceptionDays.removeDay(toDay(date.getTime())))
+            changed(exceptionDays);
     }
 
     public void clearExceptions() {
         if (exceptions == null)
             return;
-        exceptions.clear();
         exceptions = null;
-        arrayUpToDate = false;
+        exceptionDays = null;
+        exceptionArray = null;
+    }
+
+    /** returns the exception days sorted ascending. Only writable repeatings change them in place, they don't share the days with clones*/
+    private ExceptionDays getExceptionDays() {
+        ExceptionDays days = exceptionDays;
+        if (days == null) {
+            // exceptions can be set directly by the json or java deserialization
+            days = new ExceptionDays(exceptions);
+            exceptionDays = days;
+        }
+        return days;
+    }
+
+    private void changed(ExceptionDays exceptionDays) {
+        exceptions = exceptionDays.size() > 0 ? exceptionDays : null;
+        exceptionArray = null;
     }
 
     public String toString() {
@@ -398,11 +470,11 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
                 buf.append(AppointmentImpl.fe(end.getTime()));
             }
         }
-        if ( exceptions != null && exceptions.size()>0)
+        if ( hasExceptions())
         {
         	buf.append(" exceptions=");
         	boolean first = true;
-            for (Date exception:exceptions)
+            for (Date exception:getExceptions())
         	{
             	if (!first)
             	{
@@ -447,15 +519,19 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
         }
 
         dest.interval = source.interval;
-        if (source.exceptions != null)
-        { 
-        	dest.exceptions = new TreeSet<>();
-        	dest.exceptions.addAll(source.exceptions);
+        // the exception days are changed in place, so each repeating gets its own copy
+        if (source.hasExceptions())
+        {
+            ExceptionDays exceptionDays = new ExceptionDays(source.getExceptionDays());
+            dest.exceptions = exceptionDays;
+            dest.exceptionDays = exceptionDays;
         }
         else
         {
-        	dest.exceptions = null;
+            dest.exceptions = null;
+            dest.exceptionDays = null;
         }
+        dest.exceptionArray = null;
         
 	}
     
@@ -469,18 +545,24 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     }
 
     private static Date[] DATE_ARRAY = new Date[0];
+    /** returns the exceptions sorted ascending. The array is created on the first call after a change*/
     public Date[] getExceptions() {
-        if (!arrayUpToDate) {
-            if (exceptions != null) {
-                exceptionArray = exceptions.toArray(DATE_ARRAY);
-                Arrays.sort(exceptionArray);
+        Date[] result = exceptionArray;
+        if (result == null) {
+            ExceptionDays days = getExceptionDays();
+            if (days.size() > 0) {
+                result = new Date[days.size()];
+                for (int i=0;i<result.length;i++) {
+                    result[i] = new Date(toTime(days.get(i)));
+                }
             }
             else
-                exceptionArray = DATE_ARRAY;
-            arrayUpToDate = true;
+                result = DATE_ARRAY;
+            exceptionArray = result;
         }
-        return exceptionArray;
+        return result;
     }
+
     public boolean hasExceptions() {
         return exceptions != null && exceptions.size()>0;
     }
@@ -585,5 +667,152 @@ final class RepeatingImpl implements Repeating,java.io.Serializable {
     }
 
     
-}
 
+    /** the days of the exceptions (milliseconds since 1970 / MILLISECONDS_PER_DAY) sorted ascending. Days are inserted and removed in place with a binary search.
+     * As set it is a view of the exception dates, the dates are only created when it is iterated, e.g. by the json serialization.*/
+    static final class ExceptionDays extends AbstractSet<Date> implements java.io.Serializable
+    {
+        private static final long serialVersionUID = 1;
+        private int[] days;
+        private int size;
+
+        ExceptionDays()
+        {
+            days = new int[4];
+        }
+
+        ExceptionDays(ExceptionDays source)
+        {
+            days = Arrays.copyOf(source.days, Math.max(source.size, 4));
+            size = source.size;
+        }
+
+        ExceptionDays(Collection<Date> dates)
+        {
+            this();
+            if (dates != null && !dates.isEmpty())
+            {
+                int[] newDays = new int[dates.size()];
+                int count = 0;
+                for (Date date : dates)
+                {
+                    newDays[count++] = toDay(date.getTime());
+                }
+                addDays(newDays, count);
+            }
+        }
+
+        int get(int index)
+        {
+            return days[index];
+        }
+
+        /** returns the index of the day or the index where it would be inserted*/
+        int indexOf(int day)
+        {
+            int index = Arrays.binarySearch(days, 0, size, day);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        boolean containsDay(int day)
+        {
+            return Arrays.binarySearch(days, 0, size, day) >= 0;
+        }
+
+        boolean addDay(int day)
+        {
+            int index = Arrays.binarySearch(days, 0, size, day);
+            if (index >= 0)
+                return false;
+            index = -index - 1;
+            if (size == days.length)
+                days = Arrays.copyOf(days, size * 2);
+            System.arraycopy(days, index, days, index + 1, size - index);
+            days[index] = day;
+            size++;
+            return true;
+        }
+
+        boolean removeDay(int day)
+        {
+            int index = Arrays.binarySearch(days, 0, size, day);
+            if (index < 0)
+                return false;
+            System.arraycopy(days, index + 1, days, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        /** merges the first count days with a single pass. The passed array is sorted in place*/
+        void addDays(int[] newDays, int count)
+        {
+            if (count == 1)
+            {
+                addDay(newDays[0]);
+                return;
+            }
+            Arrays.sort(newDays, 0, count);
+            int[] merged = new int[Math.max(size + count, 4)];
+            int mergedSize = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < count)
+            {
+                int day;
+                if (j == count || (i < size && days[i] <= newDays[j]))
+                    day = days[i++];
+                else
+                    day = newDays[j++];
+                if (mergedSize == 0 || merged[mergedSize - 1] != day)
+                    merged[mergedSize++] = day;
+            }
+            days = merged;
+            size = mergedSize;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if (!(o instanceof Date))
+                return false;
+            long time = ((Date) o).getTime();
+            int day = toDay(time);
+            return toTime(day) == time && containsDay(day);
+        }
+
+        @Override
+        public Iterator<Date> iterator()
+        {
+            return new Iterator<Date>()
+            {
+                int index = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return index < size;
+                }
+
+                @Override
+                public Date next()
+                {
+                    if (index >= size)
+                        throw new NoSuchElementException();
+                    return new Date(toTime(days[index++]));
+                }
+            };
+        }
+
+        /** the java serialization writes the dates as before */
+        private Object writeReplace()
+        {
+            return new TreeSet<>(this);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.rapla.facade.internal;
+
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.Category;
+import org.rapla.entities.Entity;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.ClassificationFilterRule;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.storage.EntityReferencer;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.ModificationEvent;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Size bounded LRU cache for the results of {@link CalendarModelImpl#queryAppointmentBindings(org.rapla.components.util.TimeInterval)}
+ * that is shared by all calendar models of a client. The entries are keyed by the queried allocatables, the interval, the reservation filters and the template.
+ * The cache is invalidated with the {@link ModificationEvent} of the storage: only the entries that overlap the invalidate interval and
+ * that depend on one of the changed allocatables or contain one of the changed reservations are removed.
+ */
+public class AppointmentBindingCache
+{
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private final LinkedHashMap<Key, CacheEntry> entries;
+    private long hits;
+    private long misses;
+    private long invalidations;
+    // incremented on each invalidation, so that query results that were requested before an invalidation are not stored
+    private long generation;
+
+    public AppointmentBindingCache()
+    {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public AppointmentBindingCache(final int maxEntries)
+    {
+        entries = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static final class Key
+    {
+        private final Set<String> allocatableIds;
+        private final Long start;
+        private final Long end;
+        private final String filterKey;
+        private final int hashCode;
+
+        private Key(Set<String> allocatableIds, Long start, Long end, String filterKey)
+        {
+            this.allocatableIds = allocatableIds;
+            this.start = start;
+            this.end = end;
+            this.filterKey = filterKey;
+            int hash = allocatableIds != null ? allocatableIds.hashCode() : 0;
+            hash = 31 * hash + (start != null ? start.hashCode() : 0);
+            hash = 31 * hash + (end != null ? end.hashCode() : 0);
+            hash = 31 * hash + filterKey.hashCode();
+            this.hashCode = hash;
+        }
+
+        TimeInterval getInterval()
+        {
+            return new TimeInterval(start != null ? new Date(start) : null, end != null ? new Date(end) : null);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && equals(start, other.start) && equals(end, other.end) && filterKey.equals(other.filterKey) && equals(
+                    allocatableIds, other.allocatableIds);
+        }
+
+        private static boolean equals(Object o1, Object o2)
+        {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Key " + (allocatableIds != null ? allocatableIds.size() + " allocatables" : "all allocatables") + " " + getInterval();
+        }
+    }
+
+    static final class CacheEntry
+    {
+        final Map<Allocatable, Collection<Appointment>> result;
+        final TimeInterval interval;
+        // ids of the allocatables whose appointments are included in the result. null if all allocatables are queried
+        final Set<String> dependentIds;
+
+        CacheEntry(Map<Allocatable, Collection<Appointment>> result, TimeInterval interval, Set<String> dependentIds)
+        {
+            this.result = result;
+            this.interval = interval;
+            this.dependentIds = dependentIds;
+        }
+
+        boolean dependsOn(Set<String> allocatableIds)
+        {
+            if (dependentIds == null)
+            {
+                return true;
+            }
+            for (String id : allocatableIds)
+            {
+                if (dependentIds.contains(id))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean containsReservation(Set<String> reservationIds)
+        {
+            for (Collection<Appointment> appointments : result.values())
+            {
+                for (Appointment appointment : appointments)
+                {
+                    final Reservation reservation = appointment.getReservation();
+                    if (reservation != null && reservationIds.contains(reservation.getId()))
+                    {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /** creates the key for a query. The allocatables can be null if all allocatables are queried */
+    public static Key createKey(Collection<Allocatable> allocatables, Date start, Date end, ClassificationFilter[] reservationFilters, String templateId)
+    {
+        Set<String> allocatableIds = null;
+        if (allocatables != null)
+        {
+            allocatableIds = new HashSet<>();
+            for (Allocatable allocatable : allocatables)
+            {
+                allocatableIds.add(allocatable.getId());
+            }
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append(templateId != null ? templateId : "");
+        if (reservationFilters != null)
+        {
+            for (ClassificationFilter filter : reservationFilters)
+            {
+                buf.append('|');
+                buf.append(filter.getType().getId());
+                final Iterator<? extends ClassificationFilterRule> it = filter.ruleIterator();
+                while (it.hasNext())
+                {
+                    ClassificationFilterRule rule = it.next();
+                    buf.append(';');
+                    buf.append(rule.getAttribute().getKey());
+                    final String[] operators = rule.getOperators();
+                    final Object[] values = rule.getValues();
+                    for (int i = 0; i < operators.length; i++)
+                    {
+                        buf.append(',');
+                        buf.append(operators[i]);
+                        buf.append(getValueKey(values[i]));
+                    }
+                }
+            }
+        }
+        else
+        {
+            buf.append("|nofilter");
+        }
+        return new Key(allocatableIds, start != null ? start.getTime() : null, end != null ? end.getTime() : null, buf.toString());
+    }
+
+    private static String getValueKey(Object value)
+    {
+        if (value instanceof Entity)
+        {
+            return ((Entity) value).getId();
+        }
+        if (value instanceof Date)
+        {
+            return String.valueOf(((Date) value).getTime());
+        }
+        return String.valueOf(value);
+    }
+
+    /** returns the generation that must be passed to {@link #put(Key, long, Map, Collection)} with the query result*/
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized Map<Allocatable, Collection<Appointment>> get(Key key)
+    {
+        final CacheEntry entry = entries.get(key);
+        if (entry == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /** stores the result of a query. The dependent allocatables are the queried allocatables including the ones that share appointments with them,
+     *  see {@link org.rapla.storage.StorageOperator#getDependent(Collection)}. The result is ignored if the cache was invalidated since the generation was requested.*/
+    public void put(Key key, long requestGeneration, Map<Allocatable, Collection<Appointment>> result, Collection<Allocatable> dependent)
+    {
+        Set<String> dependentIds = null;
+        if (key.allocatableIds != null)
+        {
+            dependentIds = new HashSet<>(key.allocatableIds);
+            for (Allocatable allocatable : dependent)
+            {
+                dependentIds.add(allocatable.getId());
+            }
+        }
+        final CacheEntry entry = new CacheEntry(result, key.getInterval(), dependentIds);
+        synchronized (this)
+        {
+            if (requestGeneration == generation)
+            {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+    }
+
+    /** removes all entries that could be affected by the changes in the event*/
+    public void invalidate(ModificationEvent evt)
+    {
+        if (evt.isModified(DynamicType.class) || evt.isModified(Category.class))
+        {
+            // the reservation filters could match differently
+            clear();
+            return;
+        }
+        final boolean allocatablesModified = evt.isModified(Allocatable.class);
+        final boolean reservationsModified = evt.isModified(Reservation.class);
+        if (!allocatablesModified && !reservationsModified)
+        {
+            return;
+        }
+        // allocatables whose appointments changed and the allocatables that are referenced by a changed allocatable
+        final Set<String> allocatableIds = new HashSet<>();
+        // reservations whose appointments could be in a cached result
+        final Set<String> reservationIds = new HashSet<>();
+        for (ReferenceInfo removed : evt.getRemovedReferences())
+        {
+            final Class<? extends Entity> type = removed.getType();
+            if (type == Allocatable.class)
+            {
+                allocatableIds.add(removed.getId());
+            }
+            else if (type == Reservation.class)
+            {
+                reservationIds.add(removed.getId());
+            }
+        }
+        addModified(evt.getChanged(), allocatableIds, reservationIds);
+        addModified(evt.getAddObjects(), allocatableIds, reservationIds);
+        final TimeInterval invalidateInterval = evt.getInvalidateInterval() != null ? evt.getInvalidateInterval() : new TimeInterval(null, null);
+        synchronized (this)
+        {
+            generation++;
+            for (Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext(); )
+            {
+                final CacheEntry entry = it.next();
+                final boolean allocatableChanged = allocatablesModified && entry.dependsOn(allocatableIds);
+                final boolean reservationChanged = reservationsModified && entry.interval.overlaps(invalidateInterval) && (entry.dependsOn(allocatableIds)
+                        || entry.containsReservation(reservationIds));
+                if (allocatableChanged || reservationChanged)
+                {
+                    it.remove();
+                    invalidations++;
+                }
+            }
+        }
+    }
+
+    private static void addModified(Collection<Entity> entities, Set<String> allocatableIds, Set<String> reservationIds)
+    {
+        for (Entity entity : entities)
+        {
+            if (entity instanceof Allocatable)
+            {
+                allocatableIds.add(entity.getId());
+                // a changed parent or package changes the appointments of the referenced allocatables
+                if (entity instanceof EntityReferencer)
+                {
+                    for (ReferenceInfo referenceInfo : ((EntityReferencer) entity).getReferenceInfo())
+                    {
+                        if (referenceInfo.getType() == Allocatable.class)
+                        {
+                            allocatableIds.add(referenceInfo.getId());
+                        }
+                    }
+                }
+            }
+            else if (entity instanceof Reservation)
+            {
+                final Reservation reservation = (Reservation) entity;
+                reservationIds.add(reservation.getId());
+                for (Allocatable allocatable : reservation.getAllocatables())
+                {
+                    allocatableIds.add(allocatable.getId());
+                }
+            }
+        }
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getInvalidations()
+    {
+        return invalidations;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** returns the ratio of hits to all lookups or 0 if nothing was looked up yet*/
+    public synchronized double getHitRate()
+    {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "AppointmentBindingCache entries=" + entries.size() + " hits=" + hits + " misses=" + misses + " invalidations=" + invalidations;
+    }
+}
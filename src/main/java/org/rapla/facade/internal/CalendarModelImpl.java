@@ -116,6 +116,7 @@ public class CalendarModelImpl implements CalendarSelectionModel
     @Inject public CalendarModelImpl(ClientFacade clientFacade, RaplaLocale locale) throws RaplaInitializationException
     {
         this(locale.getLocale(), getUser(clientFacade), ((ClientFacadeImpl)clientFacade).getOperator(), ((ClientFacadeImpl) clientFacade).getLogger());
+        this.bindingCache = ((ClientFacadeImpl) clientFacade).getAppointmentBindingCache();
         try
         {
             load(null);
@@ -909,6 +910,7 @@ public class CalendarModelImpl implements CalendarSelectionModel
         try
         {
             clone = new CalendarModelImpl(locale, user, operator, logger);
+            clone.bindingCache = bindingCache;
             CalendarModelConfiguration config = createConfiguration();
             Map<String, String> alternativOptions = null;
             clone.setConfiguration(config, alternativOptions);
@@ -993,6 +995,8 @@ public class CalendarModelImpl implements CalendarSelectionModel
     private String cacheValidString;
     private Map<Allocatable, Collection<Appointment>> cachedReservations;
     private boolean cachingEnabled = false;
+    // shared with the other models of the client, null if the changes of the storage are not propagated
+    private AppointmentBindingCache bindingCache;
 
     private Promise<Map<Allocatable, Collection<Appointment>>> queryAppointmentBindings(Collection<Allocatable> allocatables, Date start, Date end, boolean useFilter)
     {
@@ -1011,6 +1015,29 @@ public class CalendarModelImpl implements CalendarSelectionModel
 		} catch (RaplaException ex) {
 			return new ResolvedPromise<>( ex);
 		}
+        final AppointmentBindingCache sharedCache = bindingCache;
+        final AppointmentBindingCache.Key sharedKey;
+        final long generation;
+        if (sharedCache != null)
+        {
+            sharedKey = AppointmentBindingCache.createKey(allocatables, start, end, reservationFilters, templateId);
+            final Map<Allocatable, Collection<Appointment>> cached = sharedCache.get(sharedKey);
+            if (cached != null)
+            {
+                if (cachingEnabled)
+                {
+                    cachedReservations = cached;
+                    cacheValidString = cacheKey;
+                }
+                return new ResolvedPromise<>(cached);
+            }
+            generation = sharedCache.getGeneration();
+        }
+        else
+        {
+            sharedKey = null;
+            generation = 0;
+        }
 		// FIXME Evalute if its only the owner
 		User user = null;
         final Promise<Map<Allocatable, Collection<Appointment>>> reservationsAsync = operator
@@ -1022,6 +1049,11 @@ public class CalendarModelImpl implements CalendarSelectionModel
                 cachedReservations = map;
                 cacheValidString = cacheKey;
             }
+            if (sharedCache != null)
+            {
+                final Collection<Allocatable> dependent = allocatables != null ? operator.getDependent(allocatables) : Collections.emptyList();
+                sharedCache.put(sharedKey, generation, map, dependent);
+            }
             return map;
         });
     }
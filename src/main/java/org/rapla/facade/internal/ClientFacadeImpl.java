@@ -48,6 +48,7 @@ public class ClientFacadeImpl implements ClientFacade, StorageUpdateListener {
     private Vector<ModificationListener> directListenerList = new Vector<>();
     public CommandHistory commandHistory = new CommandHistory();
     Logger logger;
+    private final AppointmentBindingCache appointmentBindingCache = new AppointmentBindingCache();
 
     @Inject
     public ClientFacadeImpl(RaplaFacade raplaFacade, Logger logger,RaplaResources i18n)
@@ -79,9 +80,17 @@ public class ClientFacadeImpl implements ClientFacade, StorageUpdateListener {
         {
             ((RemoteOperator)operator).addStorageUpdateListener(this);
         }
+        appointmentBindingCache.clear();
         ((FacadeImpl)raplaFacade).setOperator(operator);
     }
 
+    /** returns the cache for the appointment bindings that is shared by the calendar models of this client.
+     * Returns null if the operator doesn't notify this facade of changes, because the cache could not be invalidated.*/
+    public AppointmentBindingCache getAppointmentBindingCache()
+    {
+        return getOperator() instanceof RemoteOperator ? appointmentBindingCache : null;
+    }
+
 
 
     // Implementation of StorageUpdateListener.
@@ -94,8 +103,10 @@ public class ClientFacadeImpl implements ClientFacade, StorageUpdateListener {
      * method, causing deadlocks
      */
     public void objectsUpdated(ModificationEvent evt) {
+        // invalidate before the listeners are notified, so that they don't read stale bindings
+        appointmentBindingCache.invalidate(evt);
         if (getLogger().isDebugEnabled())
-            getLogger().debug("Objects updated");
+            getLogger().debug("Objects updated. " + appointmentBindingCache);
 
         if (getWorkingUserId() != null)
         {
@@ -113,6 +124,7 @@ public class ClientFacadeImpl implements ClientFacade, StorageUpdateListener {
     }
 
     public void storageDisconnected(String message) {
+        appointmentBindingCache.clear();
         fireStorageDisconnected(message);
     }
 
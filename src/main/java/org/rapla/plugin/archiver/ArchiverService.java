@@ -17,6 +17,12 @@ public interface ArchiverService
 
 	String REMOVE_OLDER_THAN_ENTRY = "remove-older-than";
 	String EXPORT = "export";
+	/** number of events that are removed in one transaction */
+	String CHUNK_SIZE = "chunk-size";
+	/** milliseconds to wait between two chunks */
+	String CHUNK_PAUSE = "chunk-pause";
+	/** if set, the removed events are written to a json file in this directory before they are removed */
+	String ARCHIVE_DIRECTORY = "archive-directory";
 	
 	@POST
 	Promise<Void> delete(Integer olderThanInDays);
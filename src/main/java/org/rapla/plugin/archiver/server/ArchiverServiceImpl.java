@@ -2,10 +2,9 @@ package org.rapla.plugin.archiver.server;
 
 import org.rapla.components.util.DateTools;
 import org.rapla.entities.User;
-import org.rapla.entities.domain.Appointment;
-import org.rapla.entities.domain.Reservation;
-import org.rapla.facade.RaplaComponent;
+import org.rapla.entities.configuration.RaplaConfiguration;
 import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.Configuration;
 import org.rapla.framework.RaplaException;
 import org.rapla.inject.DefaultImplementation;
 import org.rapla.inject.InjectionContext;
@@ -23,10 +22,7 @@ import org.rapla.storage.dbsql.DBOperator;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.List;
 
 @DefaultImplementation(context=InjectionContext.server, of=ArchiverService.class)
 public class ArchiverServiceImpl  implements ArchiverService
@@ -127,56 +123,16 @@ public class ArchiverServiceImpl  implements ArchiverService
 
     static public void delete(Integer removeOlderInDays, RaplaFacade raplaFacade, Logger logger) throws RaplaException
     {
-        Date endDate = new Date(raplaFacade.today().getTime() - removeOlderInDays * DateTools.MILLISECONDS_PER_DAY);
-        Promise<Collection<Reservation>> eventsPromise = raplaFacade.getReservations(null, null, endDate, null); 
-        eventsPromise.thenAccept((events) ->
-        {
-            List<Reservation> toRemove = new ArrayList<>();
-            for (Reservation event : events)
-            {
-                if (!RaplaComponent.isTemplate(event) && isOlderThan(event, endDate))
-                {
-                    toRemove.add(event);
-                }
-            }
-            if (toRemove.size() > 0)
-            {
-                logger.info("Removing " + toRemove.size() + " old events.");
-                Reservation[] eventsToRemove = toRemove.toArray(Reservation.RESERVATION_ARRAY);
-                int STEP_SIZE = 100;
-                for (int i = 0; i < eventsToRemove.length; i += STEP_SIZE)
-                {
-                    int blockSize = Math.min(eventsToRemove.length - i, STEP_SIZE);
-                    Reservation[] eventBlock = new Reservation[blockSize];
-                    System.arraycopy(eventsToRemove, i, eventBlock, 0, blockSize);
-                    raplaFacade.removeObjects(eventBlock);
-                }
-            }
-        });
+        final RaplaConfiguration config = raplaFacade.getSystemPreferences().getEntry(ArchiverService.CONFIG, new RaplaConfiguration());
+        delete(removeOlderInDays, raplaFacade, logger, config);
     }
 
-    static private boolean isOlderThan( Reservation event, Date maxAllowedDate )
-	{
-        Appointment[] appointments = event.getAppointments();
-        for ( int i=0;i<appointments.length;i++)
-        {
-            Appointment appointment = appointments[i];
-            Date start = appointment.getStart();
-            Date end = appointment.getMaxEnd();
-            if ( start == null || end == null )
-            {
-                return false;
-            }
-            if ( end.after( maxAllowedDate))
-            {
-                return false;
-            }
-            if ( start.after( maxAllowedDate))
-            {
-                return false;
-            }
-        }
-        return true;
-	}
+    static void delete(Integer removeOlderInDays, RaplaFacade raplaFacade, Logger logger, Configuration config) throws RaplaException
+    {
+        Date endDate = new Date(raplaFacade.today().getTime() - removeOlderInDays * DateTools.MILLISECONDS_PER_DAY);
+        final ReservationArchiver archiver = new ReservationArchiver(raplaFacade, logger);
+        archiver.configure(config);
+        archiver.archive(endDate);
+    }
 
 }
\ No newline at end of file
@@ -51,7 +51,7 @@ public class ArchiverServiceTask  implements ServerExtension
         if ( days != -20 || export)
         {
             // Call it each hour
-            schedule = timer.schedule(() -> doArchive(export, days), 0, DateTools.MILLISECONDS_PER_HOUR);
+            schedule = timer.schedule(() -> doArchive(export, days, config), 0, DateTools.MILLISECONDS_PER_HOUR);
         }
     }
     
@@ -63,7 +63,7 @@ public class ArchiverServiceTask  implements ServerExtension
         }
     }
 
-    private void doArchive(boolean export, int days)
+    private void doArchive(boolean export, int days, RaplaConfiguration config)
     {
         try
         {
@@ -73,7 +73,7 @@ public class ArchiverServiceTask  implements ServerExtension
             }
             if ( days != -20 )
             {
-                ArchiverServiceImpl.delete(days,facade,logger);
+                ArchiverServiceImpl.delete(days, facade, logger, config);
             }
         }
         catch (Exception e) {
@@ -0,0 +1,188 @@
+package org.rapla.plugin.archiver.server;
+
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaComponent;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.Configuration;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.archiver.ArchiverService;
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.storage.CachableStorageOperator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/** Removes the events that ended before a date in chunks. The candidates are found with the appointment index of the storage,
+ * so the old events are not queried as a whole. Each chunk is removed in its own transaction, so the write lock is released between the chunks.
+ * If an archive directory is set, the events of each chunk are appended as json to an archive file before they are removed.
+ */
+class ReservationArchiver
+{
+    static final int DEFAULT_CHUNK_SIZE = 100;
+    static final int DEFAULT_PAUSE_MILLIS = 50;
+
+    private final RaplaFacade raplaFacade;
+    private final Logger logger;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private long pauseMillis = DEFAULT_PAUSE_MILLIS;
+    private File archiveDirectory;
+
+    ReservationArchiver(RaplaFacade raplaFacade, Logger logger)
+    {
+        this.raplaFacade = raplaFacade;
+        this.logger = logger;
+    }
+
+    void configure(Configuration config)
+    {
+        setChunkSize(config.getChild(ArchiverService.CHUNK_SIZE).getValueAsInteger(DEFAULT_CHUNK_SIZE));
+        setPauseMillis(config.getChild(ArchiverService.CHUNK_PAUSE).getValueAsInteger(DEFAULT_PAUSE_MILLIS));
+        final String directory = config.getChild(ArchiverService.ARCHIVE_DIRECTORY).getValue(null);
+        setArchiveDirectory(directory != null && !directory.trim().isEmpty() ? new File(directory.trim()) : null);
+    }
+
+    void setChunkSize(int chunkSize)
+    {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /** time to wait between two chunks, so that waiting writers can get the write lock */
+    void setPauseMillis(long pauseMillis)
+    {
+        this.pauseMillis = Math.max(0, pauseMillis);
+    }
+
+    void setArchiveDirectory(File archiveDirectory)
+    {
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    /** returns the number of removed events */
+    int archive(Date endDate) throws RaplaException
+    {
+        final CachableStorageOperator operator = (CachableStorageOperator) raplaFacade.getOperator();
+        final long start = System.currentTimeMillis();
+        final List<ReferenceInfo<Reservation>> candidates = new ArrayList<>(operator.getReservationsEndingBefore(endDate));
+        if (candidates.isEmpty())
+        {
+            return 0;
+        }
+        logger.info("Removing " + candidates.size() + " old events in chunks of " + chunkSize + ".");
+        int removed = 0;
+        try (Writer archive = openArchive())
+        {
+            for (int i = 0; i < candidates.size(); i += chunkSize)
+            {
+                if (i > 0 && pauseMillis > 0)
+                {
+                    pause();
+                }
+                final List<ReferenceInfo<Reservation>> chunkRefs = candidates.subList(i, Math.min(candidates.size(), i + chunkSize));
+                final Collection<Reservation> chunk = resolve(operator, chunkRefs, endDate);
+                if (chunk.isEmpty())
+                {
+                    continue;
+                }
+                if (archive != null)
+                {
+                    write(archive, chunk);
+                }
+                raplaFacade.removeObjects(chunk.toArray(Reservation.RESERVATION_ARRAY));
+                removed += chunk.size();
+                final long millis = Math.max(1, System.currentTimeMillis() - start);
+                logger.info("Removed " + removed + " of " + candidates.size() + " old events (" + (removed * 1000L / millis) + " events/s).");
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Could not write archive in " + archiveDirectory + ": " + ex.getMessage(), ex);
+        }
+        return removed;
+    }
+
+    /** resolves the events again, because they could have been changed, removed or made a template since the candidates were collected */
+    Collection<Reservation> resolve(CachableStorageOperator operator, List<ReferenceInfo<Reservation>> chunkRefs, Date endDate)
+    {
+        final Collection<Reservation> result = new ArrayList<>();
+        for (ReferenceInfo<Reservation> ref : chunkRefs)
+        {
+            final Reservation reservation = operator.tryResolve(ref);
+            if (reservation != null && !RaplaComponent.isTemplate(reservation) && isEndingBefore(reservation, endDate))
+            {
+                result.add(reservation);
+            }
+        }
+        if (result.size() < chunkRefs.size() && logger.isDebugEnabled())
+        {
+            logger.debug((chunkRefs.size() - result.size()) + " events were changed or removed in the meantime.");
+        }
+        return result;
+    }
+
+    private static boolean isEndingBefore(Reservation reservation, Date endDate)
+    {
+        for (Appointment appointment : reservation.getAppointments())
+        {
+            final Date maxEnd = appointment.getMaxEnd();
+            if (maxEnd == null || maxEnd.after(endDate))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Writer openArchive() throws IOException
+    {
+        if (archiveDirectory == null)
+        {
+            return null;
+        }
+        if (!archiveDirectory.isDirectory() && !archiveDirectory.mkdirs())
+        {
+            throw new IOException("Can't create directory " + archiveDirectory);
+        }
+        final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        final File file = new File(archiveDirectory, "rapla-archive-" + timestamp + ".json");
+        logger.info("Archiving removed events to " + file);
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /** writes one event per line and flushes, so that the chunk is on disk before it is removed */
+    private void write(Writer archive, Collection<Reservation> chunk) throws IOException
+    {
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        for (Reservation reservation : chunk)
+        {
+            archive.write(gson.toJson(reservation));
+            archive.write('\n');
+        }
+        archive.flush();
+    }
+
+    private void pause() throws RaplaException
+    {
+        try
+        {
+            Thread.sleep(pauseMillis);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new RaplaException("Archiving interrupted", ex);
+        }
+    }
+}
@@ -26,13 +26,11 @@ public class Export2iCalPlugin  {
 	public static final String EXPORT_ATTENDEES = "export_attendees";
 	public static final TypedComponentRole<Boolean> EXPORT_ATTENDEES_PREFERENCE = new TypedComponentRole<>("export_attendees");
 	public static final String EXPORT_ATTENDEES_EMAIL_ATTRIBUTE = "export_attendees_email_attribute";
-	public static final String LAST_MODIFIED_INTERVALL = "last_modified_intervall";
 	
 	public static final int DEFAULT_daysBefore = 100;
 	public static final int DEFAULT_daysAfter = 400;
 	public static final boolean DEFAULT_basedOnAutoExport = true;
 	public static final boolean DEFAULT_globalIntervall = true;
-	public static final int DEFAULT_lastModifiedIntervall = 5;
     public static final String DEFAULT_attendee_resource_attribute = "email";
     public static final String DEFAULT_attendee_participation_status= "TENTATIVE";
     public static final String GENERATOR = "ical";
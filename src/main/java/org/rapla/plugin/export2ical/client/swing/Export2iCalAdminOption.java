@@ -46,9 +46,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 	private JRadioButton optUserInterval;
 	protected JComponent container;
 	protected JCheckBox activate = new JCheckBox("Aktivieren");
-	private JLabel lblLastModifiedInterval;
-	private JSpinner spiLastModifiedInterval;
-	private JCheckBox chkUseLastModifiedIntervall;
 	private JCheckBox chkExportAttendees;
 	private JTextArea txtEMailRessourceAttribute;
     private JComboBox cbDefaultParticipationsStatusRessourceAttribute;
@@ -64,8 +61,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 	}
 
 	protected JPanel createPanel() throws RaplaException {
-		spiLastModifiedInterval = new JSpinner(new SpinnerNumberModel(5, 0, null, 1));
-		chkUseLastModifiedIntervall = new JCheckBox("do not deliver new calendar");
 		chkExportAttendees = new JCheckBox("export attendees of vevent");
         txtEMailRessourceAttribute = new JTextArea(Export2iCalPlugin.DEFAULT_attendee_resource_attribute);
         RaplaGUIComponent.addCopyPaste(txtEMailRessourceAttribute, getI18n(), getRaplaLocale(), ioInterface, getLogger());
@@ -83,7 +78,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 		spiDaysAfter = new JSpinner(new SpinnerNumberModel(Export2iCalPlugin.DEFAULT_daysAfter, 0, null, 1));
 		optGlobalInterval = new JRadioButton("global interval setting");
 		optUserInterval = new JRadioButton("user interval settings");
-		lblLastModifiedInterval = new JLabel("interval for delivery in days");
 	
 		//String[] availableIDs = net.fortuna.ical4j.model.TimeZone.getAvailableIDs();
 		
@@ -117,20 +111,15 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 		content.add(spiDaysBefore, "3,6");
 		content.add(new JLabel("subsequent days:"), "1,8");
 		content.add(spiDaysAfter, "3,8");
-		content.add(chkUseLastModifiedIntervall, "1,12");
-		content.add(lblLastModifiedInterval, "1,14");
-		content.add(spiLastModifiedInterval, "3,14");
-
-        content.add(chkExportAttendees, "1,16");
-        content.add(new JLabel("attribute key in person-type:"), "1,18");
-        content.add(txtEMailRessourceAttribute, "3,18");
-        content.add(new JLabel("participation status:"), "1,20");
-        content.add(cbDefaultParticipationsStatusRessourceAttribute, "3,20");
+        content.add(chkExportAttendees, "1,12");
+        content.add(new JLabel("attribute key in person-type:"), "1,14");
+        content.add(txtEMailRessourceAttribute, "3,14");
+        content.add(new JLabel("participation status:"), "1,16");
+        content.add(cbDefaultParticipationsStatusRessourceAttribute, "3,16");
 
         panel.add(content, BorderLayout.CENTER);
 		optUserInterval.addActionListener(this);
 		optGlobalInterval.addActionListener(this);
-		chkUseLastModifiedIntervall.addActionListener(this);
         chkExportAttendees.addActionListener(this);
 	
 		return panel;
@@ -154,9 +143,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 		newConfig.getMutableChild(Export2iCalPlugin.DAYS_AFTER, true).setValue(Integer.parseInt(spiDaysAfter.getValue().toString()));
 		newConfig.getMutableChild(Export2iCalPlugin.GLOBAL_INTERVAL, true).setValue(optGlobalInterval.isSelected());
 
-		String lastModIntervall = chkUseLastModifiedIntervall.isSelected() ? new String("-1") : spiLastModifiedInterval.getValue().toString();
-		newConfig.getMutableChild(Export2iCalPlugin.LAST_MODIFIED_INTERVALL, true).setValue(lastModIntervall);
-
 		newConfig.getMutableChild(Export2iCalPlugin.ENABLED_STRING, true).setValue(activate.isSelected());
         newConfig.getMutableChild(Export2iCalPlugin.EXPORT_ATTENDEES, true).setValue(chkExportAttendees.isSelected());
         newConfig.getMutableChild(Export2iCalPlugin.EXPORT_ATTENDEES_EMAIL_ATTRIBUTE, true).setValue(txtEMailRessourceAttribute.getText());
@@ -208,7 +194,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 	    
 		int daysBefore = config.getChild(Export2iCalPlugin.DAYS_BEFORE).getValueAsInteger(Export2iCalPlugin.DEFAULT_daysBefore);
 		int daysAfter = config.getChild(Export2iCalPlugin.DAYS_AFTER).getValueAsInteger(Export2iCalPlugin.DEFAULT_daysAfter);
-		int lastModifiedIntervall = config.getChild(Export2iCalPlugin.LAST_MODIFIED_INTERVALL).getValueAsInteger(Export2iCalPlugin.DEFAULT_lastModifiedIntervall);
 
 		boolean global_interval = config.getChild(Export2iCalPlugin.GLOBAL_INTERVAL).getValueAsBoolean(Export2iCalPlugin.DEFAULT_globalIntervall);
 
@@ -216,16 +201,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 		String exportAttendeeDefaultEmailAttribute = config.getChild(Export2iCalPlugin.EXPORT_ATTENDEES_EMAIL_ATTRIBUTE).getValue(Export2iCalPlugin.DEFAULT_attendee_resource_attribute);
 		String exportAttendeeParticipationStatus = config.getChild(Export2iCalPlugin.EXPORT_ATTENDEES_PARTICIPATION_STATUS).getValue(Export2iCalPlugin.DEFAULT_attendee_participation_status);
 		
-		if (lastModifiedIntervall == -1) {
-			spiLastModifiedInterval.setEnabled(false);
-			lblLastModifiedInterval.setEnabled(false);
-			chkUseLastModifiedIntervall.setSelected(true);
-		} else {
-			spiLastModifiedInterval.setValue(new Integer(lastModifiedIntervall));
-			lblLastModifiedInterval.setEnabled(true);
-			chkUseLastModifiedIntervall.setSelected(false);
-		}
-
 		optGlobalInterval.setSelected(global_interval);
 		optUserInterval.setSelected(!global_interval);
 
@@ -259,11 +234,6 @@ public class Export2iCalAdminOption extends RaplaGUIComponent implements PluginO
 
 	public void actionPerformed(ActionEvent e) {
 		//this.setTextFieldInput();
-		if (e.getSource() == chkUseLastModifiedIntervall) {
-			spiLastModifiedInterval.setEnabled(!chkUseLastModifiedIntervall.isSelected());
-			lblLastModifiedInterval.setEnabled(!chkUseLastModifiedIntervall.isSelected());
-		}
-
         if (e.getSource() == chkExportAttendees) {
             txtEMailRessourceAttribute.setEnabled(chkExportAttendees.isSelected());
             cbDefaultParticipationsStatusRessourceAttribute.setEnabled(chkExportAttendees.isSelected());
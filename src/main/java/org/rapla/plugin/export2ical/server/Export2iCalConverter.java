@@ -1,5 +1,6 @@
 package org.rapla.plugin.export2ical.server;
 
+import net.fortuna.ical4j.data.FoldingWriter;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.ComponentList;
 import net.fortuna.ical4j.model.DateTime;
@@ -31,6 +32,7 @@ import net.fortuna.ical4j.model.property.Summary;
 import net.fortuna.ical4j.model.property.Uid;
 import net.fortuna.ical4j.model.property.Version;
 import net.fortuna.ical4j.util.CompatibilityHints;
+import net.fortuna.ical4j.util.Strings;
 import org.rapla.RaplaResources;
 import org.rapla.components.util.DateTools;
 import org.rapla.entities.Entity;
@@ -58,7 +60,9 @@ import org.rapla.plugin.export2ical.Export2iCalPlugin;
 import org.rapla.server.TimeZoneConverter;
 
 import javax.inject.Inject;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
@@ -153,17 +157,8 @@ public class Export2iCalConverter
 
     public Calendar createiCalender(Collection<Appointment> appointments, Preferences preferences, User user)
     {
-
-        boolean doExportAsMeeting = preferences == null ?
-                global_export_attendees :
-                preferences.getEntryAsBoolean(Export2iCalPlugin.EXPORT_ATTENDEES_PREFERENCE, global_export_attendees);
-
-        String exportAttendeesParticipationStatus = preferences == null ?
-                global_export_attendees_participation_status :
-                preferences.getEntryAsString(Export2iCalPlugin.EXPORT_ATTENDEES_PARTICIPATION_STATUS_PREFERENCE, global_export_attendees_participation_status);
-
-        //ensure the stored value is not empty string, if so, do not export attendees
-        doExportAsMeeting = doExportAsMeeting && (exportAttendeesAttribute != null && exportAttendeesAttribute.trim().length() > 0);
+        final boolean doExportAsMeeting = isExportAsMeeting(preferences);
+        final String exportAttendeesParticipationStatus = getParticipationStatus(preferences);
 
         Calendar calendar = initiCalendar();
         addICalMethod(calendar, Method.PUBLISH);
@@ -177,6 +172,71 @@ public class Export2iCalConverter
         return calendar;
     }
 
+    /**
+     * Writes the same calendar as {@link #createiCalender(Collection, Preferences, User)} but each event is written to the writer as soon as it is created,
+     * so only one event is held in memory. The calendar is not validated.
+     */
+    public void writeiCalendar(Writer writer, Collection<Appointment> appointments, Preferences preferences, User user) throws IOException
+    {
+        writeiCalendar(writer, appointments, preferences, user, null, 0);
+    }
+
+    /**
+     * Writes the calendar and takes the rendered events from the cache if present. Rendered events are stored in the cache with the generation
+     * returned by {@link ICalFeedCache#synchronize()} before the appointments were queried.
+     */
+    public void writeiCalendar(Writer writer, Collection<Appointment> appointments, Preferences preferences, User user, ICalFeedCache cache, long cacheGeneration)
+            throws IOException
+    {
+        final boolean doExportAsMeeting = isExportAsMeeting(preferences);
+        final String exportAttendeesParticipationStatus = getParticipationStatus(preferences);
+
+        final Calendar calendar = initiCalendar();
+        addICalMethod(calendar, Method.PUBLISH);
+        final FoldingWriter foldingWriter = new FoldingWriter(writer, FoldingWriter.REDUCED_FOLD_LENGTH);
+        foldingWriter.write(Calendar.BEGIN + ':' + Calendar.VCALENDAR + Strings.LINE_SEPARATOR);
+        foldingWriter.write(calendar.getProperties().toString());
+        if (timeZone != null)
+        {
+            foldingWriter.write(timeZone.getVTimeZone().toString());
+        }
+        for (Appointment app : appointments)
+        {
+            if (cache == null)
+            {
+                VEvent event = createVEvent(app, doExportAsMeeting, exportAttendeesParticipationStatus, user);
+                foldingWriter.write(event.toString());
+                continue;
+            }
+            final ICalFeedCache.EventKey key = new ICalFeedCache.EventKey(app, user, doExportAsMeeting, exportAttendeesParticipationStatus);
+            String event = cache.getEvent(key);
+            if (event == null)
+            {
+                event = createVEvent(app, doExportAsMeeting, exportAttendeesParticipationStatus, user).toString();
+                cache.putEvent(key, event, cacheGeneration);
+            }
+            foldingWriter.write(event);
+        }
+        foldingWriter.write(Calendar.END + ':' + Calendar.VCALENDAR + Strings.LINE_SEPARATOR);
+        foldingWriter.flush();
+    }
+
+    private boolean isExportAsMeeting(Preferences preferences)
+    {
+        boolean doExportAsMeeting = preferences == null ?
+                global_export_attendees :
+                preferences.getEntryAsBoolean(Export2iCalPlugin.EXPORT_ATTENDEES_PREFERENCE, global_export_attendees);
+        //ensure the stored value is not empty string, if so, do not export attendees
+        return doExportAsMeeting && (exportAttendeesAttribute != null && exportAttendeesAttribute.trim().length() > 0);
+    }
+
+    private String getParticipationStatus(Preferences preferences)
+    {
+        return preferences == null ?
+                global_export_attendees_participation_status :
+                preferences.getEntryAsString(Export2iCalPlugin.EXPORT_ATTENDEES_PARTICIPATION_STATUS_PREFERENCE, global_export_attendees_participation_status);
+    }
+
     private void addVTimeZone(Calendar calendar)
     {
 
@@ -1,8 +1,5 @@
 package org.rapla.plugin.export2ical.server;
 
-import net.fortuna.ical4j.data.CalendarOutputter;
-import net.fortuna.ical4j.model.Calendar;
-import net.fortuna.ical4j.validate.ValidationException;
 import org.rapla.RaplaResources;
 import org.rapla.components.util.DateTools;
 import org.rapla.components.util.TimeInterval;
@@ -11,7 +8,6 @@ import org.rapla.entities.User;
 import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.RaplaConfiguration;
 import org.rapla.entities.domain.Appointment;
-import org.rapla.entities.domain.Reservation;
 import org.rapla.facade.CalendarModel;
 import org.rapla.facade.CalendarNotFoundExeption;
 import org.rapla.facade.CalendarSelectionModel;
@@ -23,6 +19,7 @@ import org.rapla.logger.Logger;
 import org.rapla.plugin.export2ical.Export2iCalPlugin;
 import org.rapla.scheduler.Promise;
 import org.rapla.server.PromiseWait;
+import org.rapla.storage.CachableStorageOperator;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -35,13 +32,13 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Locale;
-import java.util.SimpleTimeZone;
 
 @Path(Export2iCalPlugin.GENERATOR)
 @Singleton
@@ -55,16 +52,12 @@ public class Export2iCalServlet
 	
 	private boolean global_interval;
 	//private HttpServletResponse response;
-	
-	private SimpleDateFormat rfc1123DateFormat;
 
 //  private SimpleTimeZone gmt = new SimpleTimeZone(0, "GMT");
 
 	//private java.util.Calendar calendar;
     //private Preferences preferences;
-	private Date firstPluginStartDate = new Date(0);
 	//private TimeZone pluginTimeZone;
-	private int lastModifiedIntervall;
 	@Inject
 	Export2iCalConverter converter;
 	RaplaFacade facade;
@@ -75,6 +68,10 @@ public class Export2iCalServlet
 	RaplaResources i18n;
 	@Inject
 	PromiseWait promiseWait;
+	@Inject
+	CachableStorageOperator operator;
+	@Inject
+	ICalFeedCache feedCache;
 
 	@Inject
     public Export2iCalServlet()
@@ -98,11 +95,6 @@ public class Export2iCalServlet
 
         global_daysBefore = config.getChild(Export2iCalPlugin.DAYS_BEFORE).getValueAsInteger(Export2iCalPlugin.DEFAULT_daysBefore);
         global_daysAfter = config.getChild(Export2iCalPlugin.DAYS_AFTER).getValueAsInteger(Export2iCalPlugin.DEFAULT_daysAfter);
-
-        rfc1123DateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US);
-        rfc1123DateFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
-
-        lastModifiedIntervall = config.getChild(Export2iCalPlugin.LAST_MODIFIED_INTERVALL).getValueAsInteger(10);
     }
 
     @Inject
@@ -154,7 +146,6 @@ public class Export2iCalServlet
                 return;
             }
 
-			response.setHeader("Last-Modified", rfc1123DateFormat.format(getLastModified(calModel)));
 			final Object isSet = calModel.getOption(Export2iCalPlugin.ICAL_EXPORT);
             
 			if((isSet == null || isSet.equals("false")))
@@ -165,13 +156,38 @@ public class Export2iCalServlet
                 response.setStatus( 404);
 				return;
 			}
-			
+
+			final TimeInterval interval = isAllAppointmentsSet ? new TimeInterval(null, null) : new TimeInterval(calModel.getStartDate(), calModel.getEndDate());
+			final long cacheGeneration = feedCache.synchronize();
+			final ICalFeedCache.FeedKey feedKey = new ICalFeedCache.FeedKey(user, filename, interval);
+			final ICalFeedCache.Feed feed = feedCache.getFeed(feedKey);
+			// a cached feed keeps its modification date until a change invalidates it
+			final Date lastModified = feed != null ? feed.lastModified : getLastModified(operator.getLastChanged());
+			final String etag = createETag(lastModified, interval);
+			response.setDateHeader("Last-Modified", lastModified.getTime());
+			response.setHeader("ETag", etag);
+			if (isNotModified(request, etag, lastModified))
+			{
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+
 			if (request.getMethod().equals("HEAD")) {
 				return;
 			}
 
-			Promise<Collection<Appointment>> appointments = calModel.queryAppointments(new TimeInterval(null, null));
-			write(response, promiseWait.waitForWithRaplaException(appointments, 10000), filename,user, null);
+			if (feed != null)
+			{
+				writeCached(response, feed, filename);
+				return;
+			}
+
+			Promise<Collection<Appointment>> appointments = calModel.queryAppointments(interval);
+			write(response, promiseWait.waitForWithRaplaException(appointments, 10000), filename,user, null, calModel, feedKey, lastModified, cacheGeneration);
+			if (getLogger().isDebugEnabled())
+			{
+				getLogger().debug(feedCache.toString());
+			}
 		} catch (Exception e) {
 			response.getWriter().println(("An error occured giving you the Calendarview for user " + username + " named " + filename));
 			response.getWriter().println();
@@ -200,9 +216,8 @@ public class Export2iCalServlet
 			int daysBefore = global_interval ? global_daysBefore : preferences.getEntryAsInteger(Export2iCalPlugin.PREF_BEFORE_DAYS, 11);
 			int daysAfter = global_interval ? global_daysAfter : preferences.getEntryAsInteger(Export2iCalPlugin.PREF_AFTER_DAYS, global_daysAfter);
 
-			final Date now = new Date();
-
-			//calModel.getReservations(startDate, endDate)
+			// the window only changes once a day, so the feed can be cached until the next change or the next day
+			final Date now = DateTools.cutDate(new Date());
 
 
 			// set start Date
@@ -231,79 +246,160 @@ public class Export2iCalServlet
 		}
 	}
 
-	private void write(final HttpServletResponse response, final Collection<Appointment> appointments, String filename, User user,final Preferences preferences) throws RaplaException, IOException {
-
-	    if (filename == null )
-	    {
-	        filename = i18n.getString("default");
-	    }
-		response.setContentType("text/calendar; charset=" + raplaLocale.getCharsetNonUtf());
-		response.setHeader("Content-Disposition", "attachment; filename=" + filename + ".ics");
+	private void write(final HttpServletResponse response, final Collection<Appointment> appointments, String filename, User user,final Preferences preferences, CalendarModel calModel, ICalFeedCache.FeedKey feedKey, Date lastModified, long cacheGeneration) throws RaplaException, IOException {
 
+		setContentHeaders(response, filename);
 		if (appointments == null) {
 			throw new RaplaException("Error with returning '" + filename);
 		}
-		final Calendar iCal = converter.createiCalender(appointments,preferences, user);
-		final CalendarOutputter calOutputter = new CalendarOutputter();
 		final PrintWriter responseWriter = response.getWriter();
+		final CapturingWriter capturingWriter = new CapturingWriter(responseWriter, ICalFeedCache.MAX_FEED_LENGTH);
 		try {
-			calOutputter.output(iCal, responseWriter);
-		} catch (ValidationException e) {
-			getLogger().error("The calendar file is invalid!\n" + e);
+			converter.writeiCalendar(capturingWriter, appointments, preferences, user, feedCache, cacheGeneration);
 		} finally
 		{
 		    responseWriter.close();
 		}
+		final String body = capturingWriter.getCaptured();
+		if (body != null)
+		{
+			feedCache.putFeed(feedKey, body, lastModified, appointments, calModel, cacheGeneration);
+		}
 	}
-	
-	/**
-	 * Calculates Global-Lastmod By modulo operations, this returns a fresh
-	 * last-mod every n days n can be set for all users in the last-modified
-	 * intervall settings
-	 * 
-	 * @return
-	 */
-	private Date getGlobalLastModified() 
+
+	private void writeCached(final HttpServletResponse response, ICalFeedCache.Feed feed, String filename) throws IOException
 	{
-		if (lastModifiedIntervall == -1) 
+		setContentHeaders(response, filename);
+		final PrintWriter responseWriter = response.getWriter();
+		try {
+			responseWriter.write(feed.body);
+		} finally
 		{
-			return firstPluginStartDate;
+			responseWriter.close();
 		}
-		long nowInMillis = DateTools.cutDate(new Date()).getTime();
-		long daysSinceStart = (nowInMillis - firstPluginStartDate.getTime()) / DateTools.MILLISECONDS_PER_DAY;
-		return new Date(nowInMillis - (daysSinceStart % lastModifiedIntervall) * DateTools.MILLISECONDS_PER_DAY);
 	}
 
-	/**
-	 * Get last modified if a list of allocatables
-	 * 
-	 */
-	private Date getLastModified(CalendarModel calModel) throws RaplaException {
+	private void setContentHeaders(HttpServletResponse response, String filename)
+	{
+		if (filename == null )
+		{
+			filename = i18n.getString("default");
+		}
+		response.setContentType("text/calendar; charset=" + raplaLocale.getCharsetNonUtf());
+		response.setHeader("Content-Disposition", "attachment; filename=" + filename + ".ics");
+	}
 
-		Date endDate = null;
-        Date startDate = facade.today();
-        final Promise<Collection<Reservation>> reservationsPromise = calModel.queryReservations(new TimeInterval(startDate, endDate));
-		final Collection<Reservation> reservations = promiseWait.waitForWithRaplaException(reservationsPromise, 10000);
-		// set to minvalue
-		Date maxDate = new Date();
-		maxDate.setTime(0);
+	/** passes everything to the response and keeps a copy for the feed cache, as long as the copy doesn't exceed the limit */
+	static private class CapturingWriter extends FilterWriter
+	{
+		private final int limit;
+		private StringBuilder captured = new StringBuilder();
 
-		for (Reservation r:reservations) 
+		CapturingWriter(Writer out, int limit)
 		{
-			Date lastMod = r.getLastChanged();
+			super(out);
+			this.limit = limit;
+		}
 
-			if (lastMod != null && maxDate.before(lastMod)) {
-				maxDate = lastMod;
+		private void capture(CharSequence chars)
+		{
+			if (captured == null)
+			{
+				return;
 			}
+			if (captured.length() + chars.length() > limit)
+			{
+				captured = null;
+				return;
+			}
+			captured.append(chars);
+		}
+
+		@Override
+		public void write(int c) throws IOException
+		{
+			super.write(c);
+			capture(String.valueOf((char) c));
 		}
 
-		if (lastModifiedIntervall != -1 && DateTools.countDays(maxDate, new Date()) < lastModifiedIntervall) {
-			return maxDate;
-		} else {
-			return getGlobalLastModified();
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException
+		{
+			super.write(cbuf, off, len);
+			capture(CharBuffer.wrap(cbuf, off, len));
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException
+		{
+			super.write(str, off, len);
+			capture(str.subSequence(off, off + len));
 		}
 
+		/** returns the written text or null if it exceeded the limit */
+		String getCaptured()
+		{
+			return captured != null ? captured.toString() : null;
+		}
 	}
 
+	/**
+	 * The etag changes if data is changed or if the exported window changes. It is cheap to compute,
+	 * so unchanged feeds can be answered without querying the appointments.
+	 */
+	static String createETag(Date lastModified, TimeInterval interval)
+	{
+		final Date start = interval.getStart();
+		final Date end = interval.getEnd();
+		return "\"" + Long.toHexString(lastModified.getTime()) + "-" + (start != null ? Long.toHexString(start.getTime()) : "") + "-" + (end != null ? Long
+				.toHexString(end.getTime()) : "") + "\"";
+	}
+
+	static boolean isNotModified(HttpServletRequest request, String etag, Date lastModified)
+	{
+		final String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null)
+		{
+			// If-Modified-Since is ignored if If-None-Match is present
+			for (String tag : ifNoneMatch.split(","))
+			{
+				tag = tag.trim();
+				if (tag.startsWith("W/"))
+				{
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(etag))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		final long ifModifiedSince;
+		try
+		{
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return false;
+		}
+		// http dates have a resolution of seconds
+		return ifModifiedSince != -1 && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Returns the time of the last change in the storage, or the start of the current day if the window of the
+	 * export was moved since. Refreshes without changes don't change the result.
+	 */
+	static Date getLastModified(Date lastChanged)
+	{
+		final long today = DateTools.cutDate(System.currentTimeMillis());
+		if (lastChanged == null || lastChanged.getTime() < today)
+		{
+			return new Date(today);
+		}
+		return lastChanged;
+	}
 
 }
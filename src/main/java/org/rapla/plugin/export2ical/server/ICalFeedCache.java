@@ -0,0 +1,410 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.plugin.export2ical.server;
+
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.CalendarModel;
+import org.rapla.facade.Conflict;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateOperation;
+import org.rapla.storage.UpdateResult;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Caches the rendered VEVENT text of the appointments and the assembled bodies of the published feeds.
+ * The cache is brought up to date with the {@link UpdateResult} of the storage on each call of {@link #synchronize()}:
+ * <ul>
+ * <li>events of changed or removed reservations are removed. Events are also keyed by the last change of the reservation</li>
+ * <li>feeds are removed if they contain a changed reservation, if a changed reservation overlaps their interval and matches their selection and filter
+ * or if the preferences of the feed user change</li>
+ * <li>changes of other entities, e.g. allocatable names, users, permissions or types, clear the cache</li>
+ * </ul>
+ */
+@Singleton
+public class ICalFeedCache
+{
+    static final int MAX_EVENTS = 20000;
+    static final int MAX_FEEDS = 500;
+    /** larger feeds are not kept in memory */
+    static final int MAX_FEED_LENGTH = 2 * 1024 * 1024;
+
+    private final CachableStorageOperator operator;
+    private final Logger logger;
+    private final LinkedHashMap<EventKey, String> events = new LinkedHashMap<EventKey, String>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<EventKey, String> eldest)
+        {
+            return size() > MAX_EVENTS;
+        }
+    };
+    private final LinkedHashMap<FeedKey, Feed> feeds = new LinkedHashMap<FeedKey, Feed>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FeedKey, Feed> eldest)
+        {
+            return size() > MAX_FEEDS;
+        }
+    };
+    private Date synchronizedUntil;
+    // incremented each time entries are invalidated, so that entries rendered from older data are not stored
+    private long generation;
+    private long eventHits;
+    private long eventMisses;
+    private long feedHits;
+    private long feedMisses;
+
+    @Inject
+    public ICalFeedCache(CachableStorageOperator operator, Logger logger)
+    {
+        this.operator = operator;
+        this.logger = logger.getChildLogger("ical.cache");
+    }
+
+    static final class EventKey
+    {
+        final String appointmentId;
+        final String reservationId;
+        final long lastChanged;
+        final String userId;
+        final boolean exportAsMeeting;
+        final String participationStatus;
+
+        EventKey(Appointment appointment, User user, boolean exportAsMeeting, String participationStatus)
+        {
+            final Reservation reservation = appointment.getReservation();
+            final Date lastChanged = reservation.getLastChanged();
+            this.appointmentId = appointment.getId();
+            this.reservationId = reservation.getId();
+            this.lastChanged = lastChanged != null ? lastChanged.getTime() : 0;
+            this.userId = user != null ? user.getId() : null;
+            this.exportAsMeeting = exportAsMeeting;
+            this.participationStatus = participationStatus;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof EventKey))
+            {
+                return false;
+            }
+            EventKey other = (EventKey) o;
+            return lastChanged == other.lastChanged && exportAsMeeting == other.exportAsMeeting && appointmentId.equals(other.appointmentId) && Objects
+                    .equals(userId, other.userId) && Objects.equals(participationStatus, other.participationStatus);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(appointmentId, lastChanged, userId, exportAsMeeting, participationStatus);
+        }
+    }
+
+    static final class FeedKey
+    {
+        final String userId;
+        final String filename;
+        final TimeInterval interval;
+
+        FeedKey(User user, String filename, TimeInterval interval)
+        {
+            this.userId = user.getId();
+            this.filename = filename;
+            this.interval = interval;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof FeedKey))
+            {
+                return false;
+            }
+            FeedKey other = (FeedKey) o;
+            return userId.equals(other.userId) && Objects.equals(filename, other.filename) && interval.equals(other.interval);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(userId, filename, interval);
+        }
+    }
+
+    static final class Feed
+    {
+        final String body;
+        final Date lastModified;
+        final Set<String> reservationIds;
+        /** the selection and filter the feed was queried with */
+        final CalendarModel model;
+
+        Feed(String body, Date lastModified, Set<String> reservationIds, CalendarModel model)
+        {
+            this.body = body;
+            this.lastModified = lastModified;
+            this.reservationIds = reservationIds;
+            this.model = model;
+        }
+    }
+
+    /** applies the changes that were committed since the last call and returns the generation that must be passed when storing entries */
+    public long synchronize()
+    {
+        final Date lastChanged = operator.getLastChanged();
+        final Date since;
+        synchronized (this)
+        {
+            if (synchronizedUntil == null || lastChanged == null)
+            {
+                synchronizedUntil = lastChanged;
+                return generation;
+            }
+            if (!lastChanged.after(synchronizedUntil))
+            {
+                return generation;
+            }
+            if (events.isEmpty() && feeds.isEmpty())
+            {
+                // nothing to invalidate, but entries of requests that are still running could be outdated
+                generation++;
+                synchronizedUntil = lastChanged;
+                return generation;
+            }
+            since = synchronizedUntil;
+        }
+        // the changes are collected without holding the cache lock, so requests for cached feeds are not blocked meanwhile
+        final UpdateResult updateResult;
+        try
+        {
+            updateResult = operator.getUpdateResult(since);
+        }
+        catch (RaplaException ex)
+        {
+            logger.warn("Could not get changes since " + since + ". Clearing ical cache. " + ex.getMessage());
+            synchronized (this)
+            {
+                clear();
+                if (lastChanged.after(synchronizedUntil))
+                {
+                    synchronizedUntil = lastChanged;
+                }
+                return generation;
+            }
+        }
+        synchronized (this)
+        {
+            final Date until = updateResult.getUntil();
+            // another request could have applied the same or newer changes in the meantime. Applying changes twice only removes entries again
+            if (until.after(synchronizedUntil))
+            {
+                apply(updateResult);
+                synchronizedUntil = until;
+            }
+            return generation;
+        }
+    }
+
+    private void apply(UpdateResult updateResult)
+    {
+        final Set<String> reservationIds = new HashSet<>();
+        final List<Reservation> reservations = new ArrayList<>();
+        final Set<String> preferenceOwners = new HashSet<>();
+        for (UpdateOperation op : updateResult.getOperations())
+        {
+            final Class<? extends Entity> type = op.getType();
+            final ReferenceInfo reference = op.getReference();
+            if (type == Reservation.class)
+            {
+                reservationIds.add(reference.getId());
+                addReservation(reservations, (Reservation) updateResult.getLastKnown(reference));
+                addReservation(reservations, (Reservation) updateResult.getLastEntryBeforeUpdate(reference));
+            }
+            else if (type == Preferences.class)
+            {
+                final Preferences preferences = (Preferences) updateResult.getLastKnown(reference);
+                final ReferenceInfo<User> ownerRef = preferences != null ? preferences.getOwnerRef() : null;
+                if (ownerRef == null)
+                {
+                    // system preferences or unknown owner
+                    clear();
+                    return;
+                }
+                preferenceOwners.add(ownerRef.getId());
+            }
+            else if (type != Conflict.class)
+            {
+                clear();
+                return;
+            }
+        }
+        if (reservationIds.isEmpty() && preferenceOwners.isEmpty())
+        {
+            return;
+        }
+        generation++;
+        for (Iterator<EventKey> it = events.keySet().iterator(); it.hasNext(); )
+        {
+            if (reservationIds.contains(it.next().reservationId))
+            {
+                it.remove();
+            }
+        }
+        for (Iterator<Map.Entry<FeedKey, Feed>> it = feeds.entrySet().iterator(); it.hasNext(); )
+        {
+            final Map.Entry<FeedKey, Feed> entry = it.next();
+            if (isAffected(entry.getKey(), entry.getValue(), reservationIds, reservations, preferenceOwners))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private static void addReservation(List<Reservation> reservations, Reservation reservation)
+    {
+        if (reservation != null)
+        {
+            reservations.add(reservation);
+        }
+    }
+
+    private boolean isAffected(FeedKey key, Feed feed, Set<String> reservationIds, List<Reservation> reservations, Set<String> preferenceOwners)
+    {
+        if (preferenceOwners.contains(key.userId))
+        {
+            return true;
+        }
+        for (String reservationId : reservationIds)
+        {
+            if (feed.reservationIds.contains(reservationId))
+            {
+                return true;
+            }
+        }
+        // a reservation that is new to the feed only matters if it lies in the interval and passes the selection and filter of the feed
+        for (Reservation reservation : reservations)
+        {
+            final TimeInterval interval = new TimeInterval(reservation.getFirstDate(), reservation.getMaxEnd());
+            if (!interval.overlaps(key.interval))
+            {
+                continue;
+            }
+            try
+            {
+                if (feed.model.isMatchingSelectionAndFilter(reservation, null))
+                {
+                    return true;
+                }
+            }
+            catch (RaplaException ex)
+            {
+                logger.warn("Could not match reservation " + reservation.getId() + " against the ical feed " + key.filename + ". " + ex.getMessage());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        events.clear();
+        feeds.clear();
+    }
+
+    synchronized String getEvent(EventKey key)
+    {
+        final String event = events.get(key);
+        if (event == null)
+        {
+            eventMisses++;
+        }
+        else
+        {
+            eventHits++;
+        }
+        return event;
+    }
+
+    synchronized void putEvent(EventKey key, String event, long requestGeneration)
+    {
+        if (requestGeneration == generation)
+        {
+            events.put(key, event);
+        }
+    }
+
+    synchronized Feed getFeed(FeedKey key)
+    {
+        final Feed feed = feeds.get(key);
+        if (feed == null)
+        {
+            feedMisses++;
+        }
+        else
+        {
+            feedHits++;
+        }
+        return feed;
+    }
+
+    synchronized void putFeed(FeedKey key, String body, Date lastModified, Collection<Appointment> appointments, CalendarModel model, long requestGeneration)
+    {
+        if (requestGeneration != generation || body.length() > MAX_FEED_LENGTH)
+        {
+            return;
+        }
+        final Set<String> reservationIds = new HashSet<>();
+        for (Appointment appointment : appointments)
+        {
+            reservationIds.add(appointment.getReservation().getId());
+        }
+        feeds.put(key, new Feed(body, lastModified, reservationIds, model));
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ICalFeedCache events=" + events.size() + " (hits=" + eventHits + " misses=" + eventMisses + ") feeds=" + feeds.size() + " (hits=" + feedHits
+                + " misses=" + feedMisses + ")";
+    }
+}
@@ -0,0 +1,95 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.plugin.notification.server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** Maps the ids of allocatables to the ids of the users that listen to their allocation changes. */
+class AllocationListenerIndex
+{
+    private final Map<String, Set<String>> usersByAllocatable = new HashMap<>();
+    private final Map<String, Set<String>> allocatablesByUser = new HashMap<>();
+
+    /** replaces the allocatables the user listens to. An empty collection removes the user from the index */
+    synchronized void put(String userId, Collection<String> allocatableIds)
+    {
+        remove(userId);
+        if (allocatableIds.isEmpty())
+        {
+            return;
+        }
+        final Set<String> ids = new HashSet<>(allocatableIds);
+        allocatablesByUser.put(userId, ids);
+        for (String allocatableId : ids)
+        {
+            usersByAllocatable.computeIfAbsent(allocatableId, (key) -> new HashSet<>()).add(userId);
+        }
+    }
+
+    synchronized void remove(String userId)
+    {
+        final Set<String> ids = allocatablesByUser.remove(userId);
+        if (ids == null)
+        {
+            return;
+        }
+        for (String allocatableId : ids)
+        {
+            final Set<String> users = usersByAllocatable.get(allocatableId);
+            if (users != null)
+            {
+                users.remove(userId);
+                if (users.isEmpty())
+                {
+                    usersByAllocatable.remove(allocatableId);
+                }
+            }
+        }
+    }
+
+    /** returns the users that listen to at least one of the allocatables */
+    synchronized Set<String> getUsers(Collection<String> allocatableIds)
+    {
+        final Set<String> result = new LinkedHashSet<>();
+        for (String allocatableId : allocatableIds)
+        {
+            final Set<String> users = usersByAllocatable.get(allocatableId);
+            if (users != null)
+            {
+                result.addAll(users);
+            }
+        }
+        return result;
+    }
+
+    synchronized void clear()
+    {
+        usersByAllocatable.clear();
+        allocatablesByUser.clear();
+    }
+
+    synchronized int getUserCount()
+    {
+        return allocatablesByUser.size();
+    }
+
+    synchronized int getAllocatableCount()
+    {
+        return usersByAllocatable.size();
+    }
+}
@@ -44,12 +44,14 @@ import org.rapla.scheduler.CommandScheduler;
 import org.rapla.server.extensionpoints.ServerExtension;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.StorageOperator;
+import org.rapla.storage.UpdateOperation;
 import org.rapla.storage.UpdateResult;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -77,6 +79,8 @@ public class NotificationService implements ServerExtension
     private final Logger logger;
     private final NotificationStorage notificationStorage;
     private List<Disposable> scheduleList = new ArrayList<>();
+    private final AllocationListenerIndex listenerIndex = new AllocationListenerIndex();
+    private boolean listenerIndexInitialized;
 
     @Inject
     public NotificationService(RaplaFacade facade, RaplaResources i18nBundle, NotificationResources notificationI18n, AppointmentFormater appointmentFormater,
@@ -171,13 +175,21 @@ public class NotificationService implements ServerExtension
         try
         {
             getLogger().debug("Mail check triggered");
-            User[] users = raplaFacade.getUsers();
+            if (!listenerIndexInitialized)
+            {
+                initListenerIndex();
+            }
+            else
+            {
+                updateListenerIndex(updateResult);
+            }
+            final Set<String> listeningUserIds = listenerIndex.getUsers(getChangedAllocatableIds(updateResult));
             List<AllocationMail> mailList = new ArrayList<>();
-            // we check for each user if a mail must be sent
-            for (int i = 0; i < users.length; i++)
+            // we check for each user that listens to a changed allocatable if a mail must be sent
+            for (String userId : listeningUserIds)
             {
-                User user = users[i];
-                if (user.getEmail().trim().length() == 0)
+                User user = raplaFacade.tryResolve(new ReferenceInfo<>(userId, User.class));
+                if (user == null || user.getEmail().trim().length() == 0)
                     continue;
 
                 Preferences preferences = raplaFacade.getPreferences(user);
@@ -216,6 +228,103 @@ public class NotificationService implements ServerExtension
         }
     }
 
+    /** reads the allocation listeners of all users. Afterwards the index is updated with the preference changes of each update result */
+    private void initListenerIndex() throws RaplaException
+    {
+        listenerIndex.clear();
+        for (User user : raplaFacade.getUsers())
+        {
+            final Preferences preferences = raplaFacade.getPreferences(user);
+            if (preferences != null)
+            {
+                listenerIndex.put(user.getId(), getListenedAllocatableIds(preferences));
+            }
+        }
+        listenerIndexInitialized = true;
+        getLogger().info("Allocation listeners of " + listenerIndex.getUserCount() + " users for " + listenerIndex.getAllocatableCount() + " resources found");
+    }
+
+    private void updateListenerIndex(UpdateResult updateResult)
+    {
+        for (UpdateOperation op : updateResult.getOperations())
+        {
+            if (op.getType() != Preferences.class)
+            {
+                continue;
+            }
+            final ReferenceInfo<Preferences> reference = op.getReference();
+            if (op instanceof UpdateResult.Remove)
+            {
+                final Preferences removed = updateResult.getLastEntryBeforeUpdate(reference);
+                final ReferenceInfo<User> ownerRef = removed != null ? removed.getOwnerRef() : null;
+                if (ownerRef != null)
+                {
+                    listenerIndex.remove(ownerRef.getId());
+                }
+            }
+            else
+            {
+                final Preferences preferences = updateResult.getLastKnown(reference);
+                final ReferenceInfo<User> ownerRef = preferences != null ? preferences.getOwnerRef() : null;
+                if (ownerRef != null)
+                {
+                    listenerIndex.put(ownerRef.getId(), getListenedAllocatableIds(preferences));
+                }
+            }
+        }
+    }
+
+    private static Collection<String> getListenedAllocatableIds(Preferences preferences)
+    {
+        final RaplaMap<Allocatable> allocatableMap = preferences.getEntry(NotificationPlugin.ALLOCATIONLISTENERS_CONFIG);
+        if (allocatableMap == null)
+        {
+            return Collections.emptyList();
+        }
+        final Collection<String> result = new ArrayList<>();
+        for (Allocatable allocatable : allocatableMap.values())
+        {
+            if (allocatable != null)
+            {
+                result.add(allocatable.getId());
+            }
+        }
+        return result;
+    }
+
+    /** returns the ids of the allocatables of the changed reservations, before and after the change */
+    private static Set<String> getChangedAllocatableIds(UpdateResult updateResult)
+    {
+        final Set<String> result = new HashSet<>();
+        for (UpdateOperation op : updateResult.getOperations())
+        {
+            if (op.getType() != Reservation.class)
+            {
+                continue;
+            }
+            final ReferenceInfo<Reservation> reference = op.getReference();
+            addAllocatableIds(result, updateResult.getLastEntryBeforeUpdate(reference));
+            addAllocatableIds(result, updateResult.getLastKnown(reference));
+        }
+        return result;
+    }
+
+    private static void addAllocatableIds(Set<String> result, Reservation reservation)
+    {
+        if (reservation == null)
+        {
+            return;
+        }
+        final ReservationImpl reservationImpl = (ReservationImpl) reservation;
+        for (Appointment appointment : reservation.getAppointments())
+        {
+            for (ReferenceInfo<Allocatable> allocatableId : reservationImpl.getAllocatableIdsFor(appointment))
+            {
+                result.add(allocatableId.getId());
+            }
+        }
+    }
+
     private void sendMails(Collection<AllocationMail> mails) throws RaplaException
     {
         Iterator<AllocationMail> it = mails.iterator();
@@ -6,6 +6,7 @@ import org.jetbrains.annotations.NotNull;
 import org.rapla.components.util.DateTools;
 import org.rapla.facade.CalendarModel;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -124,73 +125,112 @@ public class RaplaTableModel<T>
     private static final String CELL_BREAK = ";";
     static public <T> String getCSV(List<RaplaTableColumn<T>> columns, List<T> rows)
     {
-        StringBuffer buf = new StringBuffer();
-        for (RaplaTableColumn column : columns)
+        StringBuilder buf = new StringBuilder();
+        try
         {
-            buf.append(column.getColumnName());
-            buf.append(CELL_BREAK);
+            writeCSV(columns, rows, buf);
+        }
+        catch (IOException e)
+        {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        final String result = buf.toString();
+        return result;
+    }
+
+    /** writes the csv to out, one row after the other. The type of each column is determined once and not for each cell.
+     * out is an Appendable and not a Writer, because java.io.Writer is not available in the gwt client*/
+    @JsIgnore
+    static public <T> void writeCSV(List<RaplaTableColumn<T>> columns, Iterable<T> rows, Appendable out) throws IOException
+    {
+        final boolean[] dateColumns = new boolean[columns.size()];
+        for (int i = 0; i < dateColumns.length; i++)
+        {
+            RaplaTableColumn<T> column = columns.get(i);
+            dateColumns[i] = column.getColumnClass().equals(java.util.Date.class);
+            out.append(column.getColumnName());
+            out.append(CELL_BREAK);
         }
         for (T row : rows)
         {
-            buf.append(LINE_BREAK);
-            for (RaplaTableColumn column : columns)
+            out.append(LINE_BREAK);
+            for (int i = 0; i < dateColumns.length; i++)
             {
-                T rowObject = row;
-                Object value = column.getValue(rowObject);
-                Class columnClass = column.getColumnClass();
-                boolean isDate = columnClass.equals(java.util.Date.class);
-                String formated = "";
+                Object value = columns.get(i).getValue(row);
                 if (value != null)
                 {
-                    if (isDate)
+                    if (dateColumns[i])
                     {
-                        String timestamp = DateTools.formatDateTime( (java.util.Date) value);
-                        formated = timestamp;
+                        out.append(DateTools.formatDateTime((java.util.Date) value));
                     }
                     else
                     {
-                        String escaped = escape(value);
-                        formated = escaped;
+                        out.append(escape(value));
                     }
                 }
-                buf.append(formated);
-                buf.append(CELL_BREAK);
+                out.append(CELL_BREAK);
             }
         }
-        final String result = buf.toString();
-        return result;
     }
 
     static private String escape(Object cell) {
         return cell.toString().replace(LINE_BREAK, " ").replace(CELL_BREAK, " ");
     }
 
+    /** sorts the rows by the sort columns. The values of the sort columns are computed once for each row and not for each comparison*/
     static public <T> List<T> sortRows(Collection<T> rowObjects, Map<RaplaTableColumn<T>, Integer> sortDirections,Comparator<T> fallbackComparator) {
-        List<T> result = new ArrayList<>(rowObjects);
-        Comparator<T> comparator = new Comparator<T>() {
-            public int compare(T o1, T o2) {
-                if (o2.equals(o1)) {
+        final List<RaplaTableColumn<T>> sortColumns = new ArrayList<>(sortDirections.keySet());
+        final int[] directions = new int[sortColumns.size()];
+        final boolean[] stringColumns = new boolean[sortColumns.size()];
+        for (int i = 0; i < directions.length; i++) {
+            final RaplaTableColumn<T> column = sortColumns.get(i);
+            directions[i] = sortDirections.get(column);
+            stringColumns[i] = column.getColumnClass().equals(String.class);
+        }
+        final List<SortRow<T>> sortRows = new ArrayList<>(rowObjects.size());
+        for (T row : rowObjects) {
+            final Object[] values = new Object[directions.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = sortColumns.get(i).getValue(row);
+            }
+            sortRows.add(new SortRow<>(row, values));
+        }
+        Comparator<SortRow<T>> comparator = new Comparator<SortRow<T>>() {
+            public int compare(SortRow<T> r1, SortRow<T> r2) {
+                if (r2.row.equals(r1.row)) {
                     return 0;
                 }
-                for (Map.Entry<RaplaTableColumn<T>, Integer> entry : sortDirections.entrySet()) {
-                    RaplaTableColumn column = entry.getKey();
-                    int direction = entry.getValue();
-                    Object v1 = column.getValue(o1);
-                    Object v2 = column.getValue(o2);
+                for (int i = 0; i < directions.length; i++) {
+                    Object v1 = r1.values[i];
+                    Object v2 = r2.values[i];
                     if (v1 != null && v2 != null) {
-                        Class<?> columnClass = column.getColumnClass();
-                        if (columnClass.equals(String.class)) {
-                            return String.CASE_INSENSITIVE_ORDER.compare(v1.toString(), v2.toString()) * direction;
+                        if (stringColumns[i]) {
+                            return String.CASE_INSENSITIVE_ORDER.compare(v1.toString(), v2.toString()) * directions[i];
                         } else if (v1 instanceof Comparable) {
-                            return ((Comparable) v1).compareTo(v2) * direction;
+                            return ((Comparable) v1).compareTo(v2) * directions[i];
                         }
                     }
                 }
-                return fallbackComparator.compare(o1, o2);
+                return fallbackComparator.compare(r1.row, r2.row);
             }
         };
-        Collections.sort(result, comparator);
+        Collections.sort(sortRows, comparator);
+        final List<T> result = new ArrayList<>(sortRows.size());
+        for (SortRow<T> sortRow : sortRows) {
+            result.add(sortRow.row);
+        }
         return  result;
     }
 
+    private static final class SortRow<T> {
+        final T row;
+        final Object[] values;
+
+        SortRow(T row, Object[] values) {
+            this.row = row;
+            this.values = values;
+        }
+    }
+
 }
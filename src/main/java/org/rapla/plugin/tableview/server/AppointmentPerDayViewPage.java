@@ -13,6 +13,7 @@
 package org.rapla.plugin.tableview.server;
 
 import org.rapla.components.i18n.I18nBundle;
+import org.rapla.components.util.DateTools;
 import org.rapla.components.util.TimeInterval;
 import org.rapla.components.util.Tools;
 import org.rapla.entities.User;
@@ -36,6 +37,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.swing.table.TableColumn;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
 
 @Extension(provides = HTMLViewPage.class, id = TableViewPlugin.TABLE_APPOINTMENTS_PER_DAY_VIEW) public class AppointmentPerDayViewPage
@@ -55,7 +57,7 @@ import java.util.*;
         tableViewPage = new TableViewPage<AppointmentBlock>(raplaLocale) {
 
             @Override
-            public String getCalendarBody() throws RaplaException
+            public void writeCalendarBody(PrintWriter out) throws RaplaException
             {
                 User user = model.getUser();
                 final String tableViewName = TableConfig.APPOINTMENTS_PER_DAY_VIEW;
@@ -63,68 +65,54 @@ import java.util.*;
 
                 final TimeInterval timeIntervall = model.getTimeIntervall();
                 final List<AppointmentBlock> blocks = waiter.waitForWithRaplaException(model.queryBlocks(timeIntervall), 10000);
-                final  Map<String,List<AppointmentBlock>> blockSorter = new LinkedHashMap<>();
                 if (isCsv()) {
                     List<RaplaTableColumn<AppointmentBlock>> columnPluginsPlusDate = new ArrayList<>(columnPlugins);
                     columnPluginsPlusDate.add(0, tableConfigLoader.createDateColumn( "appointment_per_date_date", user));
                     Map<RaplaTableColumn<AppointmentBlock>, Integer> sortDirections = RaplaTableModel.getSortDirections(model,columnPluginsPlusDate, tableViewName);
-                    return super.getCalendarBody( columnPluginsPlusDate, blocks, sortDirections);
+                    super.writeCalendarBody(out, columnPluginsPlusDate, blocks, sortDirections);
                 }
                 else
                 {
-                    blocks.stream().forEach(block -> {
-                        String day = getDayString(block);
-                        List<AppointmentBlock> appointmentBlocks = blockSorter.get(day);
-                        if (appointmentBlocks == null)
-                        {
-                            appointmentBlocks = new ArrayList<>();
-                            blockSorter.put(day, appointmentBlocks);
-                        }
-                        appointmentBlocks.add(block);
-                    });
-                    return getCalendarBodyHTML(columnPlugins, blockSorter);
+                    writeCalendarBodyHTML(out, columnPlugins, blocks);
                 }
             }
 
-            public String getCalendarBodyHTML(List<RaplaTableColumn<AppointmentBlock>> columPlugins,Map<String,List<AppointmentBlock>> blocks)
+            /** the blocks are sorted by start, so the blocks of a day follow each other and are written below the day title */
+            private void writeCalendarBodyHTML(PrintWriter out, List<RaplaTableColumn<AppointmentBlock>> columPlugins, List<AppointmentBlock> blocks)
             {
-                StringBuffer buf = new StringBuffer();
+                final String[] columnNames = new String[columPlugins.size()];
+                out.write("<div class=\"export table \">");
+                out.write("<div class=\"tr\">");
+                for (int i = 0; i < columnNames.length; i++)
                 {
-                    buf.append("<div class=\"export table \">");
-                    buf.append("<div class=\"tr\">");
-                    for (RaplaTableColumn<?> col : columPlugins)
+                    columnNames[i] = Tools.createXssSafeString(columPlugins.get(i).getColumnName());
+                    out.write("<div class=\"th\">");
+                    out.write(columnNames[i]);
+                    out.write("</div>");
+                }
+                out.write("</div>");
+                long currentDay = Long.MIN_VALUE;
+                for (AppointmentBlock row : blocks)
+                {
+                    // the day title is only formatted when the day changes
+                    final long day = DateTools.cutDate(row.getStart());
+                    if (day != currentDay)
                     {
-                        buf.append("<div class=\"th\">");
-                        buf.append(Tools.createXssSafeString(col.getColumnName()));
-                        buf.append("</div>");
+                        currentDay = day;
+                        out.write("<div class=\"appointments_per_day\">");
+                        out.write(getDayString(row));
+                        out.write("</div>");
                     }
-                    buf.append("</div>");
-                    blocks.entrySet().stream().forEach(entry -> {
-                        String title = entry.getKey();
-                        //buf.append("<div style=\"clear:both;\"></div>");
-                        buf.append("<div class=\"appointments_per_day\">");
-                        buf.append(title);
-                        buf.append("</div>");
-                        for (AppointmentBlock row : entry.getValue())
-                        {
-
-                            buf.append("<div class=\"tr\">");
-                            for (RaplaTableColumn<AppointmentBlock> col : columPlugins)
-                            {
-                                final String columnName = Tools.createXssSafeString(col.getColumnName());
-                                buf.append("<div class=\"td " + columnName + "\">");
-                                final String htmlValue = col.getHtmlValue(row);
-                                buf.append(htmlValue);
-                                buf.append("</div>");
-                            }
-                            buf.append("</div>");
-                        }
-                    });
+                    out.write("<div class=\"tr\">");
+                    for (int i = 0; i < columnNames.length; i++)
+                    {
+                        out.write("<div class=\"td " + columnNames[i] + "\">");
+                        out.write(String.valueOf(columPlugins.get(i).getHtmlValue(row)));
+                        out.write("</div>");
+                    }
+                    out.write("</div>");
                 }
-                buf.append("</div>");
-                //buf.append("</table>");
-                final String result = buf.toString();
-                return result;
+                out.write("</div>");
             }
 
             @Override
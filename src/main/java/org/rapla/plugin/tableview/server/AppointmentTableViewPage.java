@@ -33,6 +33,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.swing.table.TableColumn;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -47,7 +48,7 @@ import java.util.Map;
         tableViewPage = new TableViewPage<AppointmentBlock>(raplaLocale) {
 
             @Override
-            protected String getCalendarBody() throws RaplaException
+            protected void writeCalendarBody(PrintWriter out) throws RaplaException
             {
                 User user = model.getUser();
                 final String tableViewName = TableConfig.APPOINTMENTS_VIEW;
@@ -55,7 +56,7 @@ import java.util.Map;
                 final TimeInterval timeIntervall = model.getTimeIntervall();
                 final List<AppointmentBlock> blocks = waiter.waitForWithRaplaException(model.queryBlocks(timeIntervall), 10000);
                 Map<RaplaTableColumn<AppointmentBlock>, Integer> sortDirections = RaplaTableModel.getSortDirections(model,columnPlugins, tableViewName);
-                return getCalendarBody(columnPlugins, blocks, sortDirections);
+                writeCalendarBody(out, columnPlugins, blocks, sortDirections);
             }
 
             @Override
@@ -34,6 +34,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.swing.table.TableColumn;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
@@ -50,7 +51,7 @@ public class ReservationTableViewPage implements HTMLViewPage
         tableViewPage = new TableViewPage<Reservation>(raplaLocale)
         {
             Comparator<Reservation> comparator = new ReservationStartComparator(raplaLocale.getLocale());
-            protected String getCalendarBody() throws RaplaException
+            protected void writeCalendarBody(PrintWriter out) throws RaplaException
             {
                 final Collection<Reservation> reservations = waiter.waitForWithRaplaException(model.queryReservations(model.getTimeIntervall()),
                         10000);
@@ -58,7 +59,7 @@ public class ReservationTableViewPage implements HTMLViewPage
                 final String tableName = TableConfig.EVENTS_VIEW;
                 List<RaplaTableColumn<Reservation>> columnPlugins = tableConfigLoader.loadColumns(tableName, user);
                 Map<RaplaTableColumn<Reservation>, Integer> sortDirections = RaplaTableModel.getSortDirections(model,columnPlugins, tableName);
-                return getCalendarBody(columnPlugins, reservations, sortDirections);
+                writeCalendarBody(out, columnPlugins, reservations, sortDirections);
             }
 
             @Override
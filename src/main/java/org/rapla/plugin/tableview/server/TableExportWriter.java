@@ -0,0 +1,63 @@
+package org.rapla.plugin.tableview.server;
+
+import org.rapla.plugin.tableview.RaplaTableColumn;
+import org.rapla.plugin.tableview.RaplaTableModel;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/** Writes table rows directly to the response, so no string of the whole table is created.
+ * The csv is written by {@link RaplaTableModel#writeCSV(List, Iterable, Appendable)}, the same code that creates the csv of the client export.
+ */
+class TableExportWriter<T>
+{
+    private final PrintWriter out;
+    private final List<RaplaTableColumn<T>> columns;
+
+    TableExportWriter(PrintWriter out, List<RaplaTableColumn<T>> columns)
+    {
+        this.out = out;
+        this.columns = columns;
+    }
+
+    void writeCSV(Iterable<T> rows)
+    {
+        try
+        {
+            RaplaTableModel.writeCSV(columns, rows, out);
+        }
+        catch (IOException e)
+        {
+            // PrintWriter does not throw, errors are reported by checkError
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void writeHtmlTable(Iterable<T> rows)
+    {
+        out.write("<table class='export table table-striped table-bordered' style='width: 99%; margin: 0 auto;'>");
+        out.write("<thead><tr>");
+        for (RaplaTableColumn<T> column : columns)
+        {
+            out.write("<th>");
+            out.write(column.getColumnName());
+            out.write("</th>");
+        }
+        out.write("</tr></thead>");
+        out.write("<tbody>");
+        for (T row : rows)
+        {
+            out.write("<tr>");
+            for (RaplaTableColumn<T> column : columns)
+            {
+                out.write("<td>");
+                out.write(String.valueOf(column.getHtmlValue(row)));
+                out.write("</td>");
+            }
+            out.write("</tr>");
+        }
+        out.write("</tbody>");
+        out.write("</table>");
+    }
+}
@@ -14,6 +14,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
 
 abstract public class TableViewPage<T>
@@ -37,7 +38,8 @@ abstract public class TableViewPage<T>
     public void generatePage(ServletContext context, HttpServletRequest request, HttpServletResponse response, CalendarModel model)
             throws ServletException, IOException
     {
-        this.model = model.clone();
+        // the model is created for each request and not changed by the page, so there is no need to clone it
+        this.model = model;
         final String pathTranslated = request.getPathTranslated();
         csv = pathTranslated.endsWith(".csv");
         if (csv)
@@ -63,8 +65,8 @@ abstract public class TableViewPage<T>
         java.io.PrintWriter out = response.getWriter();
         try
         {
-            final String calendarCSV = getCalendarBody();
-            out.println(calendarCSV);
+            writeCalendarBody(out);
+            out.println();
         }
         catch (RaplaException e)
         {
@@ -118,8 +120,8 @@ abstract public class TableViewPage<T>
             out.println("<div id=\"calendar\">");
             try
             {
-                final String calendarHTML = getCalendarBody();
-                out.println(calendarHTML);
+                writeCalendarBody(out);
+                out.println();
             }
             catch (RaplaException e)
             {
@@ -134,53 +136,23 @@ abstract public class TableViewPage<T>
         out.close();
     }
 
-    public String getCalendarBody(List<RaplaTableColumn<T>> columPlugins, Collection<T> rowObjects, Map<RaplaTableColumn<T>, Integer> sortDirections) {
+    /** writes the rows as csv or html table. The rows are written to the response one after the other, so only the current row is rendered in memory*/
+    public void writeCalendarBody(PrintWriter out, List<RaplaTableColumn<T>> columPlugins, Collection<T> rowObjects,
+            Map<RaplaTableColumn<T>, Integer> sortDirections)
+    {
         final List<T> rows = RaplaTableModel.sortRows(rowObjects, sortDirections, getFallbackComparator());
+        final TableExportWriter<T> writer = new TableExportWriter<>(out, columPlugins);
         if (isCsv())
         {
-            return RaplaTableModel.getCSV(columPlugins, rows);
+            writer.writeCSV(rows);
         }
         else
         {
-            return  getCalendarBodyHTML(columPlugins, rows);
+            writer.writeHtmlTable(rows);
         }
     }
 
-    public String getCalendarBodyHTML(List<RaplaTableColumn<T>> columPlugins, List<T> rows)
-    {
-
-        StringBuffer buf = new StringBuffer();
-        buf.append("<table class='export table table-striped table-bordered' style='width: 99%; margin: 0 auto;'>");
-        buf.append("<thead><tr>");
-        for (RaplaTableColumn<?> col : columPlugins)
-        {
-            buf.append("<th>");
-            buf.append(col.getColumnName());
-            buf.append("</th>");
-        }
-        buf.append("</tr></thead>");
-        buf.append("<tbody>");
-        for (T row : rows)
-        {
-            buf.append("<tr>");
-            for (RaplaTableColumn<T> col : columPlugins)
-            {
-                buf.append("<td>");
-                final String htmlValue = col.getHtmlValue(row);
-                buf.append(htmlValue);
-                buf.append("</td>");
-            }
-
-            buf.append("</tr>");
-        }
-        buf.append("</tbody>");
-        buf.append("</table>");
-        final String result = buf.toString();
-        return result;
-    }
-
-
-    protected abstract String getCalendarBody() throws RaplaException;
+    protected abstract void writeCalendarBody(PrintWriter out) throws RaplaException;
 
     /** Comparator to be used, when no sorting option is defined */
     protected abstract Comparator<T> getFallbackComparator();
@@ -0,0 +1,248 @@
+package org.rapla.rest.server;
+
+import org.rapla.components.util.SerializableDateTimeFormat;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.framework.RaplaException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/** Writes the selected fields of events as json, one event after the other, so that no document of the whole result is created in memory. */
+class EventJsonWriter
+{
+    static final List<String> FIELDS = Arrays.asList("id", "name", "type", "owner", "lastChanged", "start", "end", "appointments", "resources", "attributes");
+    static final List<String> DEFAULT_FIELDS = Arrays.asList("id", "name", "type", "start", "end");
+
+    private final Writer out;
+    private final Set<String> fields;
+    private final Locale locale;
+    private final SerializableDateTimeFormat dateFormat = SerializableDateTimeFormat.INSTANCE;
+
+    EventJsonWriter(Writer out, Set<String> fields, Locale locale)
+    {
+        this.out = out;
+        this.fields = fields;
+        this.locale = locale;
+    }
+
+    /** parses a comma separated list of fields. Returns the default fields for an empty list */
+    static Set<String> parseFields(String fieldList) throws RaplaException
+    {
+        final Set<String> result = new LinkedHashSet<>();
+        if (fieldList == null || fieldList.trim().isEmpty())
+        {
+            result.addAll(DEFAULT_FIELDS);
+            return result;
+        }
+        for (String field : fieldList.split(","))
+        {
+            final String trimmed = field.trim();
+            if (trimmed.isEmpty())
+            {
+                continue;
+            }
+            if (!FIELDS.contains(trimmed))
+            {
+                throw new RaplaException("Unknown field " + trimmed + ". Supported fields are " + FIELDS);
+            }
+            result.add(trimmed);
+        }
+        return result;
+    }
+
+    void writePage(Collection<Reservation> events, String nextCursor) throws IOException
+    {
+        out.write("{\"events\":[");
+        boolean first = true;
+        for (Reservation event : events)
+        {
+            if (!first)
+            {
+                out.write(',');
+            }
+            first = false;
+            writeEvent(event);
+        }
+        out.write("],\"nextCursor\":");
+        writeString(nextCursor);
+        out.write('}');
+    }
+
+    private void writeEvent(Reservation event) throws IOException
+    {
+        out.write('{');
+        boolean first = true;
+        for (String field : fields)
+        {
+            if (!first)
+            {
+                out.write(',');
+            }
+            first = false;
+            writeString(field);
+            out.write(':');
+            writeField(event, field);
+        }
+        out.write('}');
+    }
+
+    private void writeField(Reservation event, String field) throws IOException
+    {
+        switch (field)
+        {
+            case "id":
+                writeString(event.getId());
+                break;
+            case "name":
+                writeString(event.getName(locale));
+                break;
+            case "type":
+                writeString(event.getClassification().getType().getKey());
+                break;
+            case "owner":
+                final ReferenceInfo ownerRef = event.getOwnerRef();
+                writeString(ownerRef != null ? ownerRef.getId() : null);
+                break;
+            case "lastChanged":
+                writeDate(event.getLastChanged());
+                break;
+            case "start":
+                writeDate(event.getFirstDate());
+                break;
+            case "end":
+                writeDate(event.getMaxEnd());
+                break;
+            case "appointments":
+                writeAppointments(event.getAppointments());
+                break;
+            case "resources":
+                writeResources(event.getAllocatables());
+                break;
+            case "attributes":
+                writeAttributes(event.getClassification());
+                break;
+            default:
+                out.write("null");
+        }
+    }
+
+    private void writeAppointments(Appointment[] appointments) throws IOException
+    {
+        out.write('[');
+        for (int i = 0; i < appointments.length; i++)
+        {
+            final Appointment appointment = appointments[i];
+            if (i > 0)
+            {
+                out.write(',');
+            }
+            out.write("{\"id\":");
+            writeString(appointment.getId());
+            out.write(",\"start\":");
+            writeDate(appointment.getStart());
+            out.write(",\"end\":");
+            writeDate(appointment.getEnd());
+            out.write(",\"maxEnd\":");
+            writeDate(appointment.getMaxEnd());
+            out.write(",\"repeating\":");
+            writeString(appointment.getRepeating() != null ? appointment.getRepeating().getType().toString() : null);
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private void writeResources(Allocatable[] allocatables) throws IOException
+    {
+        out.write('[');
+        for (int i = 0; i < allocatables.length; i++)
+        {
+            if (i > 0)
+            {
+                out.write(',');
+            }
+            writeString(allocatables[i].getId());
+        }
+        out.write(']');
+    }
+
+    private void writeAttributes(Classification classification) throws IOException
+    {
+        out.write('{');
+        boolean first = true;
+        for (Attribute attribute : classification.getAttributes())
+        {
+            if (classification.getValueForAttribute(attribute) == null)
+            {
+                continue;
+            }
+            if (!first)
+            {
+                out.write(',');
+            }
+            first = false;
+            writeString(attribute.getKey());
+            out.write(':');
+            writeString(classification.getValueAsString(attribute, locale));
+        }
+        out.write('}');
+    }
+
+    private void writeDate(Date date) throws IOException
+    {
+        writeString(date != null ? dateFormat.formatTimestamp(date) : null);
+    }
+
+    private void writeString(String value) throws IOException
+    {
+        if (value == null)
+        {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        out.write(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -21,10 +21,12 @@ import org.rapla.server.internal.SecurityManager;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.PermissionController;
 import org.rapla.storage.RaplaSecurityException;
+import org.rapla.storage.ReservationPage;
 import org.rapla.storage.StorageOperator;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -35,12 +37,14 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Path("events") public class RaplaEventsRestPage
 {
@@ -56,6 +60,9 @@ import java.util.Map;
         this.request = request;
     }
 
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
     private Collection<String> CLASSIFICATION_TYPES = Arrays.asList(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION);
 
     @GET @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML }) public List<ReservationImpl> list(@QueryParam("start") Date start,
@@ -89,6 +96,36 @@ import java.util.Map;
         return result;
     }
 
+    /** returns one page of events as json. The events are read from the appointment index and written directly to the response.
+     * Pass the nextCursor of the response as cursor to get the next page. fields is a comma separated list of the event fields that are written.*/
+    @GET @Path("page") @Produces(MediaType.APPLICATION_JSON) public void listPage(@QueryParam("start") Date start, @QueryParam("end") Date end,
+            @QueryParam("resources") List<String> resources, @QueryParam("eventTypes") Collection<String> eventTypes,
+            @QueryParam("attributeFilter") Map<String, String> simpleFilter, @QueryParam("cursor") String cursor, @QueryParam("limit") Integer limit,
+            @QueryParam("fields") String fields, @Context HttpServletResponse response) throws Exception
+    {
+        final User user = session.checkAndGetUser(request);
+        final Set<String> fieldSet = EventJsonWriter.parseFields(fields);
+        final int pageSize = limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        Collection<Allocatable> allocatables = new ArrayList<>();
+        if (resources != null)
+        {
+            for (String id : resources)
+            {
+                Allocatable allocatable = facade.resolve(new ReferenceInfo<Allocatable>(id, Allocatable.class));
+                allocatables.add(allocatable);
+            }
+        }
+        final ClassificationFilter[] filters = RaplaResourcesRestPage.getClassificationFilter(facade, simpleFilter, CLASSIFICATION_TYPES, eventTypes);
+        final PermissionController permissionController = facade.getPermissionController();
+        final ReservationPage page = operator.getReservationPage(allocatables, start, end,
+                (reservation) -> (filters == null || ClassificationFilter.Util.matches(filters, reservation)) && permissionController.canRead(reservation, user),
+                cursor, pageSize);
+        response.setContentType(MediaType.APPLICATION_JSON + ";charset=utf-8");
+        final Writer writer = response.getWriter();
+        new EventJsonWriter(writer, fieldSet, request.getLocale()).writePage(page.getReservations(), page.getNextCursor());
+        writer.flush();
+    }
+
     @GET @Path("{id}") @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML }) public ReservationImpl get(@PathParam("id") String id)
             throws RaplaException
     {
@@ -19,6 +19,9 @@ import org.rapla.inject.Injector;
 import org.rapla.logger.Logger;
 import org.rapla.logger.RaplaBootstrapLogger;
 import org.rapla.server.extensionpoints.ServletRequestPreprocessor;
+import org.rapla.server.internal.AsyncRequest;
+import org.rapla.server.internal.LongPollRequest;
+import org.rapla.server.internal.RequestExecutor;
 import org.rapla.server.internal.ServerContainerContext;
 import org.rapla.server.internal.ServerStarter;
 import org.rapla.server.internal.console.ClientStarter;
@@ -52,6 +55,8 @@ public class MainServlet extends HttpServlet
     ServerStarter serverStarter;
     private HttpServletDispatcher dispatcher;
     private StandaloneStarter standaloneStarter = null;
+    private volatile RequestExecutor requestExecutor;
+    private volatile boolean asyncNotSupportedLogged;
     String startupMode;
     public MainServlet()
     {
@@ -127,13 +132,28 @@ public class MainServlet extends HttpServlet
                 String[] splits = services.split(",");
                 for (String key : splits)
                 {
-                    String[] split2 = key.split("=");
+                    String[] split2 = key.split("=", 2);
                     String service = split2[0].trim();
                     boolean disabled = split2.length > 1 && split2[1].trim().toLowerCase().equals("false");
                     backendContext.putServiceState(service, !disabled);
                 }
             }
         }
+        {
+            // additional server options in the form key1=value1,key2=value2
+            String options = jndi.lookupEnvString("raplaoptions", true);
+            if (options != null)
+            {
+                String[] splits = options.split(",");
+                for (String key : splits)
+                {
+                    String[] split2 = key.split("=", 2);
+                    String option = split2[0].trim();
+                    String value = split2.length > 1 ? split2[1].trim() : "true";
+                    backendContext.putOption(option, value);
+                }
+            }
+        }
         {
             String patchScript = jndi.lookupEnvString("patchscript", true);
             if ( patchScript != null && !patchScript.isEmpty())
@@ -166,6 +186,7 @@ public class MainServlet extends HttpServlet
             {
                 serverStarter = new ServerStarter(logger, backendContext);
                 serverStarter.startServer();
+                requestExecutor = RequestExecutor.create(backendContext, logger);
             }
             else if (startupMode.equals("standalone"))
             {
@@ -182,6 +203,7 @@ public class MainServlet extends HttpServlet
                 serverStarter = new ServerStarter(logger, backendContext);
                 standaloneStarter = new StandaloneStarter(logger, backendContext, serverStarter, downloadUrl, startupUser, localConnector);
                 serverStarter.startServer();
+                requestExecutor = RequestExecutor.create(backendContext, logger);
                 standaloneStarter.startClient();
             }
             else if (startupMode.equals("client"))
@@ -342,6 +364,36 @@ public class MainServlet extends HttpServlet
     }
 
     public void service(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        final RequestExecutor executor = requestExecutor;
+        if (executor == null)
+        {
+            handle(request, response);
+            return;
+        }
+        if (!request.isAsyncSupported())
+        {
+            if (!asyncNotSupportedLogged)
+            {
+                asyncNotSupportedLogged = true;
+                logger.warn("Async requests are not enabled for the servlet. Set async-supported in the web.xml to use " + RequestExecutor.REQUEST_EXECUTOR + "="
+                        + executor.getMode());
+            }
+            handle(request, response);
+            return;
+        }
+        // the container thread is released and the request is handled and completed in the request executor
+        AsyncRequest.start(request, response, executor, logger, this::handle);
+    }
+
+    /** a preprocessor can park an async request, that is then completed by the preprocessor */
+    private boolean isParked(HttpServletRequest request)
+    {
+        final LongPollRequest longPoll = (LongPollRequest) request.getAttribute(LongPollRequest.ATTRIBUTE);
+        return longPoll != null && longPoll.isParked();
+    }
+
+    private void handle(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
     {
         RaplaLock.ReadLock restartLock = null;
         try
@@ -360,7 +412,7 @@ public class MainServlet extends HttpServlet
                     final HttpServletRequest newRequest = preprocessor.handleRequest(getServletContext(), request, response);
                     if (newRequest != null)
                         request = newRequest;
-                    if (response.isCommitted())
+                    if (response.isCommitted() || isParked(request))
                         return;
                 }
                 String pageParam = request.getParameter("page");
@@ -479,6 +531,11 @@ public class MainServlet extends HttpServlet
      */
     public void destroy()
     {
+        if (requestExecutor != null)
+        {
+            requestExecutor.shutdown();
+            requestExecutor = null;
+        }
         if (serverStarter != null)
         {
             serverStarter.stopServer();
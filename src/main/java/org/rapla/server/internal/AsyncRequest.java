@@ -0,0 +1,287 @@
+package org.rapla.server.internal;
+
+import org.rapla.logger.Logger;
+import org.rapla.scheduler.Promise;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** A servlet request that is handled and completed in the request executor. After a timeout or an error of the async context the request is done,
+ * so the request threads don't write to the recycled response and the context is completed only once.
+ */
+public class AsyncRequest implements AsyncListener, LongPollRequest
+{
+    public interface Handler
+    {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws Exception;
+    }
+
+    private final AsyncContext asyncContext;
+    private final RequestExecutor executor;
+    private final Logger logger;
+    private final Handler handler;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile boolean parked;
+
+    private AsyncRequest(AsyncContext asyncContext, RequestExecutor executor, Logger logger, Handler handler)
+    {
+        this.asyncContext = asyncContext;
+        this.executor = executor;
+        this.logger = logger;
+        this.handler = handler;
+    }
+
+    /** starts the async request and hands it to the executor. If the executor queue is full, the request is answered with 503 */
+    public static AsyncRequest start(HttpServletRequest request, HttpServletResponse response, RequestExecutor executor, Logger logger, Handler handler)
+    {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(executor.getTimeout());
+        final AsyncRequest asyncRequest = new AsyncRequest(asyncContext, executor, logger, handler);
+        asyncContext.addListener(asyncRequest);
+        request.setAttribute(ATTRIBUTE, asyncRequest);
+        if (!executor.execute(asyncRequest::dispatch))
+        {
+            logger.warn("Request queue is full. Rejecting " + request.getRequestURI());
+            asyncRequest.finish(503);
+        }
+        return asyncRequest;
+    }
+
+    private void dispatch()
+    {
+        if (done.get())
+        {
+            return;
+        }
+        try
+        {
+            handler.handle((HttpServletRequest) asyncContext.getRequest(), new AsyncResponse((HttpServletResponse) asyncContext.getResponse(), done));
+        }
+        catch (Exception ex)
+        {
+            logger.error(ex.getMessage(), ex);
+            finish(500);
+            return;
+        }
+        if (!parked)
+        {
+            finish(0);
+        }
+    }
+
+    @Override
+    public <T> void park(Promise<T> promise, ResultWriter<T> writer)
+    {
+        parked = true;
+        promise.handle((result, ex) ->
+        {
+            resume(result, ex, writer);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isParked()
+    {
+        return parked;
+    }
+
+    public boolean isDone()
+    {
+        return done.get();
+    }
+
+    private <T> void resume(T result, Throwable error, ResultWriter<T> writer)
+    {
+        if (done.get())
+        {
+            return;
+        }
+        if (!executor.execute(() -> write(result, error, writer)))
+        {
+            finish(503);
+        }
+    }
+
+    private <T> void write(T result, Throwable error, ResultWriter<T> writer)
+    {
+        // only one of the writer and the listener callbacks may touch the response
+        if (!done.compareAndSet(false, true))
+        {
+            return;
+        }
+        final HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try
+        {
+            writer.write(result, error, response);
+        }
+        catch (Exception ex)
+        {
+            logger.error(ex.getMessage(), ex);
+            sendError(response, 500);
+        }
+        complete();
+    }
+
+    /** completes the async context once. An error status is only sent if the response is not yet committed */
+    void finish(int errorStatus)
+    {
+        if (!done.compareAndSet(false, true))
+        {
+            return;
+        }
+        if (errorStatus != 0)
+        {
+            sendError((HttpServletResponse) asyncContext.getResponse(), errorStatus);
+        }
+        complete();
+    }
+
+    private void sendError(HttpServletResponse response, int status)
+    {
+        try
+        {
+            if (!response.isCommitted())
+            {
+                response.sendError(status);
+            }
+        }
+        catch (Exception ex)
+        {
+            logger.error("Error writing status " + status + " back to client " + ex.getMessage());
+        }
+    }
+
+    private void complete()
+    {
+        try
+        {
+            asyncContext.complete();
+        }
+        catch (IllegalStateException ex)
+        {
+            logger.warn("Request was completed before it was finished: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event)
+    {
+        logger.warn("Request timed out after " + executor.getTimeout() + " ms: " + ((HttpServletRequest) asyncContext.getRequest()).getRequestURI());
+        finish(503);
+    }
+
+    @Override
+    public void onError(AsyncEvent event)
+    {
+        final Throwable throwable = event != null ? event.getThrowable() : null;
+        logger.warn("Async request failed: " + (throwable != null ? throwable.getMessage() : ""));
+        finish(500);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event)
+    {
+        done.set(true);
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event)
+    {
+    }
+
+    /** Drops the output once the request is done, so a request thread can't write to a response that is already completed */
+    private static class AsyncResponse extends HttpServletResponseWrapper
+    {
+        private final AtomicBoolean done;
+
+        AsyncResponse(HttpServletResponse response, AtomicBoolean done)
+        {
+            super(response);
+            this.done = done;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            if (!done.get())
+            {
+                return super.getOutputStream();
+            }
+            return new ServletOutputStream()
+            {
+                @Override
+                public boolean isReady()
+                {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener)
+                {
+                }
+
+                @Override
+                public void write(int b)
+                {
+                }
+            };
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            if (!done.get())
+            {
+                return super.getWriter();
+            }
+            return new PrintWriter(new StringWriter());
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException
+        {
+            if (!done.get())
+            {
+                super.sendError(sc, msg);
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException
+        {
+            if (!done.get())
+            {
+                super.sendError(sc);
+            }
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException
+        {
+            if (!done.get())
+            {
+                super.sendRedirect(location);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            if (!done.get())
+            {
+                super.flushBuffer();
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.server.internal;
+
+import org.rapla.entities.User;
+import org.rapla.framework.RaplaException;
+import org.rapla.logger.Logger;
+import org.rapla.scheduler.CommandScheduler;
+import org.rapla.scheduler.CompletablePromise;
+import org.rapla.scheduler.Promise;
+import org.rapla.scheduler.ResolvedPromise;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateEvent;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Parks the refresh requests of clients until a change is committed that is visible to the user of the request.
+ * Waiting clients cost nothing until the storage commits a non empty change. Then the update event is only created for the waiting
+ * requests whose user can see one of the changed entities, and only the requests with a non empty update event are completed. The other requests stay parked until the next change
+ * or until their timeout, after which an empty update event is returned and the client sends a new request.
+ */
+@Singleton
+public class ChangeNotifier
+{
+    /** the maximum time a request is parked. Should be less than the idle timeout of the servlet container*/
+    public static final int MAX_TIMEOUT_SECONDS = 120;
+
+    private final Logger logger;
+    private final CachableStorageOperator operator;
+    private final UpdateDataManager updateDataManager;
+    private final CommandScheduler scheduler;
+    private final Set<Waiting> waitingSet = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean notifyScheduled = new AtomicBoolean();
+    private volatile long lastCommit;
+
+    @Inject
+    public ChangeNotifier(Logger logger, CachableStorageOperator operator, UpdateDataManager updateDataManager, CommandScheduler scheduler)
+    {
+        this.logger = logger.getChildLogger("changenotifier");
+        this.operator = operator;
+        this.updateDataManager = updateDataManager;
+        this.scheduler = scheduler;
+        operator.addCommitListener(this::changesCommitted);
+    }
+
+    static private final class Waiting
+    {
+        final User user;
+        final CompletablePromise<UpdateEvent> promise;
+        volatile Date lastSynced;
+
+        Waiting(User user, Date lastSynced, CompletablePromise<UpdateEvent> promise)
+        {
+            this.user = user;
+            this.lastSynced = lastSynced;
+            this.promise = promise;
+        }
+    }
+
+    /** returns the changes since lastSynced for the user. If there are no changes the returned promise completes when
+     * the next change for the user is committed or after the timeout with an empty update event.*/
+    public Promise<UpdateEvent> waitForChanges(User user, Date lastSynced, int timeoutInSeconds) throws RaplaException
+    {
+        final UpdateEvent event = updateDataManager.createUpdateEvent(user, lastSynced);
+        if (!event.isEmpty() || timeoutInSeconds <= 0)
+        {
+            return new ResolvedPromise<>(event);
+        }
+        final CompletablePromise<UpdateEvent> promise = scheduler.createCompletable();
+        final Waiting waiting = new Waiting(user, event.getLastValidated(), promise);
+        waitingSet.add(waiting);
+        final int timeout = Math.min(timeoutInSeconds, MAX_TIMEOUT_SECONDS);
+        scheduler.delay(() -> timeout(waiting), timeout * 1000);
+        // a change could be committed after the update event was created and before the request was added
+        if (lastCommit >= waiting.lastSynced.getTime())
+        {
+            scheduleNotify();
+        }
+        return promise;
+    }
+
+    /** returns the number of currently parked requests */
+    public int getWaitingCount()
+    {
+        return waitingSet.size();
+    }
+
+    /** called by the storage while holding the write lock, so we only schedule the notification */
+    private void changesCommitted(Date until)
+    {
+        lastCommit = until.getTime();
+        if (!waitingSet.isEmpty())
+        {
+            scheduleNotify();
+        }
+    }
+
+    private void scheduleNotify()
+    {
+        // multiple commits before the notification is executed are handled in one pass
+        if (notifyScheduled.compareAndSet(false, true))
+        {
+            scheduler.run(this::notifyWaiting);
+        }
+    }
+
+    private void notifyWaiting()
+    {
+        notifyScheduled.set(false);
+        int completed = 0;
+        for (Iterator<Waiting> it = waitingSet.iterator(); it.hasNext(); )
+        {
+            final Waiting waiting = it.next();
+            final UpdateEvent event;
+            try
+            {
+                // the update event is only created if the user can see a change
+                if (!operator.hasChanges(waiting.user, waiting.lastSynced))
+                {
+                    continue;
+                }
+                event = updateDataManager.createUpdateEvent(waiting.user, waiting.lastSynced);
+            }
+            catch (Exception ex)
+            {
+                if (waitingSet.remove(waiting))
+                {
+                    waiting.promise.completeExceptionally(ex);
+                }
+                continue;
+            }
+            if (event.isEmpty())
+            {
+                // the change is not visible for the user so we can skip it next time
+                waiting.lastSynced = event.getLastValidated();
+            }
+            else if (waitingSet.remove(waiting))
+            {
+                waiting.promise.complete(event);
+                completed++;
+            }
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Notified " + completed + " clients of changes. Still waiting " + waitingSet.size());
+        }
+    }
+
+    private void timeout(Waiting waiting)
+    {
+        if (!waitingSet.remove(waiting))
+        {
+            return;
+        }
+        try
+        {
+            waiting.promise.complete(updateDataManager.createUpdateEvent(waiting.user, waiting.lastSynced));
+        }
+        catch (Exception ex)
+        {
+            waiting.promise.completeExceptionally(ex);
+        }
+    }
+}
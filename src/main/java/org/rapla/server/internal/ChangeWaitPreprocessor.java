@@ -0,0 +1,105 @@
+package org.rapla.server.internal;
+
+import org.rapla.components.util.SerializableDateTimeFormat;
+import org.rapla.entities.User;
+import org.rapla.framework.RaplaException;
+import org.rapla.inject.Extension;
+import org.rapla.logger.Logger;
+import org.rapla.rest.JsonParserWrapper;
+import org.rapla.scheduler.Promise;
+import org.rapla.scheduler.ResolvedPromise;
+import org.rapla.server.RemoteSession;
+import org.rapla.server.extensionpoints.ServletRequestPreprocessor;
+import org.rapla.server.provider.ExceptionResponseBuilder;
+import org.rapla.storage.UpdateEvent;
+
+import javax.inject.Inject;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response;
+import java.io.PrintWriter;
+import java.util.Date;
+
+/** Handles the storage/refresh/wait requests of the RemoteStorage before the rest dispatcher, if the servlet handles the request async.
+ * The request is parked until the promise of the ChangeNotifier completes and the update event is written from the completion callback.
+ * So waiting clients don't hold a request thread. Other requests, and the wait requests in the container threads, are passed on to the rest dispatcher.
+ */
+@Extension(provides = ServletRequestPreprocessor.class, id = ChangeWaitPreprocessor.ID)
+public class ChangeWaitPreprocessor implements ServletRequestPreprocessor
+{
+    public static final String ID = "changewait";
+    static final String PATH = "storage/refresh/wait";
+
+    private final RemoteSession session;
+    private final ChangeNotifier changeNotifier;
+    private final Logger logger;
+
+    @Inject
+    public ChangeWaitPreprocessor(RemoteSession session, ChangeNotifier changeNotifier, Logger logger)
+    {
+        this.session = session;
+        this.changeNotifier = changeNotifier;
+        this.logger = logger;
+    }
+
+    @Override
+    public HttpServletRequest handleRequest(ServletContext servletContext, HttpServletRequest request, HttpServletResponse response)
+    {
+        final LongPollRequest longPoll = (LongPollRequest) request.getAttribute(LongPollRequest.ATTRIBUTE);
+        final String pathInfo = request.getPathInfo();
+        if (longPoll == null || pathInfo == null || !pathInfo.endsWith(PATH) || !"POST".equals(request.getMethod()))
+        {
+            return request;
+        }
+        longPoll.park(waitForChanges(request), (event, error, out) -> write(request, out, event, error));
+        return request;
+    }
+
+    private Promise<UpdateEvent> waitForChanges(HttpServletRequest request)
+    {
+        final String lastSyncedTime = request.getParameter("lastSynched");
+        try
+        {
+            final User user = session.checkAndGetUser(request);
+            final Date lastSynced = SerializableDateTimeFormat.INSTANCE.parseTimestamp(lastSyncedTime);
+            final String timeout = request.getParameter("timeout");
+            return changeNotifier.waitForChanges(user, lastSynced, timeout != null ? Integer.parseInt(timeout) : 0);
+        }
+        catch (RaplaException ex)
+        {
+            return new ResolvedPromise<>(ex);
+        }
+        catch (Exception ex)
+        {
+            return new ResolvedPromise<>(new RaplaException("Illegal wait request " + lastSyncedTime + " caused " + ex.getMessage(), ex));
+        }
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse response, UpdateEvent event, Throwable error) throws Exception
+    {
+        final int status;
+        final Object entity;
+        if (error == null)
+        {
+            status = 200;
+            entity = event;
+        }
+        else
+        {
+            final Response errorResponse = ExceptionResponseBuilder.toResponse(error instanceof Exception ? (Exception) error : new RaplaException(error), request);
+            status = errorResponse.getStatus();
+            entity = errorResponse.getEntity();
+        }
+        final String json = JsonParserWrapper.defaultJson().get().toJson(entity);
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Writing parked wait request with status " + status);
+        }
+        response.setStatus(status);
+        response.setContentType("application/json;charset=utf-8");
+        final PrintWriter writer = response.getWriter();
+        writer.write(json);
+        writer.flush();
+    }
+}
@@ -0,0 +1,25 @@
+package org.rapla.server.internal;
+
+import org.rapla.scheduler.Promise;
+
+import javax.servlet.http.HttpServletResponse;
+
+/** Set as request attribute by the servlet when a request is handled async. A request handler can park the request until a promise completes.
+ * The result is then written from the completion callback, so the request does not hold a thread while it waits.
+ */
+public interface LongPollRequest
+{
+    String ATTRIBUTE = LongPollRequest.class.getName();
+
+    interface ResultWriter<T>
+    {
+        /** error is null if the promise completed normally */
+        void write(T result, Throwable error, HttpServletResponse response) throws Exception;
+    }
+
+    /** the servlet does not complete the request after the current dispatch. The writer is called in a request thread, when the promise is completed,
+     * unless the request timed out before. */
+    <T> void park(Promise<T> promise, ResultWriter<T> writer);
+
+    boolean isParked();
+}
@@ -449,6 +449,15 @@ import java.util.stream.Collectors;
         }
     }
 
+    @Override
+    public Promise<UpdateEvent> waitForChanges(String lastSyncedTime, int timeoutInSeconds)
+    {
+        // async requests are parked by the ChangeWaitPreprocessor. A request that reaches the resource is handled in a container thread,
+        // that would be blocked while waiting, so the client has to fall back to polling
+        return new ResolvedPromise<>(new RaplaException(
+                "Waiting for changes is not supported with " + RequestExecutor.REQUEST_EXECUTOR + "=" + RequestExecutor.MODE_CONTAINER + ". Use refresh instead."));
+    }
+
     public Logger getLogger()
     {
         return session.getLogger();
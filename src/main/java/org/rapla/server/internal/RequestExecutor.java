@@ -0,0 +1,185 @@
+package org.rapla.server.internal;
+
+import org.rapla.logger.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Executes servlet requests outside of the container threads. The servlet starts an async request and hands it over to this executor,
+ * so a request that waits for the storage does not block a thread of the container.
+ * <ul>
+ * <li>container: the requests are handled in the container thread as before. This is the default</li>
+ * <li>threads: the requests are handled by a pool of request.threads threads</li>
+ * <li>virtual: each request is handled by its own virtual thread. Needs a java 21 runtime, otherwise the thread pool is used</li>
+ * </ul>
+ * If more than request.queue requests are waiting for a request thread (in the virtual mode: are handled at the same time), further requests are rejected
+ * and the servlet answers them with 503.
+ */
+public class RequestExecutor
+{
+    /** option for the execution mode of the requests: container, threads or virtual */
+    public static final String REQUEST_EXECUTOR = "request.executor";
+    /** option for the number of request threads in the threads mode */
+    public static final String REQUEST_THREADS = "request.threads";
+    /** option for the maximum number of requests waiting for a request thread */
+    public static final String REQUEST_QUEUE = "request.queue";
+    /** option for the timeout in milliseconds of an async request. Raised to MIN_TIMEOUT, so parked long poll requests are not timed out by the container */
+    public static final String REQUEST_TIMEOUT = "request.timeout";
+
+    public static final String MODE_CONTAINER = "container";
+    public static final String MODE_THREADS = "threads";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    public static final int DEFAULT_THREADS = 64;
+    public static final int DEFAULT_QUEUE = 1000;
+    public static final int MIN_TIMEOUT = (ChangeNotifier.MAX_TIMEOUT_SECONDS + 30) * 1000;
+    public static final int DEFAULT_TIMEOUT = 180000;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final String mode;
+    private final long timeout;
+
+    private RequestExecutor(ExecutorService executor, Semaphore permits, String mode, long timeout)
+    {
+        this.executor = executor;
+        this.permits = permits;
+        this.mode = mode;
+        this.timeout = timeout;
+    }
+
+    /** returns null if the requests should be handled in the container threads */
+    public static RequestExecutor create(ServerContainerContext context, Logger logger)
+    {
+        final String option = context.getOption(REQUEST_EXECUTOR);
+        final String mode = option != null ? option.trim().toLowerCase() : MODE_CONTAINER;
+        final int threads = context.getOption(REQUEST_THREADS, DEFAULT_THREADS);
+        final int queue = context.getOption(REQUEST_QUEUE, DEFAULT_QUEUE);
+        final int timeout = context.getOption(REQUEST_TIMEOUT, DEFAULT_TIMEOUT);
+        return create(mode, threads, queue, timeout, logger);
+    }
+
+    static RequestExecutor create(String mode, int threads, int queue, long timeout, Logger logger)
+    {
+        if (!mode.equals(MODE_THREADS) && !mode.equals(MODE_VIRTUAL))
+        {
+            if (!mode.isEmpty() && !mode.equals(MODE_CONTAINER))
+            {
+                logger.warn("Unknown " + REQUEST_EXECUTOR + " " + mode + ". Handling requests in the container threads.");
+            }
+            return null;
+        }
+        if (timeout < MIN_TIMEOUT)
+        {
+            logger.warn(REQUEST_TIMEOUT + " " + timeout + " is shorter than the long poll timeout. Using " + MIN_TIMEOUT + " ms.");
+            timeout = MIN_TIMEOUT;
+        }
+        final int queueSize = Math.max(1, queue);
+        if (mode.equals(MODE_VIRTUAL))
+        {
+            final ExecutorService virtual = createVirtualThreadExecutor();
+            if (virtual != null)
+            {
+                logger.info("Handling requests in virtual threads");
+                return new RequestExecutor(virtual, new Semaphore(queueSize), MODE_VIRTUAL, timeout);
+            }
+            logger.warn("Virtual threads are not supported by java " + System.getProperty("java.version") + ". Using a pool of " + threads + " request threads.");
+        }
+        else
+        {
+            logger.info("Handling requests in a pool of " + threads + " request threads");
+        }
+        return new RequestExecutor(createThreadPool(threads, queueSize), null, MODE_THREADS, timeout);
+    }
+
+    private static ExecutorService createThreadPool(int threads, int queue)
+    {
+        final int poolSize = Math.max(1, threads);
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = runnable ->
+        {
+            final Thread thread = new Thread(runnable, "rapla-request-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queue), factory);
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor is called via reflection, because the server is still compiled for java 8 */
+    private static ExecutorService createVirtualThreadExecutor()
+    {
+        try
+        {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    public String getMode()
+    {
+        return mode;
+    }
+
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /** returns false if the request could not be scheduled, because the queue is full or the executor is shut down */
+    public boolean execute(Runnable request)
+    {
+        if (permits == null)
+        {
+            try
+            {
+                executor.execute(request);
+                return true;
+            }
+            catch (RejectedExecutionException ex)
+            {
+                return false;
+            }
+        }
+        if (!permits.tryAcquire())
+        {
+            return false;
+        }
+        try
+        {
+            executor.execute(() ->
+            {
+                try
+                {
+                    request.run();
+                }
+                finally
+                {
+                    permits.release();
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException ex)
+        {
+            permits.release();
+            return false;
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+}
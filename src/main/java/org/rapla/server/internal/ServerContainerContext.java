@@ -9,6 +9,7 @@ public class ServerContainerContext
     private Map<String,DataSource> dbDatasources = new LinkedHashMap<String,DataSource>();
     private Map<String,String> fileDatasources = new LinkedHashMap<String,String>();
     private Map<String,String> services = new LinkedHashMap<>();
+    private Map<String,String> options = new LinkedHashMap<>();
     private Object mailSession;
     Runnable shutdownCommand;
     String patchScript;
@@ -88,6 +89,43 @@ public class ServerContainerContext
         return true;
     }
 
+    public void putOption(String key, String value)
+    {
+        options.put(key, value);
+    }
+
+    /** returns the value of a server option configured with the raplaoptions entry or null if not set*/
+    public String getOption(String key)
+    {
+        return options.get(key);
+    }
+
+    public int getOption(String key, int defaultValue)
+    {
+        final String s = options.get(key);
+        if (s == null || s.trim().isEmpty())
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Integer.parseInt(s.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            return defaultValue;
+        }
+    }
+
+    public boolean getOption(String key, boolean defaultValue)
+    {
+        final String s = options.get(key);
+        if (s == null || s.trim().isEmpty())
+        {
+            return defaultValue;
+        }
+        return Boolean.valueOf(s.trim());
+    }
 
     public void addFileDatasource(String key,String fileDatasource)
     {
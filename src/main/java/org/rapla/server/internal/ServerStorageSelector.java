@@ -11,8 +11,10 @@ import org.rapla.server.PromiseWait;
 import org.rapla.storage.CachableStorageOperator;
 import org.rapla.storage.ImportExportManager;
 import org.rapla.storage.dbfile.FileOperator;
+import org.rapla.storage.dbsql.ConnectionPool;
 import org.rapla.storage.dbsql.DBOperator;
 import org.rapla.storage.impl.server.ImportExportManagerImpl;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -25,6 +27,27 @@ import java.util.Set;
 @Singleton
 public class ServerStorageSelector implements Provider<CachableStorageOperator>
 {
+    /** option for the number of threads used for calculating the conflicts on startup. 0 uses one thread per processor. The default 1 calculates them serially */
+    public static final String CONFLICT_INIT_PARALLELISM = "conflict.init.parallelism";
+    /** option for the number of threads used for resolving the reservations and building the appointment index on startup. 0 uses one thread per processor.
+     * With database storage, every value other than 1 also reads the allocations and appointment exceptions over parallel connections */
+    public static final String LOAD_PARALLELISM = "load.parallelism";
+    /** option to let readers of the appointment bindings use a snapshot that is published after each write instead of waiting for the write lock */
+    public static final String SNAPSHOT_READS = "snapshot.reads";
+    /** option to append changes to a journal instead of writing the complete data file on every change. Only used for file storage */
+    public static final String FILE_JOURNAL = "file.journal";
+    /** option for the number of journal entries after which the complete data file is written */
+    public static final String FILE_JOURNAL_SNAPSHOT_INTERVAL = "file.journal.snapshotInterval";
+    /** option for the number of database connections that are kept open. Only used for database storage */
+    public static final String DB_POOL_MIN_SIZE = "db.pool.minSize";
+    /** option for the maximal number of open database connections */
+    public static final String DB_POOL_MAX_SIZE = "db.pool.maxSize";
+    /** option to check idle database connections before they are used */
+    public static final String DB_POOL_VALIDATE_ON_BORROW = "db.pool.validateOnBorrow";
+    /** option for the number of prepared statements cached per database connection. 0 disables the statement cache */
+    public static final String DB_POOL_STATEMENT_CACHE_SIZE = "db.pool.statementCacheSize";
+    /** option for the period in milliseconds in which the changes of other servers that share the database are read */
+    public static final String DB_REFRESH_PERIOD = "db.refreshPeriod";
     final ServerContainerContext containerContext;
     FileOperator file;
     DBOperator db;
@@ -56,7 +79,18 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         final String raplafile = containerContext.getMainFilesource();
         final String fileDatasource = raplafile != null ? raplafile : "data/data.xml";
-        return new FileOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, fileDatasource, permissionExtensions);
+        final FileOperator fileOperator = new FileOperator(logger, promiseWait, i18n, raplaLocale, scheduler, functionFactoryMap, fileDatasource, permissionExtensions);
+        configure(fileOperator);
+        fileOperator.setJournalEnabled(containerContext.getOption(FILE_JOURNAL, false));
+        fileOperator.setSnapshotInterval(containerContext.getOption(FILE_JOURNAL_SNAPSHOT_INTERVAL, fileOperator.getSnapshotInterval()));
+        return fileOperator;
+    }
+
+    private void configure(LocalAbstractCachableOperator operator)
+    {
+        operator.setConflictInitParallelism(containerContext.getOption(CONFLICT_INIT_PARALLELISM, 1));
+        operator.setLoadParallelism(containerContext.getOption(LOAD_PARALLELISM, 1));
+        operator.setSnapshotReads(containerContext.getOption(SNAPSHOT_READS, false));
     }
 
     synchronized private ImportExportManager getImportExport()
@@ -77,7 +111,15 @@ public class ServerStorageSelector implements Provider<CachableStorageOperator>
     {
         Provider<ImportExportManager> importExportMananger = getImportExportManager();
         final DataSource dbDatasource = containerContext.getMainDbDatasource();
-        return new DBOperator(logger, promiseWait,i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource, permissionExtensions);
+        final DBOperator dbOperator = new DBOperator(logger, promiseWait, i18n, raplaLocale, scheduler, functionFactoryMap, importExportMananger, dbDatasource,
+                permissionExtensions);
+        configure(dbOperator);
+        dbOperator.setPoolMinSize(containerContext.getOption(DB_POOL_MIN_SIZE, ConnectionPool.DEFAULT_MIN_SIZE));
+        dbOperator.setPoolMaxSize(containerContext.getOption(DB_POOL_MAX_SIZE, ConnectionPool.DEFAULT_MAX_SIZE));
+        dbOperator.setValidateOnBorrow(containerContext.getOption(DB_POOL_VALIDATE_ON_BORROW, true));
+        dbOperator.setStatementCacheSize(containerContext.getOption(DB_POOL_STATEMENT_CACHE_SIZE, ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE));
+        dbOperator.setRefreshPeriod(containerContext.getOption(DB_REFRESH_PERIOD, dbOperator.getRefreshPeriod()));
+        return dbOperator;
     }
 
 
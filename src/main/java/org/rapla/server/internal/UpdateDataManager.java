@@ -12,4 +12,10 @@ import java.util.Date;
 public interface UpdateDataManager
 {
     UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException;
+
+    /** number of update events that reused the cached changes of another client */
+    long getCacheHits();
+    /** number of update events that had to compute the changes */
+    long getCacheMisses();
+    int getCacheSize();
 }
@@ -52,9 +52,14 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** Provides an adapter for each client-session to their shared storage operator
  * Handles security and synchronizing aspects.
@@ -63,6 +68,9 @@ import java.util.TimeZone;
 @Singleton
 public class UpdateDataManagerImpl implements  UpdateDataManager
 {
+    /** the maximum estimated size of all cached change sets, counted in operations and entities. Clients that sync at the same time share the same change set*/
+    static final int CHANGE_SET_CACHE_WEIGHT = 20000;
+
     private CachableStorageOperator operator;
 
     private SecurityManager security;
@@ -71,6 +79,12 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
 
     private final PermissionController permissionController;
 
+    // access ordered, so the least recently used change sets are removed first
+    private final Map<ChangeSetKey, ChangeSet> changeSetCache = new LinkedHashMap<>(16, 0.75f, true);
+    // sum of the weights of the cached change sets. Guarded by changeSetCache
+    private int changeSetCacheWeight;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
 
     @Inject public UpdateDataManagerImpl(Logger logger, CachableStorageOperator operator, SecurityManager securityManager)
     {
@@ -100,7 +114,7 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         return clone;
     }
 
-    private TimeInterval expandInterval(RaplaObject obj,
+    static private TimeInterval expandInterval(RaplaObject obj,
             TimeInterval currentInterval)
     {
         if ( obj.getTypeClass() == Reservation.class)
@@ -115,6 +129,197 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         return currentInterval;
     }
 
+    /** The user independent part of an update event: the changes between since and until with the precomputed permission differences and
+     * the invalidate intervals of the changed reservations. The permission filter for the user is applied in {@link #createUpdateEvent(User, Date)}.
+     * Instances are shared between threads and must not be modified after creation.
+     */
+    static final class ChangeSet
+    {
+        final UpdateResult updateResult;
+        /** the permissions that differ between the old and the new version of a changed allocatable or reservation. Missing if the old version is not in the history */
+        final Map<ReferenceInfo, Set<Permission>> permissionDifferences = new HashMap<>();
+        /** the interval that must be invalidated for a changed or removed reservation */
+        final Map<ReferenceInfo, TimeInterval> invalidateIntervals = new HashMap<>();
+
+        /** the estimated size of the change set: the number of operations, the entity versions and the precomputed entries */
+        int weight;
+
+        ChangeSet(UpdateResult updateResult, Logger logger)
+        {
+            this.updateResult = updateResult;
+            if (updateResult.getSince() == null)
+            {
+                return;
+            }
+            for (Change operation : updateResult.getOperations(UpdateResult.Change.class))
+            {
+                final ReferenceInfo currentId = operation.getReference();
+                final Class<? extends Entity> typeClass = currentId.getType();
+                Entity newObject = updateResult.getLastKnown(currentId);
+                if ( newObject == null)
+                {
+                    logger.error("Object with id " + currentId + " not found in history. Ignoring. ");
+                    continue;
+                }
+                if ((typeClass == Allocatable.class && isTransferedToClient(newObject)) || typeClass == Reservation.class)
+                {
+                    PermissionContainer current = (PermissionContainer) updateResult.getLastEntryBeforeUpdate(currentId);
+                    if ( current != null)
+                    {
+                        Set<Permission> differences = new HashSet<>();
+                        Util.addDifferences(differences, current, (PermissionContainer) newObject);
+                        permissionDifferences.put(currentId, differences);
+                    }
+                }
+            }
+            for (ReferenceInfo id : updateResult.getAddedAndChangedIds())
+            {
+                final Entity obj = updateResult.getLastKnown(id);
+                if ( obj.getTypeClass() == Reservation.class)
+                {
+                    TimeInterval timeInterval = expandInterval(obj, null);
+                    final Entity entity  = updateResult.getLastEntryBeforeUpdate(id);
+                    if ( entity != null)
+                    {
+                        timeInterval = expandInterval(entity, timeInterval);
+                    }
+                    else
+                    {
+                        timeInterval = new TimeInterval( null, null);
+                    }
+                    if ( timeInterval != null)
+                    {
+                        invalidateIntervals.put(id, timeInterval);
+                    }
+                }
+            }
+            for (Remove remove : updateResult.getOperations(UpdateResult.Remove.class))
+            {
+                ReferenceInfo ref = remove.getReference();
+                if ( ref.getType() == Reservation.class)
+                {
+                    final Entity entity = updateResult.getLastEntryBeforeUpdate(ref);
+                    TimeInterval timeInterval = entity != null ? expandInterval(entity, null) : new TimeInterval( null, null);
+                    if ( timeInterval != null)
+                    {
+                        invalidateIntervals.put(ref, timeInterval);
+                    }
+                }
+            }
+            int operations = 0;
+            for (UpdateOperation ignored : updateResult.getOperations())
+            {
+                operations++;
+            }
+            // each operation holds up to two versions of the entity
+            weight = 3 * operations + invalidateIntervals.size();
+            for (Set<Permission> differences : permissionDifferences.values())
+            {
+                weight += 1 + differences.size();
+            }
+        }
+    }
+
+    static final class ChangeSetKey
+    {
+        final long since;
+        final long until;
+
+        ChangeSetKey(Date since, Date until)
+        {
+            this.since = since.getTime();
+            this.until = until.getTime();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ChangeSetKey))
+            {
+                return false;
+            }
+            ChangeSetKey other = (ChangeSetKey) obj;
+            return since == other.since && until == other.until;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(since) * 31 + Long.hashCode(until);
+        }
+    }
+
+    /** returns the changes since the timestamp for all users. Clients that synced at the same time get the same change set from the cache
+     * as long as no new change is committed*/
+    private ChangeSet getChangeSet(Date since) throws RaplaException
+    {
+        final Date lastRefreshed = operator.getLastRefreshed();
+        if (lastRefreshed != null)
+        {
+            final ChangeSet cached;
+            synchronized (changeSetCache)
+            {
+                cached = changeSetCache.get(new ChangeSetKey(since, lastRefreshed));
+            }
+            if (cached != null)
+            {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+        cacheMisses.incrementAndGet();
+        final UpdateResult updateResult = operator.getUpdateResult(since);
+        final ChangeSet changeSet = new ChangeSet(updateResult, getLogger());
+        if (updateResult.getSince() != null && updateResult.getUntil() != null)
+        {
+            putChangeSet(new ChangeSetKey(since, updateResult.getUntil()), changeSet);
+        }
+        return changeSet;
+    }
+
+    private void putChangeSet(ChangeSetKey key, ChangeSet changeSet)
+    {
+        if (changeSet.weight > CHANGE_SET_CACHE_WEIGHT)
+        {
+            return;
+        }
+        synchronized (changeSetCache)
+        {
+            final ChangeSet replaced = changeSetCache.put(key, changeSet);
+            if (replaced != null)
+            {
+                changeSetCacheWeight -= replaced.weight;
+            }
+            changeSetCacheWeight += changeSet.weight;
+            for (Iterator<ChangeSet> it = changeSetCache.values().iterator(); changeSetCacheWeight > CHANGE_SET_CACHE_WEIGHT && it.hasNext(); )
+            {
+                changeSetCacheWeight -= it.next().weight;
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses()
+    {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public int getCacheSize()
+    {
+        synchronized (changeSetCache)
+        {
+            return changeSetCache.size();
+        }
+    }
+
     public UpdateEvent createUpdateEvent(User user, Date lastSynced) throws RaplaException
     {
         Date currentTimestamp = operator.getCurrentTimestamp();
@@ -131,7 +336,8 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         int timezoneOffset = TimeZoneConverterImpl.getOffset(IOUtil.getTimeZone(), systemTimeZone, currentTimestamp.getTime());
         safeResultEvent.setTimezoneOffset(timezoneOffset);
         TimeInterval timeInterval= null;
-        final UpdateResult updateResult = operator.getUpdateResult(lastSynced, user);
+        final ChangeSet changeSet = getChangeSet(lastSynced);
+        final UpdateResult updateResult = changeSet.updateResult;
         safeResultEvent.setLastValidated(updateResult.getUntil());
         if(updateResult.getSince() == null)
         {
@@ -139,11 +345,15 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
             safeResultEvent.setNeedResourcesRefresh(true);
             return safeResultEvent;
         }
+        // the change set contains the changes for all users, so we only process the changes the user is affected by
+        final Set<ReferenceInfo> changedForUser = new HashSet<>();
+        final Set<ReferenceInfo> removedForUser = new HashSet<>();
+        operator.getChangedReferences(user, lastSynced, changedForUser, removedForUser);
         boolean resourceRefresh = lastSynced.before( historyValidStart);
         boolean conflictRefresh = lastSynced.before( conflictValidStart);
         for (Remove op : updateResult.getOperations(Remove.class))
         {
-            if ( op.getType() == DynamicType.class)
+            if ( op.getType() == DynamicType.class && removedForUser.contains(op.getReference()))
             {
                 resourceRefresh = true;
                 conflictRefresh = true;
@@ -153,14 +363,14 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         {
             for (UpdateOperation op : updateResult.getOperations(Change.class))
             {
-                if (op.getType() == DynamicType.class)
+                if (op.getType() == DynamicType.class && changedForUser.contains(op.getReference()))
                 {
                     conflictRefresh = true;
                 }
             }
             for (UpdateOperation op : updateResult.getOperations(UpdateResult.Add.class))
             {
-                if (op.getType() == DynamicType.class)
+                if (op.getType() == DynamicType.class && changedForUser.contains(op.getReference()))
                 {
                     conflictRefresh = true;
                 }
@@ -173,24 +383,23 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
         for (Change operation : updateResult.getOperations(UpdateResult.Change.class))
         {
             final ReferenceInfo currentId = operation.getReference();
-            final Class<? extends Entity> typeClass = currentId.getType();
-            Entity newObject = updateResult.getLastKnown(currentId);
-            if ( newObject == null)
+            if (!changedForUser.contains(currentId))
             {
-                getLogger().error("Object with id " + currentId + " not found in history. Ignoring. ");
+                continue;
             }
+            final Class<? extends Entity> typeClass = currentId.getType();
+            Entity newObject = updateResult.getLastKnown(currentId);
             // we get all the permissions that have changed on an allocatable
             if (typeClass == Allocatable.class && isTransferedToClient(newObject))
             {
-                PermissionContainer current = (PermissionContainer) updateResult.getLastEntryBeforeUpdate(currentId);
-                if ( current == null)
+                Set<Permission> differences = changeSet.permissionDifferences.get(currentId);
+                if ( differences == null)
                 {
                     resourceRefresh = true;
                 }
                 else
                 {
-                    PermissionContainer newObj = (PermissionContainer) newObject;
-                    Util.addDifferences(invalidatePermissions, current, newObj);
+                    invalidatePermissions.addAll(differences);
                 }
             }
             // We trigger a resource refresh if the groups of the user have changed
@@ -241,15 +450,14 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
             }
             if (typeClass == Reservation.class)
             {
-                PermissionContainer current = (PermissionContainer) updateResult.getLastEntryBeforeUpdate(currentId);
-                if ( current == null)
+                Set<Permission> differences = changeSet.permissionDifferences.get(currentId);
+                if ( differences == null)
                 {
                     resourceRefresh = true;
                 }
                 else
                 {
-                    PermissionContainer newObj = (PermissionContainer) newObject;
-                    Util.addDifferences(invalidateEventPermissions, current, newObj);
+                    invalidateEventPermissions.addAll(differences);
                 }
             }
         }
@@ -328,20 +536,24 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
 
             for (ReferenceInfo id : updateResult.getAddedAndChangedIds())
             {
-                final Entity obj = updateResult.getLastKnown(id);
+                if (!changedForUser.contains(id))
+                {
+                    continue;
+                }
+                Entity obj = updateResult.getLastKnown(id);
                 final Class<? extends  Entity> raplaType = obj.getTypeClass();
                 if ( raplaType == Reservation.class)
                 {
-                    timeInterval = expandInterval(obj, timeInterval);
-                    final Entity entity  = updateResult.getLastEntryBeforeUpdate(id);
-                    if ( entity != null)
+                    final TimeInterval interval = changeSet.invalidateIntervals.get(id);
+                    if ( interval != null)
                     {
-                        timeInterval = expandInterval(entity, timeInterval);
-                    }
-                    else
-                    {
-                        timeInterval = new TimeInterval( null, null);
+                        timeInterval = interval.union(timeInterval);
                     }
+                }
+                else if ( raplaType == Conflict.class)
+                {
+                    // the conflicts in the change set are not filled for a specific user
+                    obj = operator.fillConflictDisableInformation(user, (Conflict) obj);
                 }
                     // Add entity to result
                 processClientReadable(user, safeResultEvent, obj, false);
@@ -350,6 +562,10 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
             for (Remove remove : removedEntities)
             {
                 ReferenceInfo ref = remove.getReference();
+                if (!removedForUser.contains(ref))
+                {
+                    continue;
+                }
                 Class<? extends Entity> type = ref.getType();
                 if (type == Allocatable.class || type == Conflict.class || type == DynamicType.class || type == User.class || type == Category.class)
                 {
@@ -357,14 +573,10 @@ public class UpdateDataManagerImpl implements  UpdateDataManager
                 }
                 if ( type == Reservation.class)
                 {
-                    final Entity entity = updateResult.getLastEntryBeforeUpdate(ref);
-                    if ( entity != null)
+                    final TimeInterval interval = changeSet.invalidateIntervals.get(ref);
+                    if ( interval != null)
                     {
-                        timeInterval = expandInterval(entity, timeInterval);
-                    }
-                    else
-                    {
-                        timeInterval = new TimeInterval( null, null);
+                        timeInterval = interval.union(timeInterval);
                     }
                 }
             }
@@ -4,8 +4,13 @@
 package org.rapla.server.servletpages;
 
 import org.rapla.RaplaSystemInfo;
+import org.rapla.server.internal.ChangeNotifier;
 import org.rapla.server.internal.RaplaStatusEntry;
 import org.rapla.server.internal.ServerContainerContext;
+import org.rapla.server.internal.UpdateDataManager;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.dbsql.ConnectionPool;
+import org.rapla.storage.dbsql.DBOperator;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -23,6 +28,9 @@ import java.io.IOException;
 public class RaplaStatusPageGenerator  {
     @Inject RaplaSystemInfo m_i18n;
     @Inject ServerContainerContext serverContainerContext;
+    @Inject UpdateDataManager updateDataManager;
+    @Inject ChangeNotifier changeNotifier;
+    @Inject CachableStorageOperator operator;
     @Inject
     public RaplaStatusPageGenerator()
     {
@@ -52,6 +60,17 @@ public class RaplaStatusPageGenerator  {
         String javaversion = System.getProperty("java.version");
      	out.println( "<p>Server running </p>" +  m_i18n.infoText( javaversion));
         out.println( "<hr>" );
+        out.println( "<p>Update cache: " + updateDataManager.getCacheHits() + " hits, " + updateDataManager.getCacheMisses() + " misses, "
+                + updateDataManager.getCacheSize() + " entries</p>" );
+        out.println( "<p>Clients waiting for changes: " + changeNotifier.getWaitingCount() + "</p>" );
+        final ConnectionPool pool = operator instanceof DBOperator ? ((DBOperator) operator).getConnectionPool() : null;
+        if ( pool != null)
+        {
+            out.println( "<p>Database connections: " + pool.getOpenCount() + " open, " + pool.getIdleCount() + " idle, " + pool.getWaitingCount()
+                    + " waiting, " + pool.getBorrowCount() + " borrowed, " + pool.getCreateCount() + " created, " + pool.getWaitCount() + " waits, "
+                    + pool.getValidationFailures() + " validation failures</p>" );
+            out.println( "<p>Statement cache: " + pool.getStatementHits() + " hits, " + pool.getStatementMisses() + " misses</p>" );
+        }
         out.println( "</body>" );
         out.println( "</html>" );
         out.close();
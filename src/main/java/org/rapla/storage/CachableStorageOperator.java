@@ -19,8 +19,10 @@ import org.rapla.entities.Entity;
 import org.rapla.entities.User;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.storage.ImportExportEntity;
 import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
 import org.rapla.framework.RaplaException;
 import org.rapla.scheduler.Promise;
 
@@ -28,6 +30,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public interface CachableStorageOperator extends StorageOperator {
 
@@ -49,10 +53,25 @@ public interface CachableStorageOperator extends StorageOperator {
 
     UpdateResult getUpdateResult(Date since) throws RaplaException;
     UpdateResult getUpdateResult(Date since,User user) throws RaplaException;
+    /** adds the references of all entities changed after the timestamp that are visible for the user to changed and the removed ones to removed.
+     * Used to filter an update result that was computed for all users. */
+    void getChangedReferences(User user, Date since, Collection<ReferenceInfo> changed, Collection<ReferenceInfo> removed) throws RaplaException;
+    /** returns a copy of the conflict with the disabled and editable flags for the user */
+    Conflict fillConflictDisableInformation(User user, Conflict conflict);
+    /** the timestamp of the last committed or refreshed change. Changes up to that timestamp are returned in an update result */
+    Date getLastRefreshed();
+    /** the timestamp of the last commit or refresh that changed data, or the connect time. Unlike {@link #getLastRefreshed()} it does not move on refreshes without changes */
+    Date getLastChanged();
 
     Date getHistoryValidStart();
     Date getConnectStart();
 
+    /** the listener is called with the timestamp of each committed change. It is called while the write lock is held, so it must return immediately */
+    void addCommitListener(Consumer<Date> listener);
+    void removeCommitListener(Consumer<Date> listener);
+    /** returns true if an entity that is visible for the user was changed or removed after since. Cheaper than creating the update result */
+    boolean hasChanges(User user, Date since) throws RaplaException;
+
     Map<String, ImportExportEntity> getImportExportEntities(String systemId, int importExportDirection) throws RaplaException;
     
     /**
@@ -72,6 +91,17 @@ public interface CachableStorageOperator extends StorageOperator {
 
     Collection<ReferenceInfo<User>> findUsersThatExport(Allocatable allocatable) throws RaplaException;
 
+    /** returns the non template reservations whose appointments all end before or at the passed date. The appointment index is used to find them*/
+    Collection<ReferenceInfo<Reservation>> getReservationsEndingBefore(Date end) throws RaplaException;
+
+    /** returns the next page of the non template reservations that have an appointment in the interval and match the filter.
+     * Only appointments that are allocated to one of the allocatables are considered, or all appointments if the collection is empty.
+     * The appointment index is visited in start order and only until the page is full.
+     * @param cursor the next cursor of the previous page or null for the first page
+     */
+    ReservationPage getReservationPage(Collection<Allocatable> allocatables, Date start, Date end, Predicate<Reservation> filter, String cursor, int limit)
+            throws RaplaException;
+
     <T> T  waitForWithRaplaException(Promise<T> promise, int millis) throws RaplaException;
 }
 
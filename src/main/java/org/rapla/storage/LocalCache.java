@@ -653,6 +653,17 @@ public class LocalCache implements EntityResolver
         return allocatableIds;
     }
 
+    /** returns the result of {@link #getDependentRef(ReferenceInfo)} for all allocatables that have dependencies*/
+    public Map<ReferenceInfo<Allocatable>, Set<ReferenceInfo<Allocatable>>> getDependentRefs()
+    {
+        Map<ReferenceInfo<Allocatable>, Set<ReferenceInfo<Allocatable>>> result = new HashMap<>();
+        for (ReferenceInfo<Allocatable> allocatableRef : graph.keySet())
+        {
+            result.put(allocatableRef, getDependentRef(allocatableRef));
+        }
+        return result;
+    }
+
     public Set<ReferenceInfo<Allocatable>> getDependent(final Collection<Allocatable> allocatables)
     {
         Set<ReferenceInfo<Allocatable>> allocatableIds = new LinkedHashSet<>();
@@ -0,0 +1,118 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage;
+
+import org.rapla.entities.domain.Reservation;
+import org.rapla.framework.RaplaException;
+
+import java.util.Collections;
+import java.util.List;
+
+/** A page of reservations. The reservations are ordered by the start of their first appointment in the queried interval and by their id.
+ * The cursor of the next page is the position of the last reservation of this page, or null if this is the last page.
+ */
+public class ReservationPage
+{
+    private final List<Reservation> reservations;
+    private final Position next;
+
+    public ReservationPage(List<Reservation> reservations, Position next)
+    {
+        this.reservations = Collections.unmodifiableList(reservations);
+        this.next = next;
+    }
+
+    public List<Reservation> getReservations()
+    {
+        return reservations;
+    }
+
+    /** returns the cursor of the next page or null if there are no more reservations */
+    public String getNextCursor()
+    {
+        return next != null ? next.toString() : null;
+    }
+
+    /** position of a reservation in the page order. The string version is used as cursor */
+    public static final class Position implements Comparable<Position>
+    {
+        final long start;
+        final String id;
+
+        public Position(long start, String id)
+        {
+            this.start = start;
+            this.id = id;
+        }
+
+        public long getStart()
+        {
+            return start;
+        }
+
+        /** parses a cursor that was returned by {@link ReservationPage#getNextCursor()}. Returns null for an empty cursor*/
+        public static Position parse(String cursor) throws RaplaException
+        {
+            if (cursor == null || cursor.isEmpty())
+            {
+                return null;
+            }
+            final int separator = cursor.indexOf(':');
+            if (separator <= 0)
+            {
+                throw new RaplaException("Invalid cursor " + cursor);
+            }
+            try
+            {
+                return new Position(Long.parseLong(cursor.substring(0, separator)), cursor.substring(separator + 1));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new RaplaException("Invalid cursor " + cursor);
+            }
+        }
+
+        @Override
+        public int compareTo(Position other)
+        {
+            if (start != other.start)
+            {
+                return start < other.start ? -1 : 1;
+            }
+            return id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Position))
+            {
+                return false;
+            }
+            final Position other = (Position) o;
+            return start == other.start && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(start) * 31 + id.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return start + ":" + id;
+        }
+    }
+}
@@ -15,10 +15,8 @@ package org.rapla.storage.dbfile;
 import org.rapla.RaplaResources;
 import org.rapla.components.util.DateTools;
 import org.rapla.components.util.iterator.IterableChain;
-import org.rapla.components.util.xml.RaplaContentHandler;
-import org.rapla.components.util.xml.RaplaErrorHandler;
 import org.rapla.components.util.xml.RaplaSAXHandler;
-import org.rapla.components.util.xml.XMLReaderAdapter;
+import org.rapla.components.util.xml.RaplaStaxReader;
 import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.Timestamp;
@@ -45,6 +43,7 @@ import org.rapla.framework.RaplaInitializationException;
 import org.rapla.framework.RaplaLocale;
 import org.rapla.framework.TypedComponentRole;
 import org.rapla.logger.Logger;
+import org.rapla.rest.JsonParserWrapper;
 import org.rapla.scheduler.CommandScheduler;
 import org.rapla.server.PromiseWait;
 import org.rapla.server.ServerService;
@@ -60,11 +59,7 @@ import org.rapla.storage.xml.IOContext;
 import org.rapla.storage.xml.RaplaDefaultXMLContext;
 import org.rapla.storage.xml.RaplaMainReader;
 import org.rapla.storage.xml.RaplaMainWriter;
-import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.XMLReader;
 
 import javax.inject.Named;
 import java.io.BufferedWriter;
@@ -156,6 +151,10 @@ final public class FileOperator extends LocalAbstractCachableOperator
 
     private final Map<ImportExportMapKey, Map<String,ImportExportEntity>> importExportEntities = new LinkedHashMap<>();
 
+    private boolean journalEnabled = false;
+    private int snapshotInterval = 100;
+    private UpdateJournal journal;
+
     public FileOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
             Map<String, FunctionFactory> functionFactoryMap, @Named(ServerService.ENV_RAPLAFILE_ID) String resolvedPath,
             Set<PermissionExtension> permissionExtensions) throws RaplaInitializationException
@@ -183,6 +182,29 @@ final public class FileOperator extends LocalAbstractCachableOperator
         return storageURL.toString();
     }
 
+    /** If enabled, each dispatched change is appended to a journal file next to the data file instead of rewriting the whole data file.
+     * The data file is written after snapshotInterval changes and on disconnect. Must be set before connect.*/
+    public void setJournalEnabled(boolean journalEnabled)
+    {
+        this.journalEnabled = journalEnabled;
+    }
+
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+    /** number of journal entries after which the complete data file is written */
+    public void setSnapshotInterval(int snapshotInterval)
+    {
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+    }
+
+    public int getSnapshotInterval()
+    {
+        return snapshotInterval;
+    }
+
     public boolean supportsActiveMonitoring()
     {
         return false;
@@ -207,7 +229,13 @@ final public class FileOperator extends LocalAbstractCachableOperator
             addInternalTypes(cache);
             loadData(cache);
             changeStatus(InitStatus.Loaded);
+            final long indexStart = System.currentTimeMillis();
             initIndizes();
+            getLogger().info("Indizes initialized in " + (System.currentTimeMillis() - indexStart) + " ms");
+            if (journalEnabled)
+            {
+                replayJournal();
+            }
             changeStatus(InitStatus.Connected);
 
         }
@@ -231,6 +259,22 @@ final public class FileOperator extends LocalAbstractCachableOperator
     @Override
     final public void disconnect() throws RaplaException
     {
+        if (journal != null && isConnected())
+        {
+            try
+            {
+                if (journal.size() > 0)
+                {
+                    saveData();
+                }
+                journal.close();
+            }
+            catch (Exception ex)
+            {
+                getLogger().error("Could not write data file on disconnect. Changes remain in journal " + journal.getFile() + ": " + ex.getMessage(), ex);
+            }
+            journal = null;
+        }
         super.disconnect();
         importExportEntities.clear();
     }
@@ -272,6 +316,7 @@ final public class FileOperator extends LocalAbstractCachableOperator
         RaplaDefaultXMLContext inputContext = new IOContext().createInputContext(logger, raplaLocale, i18n, entityStore, this, superCategory);
         RaplaMainReader contentHandler = new RaplaMainReader(inputContext);
         boolean isLowerThen1_2 = false;
+        final long parseStart = System.currentTimeMillis();
         try
         {
             parseData(contentHandler);
@@ -288,6 +333,7 @@ final public class FileOperator extends LocalAbstractCachableOperator
             getLogger().warn("Loading error: " + getURL());
             throw new RaplaException("Can't load file at " + getURL() + ": " + ex.getMessage());
         }
+        final long resolveStart = System.currentTimeMillis();
         try
         {
             removeInconsistentReservations(  entityStore );
@@ -348,6 +394,7 @@ final public class FileOperator extends LocalAbstractCachableOperator
             if (getLogger().isDebugEnabled())
                 getLogger().debug("Entities contextualized");
             // init history
+            final long historyStart = System.currentTimeMillis();
             for (Entity entity : new IterableChain<>(list, migratedTemplates))
             {
                 if(EntityHistory.isSupportedEntity(entity.getTypeClass()))
@@ -359,6 +406,11 @@ final public class FileOperator extends LocalAbstractCachableOperator
                     }
                 }
             }
+            if (getLogger().isDebugEnabled())
+                getLogger().debug("History initialized with " + history.getStoredBytes() / 1024 + " kB");
+            final long end = System.currentTimeMillis();
+            getLogger().info("Loaded " + list.size() + " entities in " + (end - parseStart) + " ms (parsing " + (resolveStart - parseStart) + " ms, resolving "
+                    + (historyStart - resolveStart) + " ms, history " + (end - historyStart) + " ms)");
         }
         catch (RaplaException ex)
         {
@@ -413,39 +465,8 @@ final public class FileOperator extends LocalAbstractCachableOperator
 
     private void parseData(RaplaSAXHandler reader) throws RaplaException, IOException
     {
-        ContentHandler contentHandler = new RaplaContentHandler(reader);
-        try
-        {
-            InputSource source = FileIO.getInputSource(storageURL);
-            XMLReader parser = XMLReaderAdapter.createXMLReader(false);
-            RaplaErrorHandler errorHandler = new RaplaErrorHandler(getLogger().getChildLogger("reading"));
-            parser.setContentHandler(contentHandler);
-            parser.setErrorHandler(errorHandler);
-            parser.parse(source);
-        }
-        catch (SAXException ex)
-        {
-            Throwable cause = ex.getCause();
-            while (cause != null && cause.getCause() != null)
-            {
-                cause = cause.getCause();
-            }
-            if (ex instanceof SAXParseException)
-            {
-                throw new RaplaException(
-                        "Line: " + ((SAXParseException) ex).getLineNumber() + " Column: " + ((SAXParseException) ex).getColumnNumber() + " " + ((cause
-                                != null) ? cause.getMessage() : ex.getMessage()), (cause != null) ? cause : ex);
-            }
-            if (cause == null)
-            {
-                throw new RaplaException(ex);
-            }
-            if (cause instanceof RaplaException)
-                throw (RaplaException) cause;
-            else
-                throw new RaplaException(cause);
-        }
-            /*  End of Exception Handling */
+        InputSource source = FileIO.getInputSource(storageURL);
+        RaplaStaxReader.parse(source, reader);
     }
 
     public void dispatch(final UpdateEvent evt) throws RaplaException
@@ -457,40 +478,163 @@ final public class FileOperator extends LocalAbstractCachableOperator
             Date since = getCurrentTimestamp();//evt.getLastValidated();
             updateHistory(evt);
             Date until = getCurrentTimestamp();
+            // create the journal record before the update, so it contains the event as it was dispatched
+            final String journalRecord = journal != null ? createJournalRecord(evt) : null;
             // this since is for the server and used to check if an entity is new created in this write transaction so set it to the current timestamp
             // the since for the client will be used later when requesting the update event
             // call of update must be first to update the cache.
-            // then saveData() saves all the data in the cache
-            final Collection<ReferenceInfo> removeIds = evt.getRemoveIds();
-            final List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
-            final Collection<Entity> storeObjects = new ArrayList<>(evt.getStoreObjects());
-            for (Iterator<Entity> iterator = storeObjects.iterator(); iterator.hasNext();)
+            // then the change is appended to the journal or saveData() saves all the data in the cache
+            applyEvent(evt, since, until);
+            if (journalRecord != null)
             {
-                Entity entity = iterator.next();
-                if(entity instanceof ImportExportEntity)
+                appendToJournal(journalRecord);
+            }
+            else
+            {
+                saveData(cache, null, includeIds);
+            }
+        }
+        finally
+        {
+            lockManager.unlock(writeLock);
+        }
+    }
+
+    private void applyEvent(UpdateEvent evt, Date since, Date until) throws RaplaException
+    {
+        final Collection<ReferenceInfo> removeIds = evt.getRemoveIds();
+        final List<PreferencePatch> preferencePatches = evt.getPreferencePatches();
+        final Collection<Entity> storeObjects = new ArrayList<>(evt.getStoreObjects());
+        for (Iterator<Entity> iterator = storeObjects.iterator(); iterator.hasNext();)
+        {
+            Entity entity = iterator.next();
+            if(entity instanceof ImportExportEntity)
+            {
+                iterator.remove();
+                ImportExportEntity cast = (ImportExportEntity) entity;
+                insertIntoImportExportCache(cast);
+            }
+        }
+        Set<ReferenceInfo<ImportExportEntity>> removedImports = new HashSet<>();
+        for (Iterator<ReferenceInfo> iterator = removeIds.iterator(); iterator.hasNext();)
+        {
+            ReferenceInfo referenceInfo = iterator.next();
+            if(referenceInfo.getType() == ImportExportEntity.class)
+            {
+                iterator.remove();
+                removedImports.add( referenceInfo);
+            }
+        }
+        removeFromImportExportCache(removedImports);
+        refresh(since, until, storeObjects, preferencePatches, removeIds);
+    }
+
+    /** a change stored in the journal. The passwords are not part of the entities, so they are stored separately*/
+    private static class JournalRecord
+    {
+        UpdateEvent event;
+        Map<String, String> passwords;
+    }
+
+    private String createJournalRecord(UpdateEvent evt)
+    {
+        JournalRecord record = new JournalRecord();
+        record.event = evt;
+        record.passwords = new LinkedHashMap<>();
+        for (Entity entity : evt.getStoreObjects())
+        {
+            if (entity instanceof User)
+            {
+                final ReferenceInfo<User> userRef = ((User) entity).getReference();
+                final String password = cache.getPassword(userRef);
+                if (password != null)
                 {
-                    iterator.remove();
-                    ImportExportEntity cast = (ImportExportEntity) entity;
-                    insertIntoImportExportCache(cast);
+                    record.passwords.put(userRef.getId(), password);
                 }
             }
-            Set<ReferenceInfo<ImportExportEntity>> removedImports = new HashSet<>();
-            for (Iterator<ReferenceInfo> iterator = removeIds.iterator(); iterator.hasNext();)
+        }
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        return gson.toJson(record);
+    }
+
+    private void appendToJournal(String journalRecord) throws RaplaException
+    {
+        try
+        {
+            journal.append(journalRecord);
+        }
+        catch (IOException ex)
+        {
+            getLogger().error("Could not append to journal " + journal.getFile() + ". Writing complete data file instead: " + ex.getMessage(), ex);
+            saveData(cache, null, includeIds);
+            return;
+        }
+        if (journal.size() >= snapshotInterval)
+        {
+            saveData(cache, null, includeIds);
+        }
+    }
+
+    /** applies the changes from the journal that are not yet in the data file and writes a new data file*/
+    private void replayJournal() throws RaplaException
+    {
+        journal = new UpdateJournal(new File(new File(storageURL).getPath() + ".journal"));
+        final long start = System.currentTimeMillis();
+        final List<String> records;
+        try
+        {
+            records = journal.readAll();
+        }
+        catch (IOException ex)
+        {
+            throw new RaplaException("Can't read journal " + journal.getFile() + ": " + ex.getMessage(), ex);
+        }
+        if (records.isEmpty())
+        {
+            return;
+        }
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        for (String json : records)
+        {
+            final JournalRecord record = gson.fromJson(json, JournalRecord.class);
+            final UpdateEvent evt = record.event;
+            // the timestamps are already set in the entities, so we only need to add them to the history
+            Date timestamp = getCurrentTimestamp();
+            replayHistory(evt, timestamp);
+            applyEvent(evt, timestamp, timestamp);
+            if (record.passwords != null)
             {
-                ReferenceInfo referenceInfo = iterator.next();
-                if(referenceInfo.getType() == ImportExportEntity.class)
+                for (Map.Entry<String, String> entry : record.passwords.entrySet())
                 {
-                    iterator.remove();
-                    removedImports.add( referenceInfo);
+                    cache.putPassword(new ReferenceInfo<>(entry.getKey(), User.class), entry.getValue());
                 }
             }
-            removeFromImportExportCache(removedImports);
-            refresh(since, until, storeObjects, preferencePatches, removeIds);
-            saveData(cache, null, includeIds);
         }
-        finally
+        getLogger().info("Replayed " + records.size() + " changes from journal " + journal.getFile() + " in " + (System.currentTimeMillis() - start) + " ms");
+        // the replayed changes are now written to the data file
+        saveData(cache, null, includeIds);
+    }
+
+    private void replayHistory(UpdateEvent evt, Date timestamp) throws RaplaException
+    {
+        for (Entity e : evt.getStoreObjects())
         {
-            lockManager.unlock(writeLock);
+            if (e instanceof Timestamp && EntityHistory.isSupportedEntity(e.getTypeClass()))
+            {
+                final Date lastChanged = ((Timestamp) e).getLastChanged();
+                history.addHistoryEntry(e, lastChanged != null ? lastChanged : timestamp, false);
+            }
+        }
+        for (ReferenceInfo id : evt.getRemoveIds())
+        {
+            if (EntityHistory.isSupportedEntity(id.getType()))
+            {
+                final Entity e = tryResolve(id);
+                if (e != null)
+                {
+                    history.addHistoryEntry(e, timestamp, true);
+                }
+            }
         }
     }
 
@@ -644,6 +788,11 @@ final public class FileOperator extends LocalAbstractCachableOperator
                     throw new IOException(e.getMessage(), e);
                 }
             }, storageURL);
+            // all changes of the journal are now in the data file
+            if (journal != null)
+            {
+                journal.truncate();
+            }
         }
         catch (IOException e)
         {
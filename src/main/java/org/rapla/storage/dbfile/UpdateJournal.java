@@ -0,0 +1,143 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org .       |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.dbfile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append only journal with one record per line. Each record is synced to disk before {@link #append(String)} returns,
+ * so a record is either completely written or it is the last line of the file and is removed on {@link #readAll()}.
+ * Records must not contain line breaks.
+ * The journal is not synchronized. Access is guarded by the write lock of the {@link FileOperator}.
+ */
+final class UpdateJournal
+{
+    private final File file;
+    private FileOutputStream out;
+    private int size;
+
+    UpdateJournal(File file)
+    {
+        this.file = file;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /** returns the number of records appended since the last truncate*/
+    int size()
+    {
+        return size;
+    }
+
+    /** reads all complete records of the journal. An incomplete last record, e.g. from a crash while writing, is cut off the file,
+     * so the next appended record starts on a new line*/
+    List<String> readAll() throws IOException
+    {
+        List<String> records = new ArrayList<>();
+        if (!file.exists())
+        {
+            return records;
+        }
+        // end of the last complete record in bytes
+        long completeLength = 0;
+        long length = 0;
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file)))
+        {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) != -1)
+            {
+                length++;
+                if (c == '\n')
+                {
+                    if (line.size() > 0)
+                    {
+                        records.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                    }
+                    line.reset();
+                    completeLength = length;
+                }
+                else
+                {
+                    line.write(c);
+                }
+            }
+        }
+        if (length > completeLength)
+        {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.setLength(completeLength);
+                raf.getFD().sync();
+            }
+        }
+        size = records.size();
+        return records;
+    }
+
+    void append(String record) throws IOException
+    {
+        if (out == null)
+        {
+            File parentFile = file.getParentFile();
+            if (parentFile != null && !parentFile.exists())
+            {
+                parentFile.mkdirs();
+            }
+            out = new FileOutputStream(file, true);
+        }
+        out.write((record + '\n').getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        out.getFD().sync();
+        size++;
+    }
+
+    /** removes all records. Call after the data is saved completely*/
+    void truncate() throws IOException
+    {
+        close();
+        if (file.exists() && !file.delete())
+        {
+            // could not delete so we empty the file
+            new FileOutputStream(file, false).close();
+        }
+        size = 0;
+    }
+
+    void close() throws IOException
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            finally
+            {
+                out = null;
+            }
+        }
+    }
+}
@@ -274,10 +274,14 @@ public class RemoteOperator
     }
 
     boolean refreshInProgress;
+    /** seconds a wait request is parked on the server. Must be below the idle timeout of the servlet container */
+    static final int CHANGE_WAIT_TIMEOUT = 25;
+    volatile boolean waitingForChanges;
 
     public void triggerRefresh()
     {
-        if (refreshInProgress) {
+        // changes are pushed by the server while we wait for them
+        if (refreshInProgress || waitingForChanges) {
             return;
         }
         // if not we skip until the next update cycle
@@ -304,6 +308,52 @@ public class RemoteOperator
         return returnPromise;
     }
 
+    /**
+     * Asks the server for changes with a request that is parked on the server until a change for the user is committed.
+     * When the request returns, the changes are applied and the next request is sent. So changes arrive immediately
+     * and no refresh requests are sent while nothing changes. If the server does not support waiting,
+     * the waiting is stopped and {@link #triggerRefresh()} polls again.
+     */
+    public void startWaitingForChanges() {
+        if (waitingForChanges) {
+            return;
+        }
+        waitingForChanges = true;
+        waitForChanges();
+    }
+
+    public void stopWaitingForChanges() {
+        waitingForChanges = false;
+    }
+
+    private void waitForChanges() {
+        if (!waitingForChanges || !isConnected()) {
+            waitingForChanges = false;
+            return;
+        }
+        String clientRepoVersion = getLastSyncedTime();
+        RemoteStorage serv = getRemoteStorage();
+        serv.waitForChanges(clientRepoVersion, CHANGE_WAIT_TIMEOUT).thenAccept((evt) -> {
+            if (!isConnected()) {
+                return;
+            }
+            try {
+                refresh(evt);
+            } catch (EntityNotFoundException ex) {
+                getLogger().error("Refreshing all resources due to " + ex.getMessage(), ex);
+                refreshAll();
+            }
+        }).handle((dummy, ex) -> {
+            if (ex != null) {
+                getLogger().info("Waiting for changes not available. Falling back to polling: " + ex.getMessage());
+                waitingForChanges = false;
+            } else {
+                waitForChanges();
+            }
+            return null;
+        });
+    }
+
     private String getLastSyncedTime() {
         return SerializableDateTimeFormat.INSTANCE.formatTimestamp(lastSyncedTime);
     }
@@ -337,6 +387,7 @@ public class RemoteOperator
         getLogger().info("Disconnecting from server");
         try {
             bSessionActive = false;
+            waitingForChanges = false;
             cache.clearAll();
         } catch (Exception e) {
             throw new RaplaException("Could not disconnect", e);
@@ -175,6 +175,14 @@ public interface RemoteStorage
     @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
     Promise<UpdateEvent> refresh(@QueryParam("lastSynched") String lastSyncedTime);
 
+    /** returns the changes since lastSynched like refresh. If there are none, the request is parked on the server until a change visible
+     * to the user is committed or the timeout in seconds is reached. Then an empty update event is returned and the client should call again.
+     * Fails if the server handles the requests in the container threads, then the client should poll with refresh.*/
+    @POST
+    @Path("refresh/wait")
+    @Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+    Promise<UpdateEvent> waitForChanges(@QueryParam("lastSynched") String lastSyncedTime, @QueryParam("timeout") int timeoutInSeconds);
+
     @POST
     @Path("restart")
     Promise<Void> restartServer();
@@ -15,6 +15,7 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -34,6 +35,7 @@ public class AbstractTableStorage implements TableStorage
 	protected Logger logger;
 	private String dbProductName = "";
 	private Map<String,ColumnDef> columns = new LinkedHashMap<>();
+	private final List<ColumnDef> columnList;
 	protected String insertSql;
 	protected String deleteSql;
 	protected String deleteSqlWithoutCheck;
@@ -55,6 +57,7 @@ public class AbstractTableStorage implements TableStorage
 			ColumnDef col = new ColumnDef(unparsedEntry);
 			columns.put( col.getName(), col);
 		}
+		columnList = Collections.unmodifiableList(new ArrayList<>(columns.values()));
 
 		this.checkLastChanged = checkLastChanged;//
 		datetimeCal =Calendar.getInstance( getSystemTimeZone());
@@ -91,6 +94,12 @@ public class AbstractTableStorage implements TableStorage
     	return columns.get( name);
     }
 
+	/** the columns in the order of the insert statement */
+	protected List<ColumnDef> getColumns()
+	{
+		return columnList;
+	}
+
 	public void removeConnection()
 	{
 		con = null;
@@ -624,6 +633,50 @@ public class AbstractTableStorage implements TableStorage
         return value;
     }
 
+	/** sets the value with the setter that matches the type of the column, e.g. setDate for a DATETIME column. The first column is 1*/
+	protected void setValue(PreparedStatement stmt, int column, Object value) throws SQLException {
+		setValue(stmt, column, columnList.get(column - 1), value);
+	}
+
+	/** sets the value of the column as the parameter with the given index, e.g. in the WHERE clause of an update*/
+	protected void setValue(PreparedStatement stmt, int parameterIndex, ColumnDef def, Object value) throws SQLException {
+		if (def.isIntType()) {
+			setInt(stmt, parameterIndex, (Integer) value);
+		} else if (def.isDateTimeType()) {
+			setDate(stmt, parameterIndex, (Date) value);
+		} else if (def.isTimestampType()) {
+			setTimestamp(stmt, parameterIndex, (Date) value);
+		} else {
+			setString(stmt, parameterIndex, (String) value);
+		}
+	}
+
+	/** reads the value with the getter that matches the type of the column. The counterpart of setValue*/
+	protected Object getValue(ResultSet rset, int column) throws SQLException {
+		final ColumnDef def = columnList.get(column - 1);
+		if (def.isIntType()) {
+			return getInt(rset, column);
+		} else if (def.isDateTimeType()) {
+			return getDate(rset, column);
+		} else if (def.isTimestampType()) {
+			final java.sql.Timestamp timestamp = rset.getTimestamp(column, datetimeCal);
+			return timestamp != null ? new Date(timestamp.getTime()) : null;
+		} else {
+			return getString(rset, column, null);
+		}
+	}
+
+	/** writes each row with setValue and adds it to the batch. Returns the number of rows*/
+	protected int writeRows(PreparedStatement stmt, List<Object[]> rows) throws SQLException {
+		for (Object[] row : rows) {
+			for (int i = 0; i < row.length; i++) {
+				setValue(stmt, i + 1, row[i]);
+			}
+			stmt.addBatch();
+		}
+		return rows.size();
+	}
+
 	protected void setLong(PreparedStatement stmt, int column, Long number) throws SQLException {
         if ( number != null) {
             stmt.setLong( column, number.longValue() );
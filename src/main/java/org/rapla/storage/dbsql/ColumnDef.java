@@ -115,5 +115,15 @@ public class ColumnDef
         return  (lowerCase.contains("int"));
     }
 
+    public boolean isDateTimeType()
+    {
+        return type != null && type.equalsIgnoreCase("DATETIME");
+    }
+
+    public boolean isTimestampType()
+    {
+        return type != null && type.equalsIgnoreCase("TIMESTAMP");
+    }
+
 	
 }
\ No newline at end of file
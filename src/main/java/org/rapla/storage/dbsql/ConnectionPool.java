@@ -0,0 +1,605 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.dbsql;
+
+import org.rapla.logger.Logger;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Pools the connections of the {@link DBOperator} and caches the prepared statements of each connection.
+ * <ul>
+ * <li>The pool keeps at least minSize connections open and never opens more than maxSize. If all connections are in use, a caller waits until one is returned.</li>
+ * <li>A returned connection is rolled back if it was not committed, so the next borrower starts with a clean transaction.</li>
+ * <li>Idle connections are validated when they are borrowed, so connections closed by the database (e.g. the MySQL wait_timeout) are replaced.</li>
+ * <li>{@link Connection#prepareStatement(String)} returns a cached statement. Closing the statement returns it to the cache of the connection.</li>
+ * <li>setAutoCommit and setTransactionIsolation only call the driver if the value changes.</li>
+ * </ul>
+ */
+public class ConnectionPool
+{
+    public static final int DEFAULT_MIN_SIZE = 1;
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 100;
+    static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    static final long BORROW_TIMEOUT_MILLIS = 60000;
+
+    private final DataSource dataSource;
+    private final Logger logger;
+    private final int minSize;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final boolean validateOnBorrow;
+
+    // guarded by this
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private int open;
+    private int waiting;
+    private boolean closed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(DataSource dataSource, Logger logger, int minSize, int maxSize, int statementCacheSize, boolean validateOnBorrow)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.dataSource = dataSource;
+        this.logger = logger;
+        this.maxSize = maxSize;
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    /** opens the minimum number of connections */
+    public void start() throws SQLException
+    {
+        final List<Connection> connections = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < minSize; i++)
+            {
+                connections.add(getConnection());
+            }
+        }
+        finally
+        {
+            for (Connection connection : connections)
+            {
+                connection.close();
+            }
+        }
+    }
+
+    public Connection getConnection() throws SQLException
+    {
+        final long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MILLIS;
+        while (true)
+        {
+            PooledConnection pooled;
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    throw new SQLException("Connection pool is closed");
+                }
+                pooled = idle.pollFirst();
+                if (pooled == null)
+                {
+                    if (open >= maxSize)
+                    {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0)
+                        {
+                            throw new SQLException("No database connection available after " + BORROW_TIMEOUT_MILLIS + " ms. All " + maxSize + " connections are in use.");
+                        }
+                        waitCount.incrementAndGet();
+                        waiting++;
+                        try
+                        {
+                            wait(remaining);
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrupted while waiting for a database connection", ex);
+                        }
+                        finally
+                        {
+                            waiting--;
+                        }
+                        continue;
+                    }
+                    open++;
+                }
+            }
+            if (pooled == null)
+            {
+                try
+                {
+                    pooled = new PooledConnection(createPhysicalConnection());
+                    createCount.incrementAndGet();
+                }
+                catch (SQLException | RuntimeException ex)
+                {
+                    synchronized (this)
+                    {
+                        open--;
+                        notifyAll();
+                    }
+                    throw ex;
+                }
+            }
+            else if (validateOnBorrow && !isValid(pooled))
+            {
+                validationFailures.incrementAndGet();
+                logger.warn("Discarding invalid database connection");
+                discard(pooled);
+                continue;
+            }
+            borrowCount.incrementAndGet();
+            return pooled.createHandle();
+        }
+    }
+
+    private Connection createPhysicalConnection() throws SQLException
+    {
+        // some drivers load classes with the context classloader
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextClassLoader = thread.getContextClassLoader();
+        try
+        {
+            try
+            {
+                thread.setContextClassLoader(dataSource.getClass().getClassLoader());
+            }
+            catch (Exception ex)
+            {
+            }
+            return dataSource.getConnection();
+        }
+        finally
+        {
+            try
+            {
+                thread.setContextClassLoader(contextClassLoader);
+            }
+            catch (Exception ex)
+            {
+            }
+        }
+    }
+
+    private boolean isValid(PooledConnection pooled)
+    {
+        try
+        {
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        }
+        catch (SQLException | AbstractMethodError ex)
+        {
+            // drivers before jdbc 4 don't implement isValid
+            try
+            {
+                return !pooled.connection.isClosed();
+            }
+            catch (SQLException e)
+            {
+                return false;
+            }
+        }
+    }
+
+    private void release(PooledConnection pooled)
+    {
+        try
+        {
+            if (!pooled.autoCommit)
+            {
+                pooled.connection.rollback();
+            }
+            pooled.connection.clearWarnings();
+        }
+        catch (SQLException ex)
+        {
+            logger.warn("Discarding database connection that could not be reset: " + ex.getMessage());
+            discard(pooled);
+            return;
+        }
+        synchronized (this)
+        {
+            if (!closed)
+            {
+                idle.addFirst(pooled);
+                notifyAll();
+                return;
+            }
+        }
+        pooled.closePhysical();
+    }
+
+    private void discard(PooledConnection pooled)
+    {
+        synchronized (this)
+        {
+            open--;
+            notifyAll();
+        }
+        pooled.closePhysical();
+    }
+
+    /** closes the idle connections. Connections that are in use are closed when they are returned */
+    public void close()
+    {
+        final List<PooledConnection> toClose;
+        synchronized (this)
+        {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            open -= toClose.size();
+            notifyAll();
+        }
+        for (PooledConnection pooled : toClose)
+        {
+            pooled.closePhysical();
+        }
+    }
+
+    public synchronized int getOpenCount()
+    {
+        return open;
+    }
+
+    public synchronized int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    public synchronized int getWaitingCount()
+    {
+        return waiting;
+    }
+
+    public long getBorrowCount()
+    {
+        return borrowCount.get();
+    }
+
+    public long getCreateCount()
+    {
+        return createCount.get();
+    }
+
+    public long getWaitCount()
+    {
+        return waitCount.get();
+    }
+
+    public long getValidationFailures()
+    {
+        return validationFailures.get();
+    }
+
+    public long getStatementHits()
+    {
+        return statementHits.get();
+    }
+
+    public long getStatementMisses()
+    {
+        return statementMisses.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConnectionPool open=" + getOpenCount() + " idle=" + getIdleCount() + " max=" + maxSize + " waiting=" + getWaitingCount() + " borrowed="
+                + getBorrowCount() + " created=" + getCreateCount() + " waits=" + getWaitCount() + " validationFailures=" + getValidationFailures()
+                + " statementHits=" + getStatementHits() + " statementMisses=" + getStatementMisses();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+    /** a physical connection with its statement cache. It is used by only one thread at a time */
+    private final class PooledConnection
+    {
+        final Connection connection;
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest)
+            {
+                if (size() > statementCacheSize)
+                {
+                    eldest.getValue().evicted = true;
+                    if (!eldest.getValue().inUse)
+                    {
+                        eldest.getValue().closePhysical();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+        boolean autoCommit;
+        int isolation;
+
+        PooledConnection(Connection connection) throws SQLException
+        {
+            this.connection = connection;
+            this.autoCommit = connection.getAutoCommit();
+            this.isolation = connection.getTransactionIsolation();
+        }
+
+        Connection createHandle()
+        {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[] { Connection.class }, new ConnectionHandle(this));
+        }
+
+        PreparedStatement prepare(String sql, Connection handle) throws SQLException
+        {
+            if (statementCacheSize == 0)
+            {
+                statementMisses.incrementAndGet();
+                return connection.prepareStatement(sql);
+            }
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse)
+            {
+                statementHits.incrementAndGet();
+                cached.inUse = true;
+                return cached.createHandle(handle);
+            }
+            statementMisses.incrementAndGet();
+            final PreparedStatement statement = connection.prepareStatement(sql);
+            if (cached != null)
+            {
+                // the statement is already used in an outer loop, so the new one is not cached
+                return statement;
+            }
+            cached = new CachedStatement(statement);
+            cached.inUse = true;
+            statements.put(sql, cached);
+            return cached.createHandle(handle);
+        }
+
+        void closePhysical()
+        {
+            for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext(); )
+            {
+                it.next().closePhysical();
+                it.remove();
+            }
+            try
+            {
+                connection.close();
+            }
+            catch (SQLException ex)
+            {
+                logger.debug("Could not close database connection " + ex.getMessage());
+            }
+        }
+    }
+
+    private final class ConnectionHandle implements InvocationHandler
+    {
+        private final PooledConnection pooled;
+        private boolean handleClosed;
+
+        ConnectionHandle(PooledConnection pooled)
+        {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            final String name = method.getName();
+            final int argCount = args != null ? args.length : 0;
+            if (name.equals("close") && argCount == 0)
+            {
+                if (!handleClosed)
+                {
+                    handleClosed = true;
+                    release(pooled);
+                }
+                return null;
+            }
+            if (name.equals("isClosed") && argCount == 0)
+            {
+                return handleClosed || pooled.connection.isClosed();
+            }
+            if (name.equals("equals") && argCount == 1)
+            {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode") && argCount == 0)
+            {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString") && argCount == 0)
+            {
+                return "Pooled " + pooled.connection;
+            }
+            if (handleClosed)
+            {
+                throw new SQLException("Connection is closed");
+            }
+            if (name.equals("prepareStatement") && argCount == 1)
+            {
+                return pooled.prepare((String) args[0], (Connection) proxy);
+            }
+            if (name.equals("setAutoCommit"))
+            {
+                final boolean autoCommit = (Boolean) args[0];
+                if (pooled.autoCommit != autoCommit)
+                {
+                    pooled.connection.setAutoCommit(autoCommit);
+                    pooled.autoCommit = autoCommit;
+                }
+                return null;
+            }
+            if (name.equals("getAutoCommit"))
+            {
+                return pooled.autoCommit;
+            }
+            if (name.equals("setTransactionIsolation"))
+            {
+                final int isolation = (Integer) args[0];
+                if (pooled.isolation != isolation)
+                {
+                    pooled.connection.setTransactionIsolation(isolation);
+                    pooled.isolation = isolation;
+                }
+                return null;
+            }
+            return ConnectionPool.invoke(pooled.connection, method, args);
+        }
+    }
+
+    private final class CachedStatement
+    {
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement)
+        {
+            this.statement = statement;
+        }
+
+        PreparedStatement createHandle(Connection connectionHandle)
+        {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class[] { PreparedStatement.class },
+                    new StatementHandle(this, connectionHandle));
+        }
+
+        void returnToCache()
+        {
+            inUse = false;
+            if (evicted)
+            {
+                closePhysical();
+                return;
+            }
+            try
+            {
+                statement.clearParameters();
+                statement.clearBatch();
+            }
+            catch (SQLException ex)
+            {
+                evicted = true;
+                closePhysical();
+            }
+        }
+
+        void closePhysical()
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException ex)
+            {
+                logger.debug("Could not close statement " + ex.getMessage());
+            }
+        }
+    }
+
+    private static final class StatementHandle implements InvocationHandler
+    {
+        private final CachedStatement cached;
+        private final Connection connectionHandle;
+        private boolean handleClosed;
+
+        StatementHandle(CachedStatement cached, Connection connectionHandle)
+        {
+            this.cached = cached;
+            this.connectionHandle = connectionHandle;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            final String name = method.getName();
+            final int argCount = args != null ? args.length : 0;
+            if (name.equals("close") && argCount == 0)
+            {
+                if (!handleClosed)
+                {
+                    handleClosed = true;
+                    cached.returnToCache();
+                }
+                return null;
+            }
+            if (name.equals("isClosed") && argCount == 0)
+            {
+                return handleClosed || cached.statement.isClosed();
+            }
+            if (name.equals("equals") && argCount == 1)
+            {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode") && argCount == 0)
+            {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString") && argCount == 0)
+            {
+                return "Cached " + cached.statement;
+            }
+            if (handleClosed)
+            {
+                throw new SQLException("Statement is closed");
+            }
+            if (name.equals("getConnection") && argCount == 0)
+            {
+                return connectionHandle;
+            }
+            return ConnectionPool.invoke(cached.statement, method, args);
+        }
+    }
+}
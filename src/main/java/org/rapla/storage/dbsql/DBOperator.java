@@ -20,6 +20,8 @@ import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.Timestamp;
 import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.permission.PermissionExtension;
 import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.extensionpoints.FunctionFactory;
@@ -60,6 +62,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -88,6 +91,15 @@ import java.util.Set;
     private String connectionName;
     Provider<ImportExportManager> importExportManager;
 
+    // the pool is not guarded by the operator lock, because connect holds it while the parallel load requests connections in other threads
+    private volatile ConnectionPool pool;
+    private final Object poolLock = new Object();
+    private int poolMinSize = ConnectionPool.DEFAULT_MIN_SIZE;
+    private int poolMaxSize = ConnectionPool.DEFAULT_MAX_SIZE;
+    private int statementCacheSize = ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE;
+    private boolean validateOnBorrow = true;
+    private volatile Boolean supportsTransactions;
+
     public DBOperator(Logger logger, PromiseWait promiseWait,RaplaResources i18n, RaplaLocale locale, final CommandScheduler scheduler, Map<String, FunctionFactory> functionFactoryMap,
             Provider<ImportExportManager> importExportManager, DataSource dataSource, Set<PermissionExtension> permissionExtensions)
     {
@@ -205,66 +217,20 @@ import java.util.Set;
         Connection connection = null;
         try
         {
-            //datasource lookupDeprecated
-            Object source = lookup;
-            //        	if ( lookupDeprecated instanceof String)
-            //        	{
-            //        		InitialContext ctx = new InitialContext();
-            //        		source  = ctx.lookupDeprecated("java:comp/env/"+ lookupDeprecated);
-            //        	}
-            //        	else
-            //        	{
-            //        		source = lookupDeprecated;
-            //        	}
-
-            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
-            try
-            {
-                try
-                {
-                    Thread.currentThread().setContextClassLoader(source.getClass().getClassLoader());
-                }
-                catch (Exception ex)
-                {
-                }
-                try
-                {
-                    DataSource ds = (DataSource) source;
-                    connection = ds.getConnection();
-                }
-                catch (ClassCastException ex)
-                {
-                    String text = "Datasource object " + source.getClass() + " does not implement a datasource interface.";
-                    getLogger().error(text);
-                    throw new RaplaDBException(text);
-                }
-            }
-            finally
-            {
-                try
-                {
-                    Thread.currentThread().setContextClassLoader(contextClassLoader);
-                }
-                catch (Exception ex)
-                {
-                }
-            }
+            connection = getPool().getConnection();
             if (withTransactionSupport)
             {
-                bSupportsTransactions = connection.getMetaData().supportsTransactions();
+                bSupportsTransactions = supportsTransactions(connection);
                 if (bSupportsTransactions)
                 {
                     connection.setAutoCommit(false);
                 }
-                else
-                {
-                    getLogger().warn("No Transaction support");
-                }
             }
             else
             {
                 connection.setAutoCommit(true);
             }
+            // the pooled connection only calls the driver if the isolation changes
             if ( withTransactionSupport)
             {
                 connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
@@ -296,6 +262,70 @@ import java.util.Set;
         }
     }
 
+    private boolean supportsTransactions(Connection connection) throws SQLException
+    {
+        Boolean result = supportsTransactions;
+        if (result == null)
+        {
+            result = connection.getMetaData().supportsTransactions();
+            if (!result)
+            {
+                getLogger().warn("No Transaction support");
+            }
+            supportsTransactions = result;
+        }
+        return result;
+    }
+
+    private ConnectionPool getPool() throws SQLException
+    {
+        ConnectionPool result = pool;
+        if (result == null)
+        {
+            synchronized (poolLock)
+            {
+                result = pool;
+                if (result == null)
+                {
+                    result = new ConnectionPool(lookup, getLogger().getChildLogger("pool"), poolMinSize, poolMaxSize, statementCacheSize, validateOnBorrow);
+                    result.start();
+                    pool = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** returns the pool of the database connections or null if no connection was requested yet */
+    public ConnectionPool getConnectionPool()
+    {
+        return pool;
+    }
+
+    /** the minimal number of connections that are kept open */
+    public void setPoolMinSize(int poolMinSize)
+    {
+        this.poolMinSize = poolMinSize;
+    }
+
+    /** the maximal number of connections that are open at the same time. If all are in use, callers wait until one is returned */
+    public void setPoolMaxSize(int poolMaxSize)
+    {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    /** the number of prepared statements cached per connection. 0 disables the cache */
+    public void setStatementCacheSize(int statementCacheSize)
+    {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /** checks idle connections before they are used, so that connections closed by the database are replaced */
+    public void setValidateOnBorrow(boolean validateOnBorrow)
+    {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
     @Override synchronized public void connect() throws RaplaException
     {
         if (!isConnected())
@@ -373,28 +403,74 @@ import java.util.Set;
         List<PreferencePatch> patches;
     }
 
+    /** the order in which the changed entities are resolved, so that referenced entities are resolved first */
+    private static final List<Class<? extends Entity>> REFRESH_ORDER = Arrays.asList(Category.class, DynamicType.class, User.class, Allocatable.class,
+            Reservation.class, Conflict.class);
+
     @Override
     protected void refreshWithoutLock(Object uncasted)
             throws RaplaException
     {
         RefreshObject refreshObject = (RefreshObject) uncasted;
-        Collection<Entity> toStore = new LinkedHashSet<>();
+        final long start = System.currentTimeMillis();
+        // group the changes by type
+        final Map<Class<? extends Entity>, List<HistoryEntry>> changesByType = new LinkedHashMap<>();
+        for (Class<? extends Entity> type : REFRESH_ORDER)
+        {
+            changesByType.put(type, new ArrayList<>());
+        }
         Set<ReferenceInfo> toRemove = new HashSet<>();
+        int skipped = 0;
         for (ReferenceInfo id : refreshObject.allIds)
         {
-            final HistoryEntry before = history.getLatest(id);//LastChangedUntil(id, connectionTime);
-            if (before.isDelete())
+            final HistoryEntry latest = history.getLatest(id);
+            final Entity current = cache.tryResolve(id);
+            if (latest.isDelete())
+            {
+                if (current != null)
+                {
+                    toRemove.add(latest.getId());
+                }
+                else
+                {
+                    skipped++;
+                }
+            }
+            else if (isUpToDate(current, latest))
             {
-                toRemove.add(before.getId());
+                // the change is already in the cache, e.g. it was read again because it happened at the last refresh time
+                skipped++;
             }
             else
             {
-                final Entity entity = history.getEntity(before);
-                setResolver(Collections.singleton(entity));
-                toStore.add(entity);
+                changesByType.computeIfAbsent(id.getType(), (type) -> new ArrayList<>()).add(latest);
             }
         }
+        Collection<Entity> toStore = new ArrayList<>();
+        for (List<HistoryEntry> changes : changesByType.values())
+        {
+            for (HistoryEntry change : changes)
+            {
+                toStore.add(history.getEntity(change));
+            }
+        }
+        setResolver(toStore);
         refresh(refreshObject.lastUpdated, refreshObject.connectionTime, toStore, refreshObject.patches, toRemove);
+        if (getLogger().isDebugEnabled() && (!toStore.isEmpty() || !toRemove.isEmpty()))
+        {
+            getLogger().debug("Refreshed " + toStore.size() + " changed and " + toRemove.size() + " removed entities in " + (System.currentTimeMillis() - start)
+                    + " ms. Skipped " + skipped + " entities that were already up to date.");
+        }
+    }
+
+    private boolean isUpToDate(Entity current, HistoryEntry latest)
+    {
+        if (!(current instanceof Timestamp))
+        {
+            return false;
+        }
+        final Date lastChanged = ((Timestamp) current).getLastChanged();
+        return lastChanged != null && lastChanged.getTime() == history.getLastChanged(latest);
     }
 
     @Override
@@ -409,16 +485,25 @@ import java.util.Set;
             try
             {
                 getLogger().info("Disconnecting: " + getConnectionName());
-                Connection connection = createConnection();
-                Statement statement = connection.createStatement();
-                statement.execute(sql);
-                statement.close();
+                try (Connection connection = createConnection(); Statement statement = connection.createStatement())
+                {
+                    statement.execute(sql);
+                }
             }
             catch (SQLException ex)
             {
                 throw new RaplaException(ex);
             }
         }
+        synchronized (poolLock)
+        {
+            if (pool != null)
+            {
+                getLogger().info("Closing " + pool);
+                pool.close();
+                pool = null;
+            }
+        }
     }
 
     public final void loadData() throws RaplaException
@@ -1033,7 +1118,9 @@ import java.util.Set;
         entityStore.put( superCategory);
         final RaplaDefaultXMLContext inputContext = createInputContext(entityStore, this, superCategory);
         RaplaSQL raplaSQLInput = new RaplaSQL(inputContext);
-        raplaSQLInput.loadAll(connection);
+        // the allocations and exceptions are read over two additional connections from the pool
+        final boolean parallelLoad = getLoadParallelism() != 1 && poolMaxSize > 2;
+        raplaSQLInput.loadAll(connection, parallelLoad ? () -> createConnection() : null);
 
         final Collection<ReferenceInfo> entitiesToRemove = removeInconsistentReservations(entityStore);
 
@@ -1069,6 +1156,8 @@ import java.util.Set;
                 }
             }
         }
+        if (getLogger().isDebugEnabled())
+            getLogger().debug("History initialized with " + history.getStoredBytes() / 1024 + " kB");
         for (Entity entity : migratedTemplates)
         {
             ((RefEntity) entity).setReadOnly();
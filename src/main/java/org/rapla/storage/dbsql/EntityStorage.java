@@ -44,6 +44,8 @@ import java.util.Set;
 
 abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage implements Storage<T> {
 	//String searchForIdSql;
+    /** number of rows that are fetched at once when a complete table is loaded*/
+    static final int LOAD_FETCH_SIZE = 1000;
 
     protected LocalCache cache;
     protected EntityStore entityStore;
@@ -160,6 +162,11 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
         {
             return null;
         }
+        return resolveFromId(id, class1);
+    }
+
+    protected <S extends Entity> S resolveFromId(String id, Class<S> class1)
+    {
         try {
             S resolved = entityStore.resolve(id, class1);
 			return resolved;
@@ -219,20 +226,34 @@ abstract class EntityStorage<T extends Entity<T>> extends AbstractTableStorage i
     }
 
 	public void loadAll() throws SQLException,RaplaException {
+        loadTable();
+        for (Storage storage: subStores) {
+            storage.loadAll();
+        }
+    }
 
+    /** loads all rows of the table without the sub stores. The rows are fetched in blocks of {@link #LOAD_FETCH_SIZE}*/
+    protected void loadTable() throws SQLException,RaplaException {
+        final long start = System.currentTimeMillis();
+        int count = 0;
         try (Statement stmt = con.createStatement())
 		{
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
 			try (ResultSet rset = stmt.executeQuery(selectSql))
 			{
 				while (rset.next())
 				{
 					load(rset);
+					count++;
 				}
 			}
 		}
-        for (Storage storage: subStores) {
-            storage.loadAll();
-        }
+        logLoaded(count, start);
+    }
+
+    protected void logLoaded(int count, long start)
+    {
+        getLogger().info("Loaded " + count + " rows from " + getTableName() + " in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     public void insert(Iterable<T> entities) throws SQLException,RaplaException {
@@ -96,6 +96,11 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 class RaplaSQL
@@ -217,19 +222,45 @@ class RaplaSQL
 
     synchronized public void loadAll(Connection con) throws SQLException, RaplaException
     {
+        loadAll(con, null);
+    }
+
+    /** loads all tables over the passed connection. If a connection factory is passed, the child tables of the appointments, which are usually the largest tables,
+     * are read in parallel over own connections while the other tables are loaded.*/
+    synchronized public void loadAll(Connection con, Callable<Connection> connectionFactory) throws SQLException, RaplaException
+    {
+        final long start = System.currentTimeMillis();
         Date connectionTimestamp = getDatabaseTimestamp(con);
-        for (Storage storage : stores.values())
+        ExecutorService executor = null;
+        if (connectionFactory != null)
         {
-            storage.setConnection(con, connectionTimestamp);
-            try
+            executor = Executors.newFixedThreadPool(2);
+            final AppointmentStorage appointmentStorage = (AppointmentStorage) stores.get(Appointment.class);
+            appointmentStorage.readSubStoresInParallel(executor, connectionFactory);
+        }
+        try
+        {
+            for (Storage storage : stores.values())
             {
-                storage.loadAll();
+                storage.setConnection(con, connectionTimestamp);
+                try
+                {
+                    storage.loadAll();
+                }
+                finally
+                {
+                    storage.removeConnection();
+                }
             }
-            finally
+        }
+        finally
+        {
+            if (executor != null)
             {
-                storage.removeConnection();
+                executor.shutdownNow();
             }
         }
+        getLogger().info("Loaded all tables in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     @SuppressWarnings("unchecked")
@@ -1321,6 +1352,8 @@ class ReservationStorage extends RaplaTypeStorage<Reservation>
     // appointmentstorage is not a sub store but a delegate
     AppointmentStorage appointmentStorage;
     PermissionStorage<Reservation> permissionStorage;
+    // reservations in save, whose appointments are written with storeChanges instead of being deleted and inserted again
+    private final Set<String> reservationsWithAppointmentChanges = new HashSet<>();
 
     public ReservationStorage(RaplaXMLContext context) throws RaplaException
     {
@@ -1351,16 +1384,26 @@ class ReservationStorage extends RaplaTypeStorage<Reservation>
         insert(cache.getReservations());
     }
 
+    /** the appointments are not deleted and inserted again. They are compared with the stored rows and only the changed rows are written*/
     @Override
     public void save(Iterable<Reservation> entities) throws RaplaException, SQLException
     {
-        super.save(entities);
         Collection<Appointment> appointments = new ArrayList<>();
         for (Reservation r : entities)
         {
+            reservationsWithAppointmentChanges.add(r.getId());
             appointments.addAll(Arrays.asList(r.getAppointments()));
         }
-        appointmentStorage.insert(appointments);
+        final Set<String> reservationIds = new LinkedHashSet<>(reservationsWithAppointmentChanges);
+        try
+        {
+            super.save(entities);
+        }
+        finally
+        {
+            reservationsWithAppointmentChanges.clear();
+        }
+        appointmentStorage.storeChanges(reservationIds, appointments);
     }
 
     @Override
@@ -1444,7 +1487,16 @@ class ReservationStorage extends RaplaTypeStorage<Reservation>
     protected void deleteFromSubStores(Set<String> ids) throws SQLException, RaplaException
     {
         super.deleteFromSubStores(ids);
-        appointmentStorage.deleteAppointments(ids);
+        if (reservationsWithAppointmentChanges.isEmpty())
+        {
+            appointmentStorage.deleteAppointments(ids);
+        }
+        else
+        {
+            Set<String> reservationIds = new HashSet<>(ids);
+            reservationIds.removeAll(reservationsWithAppointmentChanges);
+            appointmentStorage.deleteAppointments(reservationIds);
+        }
     }
 
 }
@@ -1660,10 +1712,13 @@ class PermissionStorage<T extends EntityPermissionContainer<T>> extends EntitySt
 }
 
 // TODO is it possible to add this as substorage
-class AppointmentStorage extends RaplaTypeStorage<Appointment>
+class AppointmentStorage extends RaplaTypeStorage<Appointment> implements TableChanges.RowStorage<Appointment>
 {
     AppointmentExceptionStorage appointmentExceptionStorage;
     AllocationStorage allocationStorage;
+    // rows of the sub stores that are read in parallel, null if the sub stores are read after the appointments
+    private Future<Map<String, List<Date>>> parallelExceptions;
+    private Future<Map<String, List<AllocationStorage.Allocation>>> parallelAllocations;
 
     public AppointmentStorage(RaplaXMLContext context) throws RaplaException
     {
@@ -1684,6 +1739,104 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
         super.createOrUpdateIfNecessary(schema);
     }
 
+    /** starts reading the exceptions and allocations, each over an own connection. They are added to the appointments in the next call of {@link #loadAll()}*/
+    void readSubStoresInParallel(ExecutorService executor, Callable<Connection> connectionFactory)
+    {
+        parallelExceptions = executor.submit(() -> {
+            try (Connection connection = connectionFactory.call())
+            {
+                return appointmentExceptionStorage.readGrouped(connection);
+            }
+        });
+        parallelAllocations = executor.submit(() -> {
+            try (Connection connection = connectionFactory.call())
+            {
+                return allocationStorage.readGrouped(connection);
+            }
+        });
+    }
+
+    @Override
+    public void loadAll() throws SQLException, RaplaException
+    {
+        if (parallelExceptions == null || parallelAllocations == null)
+        {
+            super.loadAll();
+            return;
+        }
+        try
+        {
+            loadTable();
+            appointmentExceptionStorage.addExceptions(getParallelResult(parallelExceptions));
+            allocationStorage.addAllocations(getParallelResult(parallelAllocations));
+        }
+        finally
+        {
+            parallelExceptions = null;
+            parallelAllocations = null;
+        }
+    }
+
+    private static <V> V getParallelResult(Future<V> future) throws SQLException, RaplaException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new RaplaException("Interrupted while loading appointments", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof SQLException)
+            {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RaplaException)
+            {
+                throw (RaplaException) cause;
+            }
+            throw new RaplaException(cause);
+        }
+    }
+
+    /** compares the appointments of the reservations with the rows in the database and writes only the changes, with one batch per statement type for each table.
+     * The stored rows are read in the current transaction, so the changes are also correct if another server changed the reservations*/
+    void storeChanges(Collection<String> reservationIds, Collection<Appointment> appointments) throws SQLException, RaplaException
+    {
+        if (reservationIds.isEmpty())
+        {
+            return;
+        }
+        final TableChanges<Appointment> appointmentChanges = new TableChanges<>(this);
+        appointmentChanges.readStored(con, "EVENT_ID", reservationIds);
+        appointmentChanges.addNew(appointments);
+        // the rows of the removed appointments are deleted from the sub tables as well
+        final Set<String> appointmentIds = appointmentChanges.getStoredValues("ID");
+        for (Appointment appointment : appointments)
+        {
+            appointmentIds.add(appointment.getId());
+        }
+        final List<TableChanges<Appointment>> tableChanges = Arrays.asList(appointmentChanges, new TableChanges<>(appointmentExceptionStorage),
+                new TableChanges<>(allocationStorage));
+        for (TableChanges<Appointment> changes : tableChanges)
+        {
+            if (changes != appointmentChanges)
+            {
+                changes.readStored(con, "APPOINTMENT_ID", appointmentIds);
+                changes.addNew(appointments);
+            }
+            changes.write(con);
+        }
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Stored appointment changes " + tableChanges);
+        }
+    }
+
     void deleteAppointments(Collection<String> reservationIds) throws SQLException, RaplaException
     {
         // look for all appointment ids, as the sub storages must be deleted with appointment id
@@ -1728,19 +1881,20 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
     @Override
     protected int write(PreparedStatement stmt, Appointment appointment) throws SQLException, RaplaException
     {
-        setId(stmt, 1, appointment);
-        setId(stmt, 2, appointment.getReservation());
-        setDate(stmt, 3, appointment.getStart());
-        setDate(stmt, 4, appointment.getEnd());
+        return writeRows(stmt, getRows(appointment));
+    }
+
+    @Override
+    public List<Object[]> getRows(Appointment appointment)
+    {
+        final Reservation reservation = appointment.getReservation();
+        final Object[] row = new Object[8];
+        row[0] = appointment.getId();
+        row[1] = reservation != null ? reservation.getId() : null;
+        row[2] = appointment.getStart();
+        row[3] = appointment.getEnd();
         Repeating repeating = appointment.getRepeating();
-        if (repeating == null)
-        {
-            setString(stmt, 5, null);
-            setInt(stmt, 6, null);
-            setDate(stmt, 7, null);
-            setInt(stmt, 8, null);
-        }
-        else
+        if (repeating != null)
         {
             final RepeatingType repeatingType = repeating.getType();
             String repeatingTypeAsString = repeatingType.toString();
@@ -1758,15 +1912,14 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
                 }
                 repeatingTypeAsString += ":" + builder.toString();
             }
-            setString(stmt, 5, repeatingTypeAsString);
+            row[4] = repeatingTypeAsString;
             int number = repeating.getNumber();
             final boolean fixedNumber = repeating.isFixedNumber();
-            setInt(stmt, 6, fixedNumber ? number : null);
-            setDate(stmt, 7, fixedNumber ? null : repeating.getEnd());
-            setInt(stmt, 8, repeating.getInterval());
+            row[5] = fixedNumber ? Integer.valueOf(number) : null;
+            row[6] = fixedNumber ? null : repeating.getEnd();
+            row[7] = repeating.getInterval();
         }
-        stmt.addBatch();
-        return 1;
+        return Collections.singletonList(row);
     }
 
     @Override
@@ -1852,7 +2005,7 @@ class AppointmentStorage extends RaplaTypeStorage<Appointment>
 
 }
 
-class AllocationStorage extends EntityStorage<Appointment> implements SubStorage<Appointment>
+class AllocationStorage extends EntityStorage<Appointment> implements SubStorage<Appointment>, TableChanges.RowStorage<Appointment>
 {
 
     public AllocationStorage(RaplaXMLContext context) throws RaplaException
@@ -1869,22 +2022,125 @@ class AllocationStorage extends EntityStorage<Appointment> implements SubStorage
 
     @Override
     protected int write(PreparedStatement stmt, Appointment appointment) throws SQLException, RaplaException
+    {
+        return writeRows(stmt, getRows(appointment));
+    }
+
+    @Override
+    public List<Object[]> getRows(Appointment appointment)
     {
         Reservation event = appointment.getReservation();
-        int count = 0;
         final List<Allocatable> allocatablesFor = event.getAllocatablesFor(appointment).collect(Collectors.toList());
+        final List<Object[]> rows = new ArrayList<>(allocatablesFor.size());
         for (Allocatable allocatable : allocatablesFor)
         {
-            setId(stmt, 1, appointment);
-            setId(stmt, 2, allocatable);
-            stmt.setObject(3, null);
             final Appointment[] restriction = event.getRestriction(allocatable);
             boolean isRestriction = restriction != null && restriction.length > 0;
-            stmt.setInt(4, isRestriction ? 1:0);
-            stmt.addBatch();
-            count++;
+            rows.add(new Object[] { appointment.getId(), allocatable.getId(), null, isRestriction ? 1 : 0 });
+        }
+        return rows;
+    }
+
+    static final class Allocation
+    {
+        final String resourceId;
+        final boolean isRestriction;
+
+        Allocation(String resourceId, boolean isRestriction)
+        {
+            this.resourceId = resourceId;
+            this.isRestriction = isRestriction;
+        }
+    }
+
+    private static final class AllocationGroup
+    {
+        final List<Appointment> appointments = new ArrayList<>();
+        boolean isRestriction;
+    }
+
+    @Override
+    public void loadAll() throws SQLException, RaplaException
+    {
+        addAllocations(readGrouped(con));
+    }
+
+    /** reads all allocations grouped by the appointment id. Only the passed connection is used, so the method can be called in parallel to the loading of other tables*/
+    Map<String, List<Allocation>> readGrouped(Connection connection) throws SQLException
+    {
+        final long start = System.currentTimeMillis();
+        final Map<String, List<Allocation>> allocations = new LinkedHashMap<>();
+        int count = 0;
+        try (Statement stmt = connection.createStatement())
+        {
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+            try (ResultSet rset = stmt.executeQuery(selectSql))
+            {
+                while (rset.next())
+                {
+                    count++;
+                    final String appointmentId = rset.getString(1);
+                    final String resourceId = rset.getString(2);
+                    if (appointmentId == null || resourceId == null)
+                    {
+                        continue;
+                    }
+                    final boolean isRestriction = rset.getInt(4) == 1;
+                    allocations.computeIfAbsent(appointmentId, (id) -> new ArrayList<>(2)).add(new Allocation(resourceId, isRestriction));
+                }
+            }
+        }
+        logLoaded(count, start);
+        return allocations;
+    }
+
+    /** adds the allocations to the loaded appointments. The restrictions are collected for each reservation and resource and set once */
+    void addAllocations(Map<String, List<Allocation>> allocations)
+    {
+        final Map<ReservationImpl, Map<Allocatable, AllocationGroup>> groupsByEvent = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Allocation>> entry : allocations.entrySet())
+        {
+            final Appointment appointment = resolveFromId(entry.getKey(), Appointment.class);
+            if (appointment == null)
+            {
+                continue;
+            }
+            final ReservationImpl event = (ReservationImpl) appointment.getReservation();
+            final Map<Allocatable, AllocationGroup> groups = groupsByEvent.computeIfAbsent(event, (e) -> new LinkedHashMap<>());
+            for (Allocation allocation : entry.getValue())
+            {
+                final Allocatable allocatable = resolveFromId(allocation.resourceId, Allocatable.class);
+                if (allocatable == null)
+                {
+                    continue;
+                }
+                final AllocationGroup group = groups.computeIfAbsent(allocatable, (a) -> new AllocationGroup());
+                group.appointments.add(appointment);
+                group.isRestriction = allocation.isRestriction;
+            }
+        }
+        for (Map.Entry<ReservationImpl, Map<Allocatable, AllocationGroup>> eventEntry : groupsByEvent.entrySet())
+        {
+            final ReservationImpl event = eventEntry.getKey();
+            final int appointmentCount = event.getAppointmentList().size();
+            for (Map.Entry<Allocatable, AllocationGroup> entry : eventEntry.getValue().entrySet())
+            {
+                final Allocatable allocatable = entry.getKey();
+                final AllocationGroup group = entry.getValue();
+                if (!event.hasAllocated(allocatable))
+                {
+                    event.addAllocatable(allocatable);
+                }
+                if (appointmentCount > group.appointments.size() || group.isRestriction)
+                {
+                    event.setRestriction(allocatable, group.appointments.toArray(Appointment.EMPTY_ARRAY));
+                }
+                else
+                {
+                    event.setRestriction(allocatable, new Appointment[] {});
+                }
+            }
         }
-        return count;
     }
 
     @Override
@@ -1922,7 +2178,7 @@ class AllocationStorage extends EntityStorage<Appointment> implements SubStorage
 
 }
 
-class AppointmentExceptionStorage extends EntityStorage<Appointment> implements SubStorage<Appointment>
+class AppointmentExceptionStorage extends EntityStorage<Appointment> implements SubStorage<Appointment>, TableChanges.RowStorage<Appointment>
 {
     public AppointmentExceptionStorage(RaplaXMLContext context) throws RaplaException
     {
@@ -1931,21 +2187,73 @@ class AppointmentExceptionStorage extends EntityStorage<Appointment> implements
 
     @Override
     protected int write(PreparedStatement stmt, Appointment entity) throws SQLException, RaplaException
+    {
+        return writeRows(stmt, getRows(entity));
+    }
+
+    @Override
+    public List<Object[]> getRows(Appointment entity)
     {
         Repeating repeating = entity.getRepeating();
-        int count = 0;
         if (repeating == null)
         {
-            return count;
+            return Collections.emptyList();
         }
-        for (Date exception : repeating.getExceptions())
+        final Date[] exceptions = repeating.getExceptions();
+        final List<Object[]> rows = new ArrayList<>(exceptions.length);
+        for (Date exception : exceptions)
         {
-            setId(stmt, 1, entity);
-            setDate(stmt, 2, exception);
-            stmt.addBatch();
-            count++;
+            rows.add(new Object[] { entity.getId(), exception });
+        }
+        return rows;
+    }
+
+    @Override
+    public void loadAll() throws SQLException, RaplaException
+    {
+        addExceptions(readGrouped(con));
+    }
+
+    /** reads all exceptions grouped by the appointment id. Only the passed connection is used, so the method can be called in parallel to the loading of other tables*/
+    Map<String, List<Date>> readGrouped(Connection connection) throws SQLException
+    {
+        final long start = System.currentTimeMillis();
+        final Map<String, List<Date>> exceptions = new HashMap<>();
+        int count = 0;
+        try (Statement stmt = connection.createStatement())
+        {
+            stmt.setFetchSize(LOAD_FETCH_SIZE);
+            try (ResultSet rset = stmt.executeQuery(selectSql))
+            {
+                while (rset.next())
+                {
+                    count++;
+                    final String appointmentId = rset.getString(1);
+                    final Date date = getDate(rset, 2);
+                    if (appointmentId == null || date == null)
+                    {
+                        continue;
+                    }
+                    exceptions.computeIfAbsent(appointmentId, (id) -> new ArrayList<>()).add(date);
+                }
+            }
+        }
+        logLoaded(count, start);
+        return exceptions;
+    }
+
+    void addExceptions(Map<String, List<Date>> exceptions)
+    {
+        for (Map.Entry<String, List<Date>> entry : exceptions.entrySet())
+        {
+            final Appointment appointment = resolveFromId(entry.getKey(), Appointment.class);
+            if (appointment == null)
+            {
+                continue;
+            }
+            // one merge per appointment instead of one sorted insert per row
+            ((AppointmentImpl) appointment).addRepeatingExceptions(entry.getValue());
         }
-        return count;
     }
 
     @Override
@@ -2383,8 +2691,10 @@ class PreferenceStorage extends RaplaTypeStorage<Preferences>
         }
         if (deleteNullUserPreference)
         {
-            PreparedStatement deleteNullStmt = con.prepareStatement("DELETE FROM " + getTableName() + " WHERE USER_ID IS NULL OR USER_ID=0");
-            deleteNullStmt.execute();
+            try (PreparedStatement deleteNullStmt = con.prepareStatement("DELETE FROM " + getTableName() + " WHERE USER_ID IS NULL OR USER_ID=0"))
+            {
+                deleteNullStmt.execute();
+            }
         }
     }
 }
@@ -2899,7 +3209,8 @@ class HistoryStorage<T extends Entity<T>> extends RaplaTypeStorage<T>
             {
                 return Collections.emptyList();
             }
-            Collection<ReferenceInfo> ids = new HashSet<>();
+            // ordered by the time of the change
+            Collection<ReferenceInfo> ids = new LinkedHashSet<>();
             while (result.next())
             {
                 load(result);
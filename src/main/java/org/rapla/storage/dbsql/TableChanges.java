@@ -0,0 +1,321 @@
+/*--------------------------------------------------------------------------*
+ | Copyright (C) 2014 Christopher Kohlhaas                                  |
+ |                                                                          |
+ | This program is free software; you can redistribute it and/or modify     |
+ | it under the terms of the GNU General Public License as published by the |
+ | Free Software Foundation. A copy of the license has been included with   |
+ | these distribution in the COPYING file, if not go to www.fsf.org         |
+ |                                                                          |
+ | As a special exception, you are granted the permissions to link this     |
+ | program with every library, which license fulfills the Open Source       |
+ | Definition as published by the Open Source Initiative (OSI).             |
+ *--------------------------------------------------------------------------*/
+package org.rapla.storage.dbsql;
+
+import org.rapla.entities.Entity;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Unit of work for the rows of one table. The rows that are stored in the database are read within the transaction and compared with
+ * the rows of the entities to store, so changes of other servers that are not yet in the cache are taken into account.
+ * Only the differences are written: one batch of deletes, one of updates and one of inserts.
+ * Rows are identified by the primary key of the table or, if the table has none, by its NOT NULL columns.
+ */
+class TableChanges<T extends Entity<T>>
+{
+    /** number of values in one IN clause when the stored rows are read*/
+    static final int MAX_IN_VALUES = 100;
+
+    /** a storage that can return the rows it writes for an entity*/
+    interface RowStorage<T>
+    {
+        /** the values of each row in the order of the columns, with the types that {@link AbstractTableStorage#getValue} returns*/
+        List<Object[]> getRows(T entity);
+    }
+
+    private final AbstractTableStorage storage;
+    private final RowStorage<T> rowStorage;
+    private final List<ColumnDef> columns;
+    private final List<Integer> keyColumns = new ArrayList<>();
+    private final List<Integer> valueColumns = new ArrayList<>();
+    private final Map<List<Object>, Object[]> storedRows = new LinkedHashMap<>();
+    // keys that are stored more than once, e.g. by an insert of another server
+    private final Set<List<Object>> duplicateKeys = new HashSet<>();
+    private final Map<List<Object>, Object[]> newRows = new LinkedHashMap<>();
+    private int deleted;
+    private int updated;
+    private int inserted;
+
+    <S extends AbstractTableStorage & RowStorage<T>> TableChanges(S storage)
+    {
+        this.storage = storage;
+        this.rowStorage = storage;
+        this.columns = storage.getColumns();
+        for (int i = 0; i < columns.size(); i++)
+        {
+            if (columns.get(i).isPrimary())
+            {
+                keyColumns.add(i);
+            }
+        }
+        if (keyColumns.isEmpty())
+        {
+            for (int i = 0; i < columns.size(); i++)
+            {
+                if (columns.get(i).isNotNull())
+                {
+                    keyColumns.add(i);
+                }
+            }
+        }
+        for (int i = 0; i < columns.size(); i++)
+        {
+            if (!keyColumns.contains(i))
+            {
+                valueColumns.add(i);
+            }
+        }
+    }
+
+    /** reads the stored rows whose column has one of the values*/
+    void readStored(Connection con, String column, Collection<String> values) throws SQLException
+    {
+        final List<String> list = new ArrayList<>(values);
+        final StringBuilder columnList = new StringBuilder();
+        for (ColumnDef def : columns)
+        {
+            if (columnList.length() > 0)
+            {
+                columnList.append(", ");
+            }
+            columnList.append(def.getName());
+        }
+        for (int start = 0; start < list.size(); start += MAX_IN_VALUES)
+        {
+            final List<String> chunk = list.subList(start, Math.min(list.size(), start + MAX_IN_VALUES));
+            final StringBuilder sql = new StringBuilder("SELECT " + columnList + " FROM " + storage.getTableName() + " WHERE " + column + " IN (");
+            for (int i = 0; i < chunk.size(); i++)
+            {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(")");
+            try (PreparedStatement stmt = con.prepareStatement(sql.toString()))
+            {
+                for (int i = 0; i < chunk.size(); i++)
+                {
+                    stmt.setString(i + 1, chunk.get(i));
+                }
+                try (ResultSet rset = stmt.executeQuery())
+                {
+                    while (rset.next())
+                    {
+                        final Object[] row = new Object[columns.size()];
+                        for (int i = 0; i < row.length; i++)
+                        {
+                            row[i] = storage.getValue(rset, i + 1);
+                        }
+                        final List<Object> key = getKey(row);
+                        if (storedRows.put(key, row) != null)
+                        {
+                            duplicateKeys.add(key);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    void addNew(Iterable<T> entities)
+    {
+        for (T entity : entities)
+        {
+            for (Object[] row : rowStorage.getRows(entity))
+            {
+                newRows.put(getKey(row), row);
+            }
+        }
+    }
+
+    /** the values of the column in the stored rows*/
+    Set<String> getStoredValues(String column)
+    {
+        final int index = getColumnIndex(column);
+        final Set<String> values = new LinkedHashSet<>();
+        for (Object[] row : storedRows.values())
+        {
+            if (row[index] != null)
+            {
+                values.add(row[index].toString());
+            }
+        }
+        return values;
+    }
+
+    private int getColumnIndex(String column)
+    {
+        for (int i = 0; i < columns.size(); i++)
+        {
+            if (columns.get(i).getName().equals(column))
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Column " + column + " not found in " + storage.getTableName());
+    }
+
+    private List<Object> getKey(Object[] row)
+    {
+        final List<Object> key = new ArrayList<>(keyColumns.size());
+        for (int i : keyColumns)
+        {
+            key.add(normalize(row[i]));
+        }
+        return key;
+    }
+
+    /** dates are compared by their time, so a java.sql.Timestamp equals the date it was created from*/
+    private static Object normalize(Object value)
+    {
+        return value instanceof Date ? Long.valueOf(((Date) value).getTime()) : value;
+    }
+
+    private boolean hasSameValues(Object[] row, Object[] other)
+    {
+        for (int i : valueColumns)
+        {
+            if (!Objects.equals(normalize(row[i]), normalize(other[i])))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** writes the differences between the stored and the new rows*/
+    void write(Connection con) throws SQLException
+    {
+        final List<Object[]> toDelete = new ArrayList<>();
+        final List<Object[]> toUpdate = new ArrayList<>();
+        final List<Object[]> toInsert = new ArrayList<>();
+        for (Map.Entry<List<Object>, Object[]> entry : storedRows.entrySet())
+        {
+            // duplicates are deleted together and inserted again once if they are still needed
+            if (duplicateKeys.contains(entry.getKey()) || !newRows.containsKey(entry.getKey()))
+            {
+                toDelete.add(entry.getValue());
+            }
+        }
+        for (Map.Entry<List<Object>, Object[]> entry : newRows.entrySet())
+        {
+            final Object[] storedRow = storedRows.get(entry.getKey());
+            final Object[] newRow = entry.getValue();
+            if (storedRow == null || duplicateKeys.contains(entry.getKey()))
+            {
+                toInsert.add(newRow);
+            }
+            else if (!hasSameValues(storedRow, newRow))
+            {
+                toUpdate.add(newRow);
+            }
+        }
+        if (!toDelete.isEmpty())
+        {
+            try (PreparedStatement stmt = con.prepareStatement("DELETE FROM " + storage.getTableName() + " WHERE " + getKeyCondition()))
+            {
+                for (Object[] row : toDelete)
+                {
+                    int parameterIndex = 1;
+                    for (int i : keyColumns)
+                    {
+                        storage.setValue(stmt, parameterIndex++, columns.get(i), row[i]);
+                    }
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        }
+        if (!toUpdate.isEmpty())
+        {
+            final StringBuilder sql = new StringBuilder("UPDATE " + storage.getTableName() + " SET ");
+            boolean first = true;
+            for (int i : valueColumns)
+            {
+                if (!first)
+                {
+                    sql.append(", ");
+                }
+                first = false;
+                sql.append(columns.get(i).getName()).append(" = ?");
+            }
+            sql.append(" WHERE ").append(getKeyCondition());
+            try (PreparedStatement stmt = con.prepareStatement(sql.toString()))
+            {
+                for (Object[] row : toUpdate)
+                {
+                    int parameterIndex = 1;
+                    for (int i : valueColumns)
+                    {
+                        storage.setValue(stmt, parameterIndex++, columns.get(i), row[i]);
+                    }
+                    for (int i : keyColumns)
+                    {
+                        storage.setValue(stmt, parameterIndex++, columns.get(i), row[i]);
+                    }
+                    stmt.addBatch();
+                }
+                final int[] counts = stmt.executeBatch();
+                for (int count : counts)
+                {
+                    if (count == 0)
+                    {
+                        throw new SQLException("A row of " + storage.getTableName() + " was deleted while it was updated");
+                    }
+                }
+            }
+        }
+        if (!toInsert.isEmpty())
+        {
+            try (PreparedStatement stmt = con.prepareStatement(storage.insertSql))
+            {
+                storage.writeRows(stmt, toInsert);
+                stmt.executeBatch();
+            }
+        }
+        deleted += toDelete.size();
+        updated += toUpdate.size();
+        inserted += toInsert.size();
+    }
+
+    private String getKeyCondition()
+    {
+        final StringBuilder buf = new StringBuilder();
+        for (int i : keyColumns)
+        {
+            if (buf.length() > 0)
+            {
+                buf.append(" AND ");
+            }
+            buf.append(columns.get(i).getName()).append(" = ?");
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return storage.getTableName() + " deleted=" + deleted + " updated=" + updated + " inserted=" + inserted;
+    }
+}
@@ -7,20 +7,27 @@ import org.rapla.inject.InjectionContext;
 import org.rapla.logger.Logger;
 
 import javax.inject.Inject;
-import java.util.Stack;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Read write lock that keeps track of the acquired locks, so that the current lock holders can be logged if a lock can't be acquired in time.
+ * The lock holders are stored in concurrent sets, so readers don't contend on a shared monitor for the bookkeeping.
+ * The locks are reentrant, so a thread that holds the write lock can acquire a read lock.
+ */
 @DefaultImplementation(of = RaplaLock.class, context = { InjectionContext.server, InjectionContext.swing })
 public class DefaultRaplaLock implements RaplaLock
 {
     public static final int DEFAULT_READLOCK_TIMEOUT_SECONDS = 20;
     public static final int DEFAULT_WRITELOCK_TIMEOUT_SECONDS = 60;
-    final protected ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-    Stack<WriteLock> writeLocks = new Stack<>();
-    Stack<ReadLock> readLocks = new Stack<>();
+    private static final StackTraceElement[] EMPTY_STACK_TRACE = new StackTraceElement[] {};
+    final protected ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    final Set<WriteLock> writeLocks = ConcurrentHashMap.newKeySet();
+    final Set<ReadLock> readLocks = ConcurrentHashMap.newKeySet();
     Logger logger;
 
     @Inject
@@ -38,7 +45,7 @@ public class DefaultRaplaLock implements RaplaLock
     public ReadLock readLock(Class clazz, String name,int seconds) throws RaplaException
     {
         // Enabling the stack trace is a huge performance cost
-        StackTraceElement[] stackTrace = logger.isTraceEnabled() ? getStackTrace() : new StackTraceElement[] {};
+        StackTraceElement[] stackTrace = logger.isTraceEnabled() ? getStackTrace() : EMPTY_STACK_TRACE;
         final long currentTime = System.currentTimeMillis();
         final Lock lock = lock(this.readWriteLock.readLock(), seconds, true);
         final ReadLock readLock = new ReadLock(lock,clazz, name, stackTrace, currentTime);
@@ -90,7 +97,7 @@ public class DefaultRaplaLock implements RaplaLock
         }
     }
 
-    private void logLongLocks(Stack<? extends LockInfo> lockCollection, int logThreshholdTime)
+    private void logLongLocks(Collection<? extends LockInfo> lockCollection, int logThreshholdTime)
     {
         final long currentTime = System.currentTimeMillis();
         final LockInfo[] locks = lockCollection.toArray(new LockInfo[] {});
@@ -111,7 +118,7 @@ public class DefaultRaplaLock implements RaplaLock
     public WriteLock writeLock(Class clazz, String name,int seconds) throws RaplaException
     {
         final WriteLock lock;
-        StackTraceElement[] stackTrace = logger.isDebugEnabled() ? getStackTrace() : new StackTraceElement[] {};
+        StackTraceElement[] stackTrace = logger.isDebugEnabled() ? getStackTrace() : EMPTY_STACK_TRACE;
         final long currentTime = System.currentTimeMillis();
         if (seconds > 0)
         {
@@ -0,0 +1,541 @@
+package org.rapla.storage.impl.server;
+
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.facade.RaplaComponent;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Set of appointments sorted by the {@link AppointmentStartComparator} that additionally keeps track of the maximum end
+ * ({@link Appointment#getMaxEnd()}) of each subtree. This is a treap augmented as an interval tree on [start, maxEnd], so that
+ * queries for a time window only visit the appointments that can overlap the window instead of all appointments that
+ * started before the window end.
+ * <p>
+ * The index is not synchronized. Access is guarded by the read and write locks of the {@link LocalAbstractCachableOperator}.
+ * As with the TreeSet it replaces, appointments must not change start or maxEnd while they are stored in the index.
+ * </p>
+ * <p>
+ * {@link #snapshot()} returns an immutable version of the index in constant time. The nodes are shared and each node belongs to
+ * the version that created it. A change copies the nodes of other versions on the path it modifies, so changes after the snapshot
+ * don't affect it and a snapshot can be read without lock while the index is changed.
+ * </p>
+ */
+public final class AppointmentIntervalIndex extends AbstractSet<Appointment>
+{
+    private static final Comparator<Appointment> COMPARATOR = new AppointmentStartComparator();
+    private final Random random;
+    private Node root;
+    private int size;
+    private int modCount;
+    // nodes of other owners are shared with a snapshot and must be copied before they are changed
+    private Object owner = new Object();
+
+    private static final class Node
+    {
+        final Appointment appointment;
+        final long start;
+        final long maxEnd;
+        final int priority;
+        final Object owner;
+        long subtreeMaxEnd;
+        Node left;
+        Node right;
+
+        Node(Appointment appointment, int priority, Object owner)
+        {
+            this.appointment = appointment;
+            this.start = appointment.getStart().getTime();
+            this.maxEnd = getMaxEnd(appointment);
+            this.priority = priority;
+            this.owner = owner;
+            this.subtreeMaxEnd = maxEnd;
+        }
+
+        Node(Node node, Object owner)
+        {
+            this.appointment = node.appointment;
+            this.start = node.start;
+            this.maxEnd = node.maxEnd;
+            this.priority = node.priority;
+            this.owner = owner;
+            this.subtreeMaxEnd = node.subtreeMaxEnd;
+            this.left = node.left;
+            this.right = node.right;
+        }
+
+        void update()
+        {
+            long max = maxEnd;
+            if (left != null && left.subtreeMaxEnd > max)
+            {
+                max = left.subtreeMaxEnd;
+            }
+            if (right != null && right.subtreeMaxEnd > max)
+            {
+                max = right.subtreeMaxEnd;
+            }
+            subtreeMaxEnd = max;
+        }
+    }
+
+    public AppointmentIntervalIndex()
+    {
+        random = new Random();
+    }
+
+    public AppointmentIntervalIndex(Collection<? extends Appointment> appointments)
+    {
+        this();
+        addAll(appointments);
+    }
+
+    private AppointmentIntervalIndex(Node root, int size, Random random)
+    {
+        this.root = root;
+        this.size = size;
+        this.random = random;
+    }
+
+    /** returns a version of the index that is not affected by later changes of this index.
+     * The snapshot shares the nodes with this index, so it is created in constant time.*/
+    public AppointmentIntervalIndex snapshot()
+    {
+        // the current nodes now belong to the snapshot and are copied on the next change
+        owner = new Object();
+        return new AppointmentIntervalIndex(root, size, random);
+    }
+
+    private Node editable(Node node)
+    {
+        return node.owner == owner ? node : new Node(node, owner);
+    }
+
+    /** returns the maxEnd of the appointment as long or Long.MAX_VALUE if the appointment repeats forever*/
+    static long getMaxEnd(Appointment appointment)
+    {
+        final Date maxEnd = appointment.getMaxEnd();
+        return maxEnd != null ? maxEnd.getTime() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if (!(o instanceof Appointment))
+        {
+            return false;
+        }
+        return find((Appointment) o) != null;
+    }
+
+    private Node find(Appointment appointment)
+    {
+        Node node = root;
+        while (node != null)
+        {
+            int cmp = COMPARATOR.compare(appointment, node.appointment);
+            if (cmp == 0)
+            {
+                return node;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean add(Appointment appointment)
+    {
+        if (contains(appointment))
+        {
+            return false;
+        }
+        root = insert(root, new Node(appointment, random.nextInt(), owner));
+        size++;
+        modCount++;
+        return true;
+    }
+
+    private Node insert(Node node, Node newNode)
+    {
+        if (node == null)
+        {
+            return newNode;
+        }
+        node = editable(node);
+        if (COMPARATOR.compare(newNode.appointment, node.appointment) < 0)
+        {
+            node.left = insert(node.left, newNode);
+            if (node.left.priority > node.priority)
+            {
+                node = rotateRight(node);
+            }
+        }
+        else
+        {
+            node.right = insert(node.right, newNode);
+            if (node.right.priority > node.priority)
+            {
+                node = rotateLeft(node);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        // we don't want to copy the path if the appointment is not in the index
+        if (!contains(o))
+        {
+            return false;
+        }
+        final int oldSize = size;
+        root = delete(root, (Appointment) o);
+        if (size != oldSize)
+        {
+            modCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private Node delete(Node node, Appointment appointment)
+    {
+        if (node == null)
+        {
+            return null;
+        }
+        int cmp = COMPARATOR.compare(appointment, node.appointment);
+        if (cmp == 0)
+        {
+            size--;
+            return merge(node.left, node.right);
+        }
+        node = editable(node);
+        if (cmp < 0)
+        {
+            node.left = delete(node.left, appointment);
+        }
+        else
+        {
+            node.right = delete(node.right, appointment);
+        }
+        node.update();
+        return node;
+    }
+
+    /** merges two treaps where all elements of left are smaller than all elements of right */
+    private Node merge(Node left, Node right)
+    {
+        if (left == null)
+        {
+            return right;
+        }
+        if (right == null)
+        {
+            return left;
+        }
+        if (left.priority > right.priority)
+        {
+            left = editable(left);
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        else
+        {
+            right = editable(right);
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    private Node rotateRight(Node node)
+    {
+        Node newRoot = editable(node.left);
+        node.left = newRoot.right;
+        newRoot.right = node;
+        node.update();
+        newRoot.update();
+        return newRoot;
+    }
+
+    private Node rotateLeft(Node node)
+    {
+        Node newRoot = editable(node.right);
+        node.right = newRoot.left;
+        newRoot.left = node;
+        node.update();
+        newRoot.update();
+        return newRoot;
+    }
+
+    @Override
+    public void clear()
+    {
+        root = null;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * calls the consumer in start order for all appointments with start < end and maxEnd > start. Pass null for an open interval.
+     * Only the appointments that are candidates for an overlap are visited. Exceptions and gaps between repetitions are not checked here.
+     */
+    public void forEachCandidate(Date start, Date end, Consumer<Appointment> consumer)
+    {
+        final long startLong = start != null ? start.getTime() : Long.MIN_VALUE;
+        final long endLong = end != null ? end.getTime() : Long.MAX_VALUE;
+        forEachCandidate(startLong, endLong, consumer);
+    }
+
+    public void forEachCandidate(long start, long end, Consumer<Appointment> consumer)
+    {
+        visit(root, start, end, consumer);
+    }
+
+    private void visit(Node node, long start, long end, Consumer<Appointment> consumer)
+    {
+        while (node != null)
+        {
+            // no appointment in this subtree ends after the interval start
+            if (node.subtreeMaxEnd <= start)
+            {
+                return;
+            }
+            visit(node.left, start, end, consumer);
+            // this and all appointments in the right subtree start after the interval end
+            if (node.start >= end)
+            {
+                return;
+            }
+            if (node.maxEnd > start)
+            {
+                consumer.accept(node.appointment);
+            }
+            node = node.right;
+        }
+    }
+
+    /**
+     * same as {@link #forEachCandidate(long, long, Consumer)}, but stops as soon as the visitor returns false.
+     * @return false if the visit was stopped by the visitor
+     */
+    public boolean visitCandidates(long start, long end, Predicate<Appointment> visitor)
+    {
+        return visit(root, start, end, Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * same as {@link #visitCandidates(long, long, Predicate)}, but only visits the appointments that start at or after from.
+     * Subtrees that start before from are not entered, so continuing a visit at a position costs log(n) instead of a scan from the start.
+     */
+    public boolean visitCandidates(long start, long end, long from, Predicate<Appointment> visitor)
+    {
+        return visit(root, start, end, from, visitor);
+    }
+
+    private boolean visit(Node node, long start, long end, long from, Predicate<Appointment> visitor)
+    {
+        while (node != null)
+        {
+            if (node.subtreeMaxEnd <= start)
+            {
+                return true;
+            }
+            // this and all appointments in the left subtree start before from
+            if (node.start < from)
+            {
+                node = node.right;
+                continue;
+            }
+            if (!visit(node.left, start, end, from, visitor))
+            {
+                return false;
+            }
+            if (node.start >= end)
+            {
+                return true;
+            }
+            if (node.maxEnd > start && !visitor.test(node.appointment))
+            {
+                return false;
+            }
+            node = node.right;
+        }
+        return true;
+    }
+
+    /**
+     * calls the consumer in start order for all appointments with maxEnd <= end. Appointments that repeat forever are not visited.
+     * Subtrees that start after the end are skipped.
+     */
+    public void forEachEndingBefore(long end, Consumer<Appointment> consumer)
+    {
+        visitEndingBefore(root, end, consumer);
+    }
+
+    private void visitEndingBefore(Node node, long end, Consumer<Appointment> consumer)
+    {
+        while (node != null)
+        {
+            visitEndingBefore(node.left, end, consumer);
+            // this and all appointments in the right subtree start after the end, so they also end after it
+            if (node.start > end)
+            {
+                return;
+            }
+            if (node.maxEnd <= end)
+            {
+                consumer.accept(node.appointment);
+            }
+            node = node.right;
+        }
+    }
+
+    /**
+     * returns all appointments of the index that overlap the period and are owned by the user. This has the same semantics as
+     * {@link AppointmentImpl#getAppointments(SortedSet, User, Date, Date, boolean)} but only visits possibly overlapping appointments.
+     * @param user the owner of the reservation or null for all users
+     */
+    public SortedSet<Appointment> getAppointments(User user, Date start, Date end, boolean excludeExceptions)
+    {
+        final SortedSet<Appointment> appointmentSet = new TreeSet<>(COMPARATOR);
+        forEachCandidate(start, end, (candidate) ->
+        {
+            final AppointmentImpl appointment = (AppointmentImpl) candidate;
+            // Ignore appointments without a reservation
+            if (appointment.getReservation() == null)
+            {
+                return;
+            }
+            if (!appointment.overlaps(start, end, excludeExceptions))
+            {
+                return;
+            }
+            if (user == null || user.getReference().equals(appointment.getOwnerRef()))
+            {
+                appointmentSet.add(appointment);
+            }
+        });
+        return appointmentSet;
+    }
+
+    /** same as {@link AppointmentImpl#getConflictingAppointments(SortedSet, Appointment, Collection, boolean)} but uses the index to find the candidates */
+    public Set<Appointment> getConflictingAppointments(Appointment appointment, Collection<Reservation> ignoreList, boolean onlyFirstConflictingAppointment)
+    {
+        // Templates don't cause conflicts
+        if (RaplaComponent.isTemplate(appointment))
+        {
+            return new TreeSet<>(COMPARATOR);
+        }
+        boolean excludeExceptions = true;
+        SortedSet<Appointment> appointmentsToTest = getAppointments(null, appointment.getStart(), appointment.getMaxEnd(), excludeExceptions);
+        return AppointmentImpl.filterConflictingAppointments(appointmentsToTest, appointment, ignoreList, onlyFirstConflictingAppointment);
+    }
+
+    /** iterates the appointments in start order. The iterator supports remove*/
+    @Override
+    public Iterator<Appointment> iterator()
+    {
+        return new Iterator<Appointment>()
+        {
+            final Deque<Node> stack = new ArrayDeque<>();
+            Appointment lastReturned;
+            int expectedModCount = modCount;
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node node)
+            {
+                while (node != null)
+                {
+                    stack.push(node);
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Appointment next()
+            {
+                if (expectedModCount != modCount)
+                {
+                    throw new ConcurrentModificationException();
+                }
+                if (stack.isEmpty())
+                {
+                    throw new NoSuchElementException();
+                }
+                Node node = stack.pop();
+                pushLeft(node.right);
+                lastReturned = node.appointment;
+                return lastReturned;
+            }
+
+            @Override
+            public void remove()
+            {
+                if (lastReturned == null)
+                {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount)
+                {
+                    throw new ConcurrentModificationException();
+                }
+                AppointmentIntervalIndex.this.remove(lastReturned);
+                expectedModCount = modCount;
+                // the tree has been restructured, so we need to find the successor of the removed appointment
+                stack.clear();
+                Node node = root;
+                while (node != null)
+                {
+                    if (COMPARATOR.compare(lastReturned, node.appointment) < 0)
+                    {
+                        stack.push(node);
+                        node = node.left;
+                    }
+                    else
+                    {
+                        node = node.right;
+                    }
+                }
+                lastReturned = null;
+            }
+        };
+    }
+}
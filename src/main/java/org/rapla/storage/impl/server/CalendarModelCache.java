@@ -3,12 +3,17 @@ package org.rapla.storage.impl.server;
 import org.rapla.RaplaResources;
 import org.rapla.components.util.TimeInterval;
 import org.rapla.entities.Entity;
+import org.rapla.entities.RaplaObject;
 import org.rapla.entities.User;
 import org.rapla.entities.configuration.CalendarModelConfiguration;
 import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.RaplaMap;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.internal.CalendarModelImpl;
 import org.rapla.framework.RaplaException;
@@ -31,12 +36,23 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public class CalendarModelCache
 {
     RaplaLock lockManager;
 
     private final Map<ReferenceInfo<User>, List<CalendarModelImpl>> calendarModels = new HashMap<>();
+    // inverted index of the calendar models, so that the users affected by a change can be found without checking every model
+    private final Map<ReferenceInfo<User>, List<ModelEntry>> entriesByUser = new HashMap<>();
+    private final Map<String, Set<ModelEntry>> entriesByAllocatable = new HashMap<>();
+    private final Map<String, Set<ModelEntry>> entriesByType = new HashMap<>();
+    // models without allocatable selection match the appointments of all allocatables
+    private final Set<ModelEntry> entriesForAllAllocatables = new HashSet<>();
+    // the selection of these models changes if an allocatable of one of the types is changed
+    private final Map<String, Set<ModelEntry>> entriesBySelectionType = new HashMap<>();
+    // models that select the allocatable root change with every allocatable
+    private final Set<ModelEntry> entriesForAllocatableRoot = new HashSet<>();
     final CachableStorageOperator operator;
     final RaplaResources i18n;
     final Logger logger;
@@ -51,12 +67,246 @@ public class CalendarModelCache
         this.lockManager = new DefaultRaplaLock(logger);
     }
 
+    /** the resolved selection and filters of a calendar model, so that they need not be computed for each lookup */
+    static final class ModelEntry
+    {
+        final ReferenceInfo<User> userId;
+        final Set<String> allocatableIds = new HashSet<>();
+        // the selected types and the types of the selected allocatables
+        final Set<String> selectionTypeIds = new HashSet<>();
+        final boolean allocatableRootSelected;
+        final boolean allEventTypes;
+        final ClassificationFilter[] reservationFilters;
+
+        ModelEntry(ReferenceInfo<User> userId, CalendarModelImpl model) throws RaplaException
+        {
+            this.userId = userId;
+            for (Allocatable allocatable : model.getAllAllocatables())
+            {
+                allocatableIds.add(allocatable.getId());
+                final Classification classification = allocatable.getClassification();
+                if (classification != null)
+                {
+                    selectionTypeIds.add(classification.getType().getId());
+                }
+            }
+            final Collection<RaplaObject> selectedObjects = model.getSelectedObjects();
+            for (RaplaObject selected : selectedObjects)
+            {
+                if (selected instanceof DynamicType)
+                {
+                    selectionTypeIds.add(((DynamicType) selected).getId());
+                }
+            }
+            allocatableRootSelected = selectedObjects.contains(CalendarModelImpl.ALLOCATABLES_ROOT);
+            allEventTypes = model.isDefaultEventTypes();
+            reservationFilters = allEventTypes ? null : model.getReservationFilter();
+        }
+
+        boolean matchesFilter(Classification classification)
+        {
+            for (ClassificationFilter filter : reservationFilters)
+            {
+                if (filter.matches(classification))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static List<ModelEntry> createEntries(ReferenceInfo<User> userId, List<CalendarModelImpl> calendarModelList) throws RaplaException
+    {
+        final List<ModelEntry> entries = new ArrayList<>();
+        for (CalendarModelImpl model : calendarModelList)
+        {
+            entries.add(new ModelEntry(userId, model));
+        }
+        return entries;
+    }
+
+    /** must be called with the write lock */
+    private void index(ReferenceInfo<User> userId, List<ModelEntry> entries)
+    {
+        unindex(userId);
+        entriesByUser.put(userId, entries);
+        for (ModelEntry entry : entries)
+        {
+            if (entry.allocatableIds.isEmpty())
+            {
+                entriesForAllAllocatables.add(entry);
+            }
+            if (entry.allocatableRootSelected)
+            {
+                entriesForAllocatableRoot.add(entry);
+            }
+            for (String allocatableId : entry.allocatableIds)
+            {
+                entriesByAllocatable.computeIfAbsent(allocatableId, (id) -> new HashSet<>()).add(entry);
+            }
+            for (String typeId : entry.selectionTypeIds)
+            {
+                entriesBySelectionType.computeIfAbsent(typeId, (id) -> new HashSet<>()).add(entry);
+            }
+            if (!entry.allEventTypes)
+            {
+                for (ClassificationFilter filter : entry.reservationFilters)
+                {
+                    entriesByType.computeIfAbsent(filter.getType().getId(), (id) -> new HashSet<>()).add(entry);
+                }
+            }
+        }
+    }
+
+    /** must be called with the write lock */
+    private void unindex(ReferenceInfo<User> userId)
+    {
+        final List<ModelEntry> entries = entriesByUser.remove(userId);
+        if (entries == null)
+        {
+            return;
+        }
+        for (ModelEntry entry : entries)
+        {
+            entriesForAllAllocatables.remove(entry);
+            entriesForAllocatableRoot.remove(entry);
+            for (String allocatableId : entry.allocatableIds)
+            {
+                removeFromIndex(entriesByAllocatable, allocatableId, entry);
+            }
+            for (String typeId : entry.selectionTypeIds)
+            {
+                removeFromIndex(entriesBySelectionType, typeId, entry);
+            }
+            if (!entry.allEventTypes)
+            {
+                for (ClassificationFilter filter : entry.reservationFilters)
+                {
+                    removeFromIndex(entriesByType, filter.getType().getId(), entry);
+                }
+            }
+        }
+    }
+
+    private static void removeFromIndex(Map<String, Set<ModelEntry>> index, String key, ModelEntry entry)
+    {
+        final Set<ModelEntry> set = index.get(key);
+        if (set != null)
+        {
+            set.remove(entry);
+            if (set.isEmpty())
+            {
+                index.remove(key);
+            }
+        }
+    }
+
+    /** returns the users with models whose selection or filter can be changed by the changed allocatables and types */
+    private Set<ReferenceInfo<User>> findAffectedUsers(Collection<String> allocatableIds, Collection<String> typeIds)
+    {
+        final Set<ReferenceInfo<User>> result = new HashSet<>();
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "find affected calendar models");
+        try
+        {
+            addUsers(result, entriesForAllocatableRoot);
+            for (String allocatableId : allocatableIds)
+            {
+                addUsers(result, entriesByAllocatable.get(allocatableId));
+            }
+            for (String typeId : typeIds)
+            {
+                addUsers(result, entriesBySelectionType.get(typeId));
+                addUsers(result, entriesByType.get(typeId));
+            }
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        return result;
+    }
+
+    private static void addUsers(Set<ReferenceInfo<User>> result, Collection<ModelEntry> entries)
+    {
+        if (entries != null)
+        {
+            for (ModelEntry entry : entries)
+            {
+                result.add(entry.userId);
+            }
+        }
+    }
+
+    /** the selection of the models depends on the allocatables and types, so the index of the passed users is rebuilt if they change */
+    private void reindex(Collection<ReferenceInfo<User>> userIds) throws RaplaException
+    {
+        if (userIds.isEmpty())
+        {
+            return;
+        }
+        final Map<ReferenceInfo<User>, List<CalendarModelImpl>> models = new HashMap<>();
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "reindex calendar models");
+        try
+        {
+            for (ReferenceInfo<User> userId : userIds)
+            {
+                final List<CalendarModelImpl> list = calendarModels.get(userId);
+                if (list != null)
+                {
+                    models.put(userId, list);
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        final Map<ReferenceInfo<User>, List<ModelEntry>> entries = new HashMap<>();
+        for (Map.Entry<ReferenceInfo<User>, List<CalendarModelImpl>> entry : models.entrySet())
+        {
+            entries.put(entry.getKey(), createEntries(entry.getKey(), entry.getValue()));
+        }
+        final RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "reindex calendar models", 60);
+        try
+        {
+            for (Map.Entry<ReferenceInfo<User>, List<ModelEntry>> entry : entries.entrySet())
+            {
+                final ReferenceInfo<User> userId = entry.getKey();
+                // skip the users whose models were updated in the meantime
+                if (calendarModels.get(userId) == models.get(userId))
+                {
+                    index(userId, entry.getValue());
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(lock);
+        }
+    }
+
+    /** returns the current calendar models, used to check the index against a full scan */
+    Map<ReferenceInfo<User>, List<CalendarModelImpl>> getCalendarModels()
+    {
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "get calendar models");
+        try
+        {
+            return new HashMap<>(calendarModels);
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+    }
+
     private void removeCalendarModelFor(ReferenceInfo<User> userId) throws RaplaException
     {
         RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "removeCalendar for user " + userId,60);
         try
         {
             this.calendarModels.remove(userId);
+            unindex(userId);
         }
         finally
         {
@@ -86,6 +336,7 @@ public class CalendarModelCache
             try
             {
                 this.calendarModels.remove(userId);
+                unindex(userId);
             }
             finally
             {
@@ -101,6 +352,7 @@ public class CalendarModelCache
             try
             {
                 this.calendarModels.remove(userId);
+                unindex(userId);
             }
             finally
             {
@@ -136,16 +388,19 @@ public class CalendarModelCache
             }
         }
 
+        final List<ModelEntry> entries = createEntries(userId, calendarModelList);
         final RaplaLock.WriteLock lock = lockManager.writeLock(getClass(), "Update calendar for user " + userId + " writing new calendar", 60);
         try
         {
             if (calendarModelList.size() > 0)
             {
                 this.calendarModels.put(userId, calendarModelList);
+                index(userId, entries);
             }
             else
             {
                 this.calendarModels.remove(userId);
+                unindex(userId);
             }
         }
         finally
@@ -159,24 +414,33 @@ public class CalendarModelCache
     public Collection<ReferenceInfo<User>> findMatchingUser(Appointment appointment) throws RaplaException
     {
         Set<ReferenceInfo<User>> result = new HashSet<>();
+        final Reservation reservation = appointment.getReservation();
+        if (reservation == null)
+        {
+            return result;
+        }
+        final List<Allocatable> allocatables = reservation.getAllocatablesFor(appointment).collect(Collectors.toList());
+        final Classification classification = reservation.getClassification();
         RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "findMatchingUserForAppointment");
         try
         {
-            for (ReferenceInfo<User> userId : calendarModels.keySet())
+            // TODO check wether the user can see the appointment or no
+            final Set<ModelEntry> entriesForType = entriesByType.get(classification.getType().getId());
+            for (ModelEntry entry : entriesForAllAllocatables)
+            {
+                addIfTypeMatches(result, entry, entriesForType, classification);
+            }
+            for (Allocatable allocatable : allocatables)
             {
-                // TODO check wether the user can see the appointment or no
-                //
-                List<CalendarModelImpl> list = calendarModels.get(userId);
-                for (CalendarModelImpl conf : list)
+                final Set<ModelEntry> entries = entriesByAllocatable.get(allocatable.getId());
+                if (entries != null)
                 {
-                    if (conf.isMatchingSelectionAndFilter(appointment))
+                    for (ModelEntry entry : entries)
                     {
-                        result.add(userId);
-                        break;
+                        addIfTypeMatches(result, entry, entriesForType, classification);
                     }
                 }
             }
-
         }
         finally
         {
@@ -185,6 +449,18 @@ public class CalendarModelCache
         return result;
     }
 
+    private static void addIfTypeMatches(Set<ReferenceInfo<User>> result, ModelEntry entry, Set<ModelEntry> entriesForType, Classification classification)
+    {
+        if (result.contains(entry.userId))
+        {
+            return;
+        }
+        if (entry.allEventTypes || (entriesForType != null && entriesForType.contains(entry) && entry.matchesFilter(classification)))
+        {
+            result.add(entry.userId);
+        }
+    }
+
     // checks all exports if appointment is still in on of the exported calendars (check eslected resources)
     public Collection<ReferenceInfo<User>> findMatchingUsers(Allocatable allocatable) throws RaplaException
     {
@@ -192,19 +468,14 @@ public class CalendarModelCache
         RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "findMatchingUserForAppointment");
         try
         {
-            for (ReferenceInfo<User> userId : calendarModels.keySet())
+            final Set<ModelEntry> entries = entriesByAllocatable.get(allocatable.getId());
+            if (entries != null)
             {
-                List<CalendarModelImpl> list = calendarModels.get(userId);
-                for (CalendarModelImpl model : list)
+                for (ModelEntry entry : entries)
                 {
-                    if (model.getAllAllocatables().contains(allocatable))
-                    {
-                        result.add(userId);
-                        break;
-                    }
+                    result.add(entry.userId);
                 }
             }
-
         }
         finally
         {
@@ -250,9 +521,32 @@ public class CalendarModelCache
 
     public  void synchronizeCalendars(UpdateResult evt) throws RaplaException
     {
+        final Set<String> changedAllocatableIds = new HashSet<>();
+        final Set<String> changedTypeIds = new HashSet<>();
+        final List<Allocatable> changedAllocatables = new ArrayList<>();
         for (UpdateOperation operation : evt.getOperations())
         {
             final Class<? extends Entity> raplaType = operation.getType();
+            if (raplaType == Allocatable.class)
+            {
+                final ReferenceInfo<Allocatable> ref = operation.getReference();
+                changedAllocatableIds.add(ref.getId());
+                // the allocatable can leave the selection of its old type and enter the one of its new type
+                addType(changedTypeIds, evt.getLastEntryBeforeUpdate(ref));
+                if (!(operation instanceof UpdateResult.Remove))
+                {
+                    final Allocatable allocatable = evt.getLastKnown(ref);
+                    if (allocatable != null)
+                    {
+                        addType(changedTypeIds, allocatable);
+                        changedAllocatables.add(allocatable);
+                    }
+                }
+            }
+            else if (raplaType == DynamicType.class)
+            {
+                changedTypeIds.add(operation.getReference().getId());
+            }
 
             // the exported calendars could have changed
             if (raplaType == Preferences.class)
@@ -292,6 +586,23 @@ public class CalendarModelCache
                 }
             }
         }
+        if (!changedAllocatableIds.isEmpty() || !changedTypeIds.isEmpty())
+        {
+            // a changed allocatable is also selected in the models that select the allocatables it belongs to or that package it
+            for (Allocatable dependent : operator.getDependent(changedAllocatables))
+            {
+                changedAllocatableIds.add(dependent.getId());
+            }
+            reindex(findAffectedUsers(changedAllocatableIds, changedTypeIds));
+        }
+    }
+
+    private static void addType(Set<String> typeIds, Allocatable allocatable)
+    {
+        if (allocatable != null && allocatable.getClassification() != null)
+        {
+            typeIds.add(allocatable.getClassification().getType().getId());
+        }
     }
 
 }
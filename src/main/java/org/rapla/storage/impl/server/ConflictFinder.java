@@ -19,7 +19,7 @@ import org.rapla.entities.domain.Appointment;
 import org.rapla.entities.domain.AppointmentBlock;
 import org.rapla.entities.domain.Reservation;
 import org.rapla.entities.domain.ResourceAnnotations;
-import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.entities.domain.internal.AppointmentBlockCursor;
 import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.storage.EntityResolver;
 import org.rapla.entities.storage.ReferenceInfo;
@@ -43,8 +43,14 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 class ConflictFinder {
 	AllocationMap  allocationMap;
@@ -53,22 +59,114 @@ class ConflictFinder {
     Logger logger;
     EntityResolver resolver;
     private final PermissionController permissionController;
+    // if set only the conflicts of changed appointments are recalculated on an update, otherwise a full sweep is done for each changed allocatable
+    private boolean incrementalUpdates = true;
     public ConflictFinder( AllocationMap  allocationMap, Date today, Logger logger, EntityResolver resolver,  PermissionController permissionController)  {
+        this( allocationMap, today, logger, resolver, permissionController, 1);
+    }
+
+    /** @param parallelism the number of threads used for the initial conflict calculation. Pass 0 to use the common pool.
+     * The calculation runs on the pool shared with the parallel loading of the operator.*/
+    public ConflictFinder( AllocationMap  allocationMap, Date today, Logger logger, EntityResolver resolver,  PermissionController permissionController, int parallelism)  {
     	this.logger = logger;
     	this.allocationMap = allocationMap;
         this.permissionController = permissionController;
-    	conflictMap = new HashMap<>();
     	long startTime = System.currentTimeMillis();
+        conflictMap = initConflicts(today, parallelism);
     	int conflictSize = 0;
-        for (Allocatable allocatable:allocationMap.getAllocatables())
-		{
-        	Map<ReferenceInfo<Conflict>,Conflict> newConflicts = calculateConflicts(allocatable, today);
-        	conflictMap.put( allocatable.getReference(), newConflicts);
-        	conflictSize+= newConflicts.size();
-		}
-        logger.info("Conflict initialization found " + conflictSize + " conflicts and took " + (System.currentTimeMillis()- startTime) + "ms. " ); 
+        for (Map<ReferenceInfo<Conflict>,Conflict> conflicts:conflictMap.values())
+        {
+            conflictSize+= conflicts.size();
+        }
+        final int threads = parallelism > 0 ? parallelism : ForkJoinPool.getCommonPoolParallelism();
+        logger.info("Conflict initialization found " + conflictSize + " conflicts and took " + (System.currentTimeMillis()- startTime) + "ms using " + threads + " threads. " );
         this.resolver = resolver;
 	}
+
+    private Map<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> initConflicts(Date today, int parallelism)
+    {
+        final List<Allocatable> allocatables = new ArrayList<>(allocationMap.getAllocatables());
+        final SharedBlocks sharedBlocks = new SharedBlocks(getMaxCheck());
+        for (Allocatable allocatable:allocatables)
+        {
+            if ( !isConflictIgnored( allocatable))
+            {
+                sharedBlocks.countUsage( allocationMap.getAppointments( allocatable));
+            }
+        }
+        @SuppressWarnings("unchecked")
+        final Map<ReferenceInfo<Conflict>,Conflict>[] conflicts = new Map[allocatables.size()];
+        LocalAbstractCachableOperator.forEachParallel(allocatables.size(), parallelism, (i) -> conflicts[i] = calculateConflicts(allocatables.get(i), today, sharedBlocks));
+        final Map<ReferenceInfo<Allocatable>,Map<ReferenceInfo<Conflict>,Conflict>> result = new HashMap<>();
+        for (int i = 0; i < conflicts.length; i++)
+        {
+            result.put( allocatables.get(i).getReference(), conflicts[i]);
+        }
+        return result;
+    }
+
+    /** Blocks of appointments that are allocated on more than one resource are only created once during the conflict initialization.
+     * The blocks are released after the last resource using them has been processed.*/
+    private static final class SharedBlocks
+    {
+        private final long maxCheck;
+        private final Map<Appointment,Usage> usages = new HashMap<>();
+        private final ConcurrentMap<Appointment,List<AppointmentBlock>> blocks = new ConcurrentHashMap<>();
+
+        /** the number of resources using the appointment is fixed after counting, only the remaining count is changed by the consumers */
+        private static final class Usage
+        {
+            private int count;
+            private final AtomicInteger remaining = new AtomicInteger();
+        }
+
+        private SharedBlocks(long maxCheck)
+        {
+            this.maxCheck = maxCheck;
+        }
+
+        /** must be called for all resources before the blocks are requested */
+        private void countUsage(Collection<Appointment> appointments)
+        {
+            for (Appointment appointment:appointments)
+            {
+                Usage usage = usages.get( appointment);
+                if ( usage == null)
+                {
+                    usage = new Usage();
+                    usages.put( appointment, usage);
+                }
+                usage.count++;
+                usage.remaining.incrementAndGet();
+            }
+        }
+
+        private boolean isShared(Appointment appointment)
+        {
+            final Usage usage = usages.get( appointment);
+            return usage != null && usage.count > 1;
+        }
+
+        private List<AppointmentBlock> getBlocks(Appointment appointment, Function<Appointment,List<AppointmentBlock>> blockFactory)
+        {
+            final List<AppointmentBlock> result = blocks.computeIfAbsent(appointment, blockFactory);
+            if ( usages.get( appointment).remaining.decrementAndGet() == 0)
+            {
+                blocks.remove( appointment);
+            }
+            return result;
+        }
+    }
+
+    public boolean isIncrementalUpdates()
+    {
+        return incrementalUpdates;
+    }
+
+    public void setIncrementalUpdates(boolean incrementalUpdates)
+    {
+        this.incrementalUpdates = incrementalUpdates;
+    }
     
     public Conflict findConflict(ReferenceInfo<Conflict> ref)
     {
@@ -96,6 +194,11 @@ class ConflictFinder {
     }
 
     private Map<ReferenceInfo<Conflict>,Conflict> calculateConflicts(Allocatable allocatable,Date today )
+    {
+        return calculateConflicts( allocatable, today, null);
+    }
+
+    private Map<ReferenceInfo<Conflict>,Conflict> calculateConflicts(Allocatable allocatable,Date today, SharedBlocks sharedBlocks )
     {
         if ( isConflictIgnored(allocatable))
         {
@@ -131,7 +234,7 @@ class ConflictFinder {
 //                conflictList.add( conflict );
 //            }
 //        }
-        Map<ReferenceInfo<Conflict>,Conflict> conflictList =   updateConflicts(allocatable, today, allAppointments);
+        Map<ReferenceInfo<Conflict>,Conflict> conflictList =   updateConflicts(allocatable, today, allAppointments, sharedBlocks);
         //updateConflictsOld(allocatable, today, allAppointments, changedAppointments, conflictList);
         if ( conflictList.isEmpty())
         {
@@ -230,9 +333,9 @@ class ConflictFinder {
 //        }
 //    }
     
-    private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Set<Appointment> allAppointments) {
+    private  Map<ReferenceInfo<Conflict>,Conflict>  updateConflicts(Allocatable allocatable, Date today, Set<Appointment> allAppointments, SharedBlocks sharedBlocks) {
         Collection<AppointmentBlock> allAppointmentBlocks = new LinkedList<>();
-        createBlocks(today,allAppointments,allAppointmentBlocks);
+        createBlocks(today,allAppointments,allAppointmentBlocks, sharedBlocks);
 //        Collection<AppointmentBlock> appointmentBlocks =  new LinkedList<AppointmentBlock>();
 //        createBlocks(today,changedAppointments,appointmentBlocks, null);
 //        long startTime = 0;
@@ -303,32 +406,16 @@ class ConflictFinder {
                     {
                         continue;
                     }
-                    if ( appointment2.overlapsAppointment(appointment1))
+                    String id = ConflictImpl.createId(allocatable.getReference(), appointment1.getReference(), appointment2.getReference());
+                    if ( foundConflictIds.contains(id ))
                     {
-                        String id = ConflictImpl.createId(allocatable.getReference(), appointment1.getReference(), appointment2.getReference());
-                        if ( foundConflictIds.contains(id ))
-                        {
-                            continue;
-                        }
-
-                        // Check if allocatable is directly reserved by one of the  reservations
-                        // Blocks are created for parent resources like buildings but the two reservations could allocate different rooms in that building
-                        final Reservation reservation1 = appointment1.getReservation();
-                        final Reservation reservation2 = appointment2.getReservation();
-                        if (!reservation1.hasAllocatedOn(allocatable, appointment1)
-                                && !reservation2.hasAllocatedOn(allocatable,appointment2)) {
-                            continue;
-                        }
-
-                        // Add appointments to conflict list
-                        if (ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today))
-                        {
-                            // createInfoDialog a new conflict
-                            final ConflictImpl conflict = new ConflictImpl(allocatable,appointment1, appointment2, today, id);
-                            conflictList.put(conflict.getReference(), conflict);
-                            foundConflictIds.add( id);
-//                            System.out.println("Conflict " + appointment1 + " and " + appointment2);
-                        }                       
+                        continue;
+                    }
+                    final ConflictImpl conflict = createConflict(allocatable, today, appointment1, appointment2, id);
+                    if ( conflict != null)
+                    {
+                        conflictList.put(conflict.getReference(), conflict);
+                        foundConflictIds.add( id);
                     }
 
                 }
@@ -423,53 +510,259 @@ class ConflictFinder {
 //        return( idList.contains( appointment1) || idList.contains( appointment2));
 //	}
 	
-    private void createBlocks(Date today, Collection<Appointment> appointmentSet,  Collection<AppointmentBlock> allAppointmentBlocks) {
-        // overlaps will be checked  260 weeks (5 years) from now on
-		long maxCheck = System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+    private void createBlocks(Date today, Collection<Appointment> appointmentSet,  Collection<AppointmentBlock> allAppointmentBlocks, SharedBlocks sharedBlocks) {
+        final long maxCheck = sharedBlocks != null ? sharedBlocks.maxCheck : getMaxCheck();
 		//Appointment last = appointmentSet.last();
 		
 		// Get all time blocks of all appointments
 		for (Appointment appointment:appointmentSet)
 		{
-			// Get the end date of the appointment (if repeating, end date of last occurence)
-			Date maxEnd = appointment.getMaxEnd();
-		       // Check if the appointment is repeating forever
-            if ( maxEnd == null || maxEnd.getTime() > maxCheck)
+            if ( sharedBlocks != null && sharedBlocks.isShared( appointment))
             {
-                // If the repeating has no end, set the end to the start of the last appointment in the set + 100 weeks (~2 years)
-                maxEnd = new Date(maxCheck); 
+                allAppointmentBlocks.addAll( sharedBlocks.getBlocks( appointment, (app) ->
+                {
+                    List<AppointmentBlock> blocks = new ArrayList<>();
+                    createBlocks(today, maxCheck, app, Long.MIN_VALUE, Long.MAX_VALUE, blocks);
+                    return blocks;
+                }));
             }
-            if ( maxEnd.before( today))
+            else
             {
-                continue;
+                createBlocks(today, maxCheck, appointment, Long.MIN_VALUE, Long.MAX_VALUE, allAppointmentBlocks);
             }
-   		
-			if ( RaplaComponent.isTemplate(appointment.getReservation()))
-			{
-			    continue;
-			}
-			
-			Reservation r1 = appointment.getReservation();
-	        DynamicType type1 = r1 != null ? r1.getClassification().getType() : null;
-	        String annotation1 = ConflictImpl.getConflictAnnotation( type1);
-	        if ( ConflictImpl.isNoConflicts( annotation1 ) )
-	        {
-	            continue;
-	        }
-			/*
-			 * If the appointment has a repeating, get all single time blocks of it. If it is no
-			 * repeating, this will just createInfoDialog one block, which is equal to the appointment
-			 * itself.
-			 */
-			Date start = appointment.getStart();
-			if ( start.before( today))
-			{
-			    start = today;
-			}
-            ((AppointmentImpl)appointment).createBlocks(start, DateTools.fillDate(maxEnd), allAppointmentBlocks);
 		}
     }
 
+    // overlaps will be checked  260 weeks (5 years) from now on
+    private static long getMaxCheck()
+    {
+        return System.currentTimeMillis() + DateTools.MILLISECONDS_PER_WEEK * 260;
+    }
+
+    /** creates the blocks of the appointment that are checked for conflicts and that overlap the from-to interval*/
+    private void createBlocks(Date today, long maxCheck, Appointment appointment, long from, long to, Collection<AppointmentBlock> blocks)
+    {
+        AppointmentBlockCursor cursor = new AppointmentBlockCursor();
+        if ( resetCursor(cursor, today, maxCheck, appointment, from, to))
+        {
+            while ( cursor.next())
+            {
+                blocks.add( cursor.createBlock());
+            }
+        }
+    }
+
+    /** resets the cursor to the blocks of the appointment that are checked for conflicts and that overlap the from-to interval.
+     * Returns false if there are no blocks to check*/
+    private boolean resetCursor(AppointmentBlockCursor cursor, Date today, long maxCheck, Appointment appointment, long from, long to)
+    {
+        // Get the end date of the appointment (if repeating, end date of last occurence)
+        Date maxEnd = appointment.getMaxEnd();
+        // Check if the appointment is repeating forever
+        if ( maxEnd == null || maxEnd.getTime() > maxCheck)
+        {
+            // If the repeating has no end, set the end to the start of the last appointment in the set + 100 weeks (~2 years)
+            maxEnd = new Date(maxCheck);
+        }
+        if ( maxEnd.before( today))
+        {
+            return false;
+        }
+
+        if ( RaplaComponent.isTemplate(appointment.getReservation()))
+        {
+            return false;
+        }
+
+        Reservation r1 = appointment.getReservation();
+        DynamicType type1 = r1 != null ? r1.getClassification().getType() : null;
+        String annotation1 = ConflictImpl.getConflictAnnotation( type1);
+        if ( ConflictImpl.isNoConflicts( annotation1 ) )
+        {
+            return false;
+        }
+        /*
+         * If the appointment has a repeating, get all single time blocks of it. If it is no
+         * repeating, this will just createInfoDialog one block, which is equal to the appointment
+         * itself.
+         */
+        long start = Math.max(Math.max(appointment.getStart().getTime(), today.getTime()), from);
+        long end = Math.min(DateTools.fillDate(maxEnd).getTime(), to);
+        if ( start >= end)
+        {
+            return false;
+        }
+        cursor.reset(appointment, start, end, true);
+        return true;
+    }
+
+    /** recalculates the conflicts of the allocatable. If a change is passed and incremental updates are enabled only the conflicts of the changed
+     *  appointments are recalculated, all other conflicts are taken from the conflictListBefore*/
+    Map<ReferenceInfo<Conflict>,Conflict> recalculateConflicts(Allocatable allocatable, Date today, Map<ReferenceInfo<Conflict>,Conflict> conflictListBefore, AllocationChange change)
+    {
+        if ( change == null || !incrementalUpdates)
+        {
+            return calculateConflicts( allocatable, today);
+        }
+        if ( isConflictIgnored(allocatable))
+        {
+            return Collections.emptyMap();
+        }
+        Set<ReferenceInfo<Appointment>> changedIds = new HashSet<>();
+        for (Appointment appointment : change.toRemove)
+        {
+            changedIds.add(appointment.getReference());
+        }
+        for (Appointment appointment : change.toChange)
+        {
+            changedIds.add(appointment.getReference());
+        }
+        Map<ReferenceInfo<Conflict>,Conflict> conflictList = new HashMap<>();
+        for (Map.Entry<ReferenceInfo<Conflict>,Conflict> entry : conflictListBefore.entrySet())
+        {
+            final Conflict conflict = entry.getValue();
+            if (!changedIds.contains(conflict.getAppointment1()) && !changedIds.contains(conflict.getAppointment2()) && !isExpired(conflict, today))
+            {
+                conflictList.put(entry.getKey(), conflict);
+            }
+        }
+        AppointmentIntervalIndex allAppointments = allocationMap.getAppointments(allocatable);
+        if (allAppointments.isEmpty())
+        {
+            return Collections.emptyMap();
+        }
+        final long maxCheck = getMaxCheck();
+        for (Appointment appointment1 : change.toChange)
+        {
+            // the binding could have been removed by another operation of the same update
+            if (!allAppointments.contains(appointment1))
+            {
+                continue;
+            }
+            List<AppointmentBlock> blocks1 = new ArrayList<>();
+            createBlocks(today, maxCheck, appointment1, Long.MIN_VALUE, Long.MAX_VALUE, blocks1);
+            removeEmptyBlocks(blocks1);
+            if (blocks1.isEmpty())
+            {
+                continue;
+            }
+            final long rangeStart = blocks1.get(0).getStart();
+            final long rangeEnd = blocks1.get(blocks1.size() - 1).getEnd();
+            final AppointmentBlockCursor cursor = new AppointmentBlockCursor();
+            allAppointments.forEachCandidate(rangeStart, rangeEnd, (appointment2) ->
+            {
+                if (appointment1.equals(appointment2))
+                {
+                    return;
+                }
+                String id = ConflictImpl.createId(allocatable.getReference(), appointment1.getReference(), appointment2.getReference());
+                if (conflictList.containsKey(new ReferenceInfo<>(id, Conflict.class)))
+                {
+                    return;
+                }
+                if (!resetCursor(cursor, today, maxCheck, appointment2, rangeStart, rangeEnd) || !overlaps(blocks1, cursor))
+                {
+                    return;
+                }
+                final ConflictImpl conflict = createConflict(allocatable, today, appointment1, appointment2, id);
+                if (conflict != null)
+                {
+                    conflictList.put(conflict.getReference(), conflict);
+                }
+            });
+        }
+        return conflictList;
+    }
+
+    /** returns true if the unchanged conflict has no overlapping blocks after today anymore, so the full sweep that starts at today would not find it*/
+    private boolean isExpired(Conflict conflict, Date today)
+    {
+        final Date startDate = conflict.getStartDate();
+        if (startDate != null && !startDate.before(today))
+        {
+            return false;
+        }
+        Appointment appointment1 = getAppointment(conflict.getAppointment1());
+        Appointment appointment2 = getAppointment(conflict.getAppointment2());
+        if (appointment1 == null || appointment2 == null)
+        {
+            return false;
+        }
+        if (ConflictImpl.endsBefore(appointment1, appointment2, today))
+        {
+            return true;
+        }
+        return !ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today);
+    }
+
+    // the sweep line ignores blocks without duration, so we do the same
+    private static void removeEmptyBlocks(List<AppointmentBlock> blocks)
+    {
+        blocks.removeIf((block) -> block.getEnd() <= block.getStart());
+    }
+
+    /** tests if a block from the list overlaps a block of the cursor. The list must be sorted by start and end as the blocks of a single appointment are.*/
+    private static boolean overlaps(List<AppointmentBlock> blocks1, AppointmentBlockCursor blocks2)
+    {
+        int i = 0;
+        boolean hasBlock2 = nextNonEmptyBlock(blocks2);
+        while (i < blocks1.size() && hasBlock2)
+        {
+            AppointmentBlock block1 = blocks1.get(i);
+            final long start2 = blocks2.getStart();
+            final long end2 = blocks2.getEnd();
+            if (block1.getStart() < end2 && start2 < block1.getEnd())
+            {
+                return true;
+            }
+            if (block1.getEnd() <= end2)
+            {
+                i++;
+            }
+            else
+            {
+                hasBlock2 = nextNonEmptyBlock(blocks2);
+            }
+        }
+        return false;
+    }
+
+    // the sweep line ignores blocks without duration, so we do the same
+    private static boolean nextNonEmptyBlock(AppointmentBlockCursor cursor)
+    {
+        while (cursor.next())
+        {
+            if (cursor.getEnd() > cursor.getStart())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** returns a new conflict if the two appointments with overlapping blocks are in conflict on the allocatable or null otherwise*/
+    private static ConflictImpl createConflict(Allocatable allocatable, Date today, Appointment appointment1, Appointment appointment2, String id)
+    {
+        if ( !appointment2.overlapsAppointment(appointment1))
+        {
+            return null;
+        }
+        // Check if allocatable is directly reserved by one of the  reservations
+        // Blocks are created for parent resources like buildings but the two reservations could allocate different rooms in that building
+        final Reservation reservation1 = appointment1.getReservation();
+        final Reservation reservation2 = appointment2.getReservation();
+        if (!reservation1.hasAllocatedOn(allocatable, appointment1)
+                && !reservation2.hasAllocatedOn(allocatable,appointment2)) {
+            return null;
+        }
+        // Add appointments to conflict list
+        if (!ConflictImpl.isConflictWithoutCheck(appointment1, appointment2, today))
+        {
+            return null;
+        }
+        return new ConflictImpl(allocatable,appointment1, appointment2, today, id);
+    }
+
 
 	/**
 	 * Determines all conflicts which occur after a given start date.
@@ -624,7 +917,7 @@ class ConflictFinder {
             Allocatable allocatable = resolver.tryResolve( allocatableId);
 			Map<ReferenceInfo<Conflict>,Conflict> conflictListAfter;
             if  (allocatable != null)
-             conflictListAfter = calculateConflicts( allocatable , today);
+             conflictListAfter = recalculateConflicts( allocatable , today, conflictListBefore, changedAppointments);
             else
              conflictListAfter= Collections.emptyMap();
 			conflictMap.put( allocatableId, conflictListAfter);
@@ -12,13 +12,16 @@ import org.rapla.entities.dynamictype.DynamicType;
 import org.rapla.entities.dynamictype.internal.DynamicTypeImpl;
 import org.rapla.entities.internal.CategoryImpl;
 import org.rapla.entities.internal.UserImpl;
+import org.rapla.entities.storage.RefEntity;
 import org.rapla.entities.storage.ReferenceInfo;
 import org.rapla.facade.Conflict;
 import org.rapla.facade.internal.ConflictImpl;
 import org.rapla.framework.RaplaException;
 import org.rapla.rest.JsonParserWrapper;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -28,9 +31,26 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the versions of the supported entities, so that clients can be updated with the state of an entity at a given time.
+ * The versions are stored as UTF-8 encoded json that is deflated if it is larger than {@link #COMPRESS_THRESHOLD} bytes.
+ * The lastChanged timestamp of the entity is kept as primitive field, so it is not necessary to parse the json to compare versions.
+ * The last {@link #PARSED_CACHE_SIZE} versions returned by {@link #get(ReferenceInfo, Date)} are kept as parsed read only entities.
+ */
 public class EntityHistory
 {
+    /** json with more bytes is stored compressed*/
+    static final int COMPRESS_THRESHOLD = 256;
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    /** number of parsed versions that are kept*/
+    static final int PARSED_CACHE_SIZE = 128;
+
     public Collection<ReferenceInfo> getAllIds()
     {
         return map.keySet();
@@ -46,20 +66,22 @@ public class EntityHistory
     {
         private long timestamp;
         ReferenceInfo ref;
-        private String json;
+        private byte[] data;
+        // UNKNOWN if not yet parsed from the data
+        private long lastChanged = UNKNOWN;
         private boolean isDelete;
 
         private HistoryEntry()
         {
         }
 
-        private HistoryEntry(ReferenceInfo id, long timestamp, String json, boolean isDelete)
+        private HistoryEntry(ReferenceInfo id, long timestamp, byte[] data, boolean isDelete)
         {
             super();
             this.ref = id;
             this.isDelete = isDelete;
             this.timestamp = timestamp;
-            this.json = json;
+            this.data = data;
         }
 
         public ReferenceInfo getId()
@@ -85,6 +107,15 @@ public class EntityHistory
 
     private final Map<ReferenceInfo, List<EntityHistory.HistoryEntry>> map = new LinkedHashMap<>();
     private final JsonParserWrapper.JsonParser gson;
+    // read only entities parsed from the history entries, the least recently used are removed
+    private final Map<HistoryEntry, Entity> parsed = new LinkedHashMap<HistoryEntry, Entity>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<HistoryEntry, Entity> eldest)
+        {
+            return size() > PARSED_CACHE_SIZE;
+        }
+    };
 
     public EntityHistory()
     {
@@ -107,7 +138,7 @@ public class EntityHistory
         return result;
     }
 
-    /** returns the history entry with a timestamp<= since or null if no such entry exists*/
+    /** returns the history entry with a timestamp<= since or null if no such entry exists. The returned entity is read only and shared between calls*/
     public Entity get(ReferenceInfo id, Date since) throws RaplaException
     {
         final List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
@@ -117,7 +148,7 @@ public class EntityHistory
         }
         final EntityHistory.HistoryEntry emptyEntryWithTimestamp = new EntityHistory.HistoryEntry();
         emptyEntryWithTimestamp.timestamp = since.getTime();
-        int index = Collections.binarySearch(historyEntries, emptyEntryWithTimestamp, (o1, o2) -> (int) (o1.timestamp - o2.timestamp));
+        int index = Collections.binarySearch(historyEntries, emptyEntryWithTimestamp, (o1, o2) -> Long.compare(o1.timestamp, o2.timestamp));
         /*
         * possible results:
         * we get an index >= 0 -> We found an entry, which has the timestamp of the last update from the client. We need to get this one
@@ -130,10 +161,10 @@ public class EntityHistory
         if (index < 0 && !historyEntries.isEmpty())
         {
             EntityHistory.HistoryEntry entry = historyEntries.get(0);
-            final Date lastChanged = getLastChanged(entry);
-            if ( lastChanged.before( since))
+            final long lastChanged = getLastChanged(entry);
+            if ( lastChanged < since.getTime())
             {
-                return getEntity( entry);
+                return getParsedEntity(entry);
             }
             else
                 {
@@ -141,7 +172,6 @@ public class EntityHistory
             }
         }
         EntityHistory.HistoryEntry entry = historyEntries.get(index);
-        final Entity entity = getEntity(entry);
         if ( index >=0)
         {
             // if two history entries have the same timestamp
@@ -157,18 +187,17 @@ public class EntityHistory
             }
             if (entryBefore != null && entryBefore.getTimestamp() == entry.getTimestamp())
             {
-                Entity otherEntity = getEntity( entryBefore);
-                final Date lastChanged1 = ((Timestamp) entity).getLastChanged();
-                final Date lastChanged2= ((Timestamp) (otherEntity)).getLastChanged();
+                final long lastChanged1 = getLastChanged(entry);
+                final long lastChanged2 = getLastChanged(entryBefore);
                 // we return the newest change
-                if ( lastChanged2.after( lastChanged1))
+                if ( lastChanged2 > lastChanged1)
                 {
-                    return otherEntity;
+                    return getParsedEntity(entryBefore);
                 }
             }
         }
 
-        return entity;
+        return getParsedEntity(entry);
     }
 
     Map<Class<? extends Entity>, Class<? extends Entity>> typeImpl = new HashMap<>();
@@ -189,27 +218,45 @@ public class EntityHistory
         typeImpl.put(type, impl);
     }
 
+    /** returns a new entity parsed from the history entry, that can be modified and put in the cache*/
     public Entity getEntity(HistoryEntry entry)
     {
-        String json = entry.json;
+        String json = decode(entry.data);
         final Class typeClass = entry.getId().getType();
         final Class<? extends Entity> implementingClass = typeImpl.get(typeClass);
         final Entity entity = gson.fromJson(json, implementingClass);
         return entity;
     }
 
-    public EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, String json, Date timestamp, boolean isDelete)
+    /** returns the read only entity of the history entry. The json is only parsed again if the entry is no longer in the parsed cache*/
+    Entity getParsedEntity(HistoryEntry entry)
     {
-        List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
-        if (historyEntries == null)
+        Entity entity;
+        synchronized (parsed)
         {
-            historyEntries = new ArrayList<>();
-            map.put(id, historyEntries);
+            entity = parsed.get(entry);
         }
-        final EntityHistory.HistoryEntry newEntry = new EntityHistory.HistoryEntry(id, timestamp.getTime(), json, isDelete);
-        int index = historyEntries.size();
-        insert(historyEntries, newEntry, index);
-        return newEntry;
+        if (entity == null)
+        {
+            // parse outside of the lock, so other threads are not blocked by the json parsing
+            entity = getEntity(entry);
+            if (entity != null)
+            {
+                ((RefEntity) entity).setReadOnly();
+                synchronized (parsed)
+                {
+                    parsed.put(entry, entity);
+                }
+            }
+        }
+        return entity;
+    }
+
+    public EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, String json, Date timestamp, boolean isDelete)
+    {
+        // lastChanged is parsed from the json when needed
+        final Date lastChanged = null;
+        return addHistoryEntry(id, json, lastChanged, timestamp, isDelete);
     }
 
     private void insert(List<EntityHistory.HistoryEntry> historyEntries, EntityHistory.HistoryEntry newEntry, int index)
@@ -230,12 +277,12 @@ public class EntityHistory
                 }
                 else if (timestamp == newEntry.timestamp)
                 {
-                    final String json = newEntry.json;
-                    if (json != null && !json.equals( lastEntry.json))
+                    final byte[] data = newEntry.data;
+                    if (data != null && !Arrays.equals(data, lastEntry.data))
                     {
-                        Date lastChanged1 = getLastChanged(newEntry);
-                        Date lastChanged2 = getLastChanged(lastEntry);
-                        if ( lastChanged1.before(lastChanged2))
+                        long lastChanged1 = getLastChanged(newEntry);
+                        long lastChanged2 = getLastChanged(lastEntry);
+                        if ( lastChanged1 < lastChanged2)
                         {
                             historyEntries.add(index-1, newEntry);
                         }
@@ -255,29 +302,163 @@ public class EntityHistory
 
     }
 
-    private Date getLastChanged(HistoryEntry newEntry)
+    /** returns the lastChanged of the entity in the history entry. The json is only parsed if the entry was not created from an entity*/
+    public long getLastChanged(HistoryEntry entry)
     {
-        final Entity entity = getEntity(newEntry);
-        return((Timestamp)entity).getLastChanged();
+        long lastChanged = entry.lastChanged;
+        if (lastChanged == UNKNOWN)
+        {
+            final Entity entity = getParsedEntity(entry);
+            final Date date = ((Timestamp) entity).getLastChanged();
+            lastChanged = date != null ? date.getTime() : 0;
+            entry.lastChanged = lastChanged;
+        }
+        return lastChanged;
     }
 
     public EntityHistory.HistoryEntry addHistoryEntry(Entity entity, Date timestamp, boolean isDelete)
     {
         final ReferenceInfo id = entity.getReference();
         final String json = gson.toJson(entity);
-        return addHistoryEntry(id, json, timestamp, isDelete);
+        final Date lastChanged = entity instanceof Timestamp ? ((Timestamp) entity).getLastChanged() : null;
+        return addHistoryEntry(id, json, lastChanged, timestamp, isDelete);
     }
 
     public EntityHistory.HistoryEntry addHistoryDeleteEntry(Entity entity, Date timestamp, boolean isDelete)
     {
-        final ReferenceInfo id = entity.getReference();
-        final String json = gson.toJson(entity);
-        return addHistoryEntry(id, json,  timestamp, isDelete);
+        return addHistoryEntry(entity, timestamp, isDelete);
+    }
+
+    private EntityHistory.HistoryEntry addHistoryEntry(ReferenceInfo id, String json, Date lastChanged, Date timestamp, boolean isDelete)
+    {
+        List<EntityHistory.HistoryEntry> historyEntries = map.get(id);
+        if (historyEntries == null)
+        {
+            historyEntries = new ArrayList<>();
+            map.put(id, historyEntries);
+        }
+        final EntityHistory.HistoryEntry newEntry = new EntityHistory.HistoryEntry(id, timestamp.getTime(), encode(json), isDelete);
+        if (lastChanged != null)
+        {
+            newEntry.lastChanged = lastChanged.getTime();
+        }
+        insert(historyEntries, newEntry, historyEntries.size());
+        return newEntry;
+    }
+
+    /** encodes the json as UTF-8 and deflates it if it is larger than the COMPRESS_THRESHOLD. The first byte marks the encoding*/
+    static byte[] encode(String json)
+    {
+        if (json == null)
+        {
+            return null;
+        }
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= COMPRESS_THRESHOLD)
+        {
+            final byte[] result = new byte[bytes.length + 1];
+            result[0] = RAW;
+            System.arraycopy(bytes, 0, result, 1, bytes.length);
+            return result;
+        }
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            deflater.setInput(bytes);
+            deflater.finish();
+            // header is the marker and the length of the uncompressed bytes
+            byte[] buffer = new byte[5 + bytes.length / 2];
+            int length = 5;
+            while (!deflater.finished())
+            {
+                if (length == buffer.length)
+                {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            buffer[0] = DEFLATED;
+            buffer[1] = (byte) (bytes.length >>> 24);
+            buffer[2] = (byte) (bytes.length >>> 16);
+            buffer[3] = (byte) (bytes.length >>> 8);
+            buffer[4] = (byte) bytes.length;
+            return Arrays.copyOf(buffer, length);
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    static String decode(byte[] data)
+    {
+        if (data == null)
+        {
+            return null;
+        }
+        if (data[0] == RAW)
+        {
+            return new String(data, 1, data.length - 1, StandardCharsets.UTF_8);
+        }
+        final int length = ((data[1] & 0xff) << 24) | ((data[2] & 0xff) << 16) | ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+        final byte[] bytes = new byte[length];
+        final Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(data, 5, data.length - 5);
+            int offset = 0;
+            while (offset < length)
+            {
+                final int inflated = inflater.inflate(bytes, offset, length - offset);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                {
+                    break;
+                }
+                offset += inflated;
+            }
+            if (offset != length)
+            {
+                throw new IllegalStateException("Corrupt history entry. Expected " + length + " bytes but got " + offset);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IllegalStateException("Corrupt history entry " + e.getMessage(), e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** returns the number of bytes used for the stored versions. Used for monitoring the history size*/
+    public long getStoredBytes()
+    {
+        long result = 0;
+        for (List<HistoryEntry> list : map.values())
+        {
+            synchronized (list)
+            {
+                for (HistoryEntry entry : list)
+                {
+                    if (entry.data != null)
+                    {
+                        result += entry.data.length;
+                    }
+                }
+            }
+        }
+        return result;
     }
 
     public void clear()
     {
         map.clear();
+        synchronized (parsed)
+        {
+            parsed.clear();
+        }
     }
 
     List<HistoryEntry> getHistoryList(ReferenceInfo key)
@@ -296,7 +477,11 @@ public class EntityHistory
             {
                 while (list.size() >= 2 && list.get(1).timestamp < time)
                 {
-                    list.remove(0);
+                    final HistoryEntry removed = list.remove(0);
+                    synchronized (parsed)
+                    {
+                        parsed.remove(removed);
+                    }
                 }
             }
         }
@@ -44,7 +44,6 @@ import org.rapla.entities.configuration.Preferences;
 import org.rapla.entities.configuration.internal.PreferencesImpl;
 import org.rapla.entities.domain.Allocatable;
 import org.rapla.entities.domain.Appointment;
-import org.rapla.entities.domain.AppointmentStartComparator;
 import org.rapla.entities.domain.EntityPermissionContainer;
 import org.rapla.entities.domain.Permission;
 import org.rapla.entities.domain.Permission.AccessLevel;
@@ -104,6 +103,7 @@ import org.rapla.storage.RaplaSecurityException;
 import org.rapla.storage.StorageOperator;
 import org.rapla.storage.UpdateEvent;
 import org.rapla.storage.UpdateOperation;
+import org.rapla.storage.ReservationPage;
 import org.rapla.storage.UpdateResult;
 import org.rapla.storage.UpdateResult.Add;
 import org.rapla.storage.UpdateResult.Change;
@@ -133,9 +133,18 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public abstract class LocalAbstractCachableOperator extends AbstractCachableOperator implements Disposable, CachableStorageOperator, IdCreator
@@ -165,6 +174,15 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
      */
     private String encryption = "sha-1";
     private ConflictFinder conflictFinder;
+    /** number of threads used to calculate the conflicts on startup. 0 means one thread per available processor*/
+    private int conflictInitParallelism = 1;
+    /** number of threads used to resolve the reservations and to build the appointment index on startup. 0 means one thread per available processor*/
+    private int loadParallelism = 1;
+    /** if set, the readers of the appointment bindings use the snapshot that is published after each write instead of the read lock*/
+    private boolean snapshotReads = false;
+    /** period in milliseconds in which changes of other servers that share the storage are read */
+    private int refreshPeriod = 1000 * 20;
+    private volatile BindingSnapshot bindingSnapshot;
     //private SortedSet<LastChangedTimestamp> timestampSet;
     // we need a bidi to sort the values instead of the keys
     protected final EntityHistory history;
@@ -175,7 +193,10 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     private List<io.reactivex.disposables.Disposable> scheduledTasks = new ArrayList<>();
     private CalendarModelCache calendarModelCache;
     private Date connectStart;
+    // timestamp of the last refresh with changes. null if nothing changed since the connect
+    private volatile Date lastChanged;
     private final DefaultRaplaLock disconnectLock;
+    private final List<Consumer<Date>> commitListeners = new CopyOnWriteArrayList<>();
     private final PromiseWait promiseWait;
 
     public LocalAbstractCachableOperator(Logger logger, PromiseWait promiseWait, RaplaResources i18n, RaplaLocale raplaLocale, CommandScheduler scheduler,
@@ -191,6 +212,112 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         calendarModelCache = new CalendarModelCache(this, i18n, logger, scheduler);
     }
 
+    public int getConflictInitParallelism()
+    {
+        return conflictInitParallelism;
+    }
+
+    public void setConflictInitParallelism(int conflictInitParallelism)
+    {
+        this.conflictInitParallelism = conflictInitParallelism;
+    }
+
+    @Override
+    public void addCommitListener(Consumer<Date> listener)
+    {
+        commitListeners.add(listener);
+    }
+
+    @Override
+    public void removeCommitListener(Consumer<Date> listener)
+    {
+        commitListeners.remove(listener);
+    }
+
+    public int getLoadParallelism()
+    {
+        return loadParallelism;
+    }
+
+    public void setLoadParallelism(int loadParallelism)
+    {
+        this.loadParallelism = loadParallelism;
+    }
+
+    public boolean isSnapshotReads()
+    {
+        return snapshotReads;
+    }
+
+    public void setSnapshotReads(boolean snapshotReads)
+    {
+        this.snapshotReads = snapshotReads;
+    }
+
+    public int getRefreshPeriod()
+    {
+        return refreshPeriod;
+    }
+
+    public void setRefreshPeriod(int refreshPeriod)
+    {
+        this.refreshPeriod = refreshPeriod;
+    }
+
+    /** shared pool for the parallel initialization. Only recreated if another parallelism is requested*/
+    private static ForkJoinPool parallelPool;
+
+    /** calls the task for every index from 0 to count-1 with the given number of threads. 0 uses the common pool.
+     * The task must only write to data of its own index.*/
+    static void forEachParallel(int count, int parallelism, IntConsumer task)
+    {
+        if (parallelism == 1 || count < 2)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                task.accept(i);
+            }
+            return;
+        }
+        final ForkJoinPool pool = getParallelPool(parallelism);
+        try
+        {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(task)).get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Parallel initialization interrupted", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static synchronized ForkJoinPool getParallelPool(int parallelism)
+    {
+        if (parallelism <= 0)
+        {
+            return ForkJoinPool.commonPool();
+        }
+        if (parallelPool == null || parallelPool.getParallelism() != parallelism)
+        {
+            if (parallelPool != null)
+            {
+                // running tasks are completed
+                parallelPool.shutdown();
+            }
+            parallelPool = new ForkJoinPool(parallelism);
+        }
+        return parallelPool;
+    }
+
     @Override
     final public boolean isConnected()
     {
@@ -449,6 +576,14 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     protected void setConnectStart(Date connectStart)
     {
         this.connectStart = connectStart;
+        this.lastChanged = null;
+    }
+
+    @Override
+    public Date getLastChanged()
+    {
+        final Date lastChanged = this.lastChanged;
+        return lastChanged != null ? lastChanged : connectStart;
     }
 
     /*
@@ -537,18 +672,28 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 nonTemplates = Collections.emptySet();
             }
             Map<Allocatable, Collection<Appointment>> result = new LinkedHashMap<>();
+            // all allocatables are queried on the same snapshot
+            final BindingSnapshot snapshot = bindingSnapshot;
             for (Allocatable allocatable: allocs)
             {
-                RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryAppointments");
-                SortedSet<Appointment> appointmentSet;
-                try
+                SortedSet<Appointment> appointmentSet = null;
+                if (snapshot != null)
                 {
-                    SortedSet<Appointment> appointments = getAppointments(allocatable);
-                    appointmentSet = AppointmentImpl.getAppointments(appointments, user, start, end, excludeExceptions);
+                    appointmentSet = snapshot.getAppointments(allocatable).getAppointments(user, start, end, excludeExceptions);
                 }
-                finally
+                // the live index is modified by writes, so it is only read with the read lock
+                if (appointmentSet == null)
                 {
-                    lockManager.unlock(readLock);
+                    RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "queryAppointments");
+                    try
+                    {
+                        AppointmentIntervalIndex appointments = getAppointments(allocatable);
+                        appointmentSet = appointments.getAppointments(user, start, end, excludeExceptions);
+                    }
+                    finally
+                    {
+                        lockManager.unlock(readLock);
+                    }
                 }
                 for (Appointment appointment : appointmentSet)
                 {
@@ -837,9 +982,23 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
     protected void resolveInitial(Collection<? extends Entity> entities, EntityResolver resolver) throws RaplaException
     {
-        testResolve(entities);
-
+        // types, categories, resources and users first. The reservations only reference them, so they can be resolved in parallel afterwards
+        final List<Entity> others = new ArrayList<>();
+        final List<Reservation> reservations = new ArrayList<>();
         for (Entity entity : entities)
+        {
+            if (entity instanceof Reservation)
+            {
+                reservations.add((Reservation) entity);
+            }
+            else
+            {
+                others.add(entity);
+            }
+        }
+        testResolveInitial(entities, others, reservations);
+
+        for (Entity entity : others)
         {
             if (entity instanceof EntityReferencer)
             {
@@ -850,9 +1009,53 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 ((DynamicTypeImpl) entity).setOperator(this);
             }
         }
+        forEachParallel(reservations.size(), loadParallelism, (i) -> ((EntityReferencer) reservations.get(i)).setResolver(resolver));
         processUserPersonLink(entities);
     }
 
+    /** same as {@link #testResolve(Collection)} but the reservations are tested in parallel*/
+    private void testResolveInitial(Collection<? extends Entity> entities, List<Entity> others, List<Reservation> reservations) throws EntityNotFoundException
+    {
+        final EntityStore store = new EntityStore(this);
+        store.addAll(entities);
+        for (Entity entity : others)
+        {
+            if (entity instanceof EntityReferencer)
+            {
+                ((EntityReferencer) entity).setResolver(store);
+            }
+            if (entity instanceof DynamicType)
+            {
+                ((DynamicTypeImpl) entity).setOperator(this);
+            }
+        }
+        forEachParallel(reservations.size(), loadParallelism, (i) -> ((EntityReferencer) reservations.get(i)).setResolver(store));
+        for (Entity entity : others)
+        {
+            if (entity instanceof EntityReferencer)
+            {
+                testResolve(store, (EntityReferencer) entity);
+            }
+        }
+        // the store is only read from now on, so the reservations can be tested in parallel
+        final AtomicReference<EntityNotFoundException> notFound = new AtomicReference<>();
+        forEachParallel(reservations.size(), loadParallelism, (i) ->
+        {
+            try
+            {
+                testResolve(store, (EntityReferencer) reservations.get(i));
+            }
+            catch (EntityNotFoundException ex)
+            {
+                notFound.compareAndSet(null, ex);
+            }
+        });
+        if (notFound.get() != null)
+        {
+            throw notFound.get();
+        }
+    }
+
     protected Collection<Entity> migrateTemplates() throws RaplaException
     {
         Collection<Allocatable> allocatables = cache.getAllocatables();
@@ -1097,11 +1300,14 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 externalIds.put(externalId, event.getReference());
             }
         }
-        appointmentBindings.initAppointmentBindings(events);
+        final long bindingStart = System.currentTimeMillis();
+        appointmentBindings.initAppointmentBindings(events, loadParallelism);
+        publishBindingSnapshot(true);
+        getLogger().info("Appointment bindings for " + events.size() + " reservations initialized in " + (System.currentTimeMillis() - bindingStart) + " ms");
         Date today2 = today();
         AllocationMap allocationMap = new AllocationMap()
         {
-            public SortedSet<Appointment> getAppointments(Allocatable allocatable)
+            public AppointmentIntervalIndex getAppointments(Allocatable allocatable)
             {
                 return LocalAbstractCachableOperator.this.getAppointments(allocatable);
             }
@@ -1114,7 +1320,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         };
         // The conflict map
         Logger logger = getLogger();
-        conflictFinder = new ConflictFinder(allocationMap, today2, logger, this, permissionController);
+        conflictFinder = new ConflictFinder(allocationMap, today2, logger, this, permissionController, conflictInitParallelism);
 
         // if a client request changes before the start date return refresh conflict flag
         Action cleanUpConflicts = ()->
@@ -1156,8 +1362,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         calendarModelCache.initCalendarMap();
         final long delayCleanup = DateTools.MILLISECONDS_PER_HOUR;
         scheduleConnectedTasks(cleanUpConflicts, delayCleanup, DateTools.MILLISECONDS_PER_HOUR);
-        final int refreshPeriod = 1000 * 20;
-        final long delayRefresh = 1000;
+        final long delayRefresh = Math.min(1000, refreshPeriod);
         scheduleConnectedTasks(()->
             {
                 try
@@ -1248,6 +1453,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         try
         {
             changeStatus(LocalAbstractCachableOperator.InitStatus.Disconnected);
+            bindingSnapshot = null;
             cache.clearAll();
             history.clear();
         }
@@ -1554,7 +1760,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
         if (rebuildAllBindings)
         {
-            appointmentBindings.initAppointmentBindings(cache.getReservations());
+            appointmentBindings.initAppointmentBindings(cache.getReservations(), loadParallelism);
         }
         if ( !bindingResult.isEmpty())
         {
@@ -1884,14 +2090,21 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
      * returns all entities with a timestamp > the passed timestamp
      */
     private Collection<ReferenceInfo> getEntities(User user, final Date timestamp, boolean isDelete) throws RaplaException
+    {
+        LinkedList<ReferenceInfo> result = new LinkedList<>();
+        getEntities(user, timestamp, isDelete ? null : result, isDelete ? result : null);
+        return result;
+    }
+
+    /** adds the entities changed after the timestamp to toUpdate and the removed entities to toRemove in one pass. Each collection can be null */
+    private void getEntities(User user, final Date timestamp, Collection<ReferenceInfo> toUpdate, Collection<ReferenceInfo> toRemove) throws RaplaException
     {
         Assert.notNull(timestamp);
         // we use an empty id here because the implmentation of the DeleteUpdateEntry compare compares idStrings if timestamps are equal
         // so tailMap returns all entities with a timestamp >= timestamp
         final String dummyId = "";
         // we need to add +1 so that we dont get entities with the passed (guaranteed timestamp)
-        DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo(dummyId, Allocatable.class), new Date(timestamp.getTime() + 1), isDelete);
-        LinkedList<ReferenceInfo> result = new LinkedList<>();
+        DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo(dummyId, Allocatable.class), new Date(timestamp.getTime() + 1), false);
 
         RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "getEntities for "+ user);
         final Collection<String> groupsIncludingParents = user != null ? UserImpl.getGroupsIncludingParents(user) : null;
@@ -1902,14 +2115,14 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             Set<DeleteUpdateEntry> tailSet = tailMap.keySet();
             for (DeleteUpdateEntry entry : tailSet)
             {
-                if (entry.isDelete != isDelete)
+                final Collection<ReferenceInfo> result = entry.isDelete ? toRemove : toUpdate;
+                if (result == null)
                 {
                     continue;
                 }
                 if (user == null || user.isAdmin() || isAffected(entry, userId, groupsIncludingParents))
                 {
-                    ReferenceInfo deletedReference = entry.reference;
-                    result.add(deletedReference);
+                    result.add(entry.reference);
                 }
             }
         }
@@ -1917,7 +2130,35 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         {
             lockManager.unlock(lock);
         }
-        return result;
+    }
+
+    @Override
+    public boolean hasChanges(User user, Date since) throws RaplaException
+    {
+        final DeleteUpdateEntry fromElement = new DeleteUpdateEntry(new ReferenceInfo("", Allocatable.class), new Date(since.getTime() + 1), false);
+        RaplaLock.ReadLock lock = lockManager.readLock(getClass(), "hasChanges for " + user);
+        try
+        {
+            final SortedMap<DeleteUpdateEntry, String> tailMap = deleteUpdateSet.inverseBidiMap().tailMap(fromElement);
+            if (tailMap.isEmpty() || user.isAdmin())
+            {
+                return !tailMap.isEmpty();
+            }
+            final Collection<String> groupsIncludingParents = UserImpl.getGroupsIncludingParents(user);
+            final String userId = user.getId();
+            for (DeleteUpdateEntry entry : tailMap.keySet())
+            {
+                if (isAffected(entry, userId, groupsIncludingParents))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            lockManager.unlock(lock);
+        }
     }
 
     protected void updateBindings(Map<ReferenceInfo<Allocatable>, AllocationChange> toUpdate, Reservation reservation, Appointment app, boolean remove)
@@ -1999,28 +2240,31 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
     }
 
-    static final SortedSet<Appointment> EMPTY_SORTED_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
-
     /** returs all appointments for the allocatable and all groupMembers and belongsTo*/
-    protected SortedSet<Appointment> getAppointments(Allocatable allocatable)
+    protected AppointmentIntervalIndex getAppointments(Allocatable allocatable)
     {
         final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
         Set<ReferenceInfo<Allocatable>> allocatableIds = cache.getDependentRef(reference);
+        return getAppointments(allocatableIds, appointmentBindings::getAppointments);
+    }
+
+    static AppointmentIntervalIndex getAppointments(Set<ReferenceInfo<Allocatable>> allocatableIds,
+            Function<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> bindings)
+    {
         if (allocatableIds.size() == 0)
         {
-            SortedSet<Appointment> s = appointmentBindings.getAppointments(null);
-            if (s != null)
-            {
-                return s;
-            }
-            return EMPTY_SORTED_SET;
+            return bindings.apply(null);
+        }
+        else if (allocatableIds.size() == 1)
+        {
+            return bindings.apply(allocatableIds.iterator().next());
         }
         else
         {
-            SortedSet<Appointment> transitive = new TreeSet<>(new AppointmentStartComparator());
+            AppointmentIntervalIndex transitive = new AppointmentIntervalIndex();
             for (ReferenceInfo<Allocatable> allocatableId : allocatableIds)
             {
-                SortedSet<Appointment> s = appointmentBindings.getAppointments(allocatableId);
+                AppointmentIntervalIndex s = bindings.apply(allocatableId);
                 for (Appointment appointment : s)
                 {
                     transitive.add(appointment);
@@ -2030,20 +2274,83 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         }
     }
 
+    /** publishes the current appointment bindings for the readers. Must be called with the write lock after the bindings are updated*/
+    private void publishBindingSnapshot(boolean allocatablesChanged)
+    {
+        if (!snapshotReads)
+        {
+            return;
+        }
+        final BindingSnapshot previous = bindingSnapshot;
+        final Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> bindings = appointmentBindings.createSnapshot(previous != null ? previous.bindings : null);
+        final Map<ReferenceInfo<Allocatable>, Set<ReferenceInfo<Allocatable>>> dependents;
+        if (previous == null || allocatablesChanged)
+        {
+            dependents = Collections.unmodifiableMap(cache.getDependentRefs());
+        }
+        else
+        {
+            dependents = previous.dependents;
+        }
+        bindingSnapshot = new BindingSnapshot(bindings, dependents);
+    }
+
+    /** Immutable version of the appointment bindings and the dependencies between the allocatables. A new version is published after each write,
+     * so readers can use it without the read lock and always see the state after a complete write.*/
+    static final class BindingSnapshot
+    {
+        final Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> bindings;
+        final Map<ReferenceInfo<Allocatable>, Set<ReferenceInfo<Allocatable>>> dependents;
+
+        BindingSnapshot(Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> bindings,
+                Map<ReferenceInfo<Allocatable>, Set<ReferenceInfo<Allocatable>>> dependents)
+        {
+            this.bindings = bindings;
+            this.dependents = dependents;
+        }
+
+        /** same as {@link LocalAbstractCachableOperator#getAppointments(Allocatable)} on the snapshot*/
+        AppointmentIntervalIndex getAppointments(Allocatable allocatable)
+        {
+            final ReferenceInfo<Allocatable> reference = allocatable != null ? allocatable.getReference() : null;
+            final Set<ReferenceInfo<Allocatable>> allocatableIds;
+            if (reference == null)
+            {
+                allocatableIds = Collections.emptySet();
+            }
+            else
+            {
+                final Set<ReferenceInfo<Allocatable>> dependentIds = dependents.get(reference);
+                allocatableIds = dependentIds != null ? dependentIds : Collections.singleton(reference);
+            }
+            return LocalAbstractCachableOperator.getAppointments(allocatableIds, this::getBinding);
+        }
+
+        private AppointmentIntervalIndex getBinding(ReferenceInfo<Allocatable> allocatableId)
+        {
+            final AppointmentIntervalIndex index = bindings.get(allocatableId);
+            return index != null ? index : new AppointmentIntervalIndex();
+        }
+    }
+
     static final class AppointmentMapClass
     {
         final private Logger logger;
-        private Map<ReferenceInfo<Allocatable>, SortedSet<Appointment>> appointmentMap;
+        private Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> appointmentMap;
         Set<String> problematicIdSet = Collections.synchronizedSet(new HashSet<>());
+        // the allocatables with changed bindings since the last snapshot. null if no snapshots are created
+        private Set<ReferenceInfo<Allocatable>> changedSinceSnapshot;
+        private boolean rebuiltSinceSnapshot;
 
         private AppointmentMapClass(Logger newLogger)
         {
             logger = newLogger;
         }
 
-        private void initAppointmentBindings(Collection<Reservation> reservations)
+        /** collects the appointments for each allocatable first and then builds the index for each allocatable in parallel*/
+        private void initAppointmentBindings(Collection<Reservation> reservations, int parallelism)
         {
-            appointmentMap = new HashMap<>();
+            final Map<ReferenceInfo<Allocatable>, List<Appointment>> bindings = new HashMap<>();
             for (Reservation r : reservations)
             {
                 for (Appointment app : ((ReservationImpl) r).getAppointmentList())
@@ -2052,20 +2359,83 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     Collection<ReferenceInfo<Allocatable>> allocatables = reservation.getAllocatableIdsFor(app);
                     {
                         final ReferenceInfo<Allocatable> alloc = null;
-                        addAppointmentBinding(app, alloc);
+                        addBinding(bindings, app, alloc);
                     }
                     for (ReferenceInfo<Allocatable> alloc : allocatables)
                     {
-                        addAppointmentBinding(app, alloc);
+                        addBinding(bindings, app, alloc);
                     }
                     final String annotation = reservation.getAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE);
                     if (annotation != null)
                     {
                         ReferenceInfo<Allocatable> alloc = new ReferenceInfo(annotation, Allocatable.class);
-                        addAppointmentBinding(app, alloc);
+                        addBinding(bindings, app, alloc);
                     }
                 }
             }
+            final List<Map.Entry<ReferenceInfo<Allocatable>, List<Appointment>>> entries = new ArrayList<>(bindings.entrySet());
+            final AppointmentIntervalIndex[] indexes = new AppointmentIntervalIndex[entries.size()];
+            forEachParallel(entries.size(), parallelism, (i) -> indexes[i] = new AppointmentIntervalIndex(entries.get(i).getValue()));
+            final Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> newMap = new HashMap<>();
+            for (int i = 0; i < indexes.length; i++)
+            {
+                newMap.put(entries.get(i).getKey(), indexes[i]);
+            }
+            appointmentMap = newMap;
+            rebuiltSinceSnapshot = true;
+        }
+
+        private void markChanged(ReferenceInfo<Allocatable> allocationId)
+        {
+            if (changedSinceSnapshot != null)
+            {
+                changedSinceSnapshot.add(allocationId);
+            }
+        }
+
+        /** returns an immutable version of the bindings. Only the indexes of the allocatables that changed since the previous snapshot are copied.
+         * Must be called with the write lock.*/
+        private Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> createSnapshot(Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> previous)
+        {
+            final Map<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> snapshot;
+            if (previous == null || rebuiltSinceSnapshot || changedSinceSnapshot == null)
+            {
+                snapshot = new HashMap<>(appointmentMap.size());
+                for (Map.Entry<ReferenceInfo<Allocatable>, AppointmentIntervalIndex> entry : appointmentMap.entrySet())
+                {
+                    snapshot.put(entry.getKey(), entry.getValue().snapshot());
+                }
+            }
+            else
+            {
+                snapshot = new HashMap<>(previous);
+                for (ReferenceInfo<Allocatable> allocationId : changedSinceSnapshot)
+                {
+                    final AppointmentIntervalIndex index = appointmentMap.get(allocationId);
+                    if (index != null)
+                    {
+                        snapshot.put(allocationId, index.snapshot());
+                    }
+                    else
+                    {
+                        snapshot.remove(allocationId);
+                    }
+                }
+            }
+            changedSinceSnapshot = new HashSet<>();
+            rebuiltSinceSnapshot = false;
+            return Collections.unmodifiableMap(snapshot);
+        }
+
+        private static void addBinding(Map<ReferenceInfo<Allocatable>, List<Appointment>> bindings, Appointment app, ReferenceInfo<Allocatable> allocationId)
+        {
+            List<Appointment> list = bindings.get(allocationId);
+            if (list == null)
+            {
+                list = new ArrayList<>();
+                bindings.put(allocationId, list);
+            }
+            list.add(app);
         }
 
         private void removeAppointmentBinding(Appointment app, ReferenceInfo<Allocatable> allocationId)
@@ -2075,6 +2445,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             {
                 return;
             }
+            markChanged(allocationId);
 
             // binary search could fail if the appointment has changed since the last add, which should not
             // happen as we only put and search immutable objects in the map. But the method is left here as a failsafe
@@ -2099,21 +2470,23 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         {
             for (ReferenceInfo<Allocatable> alloc : removedAllocatables)
             {
-                SortedSet<Appointment> sortedSet = appointmentMap.get(alloc);
+                AppointmentIntervalIndex sortedSet = appointmentMap.get(alloc);
                 if (sortedSet != null && !sortedSet.isEmpty())
                 {
                     logger.error("Removing non empty appointment map for resource " + alloc + " Appointments:" + sortedSet);
                 }
                 appointmentMap.remove(alloc);
+                markChanged(alloc);
             }
         }
 
         private void addAppointmentBinding(Appointment appRef, ReferenceInfo<Allocatable> allocationId)
         {
-            SortedSet<Appointment> set = appointmentMap.get(allocationId);
+            markChanged(allocationId);
+            AppointmentIntervalIndex set = appointmentMap.get(allocationId);
             if (set == null)
             {
-                set = new TreeSet<>(new AppointmentStartComparator());
+                set = new AppointmentIntervalIndex();
                 appointmentMap.put(allocationId, set);
             }
             set.add(appRef);
@@ -2130,7 +2503,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             {
                 for (Allocatable allocatable : allocatables)
                 {
-                    SortedSet<Appointment> appointmentSet = this.appointmentMap.get(allocatable.getReference());
+                    AppointmentIntervalIndex appointmentSet = this.appointmentMap.get(allocatable.getReference());
                     if (appointmentSet == null)
                     {
                         continue;
@@ -2145,6 +2518,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                         if (reservation == null)
                         {
                             logger.error("Appointment without a reservation stored in cache " + app);
+                            markChanged(allocatable.getReference());
                             it.remove();
                             continue;
                         }
@@ -2152,6 +2526,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                         {
                             logger.error(
                                     "Allocation is not stored correctly for " + reservation + " " + app + " " + allocatable + " removing binding for " + app);
+                            markChanged(allocatable.getReference());
                             it.remove();
                             continue;
                         }
@@ -2183,6 +2558,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                                 else
                                 {
                                     logger.error("Reservation not stored in cache " + original + " removing binding for " + app);
+                                    markChanged(allocatable.getReference());
                                     it.remove();
                                     continue;
                                 }
@@ -2198,16 +2574,14 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             }
         }
 
-        final SortedSet<Appointment> EMPTY_SORTED_REF_SET = Collections.unmodifiableSortedSet(new TreeSet<Appointment>());
-
-        public SortedSet<Appointment> getAppointments(ReferenceInfo<Allocatable> allocatableId)
+        public AppointmentIntervalIndex getAppointments(ReferenceInfo<Allocatable> allocatableId)
         {
-            final SortedSet<Appointment> referenceInfos = appointmentMap.get(allocatableId);
+            final AppointmentIntervalIndex referenceInfos = appointmentMap.get(allocatableId);
             if (referenceInfos != null)
             {
                 return referenceInfos;
             }
-            return EMPTY_SORTED_REF_SET;
+            return new AppointmentIntervalIndex();
         }
     }
 
@@ -2222,6 +2596,35 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             // conflicts
             update.addOperation(op.getNewConflict(), op.getOldConflict(), op.getOperation());
         }
+        if (snapshotReads)
+        {
+            boolean allocatablesChanged = false;
+            for (UpdateOperation op : update.getOperations())
+            {
+                if (op.getType() == Allocatable.class)
+                {
+                    allocatablesChanged = true;
+                    break;
+                }
+            }
+            publishBindingSnapshot(allocatablesChanged);
+        }
+        // refreshes without changes are not reported
+        if (update.getOperations().iterator().hasNext())
+        {
+            lastChanged = until;
+            for (Consumer<Date> listener : commitListeners)
+            {
+                try
+                {
+                    listener.accept(until);
+                }
+                catch (Exception ex)
+                {
+                    getLogger().error("Error notifying commit listener " + ex.getMessage(), ex);
+                }
+            }
+        }
         return update;
     }
 
@@ -3498,15 +3901,23 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     private Map<Allocatable, Collection<Appointment>> getFirstAllocatableBindingsMap(Collection<Allocatable> allocatables, Collection<Appointment> appointments,
             Collection<Reservation> ignoreList) throws RaplaException
     {
-        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(),"getFirstAllocableBindings");
+        final BindingSnapshot snapshot = bindingSnapshot;
         Map<Allocatable, Map<Appointment, Collection<Appointment>>> allocatableBindings;
-        try
+        if (snapshot != null)
         {
-            allocatableBindings = getAllocatableBindings(allocatables, appointments, ignoreList, true);
+            allocatableBindings = getAllocatableBindings(allocatables, appointments, ignoreList, true, snapshot::getAppointments);
         }
-        finally
+        else
         {
-            lockManager.unlock(readLock);
+            final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getFirstAllocableBindings");
+            try
+            {
+                allocatableBindings = getAllocatableBindings(allocatables, appointments, ignoreList, true);
+            }
+            finally
+            {
+                lockManager.unlock(readLock);
+            }
         }
         Map<Allocatable, Collection<Appointment>> map = new HashMap<>();
         for (Map.Entry<Allocatable, Map<Appointment, Collection<Appointment>>> entry : allocatableBindings.entrySet())
@@ -3524,6 +3935,11 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     {
         return scheduler.supply(() ->
         {
+            final BindingSnapshot snapshot = bindingSnapshot;
+            if (snapshot != null)
+            {
+                return getAllocatableBindings(allocatables, appointments, ignoreList, false, snapshot::getAppointments);
+            }
             RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getAllocatableBindings" );
             try
             {
@@ -3540,6 +3956,13 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
 
     public Map<Allocatable, Map<Appointment, Collection<Appointment>>> getAllocatableBindings(Collection<Allocatable> allocatables,
             Collection<Appointment> appointments, Collection<Reservation> ignoreList, boolean onlyFirstConflictingAppointment)
+    {
+        return getAllocatableBindings(allocatables, appointments, ignoreList, onlyFirstConflictingAppointment, this::getAppointments);
+    }
+
+    private Map<Allocatable, Map<Appointment, Collection<Appointment>>> getAllocatableBindings(Collection<Allocatable> allocatables,
+            Collection<Appointment> appointments, Collection<Reservation> ignoreList, boolean onlyFirstConflictingAppointment,
+            Function<Allocatable, AppointmentIntervalIndex> appointmentIndex)
     {
         Map<Allocatable, Map<Appointment, Collection<Appointment>>> map = new HashMap<>();
         for (Allocatable allocatable : allocatables)
@@ -3552,7 +3975,7 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                     continue;
                 }
                 // TODO check also parents and children from allocatables
-                SortedSet<Appointment> appointmentSet = getAppointments(allocatable);
+                AppointmentIntervalIndex appointmentSet = appointmentIndex.apply(allocatable);
                 if (appointmentSet == null)
                 {
                     continue;
@@ -3560,8 +3983,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 map.put(allocatable, new HashMap<>());
                 for (Appointment appointment : appointments)
                 {
-                    Set<Appointment> conflictingAppointments = AppointmentImpl
-                            .getConflictingAppointments(appointmentSet, appointment, ignoreList, onlyFirstConflictingAppointment);
+                    Set<Appointment> conflictingAppointments = appointmentSet
+                            .getConflictingAppointments(appointment, ignoreList, onlyFirstConflictingAppointment);
                     if (conflictingAppointments.size() > 0)
                     {
                         Map<Appointment, Collection<Appointment>> appMap = map.get(allocatable);
@@ -3585,7 +4008,8 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
     {
         Promise<Date> promise = scheduler.supply(() ->
         {
-            RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getNextAllocatableDate");
+            // with snapshots each check uses the current snapshot, so no lock is needed
+            RaplaLock.ReadLock readLock = bindingSnapshot == null ? lockManager.readLock(getClass(), "getNextAllocatableDate") : null;
             try
             {
                 Appointment newState = appointment;
@@ -3916,7 +4340,9 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
             return new UpdateResult(null, until, null, null);
         }
         Date until = getLastRefreshed();
-        final Collection<ReferenceInfo> toUpdate = getEntities(user, since, false);
+        final Collection<ReferenceInfo> toUpdate = new LinkedList<>();
+        final Collection<ReferenceInfo> toRemove = new LinkedList<>();
+        getEntities(user, since, toUpdate, toRemove);
         Map<ReferenceInfo, Entity> oldEntities = new LinkedHashMap<>();
         Collection<Entity> updatedEntities = new ArrayList<>();
         for (ReferenceInfo update : toUpdate)
@@ -3966,7 +4392,6 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
                 }
             }
         }
-        Collection<ReferenceInfo> toRemove = getEntities(user, since, true);
         for (Iterator<ReferenceInfo> it = toRemove.iterator(); it.hasNext(); )
         {
             ReferenceInfo update = it.next();
@@ -4011,6 +4436,23 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return getUpdateResult(since, null);
     }
 
+    @Override
+    public void getChangedReferences(User user, Date since, Collection<ReferenceInfo> changed, Collection<ReferenceInfo> removed) throws RaplaException
+    {
+        getEntities(user, since, changed, removed);
+    }
+
+    @Override
+    public Conflict fillConflictDisableInformation(User user, Conflict conflict)
+    {
+        return cache.fillConflictDisableInformation(user, conflict);
+    }
+
+    CalendarModelCache getCalendarModelCache()
+    {
+        return calendarModelCache;
+    }
+
     @Override
     public Collection<Appointment> getAppointmentsFromUserCalendarModels(ReferenceInfo<User> userId, TimeInterval syncRange) throws RaplaException
     {
@@ -4025,6 +4467,165 @@ public abstract class LocalAbstractCachableOperator extends AbstractCachableOper
         return calendarModelCache.findMatchingUsers(allocatable);
     }
 
+    @Override
+    public ReservationPage getReservationPage(Collection<Allocatable> allocatables, Date start, Date end, Predicate<Reservation> filter, String cursor,
+            int limit) throws RaplaException
+    {
+        checkConnected();
+        final ReservationPage.Position after = ReservationPage.Position.parse(cursor);
+        final BindingSnapshot snapshot = bindingSnapshot;
+        if (snapshot != null)
+        {
+            return getReservationPage(allocatables, start, end, filter, after, limit, snapshot::getAppointments);
+        }
+        RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getReservationPage");
+        try
+        {
+            return getReservationPage(allocatables, start, end, filter, after, limit, this::getAppointments);
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+    }
+
+    private ReservationPage getReservationPage(Collection<Allocatable> allocatables, Date start, Date end, Predicate<Reservation> filter,
+            ReservationPage.Position after, int limit, Function<Allocatable, AppointmentIntervalIndex> bindings)
+    {
+        final List<AppointmentIntervalIndex> indexes = new ArrayList<>();
+        if (allocatables == null || allocatables.isEmpty())
+        {
+            indexes.add(bindings.apply(null));
+        }
+        else
+        {
+            for (Allocatable allocatable : allocatables)
+            {
+                indexes.add(bindings.apply(allocatable));
+            }
+        }
+        final long startLong = start != null ? start.getTime() : Long.MIN_VALUE;
+        final long endLong = end != null ? end.getTime() : Long.MAX_VALUE;
+        // the visit starts at the start of the cursor, reservations with an earlier position were returned on the previous pages
+        final long from = after != null ? after.getStart() : Long.MIN_VALUE;
+        // we keep limit + 1 reservations, the additional one shows that there is a next page
+        final TreeMap<ReservationPage.Position, Reservation> page = new TreeMap<>();
+        // a reservation is visited once for each of its appointments, so only the reservations on the page are remembered
+        final Set<Reservation> onPage = new HashSet<>();
+        for (AppointmentIntervalIndex index : indexes)
+        {
+            index.visitCandidates(startLong, endLong, from, (candidate) ->
+            {
+                final long appointmentStart = candidate.getStart().getTime();
+                // reservations that are found later in the index order can't be before the last reservation of the page
+                if (page.size() > limit && appointmentStart > page.lastKey().getStart())
+                {
+                    return false;
+                }
+                final AppointmentImpl appointment = (AppointmentImpl) candidate;
+                final Reservation reservation = appointment.getReservation();
+                if (reservation == null || onPage.contains(reservation) || !appointment.overlaps(start, end, false))
+                {
+                    return true;
+                }
+                final ReservationPage.Position position = new ReservationPage.Position(getFirstStart(reservation, indexes, start, end), reservation.getId());
+                if (after != null && position.compareTo(after) <= 0)
+                {
+                    return true;
+                }
+                if (page.size() > limit && position.compareTo(page.lastKey()) > 0)
+                {
+                    return true;
+                }
+                if (RaplaComponent.isTemplate(reservation) || !filter.test(reservation))
+                {
+                    return true;
+                }
+                page.put(position, reservation);
+                onPage.add(reservation);
+                if (page.size() > limit + 1)
+                {
+                    onPage.remove(page.pollLastEntry().getValue());
+                }
+                return true;
+            });
+        }
+        final List<Reservation> reservations = new ArrayList<>(limit);
+        ReservationPage.Position next = null;
+        for (Map.Entry<ReservationPage.Position, Reservation> entry : page.entrySet())
+        {
+            if (reservations.size() == limit)
+            {
+                break;
+            }
+            reservations.add(entry.getValue());
+            next = entry.getKey();
+        }
+        return new ReservationPage(reservations, page.size() > limit ? next : null);
+    }
+
+    /** returns the start of the first appointment of the reservation that overlaps the interval and is contained in one of the indexes*/
+    private static long getFirstStart(Reservation reservation, Collection<AppointmentIntervalIndex> indexes, Date start, Date end)
+    {
+        long result = Long.MAX_VALUE;
+        for (Appointment appointment : reservation.getAppointments())
+        {
+            final long appointmentStart = appointment.getStart().getTime();
+            if (appointmentStart >= result || !((AppointmentImpl) appointment).overlaps(start, end, false))
+            {
+                continue;
+            }
+            for (AppointmentIntervalIndex index : indexes)
+            {
+                if (index.contains(appointment))
+                {
+                    result = appointmentStart;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<ReferenceInfo<Reservation>> getReservationsEndingBefore(Date end) throws RaplaException
+    {
+        checkConnected();
+        final long endLong = end.getTime();
+        final Set<Reservation> candidates = new LinkedHashSet<>();
+        final Collection<ReferenceInfo<Reservation>> result = new ArrayList<>();
+        RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "getReservationsEndingBefore");
+        try
+        {
+            appointmentBindings.getAppointments((ReferenceInfo<Allocatable>) null).forEachEndingBefore(endLong, (appointment) -> candidates.add(appointment.getReservation()));
+            for (Reservation reservation : candidates)
+            {
+                if (reservation.getAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE) != null)
+                {
+                    continue;
+                }
+                boolean endingBefore = true;
+                for (Appointment appointment : reservation.getAppointments())
+                {
+                    if (AppointmentIntervalIndex.getMaxEnd(appointment) > endLong)
+                    {
+                        endingBefore = false;
+                        break;
+                    }
+                }
+                if (endingBefore)
+                {
+                    result.add(reservation.getReference());
+                }
+            }
+        }
+        finally
+        {
+            lockManager.unlock(readLock);
+        }
+        return result;
+    }
+
     @Override
     public Collection<ReferenceInfo<User>> findUsersThatExport(Appointment appointment) throws RaplaException
     {
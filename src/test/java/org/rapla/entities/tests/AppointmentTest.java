@@ -12,6 +12,10 @@
  *--------------------------------------------------------------------------*/
 package org.rapla.entities.tests;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -23,12 +27,15 @@ import org.rapla.entities.domain.AppointmentBlock;
 import org.rapla.entities.domain.AppointmentStartComparator;
 import org.rapla.entities.domain.Repeating;
 import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.internal.AppointmentBlockCursor;
 import org.rapla.entities.domain.internal.AppointmentImpl;
+import org.rapla.rest.JsonParserWrapper;
 import org.rapla.rest.client.internal.isodate.ISODateTimeFormat;
 
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(JUnit4.class)
@@ -232,6 +239,22 @@ public class AppointmentTest {
         
     }
 
+    @Test
+    public void testAddRepeatingExceptions() {
+        final AppointmentImpl a = (AppointmentImpl) createAppointment("2012-03-02","9:00","11:00");
+        a.setRepeatingEnabled(true);
+        final Repeating repeating = a.getRepeating();
+        repeating.addException(createDate("2012-03-16"));
+        // unsorted, with a duplicate and an already existing exception
+        a.addRepeatingExceptions(Arrays.asList(createDate("2012-03-30"), createDate("2012-03-09"), createDate("2012-03-16"), createDate("2012-03-30")));
+        final Date[] exceptions = repeating.getExceptions();
+        assertEquals(3, exceptions.length);
+        assertEquals(createDate("2012-03-09"), exceptions[0]);
+        assertEquals(createDate("2012-03-16"), exceptions[1]);
+        assertEquals(createDate("2012-03-30"), exceptions[2]);
+        assertTrue(repeating.isException(createDate("2012-03-09").getTime()));
+    }
+
     @Test
     public void testBlocks() {
         Appointment a1 = createAppointment("2002-04-12","12:00","14:00");
@@ -556,9 +579,131 @@ public class AppointmentTest {
         assertEquals( 1, blocks.size());        
     }
 
-}
-
-
+    @Test
+    public void testBlockCursor()
+    {
+        AppointmentImpl a1 = (AppointmentImpl) createAppointment("2020-1-6", "10:00", "12:00");
+        a1.setRepeatingEnabled(true);
+        final Repeating repeating = a1.getRepeating();
+        repeating.setType(RepeatingType.DAILY);
+        repeating.setEnd(createDate("2020-6-30"));
+        repeating.addException(createDate("2020-1-8"));
+        repeating.addException(createDate("2020-3-1"));
+        repeating.addException(createDate("2020-3-2"));
+        final Date start = createDate("2020-1-1");
+        final Date end = createDate("2020-7-1");
+        for (boolean excludeExceptions : new boolean[] { true, false })
+        {
+            List<AppointmentBlock> blocks = new ArrayList<>();
+            a1.createBlocks(start, end, blocks, excludeExceptions);
+            AppointmentBlockCursor cursor = a1.blockCursor(start.getTime(), end.getTime(), excludeExceptions);
+            for (AppointmentBlock block : blocks)
+            {
+                assertTrue(cursor.next());
+                assertEquals(block.getStart(), cursor.getStart());
+                assertEquals(block.getEnd(), cursor.getEnd());
+                assertEquals(block.isException(), cursor.isException());
+            }
+            assertFalse(cursor.next());
+        }
+        assertTrue(repeating.isException(createDate("2020-3-1").getTime() + DateTools.MILLISECONDS_PER_HOUR * 10));
+        assertTrue(repeating.isException(createDate("2020-3-2").getTime()));
+        assertFalse(repeating.isException(createDate("2020-3-3").getTime()));
+        assertFalse(repeating.isException(createDate("2020-1-7").getTime() + DateTools.MILLISECONDS_PER_HOUR * 23));
+    }
 
+    @Test
+    public void testExceptions()
+    {
+        Appointment a1 = createAppointment("2020-1-6", "10:00", "12:00");
+        a1.setRepeatingEnabled(true);
+        Repeating repeating = a1.getRepeating();
+        repeating.setType(RepeatingType.DAILY);
+        repeating.setNumber(100);
+        repeating.addException(createDate("2020-3-2"));
+        repeating.addException(new Date(createDate("2020-1-8").getTime() + DateTools.MILLISECONDS_PER_HOUR * 10));
+        repeating.addException(createDate("2020-3-1"));
+        repeating.addException(createDate("2020-1-8"));
+        assertEquals(Arrays.asList(createDate("2020-1-8"), createDate("2020-3-1"), createDate("2020-3-2")), Arrays.asList(repeating.getExceptions()));
+        repeating.removeException(createDate("2020-3-1"));
+        assertEquals(Arrays.asList(createDate("2020-1-8"), createDate("2020-3-2")), Arrays.asList(repeating.getExceptions()));
+        assertFalse(repeating.isException(createDate("2020-3-1").getTime() + DateTools.MILLISECONDS_PER_HOUR * 10));
+        Repeating clone = (Repeating) repeating.clone();
+        clone.removeException(createDate("2020-1-8"));
+        assertEquals(2, repeating.getExceptions().length);
+        assertEquals(1, clone.getExceptions().length);
+        repeating.clearExceptions();
+        assertFalse(repeating.hasExceptions());
+        assertEquals(0, repeating.getExceptions().length);
+    }
 
+    @Test
+    public void testExceptionsJson()
+    {
+        Appointment a1 = createAppointment("2020-1-6", "10:00", "12:00");
+        a1.setRepeatingEnabled(true);
+        a1.getRepeating().setType(RepeatingType.DAILY);
+        a1.getRepeating().setNumber(100);
+        a1.getRepeating().addException(createDate("2020-1-8"));
+        a1.getRepeating().addException(createDate("2020-3-1"));
+        a1.getRepeating().addException(createDate("2020-3-2"));
+        final JsonParserWrapper.JsonParser gson = JsonParserWrapper.defaultJson().get();
+        // the exceptions are stored as list of dates in the history and sent to the clients, so the format must not change
+        final JsonObject json = new JsonParser().parse(gson.toJson(a1)).getAsJsonObject();
+        final JsonObject repeatingJson = json.getAsJsonObject("repeating");
+        assertEquals(1, repeatingJson.entrySet().stream().filter((entry) -> entry.getKey().startsWith("exception")).count());
+        final JsonArray exceptions = repeatingJson.getAsJsonArray("exceptions");
+        assertEquals(3, exceptions.size());
+        // older versions did not sort the exceptions
+        final JsonArray unsorted = new JsonArray();
+        for (int i = exceptions.size() - 1; i >= 0; i--)
+        {
+            final JsonElement exception = exceptions.get(i);
+            unsorted.add(exception);
+        }
+        repeatingJson.add("exceptions", unsorted);
+        final Appointment a2 = gson.fromJson(json.toString(), AppointmentImpl.class);
+        final Repeating repeating = a2.getRepeating();
+        assertEquals(Arrays.asList(a1.getRepeating().getExceptions()), Arrays.asList(repeating.getExceptions()));
+        assertTrue(repeating.isException(createDate("2020-3-1").getTime() + DateTools.MILLISECONDS_PER_HOUR * 10));
+        assertFalse(repeating.isException(createDate("2020-3-3").getTime()));
+        repeating.addException(createDate("2020-3-3"));
+        assertEquals(4, repeating.getExceptions().length);
+        assertEquals(4, new JsonParser().parse(gson.toJson(a2)).getAsJsonObject().getAsJsonObject("repeating").getAsJsonArray("exceptions").size());
+    }
 
+    @Test
+    public void testExceptionsChangedInPlace()
+    {
+        Appointment a1 = createAppointment("2020-1-6", "10:00", "12:00");
+        a1.setRepeatingEnabled(true);
+        Repeating repeating = a1.getRepeating();
+        repeating.setType(RepeatingType.DAILY);
+        repeating.setNumber(1000);
+        final long firstDay = createDate("2020-1-6").getTime();
+        final TreeSet<Date> expected = new TreeSet<>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 2000; i++)
+        {
+            Date date = new Date(firstDay + random.nextInt(1000) * DateTools.MILLISECONDS_PER_DAY);
+            if (random.nextInt(3) == 0)
+            {
+                repeating.removeException(date);
+                expected.remove(date);
+            }
+            else
+            {
+                repeating.addException(date);
+                expected.add(date);
+            }
+        }
+        assertEquals(new ArrayList<>(expected), Arrays.asList(repeating.getExceptions()));
+        // clones don't share the changed days
+        Appointment a2 = ((AppointmentImpl) a1).clone();
+        Date first = expected.first();
+        a2.getRepeating().removeException(first);
+        assertTrue(repeating.isException(first.getTime()));
+        assertFalse(a2.getRepeating().isException(first.getTime()));
+        assertEquals(expected.size() - 1, a2.getRepeating().getExceptions().length);
+    }
+}
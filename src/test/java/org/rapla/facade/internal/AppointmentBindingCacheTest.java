@@ -0,0 +1,70 @@
+package org.rapla.facade.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.storage.UpdateResult;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class AppointmentBindingCacheTest
+{
+    private final Date start = new Date(DateTools.toDate(2026, 1, 5));
+    private final Date middle = new Date(start.getTime() + DateTools.MILLISECONDS_PER_WEEK);
+    private final Date end = new Date(middle.getTime() + DateTools.MILLISECONDS_PER_WEEK);
+
+    @Test
+    public void hitsAndMisses()
+    {
+        AppointmentBindingCache cache = new AppointmentBindingCache(1);
+        final AppointmentBindingCache.Key key1 = AppointmentBindingCache.createKey(null, start, middle, null, null);
+        final AppointmentBindingCache.Key key2 = AppointmentBindingCache.createKey(null, middle, end, null, null);
+        Assert.assertNull(cache.get(key1));
+        cache.put(key1, cache.getGeneration(), new HashMap<>(), Collections.emptyList());
+        Assert.assertNotNull(cache.get(AppointmentBindingCache.createKey(null, start, middle, null, null)));
+        Assert.assertNull(cache.get(AppointmentBindingCache.createKey(null, start, middle, null, "template")));
+        // the cache holds only one entry
+        cache.put(key2, cache.getGeneration(), new HashMap<>(), Collections.emptyList());
+        Assert.assertNull(cache.get(key1));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(0.25, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void invalidateOnlyOverlappingEntries()
+    {
+        AppointmentBindingCache cache = new AppointmentBindingCache();
+        final AppointmentBindingCache.Key key1 = AppointmentBindingCache.createKey(null, start, middle, null, null);
+        final AppointmentBindingCache.Key key2 = AppointmentBindingCache.createKey(null, middle, end, null, null);
+        final long generation = cache.getGeneration();
+        final Map<Allocatable, Collection<Appointment>> result = new HashMap<>();
+        cache.put(key1, generation, result, Collections.emptyList());
+        cache.put(key2, generation, result, Collections.emptyList());
+
+        UpdateResult updateResult = new UpdateResult(start, end, new HashMap<>(), new HashMap<>());
+        updateResult.addOperation(new UpdateResult.Remove(new ReferenceInfo<>("r1", Reservation.class)));
+        final ModificationEventImpl evt = new ModificationEventImpl(updateResult, new TimeInterval(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_DAY)));
+        cache.invalidate(evt);
+        Assert.assertNull(cache.get(key1));
+        Assert.assertSame(result, cache.get(key2));
+        Assert.assertEquals(1, cache.getInvalidations());
+
+        // results of queries that were started before the invalidation are not stored
+        cache.put(key1, generation, result, Collections.emptyList());
+        Assert.assertNull(cache.get(key1));
+    }
+}
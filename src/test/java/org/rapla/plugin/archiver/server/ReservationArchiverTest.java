@@ -0,0 +1,204 @@
+package org.rapla.plugin.archiver.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.RaplaObjectAnnotations;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class ReservationArchiverTest
+{
+    RaplaFacade facade;
+    CachableStorageOperator operator;
+    Logger logger;
+    User user;
+    Date cutoff;
+    File archiveDirectory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "testdefault.xml");
+        operator = (CachableStorageOperator) facade.getOperator();
+        user = facade.getUser("homer");
+        cutoff = DateTools.addDays(facade.today(), -30);
+        archiveDirectory = Files.createTempDirectory("rapla-archive").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+        for (File file : archiveDirectory.listFiles())
+        {
+            file.delete();
+        }
+        archiveDirectory.delete();
+    }
+
+    @Test
+    public void reservationsEndingBefore() throws Exception
+    {
+        final Reservation old = newReservation("old", -60, -50);
+        final Reservation template = newReservation("template", -60, -50);
+        template.setAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE, "archivertest");
+        final Reservation future = newReservation("future", -60, 10);
+        final Reservation forever = newReservation("forever", -60);
+        final Appointment repeating = forever.getAppointments()[0];
+        repeating.setRepeatingEnabled(true);
+        repeating.getRepeating().setEnd(null);
+        facade.storeAndRemove(new Entity[] { old, template, future, forever }, Entity.ENTITY_ARRAY, user);
+
+        final Set<ReferenceInfo<Reservation>> result = new HashSet<>(operator.getReservationsEndingBefore(cutoff));
+        Assert.assertEquals(expectedEndingBefore(cutoff), result);
+        Assert.assertTrue(result.contains(old.getReference()));
+        Assert.assertFalse(result.contains(template.getReference()));
+        Assert.assertFalse(result.contains(future.getReference()));
+        Assert.assertFalse(result.contains(forever.getReference()));
+    }
+
+    @Test
+    public void archiveInChunks() throws Exception
+    {
+        final List<Entity> toStore = new ArrayList<>();
+        for (int i = 0; i < 7; i++)
+        {
+            toStore.add(newReservation("old " + i, -60 - i, -50));
+        }
+        final Reservation future = newReservation("future", -60, 10);
+        toStore.add(future);
+        facade.storeAndRemove(toStore.toArray(Entity.ENTITY_ARRAY), Entity.ENTITY_ARRAY, user);
+        final int expected = operator.getReservationsEndingBefore(cutoff).size();
+        Assert.assertTrue(expected >= 7);
+
+        final ReservationArchiver archiver = new ReservationArchiver(facade, logger);
+        archiver.setChunkSize(3);
+        archiver.setPauseMillis(0);
+        archiver.setArchiveDirectory(archiveDirectory);
+        Assert.assertEquals(expected, archiver.archive(cutoff));
+        Assert.assertTrue(operator.getReservationsEndingBefore(cutoff).isEmpty());
+        Assert.assertNotNull(operator.tryResolve(future.getReference()));
+
+        final File[] archives = archiveDirectory.listFiles();
+        Assert.assertEquals(1, archives.length);
+        Assert.assertEquals(expected, Files.readAllLines(archives[0].toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void resolveSkipsChangedCandidates() throws Exception
+    {
+        final Reservation template = newReservation("becomes template", -60, -50);
+        final Reservation extended = newReservation("extended", -60, -50);
+        final Reservation removed = newReservation("removed", -60, -50);
+        final Reservation old = newReservation("old", -60, -50);
+        facade.storeAndRemove(new Entity[] { template, extended, removed, old }, Entity.ENTITY_ARRAY, user);
+        final List<ReferenceInfo<Reservation>> candidates = new ArrayList<>(operator.getReservationsEndingBefore(cutoff));
+
+        // changes between collecting the candidates and removing a chunk
+        final Reservation editTemplate = facade.edit(facade.getPersistant(template));
+        editTemplate.setAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE, "archivertest");
+        final Reservation editExtended = facade.edit(facade.getPersistant(extended));
+        editExtended.getAppointments()[0].move(editExtended.getAppointments()[0].getStart(), DateTools.addDays(facade.today(), 10));
+        facade.storeAndRemove(new Entity[] { editTemplate, editExtended }, new Entity[] { facade.getPersistant(removed) }, user);
+
+        final ReservationArchiver archiver = new ReservationArchiver(facade, logger);
+        final Set<ReferenceInfo<Reservation>> resolved = new HashSet<>();
+        for (Reservation reservation : archiver.resolve(operator, candidates, cutoff))
+        {
+            resolved.add(reservation.getReference());
+        }
+        Assert.assertTrue(resolved.contains(old.getReference()));
+        Assert.assertFalse(resolved.contains(template.getReference()));
+        Assert.assertFalse(resolved.contains(extended.getReference()));
+        Assert.assertFalse(resolved.contains(removed.getReference()));
+    }
+
+    @Test
+    public void restDeleteRunsOnScheduler() throws Exception
+    {
+        final Reservation old = newReservation("old", -60, -50);
+        facade.storeAndRemove(new Entity[] { old }, Entity.ENTITY_ARRAY, user);
+        final ArchiverServiceImpl service = new ArchiverServiceImpl(null)
+        {
+            @Override
+            protected void checkAccess()
+            {
+            }
+        };
+        service.raplaFacade = facade;
+        service.logger = logger;
+        service.scheduler = ((LocalAbstractCachableOperator) operator).getScheduler();
+        RaplaTestCase.waitForWithRaplaException(service.delete(30), 10000);
+        Assert.assertNull(operator.tryResolve(old.getReference()));
+    }
+
+    private Set<ReferenceInfo<Reservation>> expectedEndingBefore(Date end) throws Exception
+    {
+        final Set<ReferenceInfo<Reservation>> expected = new HashSet<>();
+        final Collection<Reservation> reservations = RaplaTestCase.waitForWithRaplaException(facade.getReservationsForAllocatable(null, null, null, null), 10000);
+        for (Reservation reservation : reservations)
+        {
+            if (reservation.getAnnotation(RaplaObjectAnnotations.KEY_TEMPLATE) != null)
+            {
+                continue;
+            }
+            boolean endingBefore = true;
+            for (Appointment appointment : reservation.getAppointments())
+            {
+                final Date maxEnd = appointment.getMaxEnd();
+                if (maxEnd == null || maxEnd.after(end))
+                {
+                    endingBefore = false;
+                }
+            }
+            if (endingBefore)
+            {
+                expected.add(reservation.getReference());
+            }
+        }
+        return expected;
+    }
+
+    /** creates a reservation with one appointment per day offset, each lasting one hour */
+    private Reservation newReservation(String name, int... days) throws Exception
+    {
+        final DynamicType event = facade.getDynamicType("event");
+        final Reservation reservation = facade.newReservation(event.newClassification(), user);
+        reservation.getClassification().setValue("name", name);
+        for (int day : days)
+        {
+            final Date start = DateTools.addDays(facade.today(), day);
+            reservation.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+        }
+        final Allocatable[] allocatables = facade.getAllocatables();
+        reservation.addAllocatable(allocatables[0]);
+        return reservation;
+    }
+}
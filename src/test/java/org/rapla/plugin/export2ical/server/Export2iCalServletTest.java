@@ -0,0 +1,78 @@
+package org.rapla.plugin.export2ical.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.components.util.TimeInterval;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+
+@RunWith(JUnit4.class)
+public class Export2iCalServletTest
+{
+    private RaplaFacade facade;
+    private CachableStorageOperator operator;
+    private TimeInterval interval;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        facade = RaplaTestCase.createFacadeWithFile(RaplaTestCase.initLoger(), "/testdefault.xml");
+        operator = (CachableStorageOperator) facade.getOperator();
+        final Date today = DateTools.cutDate(new Date());
+        interval = new TimeInterval(DateTools.addDays(today, -10), DateTools.addDays(today, 30));
+    }
+
+    @Test
+    public void notModifiedAcrossEmptyRefresh() throws Exception
+    {
+        final Date lastModified = Export2iCalServlet.getLastModified(operator.getLastChanged());
+        final String etag = Export2iCalServlet.createETag(lastModified, interval);
+        Thread.sleep(5);
+        operator.refresh();
+
+        final Date lastModifiedAfterRefresh = Export2iCalServlet.getLastModified(operator.getLastChanged());
+        final String etagAfterRefresh = Export2iCalServlet.createETag(lastModifiedAfterRefresh, interval);
+        Assert.assertEquals(etag, etagAfterRefresh);
+        Assert.assertTrue(Export2iCalServlet.isNotModified(createRequest("If-None-Match", etag), etagAfterRefresh, lastModifiedAfterRefresh));
+        Assert.assertTrue(Export2iCalServlet.isNotModified(createRequest("If-Modified-Since", lastModified), etagAfterRefresh, lastModifiedAfterRefresh));
+
+        // a real change creates a new etag
+        Thread.sleep(5);
+        final Allocatable allocatable = facade.edit(facade.getAllocatables()[0]);
+        allocatable.getClassification().setValue("name", "changed");
+        facade.store(allocatable);
+        final Date lastModifiedAfterChange = Export2iCalServlet.getLastModified(operator.getLastChanged());
+        final String etagAfterChange = Export2iCalServlet.createETag(lastModifiedAfterChange, interval);
+        Assert.assertNotEquals(etag, etagAfterChange);
+        Assert.assertFalse(Export2iCalServlet.isNotModified(createRequest("If-None-Match", etag), etagAfterChange, lastModifiedAfterChange));
+    }
+
+    /** a request that only has the given conditional header */
+    private static HttpServletRequest createRequest(String header, Object value)
+    {
+        return (HttpServletRequest) Proxy.newProxyInstance(Export2iCalServletTest.class.getClassLoader(), new Class[] { HttpServletRequest.class },
+                (proxy, method, args) ->
+                {
+                    final boolean matches = args != null && header.equals(args[0]);
+                    switch (method.getName())
+                    {
+                        case "getHeader":
+                            return matches ? value.toString() : null;
+                        case "getDateHeader":
+                            return matches ? ((Date) value).getTime() : -1L;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,42 @@
+package org.rapla.plugin.notification.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+@RunWith(JUnit4.class)
+public class AllocationListenerIndexTest
+{
+    @Test
+    public void onlySubscribedUsersAreReturned()
+    {
+        AllocationListenerIndex index = new AllocationListenerIndex();
+        index.put("u1", Arrays.asList("room1", "room2"));
+        index.put("u2", Collections.singletonList("room2"));
+        index.put("u3", Collections.singletonList("room3"));
+        Assert.assertEquals(Collections.singleton("u1"), index.getUsers(Collections.singletonList("room1")));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("u1", "u2")), index.getUsers(Arrays.asList("room1", "room2")));
+        Assert.assertTrue(index.getUsers(Collections.singletonList("room4")).isEmpty());
+    }
+
+    @Test
+    public void preferenceChangesReplaceTheSubscriptions()
+    {
+        AllocationListenerIndex index = new AllocationListenerIndex();
+        index.put("u1", Arrays.asList("room1", "room2"));
+        index.put("u1", Collections.singletonList("room3"));
+        Assert.assertTrue(index.getUsers(Arrays.asList("room1", "room2")).isEmpty());
+        Assert.assertEquals(Collections.singleton("u1"), index.getUsers(Collections.singletonList("room3")));
+        index.put("u1", Collections.emptyList());
+        Assert.assertEquals(0, index.getUserCount());
+        Assert.assertEquals(0, index.getAllocatableCount());
+        index.put("u2", Collections.singletonList("room1"));
+        index.remove("u2");
+        Assert.assertTrue(index.getUsers(Collections.singletonList("room1")).isEmpty());
+    }
+}
@@ -0,0 +1,156 @@
+package org.rapla.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test for a running server. Each client sends GET requests to the given urls in a loop for the given duration,
+ * e.g. ical feeds and the events rest api. The test is repeated for each number of concurrent clients, so the throughput and latencies of
+ * the request.executor options can be compared. Not run as part of the unit tests.
+ * <p>
+ * Usage: RequestLoadBenchmark url1,url2,... [clients=1,8,32,128] [seconds=20] [accessToken]
+ * <p>
+ * Example: RequestLoadBenchmark "http://localhost:8051/rapla/ical?user=homer&file=default,http://localhost:8051/rapla/events/page?limit=100" 1,16,64,256 30 TOKEN
+ */
+public class RequestLoadBenchmark
+{
+    private final List<URL> urls;
+    private final String accessToken;
+
+    public RequestLoadBenchmark(List<URL> urls, String accessToken)
+    {
+        this.urls = urls;
+        this.accessToken = accessToken;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: RequestLoadBenchmark url1,url2,... [clients=1,8,32,128] [seconds=20] [accessToken]");
+            return;
+        }
+        final List<URL> urls = new ArrayList<>();
+        for (String url : args[0].split(","))
+        {
+            urls.add(new URL(url.trim()));
+        }
+        final String clients = args.length > 1 ? args[1] : "1,8,32,128";
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        final String accessToken = args.length > 3 ? args[3] : null;
+        final RequestLoadBenchmark benchmark = new RequestLoadBenchmark(urls, accessToken);
+        System.out.println(String.format("%8s %10s %8s %10s %8s %8s %8s %8s", "clients", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (String count : clients.split(","))
+        {
+            benchmark.run(Integer.parseInt(count.trim()), seconds);
+        }
+    }
+
+    public void run(int clients, int seconds) throws InterruptedException
+    {
+        final List<List<Long>> latencies = new ArrayList<>();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        final long[] end = new long[1];
+        for (int i = 0; i < clients; i++)
+        {
+            final List<Long> clientLatencies = new ArrayList<>();
+            latencies.add(clientLatencies);
+            final int offset = i;
+            executor.execute(() ->
+            {
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException ex)
+                {
+                    return;
+                }
+                int request = offset;
+                while (System.currentTimeMillis() < end[0])
+                {
+                    final URL url = urls.get(request++ % urls.size());
+                    final long before = System.nanoTime();
+                    try
+                    {
+                        if (!get(url))
+                        {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        errors.incrementAndGet();
+                    }
+                    clientLatencies.add(System.nanoTime() - before);
+                }
+            });
+        }
+        final long startTime = System.currentTimeMillis();
+        end[0] = startTime + seconds * 1000L;
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(seconds + 120, TimeUnit.SECONDS);
+        final long millis = Math.max(1, System.currentTimeMillis() - startTime);
+
+        final List<Long> all = new ArrayList<>();
+        for (List<Long> clientLatencies : latencies)
+        {
+            all.addAll(clientLatencies);
+        }
+        Collections.sort(all);
+        System.out.println(String.format("%8d %10d %8d %10.1f %8.1f %8.1f %8.1f %8.1f", clients, all.size(), errors.get(), all.size() * 1000.0 / millis,
+                percentile(all, 50), percentile(all, 95), percentile(all, 99), percentile(all, 100)));
+    }
+
+    /** returns true if the server answered with a 2xx status. The body is read completely, so the server has to write the whole response */
+    private boolean get(URL url) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+        if (accessToken != null)
+        {
+            connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+        }
+        final int status = connection.getResponseCode();
+        final InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null)
+        {
+            final byte[] buffer = new byte[8192];
+            try
+            {
+                while (in.read(buffer) >= 0)
+                {
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        return status >= 200 && status < 300;
+    }
+
+    private static double percentile(List<Long> sortedNanos, int percent)
+    {
+        if (sortedNanos.isEmpty())
+        {
+            return 0;
+        }
+        final int index = Math.min(sortedNanos.size() - 1, (int) Math.ceil(sortedNanos.size() * percent / 100.0) - 1);
+        return sortedNanos.get(Math.max(0, index)) / 1000000.0;
+    }
+}
@@ -0,0 +1,211 @@
+package org.rapla.server.internal;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.framework.internal.DefaultScheduler;
+import org.rapla.logger.Logger;
+import org.rapla.scheduler.CompletablePromise;
+import org.rapla.test.util.RaplaTestCase;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class AsyncRequestTest
+{
+    Logger logger;
+    DefaultScheduler scheduler;
+    RequestExecutor executor;
+
+    @Before
+    public void setUp()
+    {
+        logger = RaplaTestCase.initLoger();
+        scheduler = new DefaultScheduler(logger);
+        executor = RequestExecutor.create(RequestExecutor.MODE_THREADS, 2, 10, RequestExecutor.DEFAULT_TIMEOUT, logger);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdown();
+        scheduler.dispose();
+    }
+
+    @Test
+    public void handledRequestIsCompleted() throws Exception
+    {
+        Exchange exchange = new Exchange();
+        AsyncRequest.start(exchange.request, exchange.response, executor, logger, (request, response) -> response.getWriter().write("ok"));
+        Assert.assertTrue(exchange.completeLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("ok", exchange.body.toString());
+        Assert.assertEquals(200, exchange.status);
+        Assert.assertEquals(1, exchange.completed.get());
+    }
+
+    @Test
+    public void parkedRequestIsWrittenWhenPromiseCompletes() throws Exception
+    {
+        Exchange exchange = new Exchange();
+        CompletablePromise<String> promise = scheduler.createCompletable();
+        CountDownLatch parked = new CountDownLatch(1);
+        AsyncRequest.start(exchange.request, exchange.response, executor, logger, (request, response) ->
+        {
+            park(request, promise);
+            parked.countDown();
+        });
+        Assert.assertTrue(parked.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(exchange.completeLatch.await(200, TimeUnit.MILLISECONDS));
+        promise.complete("changes");
+        Assert.assertTrue(exchange.completeLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("changes", exchange.body.toString());
+        Assert.assertEquals(1, exchange.completed.get());
+    }
+
+    @Test
+    public void timeoutCompletesParkedRequest() throws Exception
+    {
+        Exchange exchange = new Exchange();
+        CompletablePromise<String> promise = scheduler.createCompletable();
+        CountDownLatch parked = new CountDownLatch(1);
+        AsyncRequest asyncRequest = AsyncRequest.start(exchange.request, exchange.response, executor, logger, (request, response) ->
+        {
+            park(request, promise);
+            parked.countDown();
+        });
+        Assert.assertTrue(parked.await(10, TimeUnit.SECONDS));
+        asyncRequest.onTimeout(null);
+        Assert.assertTrue(asyncRequest.isDone());
+        Assert.assertEquals(503, exchange.status);
+        Assert.assertEquals(1, exchange.completed.get());
+        // the result after the timeout is not written to the recycled response
+        promise.complete("late");
+        Thread.sleep(200);
+        Assert.assertEquals("", exchange.body.toString());
+        Assert.assertEquals(1, exchange.completed.get());
+    }
+
+    @Test
+    public void rejectsRequestWhenQueueIsFull() throws Exception
+    {
+        RequestExecutor small = RequestExecutor.create(RequestExecutor.MODE_THREADS, 1, 1, RequestExecutor.DEFAULT_TIMEOUT, logger);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try
+        {
+            Assert.assertTrue(small.execute(() ->
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException ex)
+                {
+                }
+            }));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(small.execute(() -> {}));
+            Exchange exchange = new Exchange();
+            AsyncRequest.start(exchange.request, exchange.response, small, logger, (request, response) -> Assert.fail("rejected request is handled"));
+            Assert.assertEquals(503, exchange.status);
+            Assert.assertEquals(1, exchange.completed.get());
+        }
+        finally
+        {
+            release.countDown();
+            small.shutdown();
+        }
+    }
+
+    private static void park(HttpServletRequest request, CompletablePromise<String> promise)
+    {
+        final LongPollRequest longPoll = (LongPollRequest) request.getAttribute(LongPollRequest.ATTRIBUTE);
+        longPoll.park(promise, (result, error, response) -> response.getWriter().write(result));
+    }
+
+    interface Handler
+    {
+        Object invoke(String method, Object[] args);
+    }
+
+    static <T> T proxy(Class<T> type, Handler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+
+    /** request, response and async context of a servlet container that records the response */
+    static class Exchange
+    {
+        final Map<String, Object> attributes = new HashMap<>();
+        final StringWriter body = new StringWriter();
+        final AtomicInteger completed = new AtomicInteger();
+        final CountDownLatch completeLatch = new CountDownLatch(1);
+        volatile int status = 200;
+
+        final HttpServletResponse response = proxy(HttpServletResponse.class, (method, args) ->
+        {
+            switch (method)
+            {
+                case "sendError":
+                case "setStatus":
+                    status = (Integer) args[0];
+                    return null;
+                case "getWriter":
+                    return new PrintWriter(body, true);
+                case "isCommitted":
+                    return false;
+                default:
+                    return null;
+            }
+        });
+
+        final AsyncContext asyncContext = proxy(AsyncContext.class, (method, args) ->
+        {
+            switch (method)
+            {
+                case "getRequest":
+                    return this.request;
+                case "getResponse":
+                    return response;
+                case "complete":
+                    completed.incrementAndGet();
+                    completeLatch.countDown();
+                    return null;
+                default:
+                    return null;
+            }
+        });
+
+        final HttpServletRequest request = proxy(HttpServletRequest.class, (method, args) ->
+        {
+            switch (method)
+            {
+                case "startAsync":
+                    return asyncContext;
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "getAttribute":
+                    return attributes.get(args[0]);
+                case "getRequestURI":
+                    return "/rapla/test";
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,103 @@
+package org.rapla.server.internal;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.AppointmentFormaterImpl;
+import org.rapla.RaplaResources;
+import org.rapla.components.i18n.internal.AbstractBundleManager;
+import org.rapla.components.i18n.server.ServerBundleManager;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.configuration.Preferences;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.AppointmentFormater;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.framework.TypedComponentRole;
+import org.rapla.framework.internal.RaplaLocaleImpl;
+import org.rapla.logger.Logger;
+import org.rapla.scheduler.Promise;
+import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.UpdateEvent;
+import org.rapla.storage.impl.server.LocalAbstractCachableOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Date;
+
+@RunWith(JUnit4.class)
+public class ChangeNotifierTest
+{
+    RaplaFacade facade;
+    CachableStorageOperator operator;
+    UpdateDataManager updateManager;
+    ChangeNotifier changeNotifier;
+    User reader;
+    User writer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "testdefault.xml");
+        operator = (CachableStorageOperator) facade.getOperator();
+        AbstractBundleManager bundleManager = new ServerBundleManager();
+        RaplaResources i18n = new RaplaResources(bundleManager);
+        AppointmentFormater appointmentFormater = new AppointmentFormaterImpl(i18n, new RaplaLocaleImpl(bundleManager));
+        SecurityManager securityManager = new SecurityManager(logger, i18n, appointmentFormater, operator);
+        updateManager = new UpdateDataManagerImpl(logger, operator, securityManager);
+        changeNotifier = new ChangeNotifier(logger, operator, updateManager, ((LocalAbstractCachableOperator) operator).getScheduler());
+        // monty is no admin and can't see the preferences of homer
+        reader = facade.getUser("monty");
+        writer = facade.getUser("homer");
+    }
+
+    private Date synced() throws Exception
+    {
+        return updateManager.createUpdateEvent(reader, operator.getLastRefreshed()).getLastValidated();
+    }
+
+    @Test
+    public void wakesUpOnVisibleChange() throws Exception
+    {
+        Promise<UpdateEvent> promise = changeNotifier.waitForChanges(reader, synced(), 60);
+        Assert.assertEquals(1, changeNotifier.getWaitingCount());
+        Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0].newClassification();
+        Allocatable allocatable = facade.newAllocatable(classification, writer);
+        allocatable.getClassification().setValue("name", "waitingResource");
+        facade.storeAndRemove(new Entity[] { allocatable }, Entity.ENTITY_ARRAY, writer);
+        final long start = System.currentTimeMillis();
+        UpdateEvent event = RaplaTestCase.waitForWithRaplaException(promise, 10000);
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        Assert.assertFalse(event.isEmpty());
+        Assert.assertEquals(0, changeNotifier.getWaitingCount());
+    }
+
+    @Test
+    public void returnsEmptyEventAfterTimeout() throws Exception
+    {
+        final long start = System.currentTimeMillis();
+        Promise<UpdateEvent> promise = changeNotifier.waitForChanges(reader, synced(), 1);
+        UpdateEvent event = RaplaTestCase.waitForWithRaplaException(promise, 10000);
+        Assert.assertTrue(System.currentTimeMillis() - start >= 1000);
+        Assert.assertTrue(event.isEmpty());
+        Assert.assertEquals(0, changeNotifier.getWaitingCount());
+    }
+
+    @Test
+    public void staysParkedOnInvisibleChange() throws Exception
+    {
+        final long start = System.currentTimeMillis();
+        Promise<UpdateEvent> promise = changeNotifier.waitForChanges(reader, synced(), 2);
+        Preferences preferences = facade.edit(facade.getPreferences(writer));
+        preferences.putEntry(new TypedComponentRole<String>("org.rapla.test.changenotifier"), "changed");
+        facade.storeAndRemove(new Entity[] { preferences }, Entity.ENTITY_ARRAY, writer);
+        // the change of homers preferences does not complete the request of monty before the timeout
+        UpdateEvent event = RaplaTestCase.waitForWithRaplaException(promise, 10000);
+        Assert.assertTrue(System.currentTimeMillis() - start >= 2000);
+        Assert.assertTrue(event.isEmpty());
+    }
+}
@@ -0,0 +1,91 @@
+package org.rapla.server.internal;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.logger.Logger;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class RequestExecutorTest
+{
+    Logger logger;
+
+    @Before
+    public void setUp()
+    {
+        logger = RaplaTestCase.initLoger();
+    }
+
+    @Test
+    public void containerModeHasNoExecutor()
+    {
+        ServerContainerContext context = new ServerContainerContext();
+        Assert.assertNull(RequestExecutor.create(context, logger));
+        context.putOption(RequestExecutor.REQUEST_EXECUTOR, "unknown");
+        Assert.assertNull(RequestExecutor.create(context, logger));
+    }
+
+    @Test
+    public void executesRequests() throws Exception
+    {
+        for (String mode : new String[] { RequestExecutor.MODE_THREADS, RequestExecutor.MODE_VIRTUAL })
+        {
+            RequestExecutor executor = RequestExecutor.create(mode, 2, 100, 1000, logger);
+            Assert.assertNotNull(executor);
+            CountDownLatch latch = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++)
+            {
+                Assert.assertTrue(executor.execute(latch::countDown));
+            }
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            executor.shutdown();
+            Assert.assertFalse(executor.execute(latch::countDown));
+        }
+    }
+
+    @Test
+    public void timeoutCoversLongPoll()
+    {
+        RequestExecutor executor = RequestExecutor.create(RequestExecutor.MODE_THREADS, 2, 100, 1000, logger);
+        Assert.assertTrue(executor.getTimeout() > ChangeNotifier.MAX_TIMEOUT_SECONDS * 1000);
+        executor.shutdown();
+    }
+
+    @Test
+    public void rejectsRequestsWhenQueueIsFull() throws Exception
+    {
+        for (String mode : new String[] { RequestExecutor.MODE_THREADS, RequestExecutor.MODE_VIRTUAL })
+        {
+            RequestExecutor executor = RequestExecutor.create(mode, 1, 1, RequestExecutor.DEFAULT_TIMEOUT, logger);
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Runnable blocking = () ->
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException ex)
+                {
+                }
+            };
+            Assert.assertTrue(executor.execute(blocking));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            if (executor.getMode().equals(RequestExecutor.MODE_THREADS))
+            {
+                // one request waits in the queue
+                Assert.assertTrue(executor.execute(() -> {}));
+            }
+            Assert.assertFalse(executor.execute(() -> {}));
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
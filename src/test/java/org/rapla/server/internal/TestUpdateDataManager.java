@@ -278,6 +278,19 @@ public class TestUpdateDataManager
         }
     }
     
+    @Test
+    public void testChangesSharedBetweenUsers() throws Exception
+    {
+        final Date lastSynced = operator.getLastRefreshed();
+        final long misses = updateManager.getCacheMisses();
+        final long hits = updateManager.getCacheHits();
+        final UpdateEvent homerEvent = updateManager.createUpdateEvent(facade.getUser("homer"), lastSynced);
+        final UpdateEvent montyEvent = updateManager.createUpdateEvent(facade.getUser("monty"), lastSynced);
+        Assert.assertEquals(misses + 1, updateManager.getCacheMisses());
+        Assert.assertEquals(hits + 1, updateManager.getCacheHits());
+        Assert.assertEquals(homerEvent.getLastValidated(), montyEvent.getLastValidated());
+    }
+
     /**
      * Test weather insert and deletion of the same resource in one updateEvent are
      * removed, so not affected by the client.
@@ -0,0 +1,90 @@
+package org.rapla.storage.dbfile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class UpdateJournalTest
+{
+    private File file;
+    private UpdateJournal journal;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile("rapla", ".journal");
+        file.delete();
+        journal = new UpdateJournal(file);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        journal.close();
+        file.delete();
+    }
+
+    @Test
+    public void appendAndRead() throws Exception
+    {
+        Assert.assertTrue(journal.readAll().isEmpty());
+        journal.append("{\"a\":1}");
+        journal.append("{\"b\":\"ä\"}");
+        Assert.assertEquals(2, journal.size());
+        journal.close();
+        UpdateJournal reopened = new UpdateJournal(file);
+        Assert.assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":\"ä\"}"), reopened.readAll());
+        Assert.assertEquals(2, reopened.size());
+    }
+
+    @Test
+    public void incompleteRecordIsSkipped() throws Exception
+    {
+        journal.append("complete");
+        journal.close();
+        try (FileOutputStream out = new FileOutputStream(file, true))
+        {
+            out.write("incompl".getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> records = journal.readAll();
+        Assert.assertEquals(Arrays.asList("complete"), records);
+    }
+
+    @Test
+    public void truncatedTailIsRemovedBeforeAppend() throws Exception
+    {
+        journal.append("complete");
+        journal.close();
+        try (FileOutputStream out = new FileOutputStream(file, true))
+        {
+            out.write("{\"b\":\"\u00e4".getBytes(StandardCharsets.UTF_8), 0, 6);
+        }
+        UpdateJournal reopened = new UpdateJournal(file);
+        Assert.assertEquals(Arrays.asList("complete"), reopened.readAll());
+        Assert.assertEquals("complete\n".length(), file.length());
+        reopened.append("next");
+        reopened.close();
+        Assert.assertEquals(Arrays.asList("complete", "next"), new UpdateJournal(file).readAll());
+    }
+
+    @Test
+    public void truncate() throws Exception
+    {
+        journal.append("first");
+        journal.truncate();
+        Assert.assertEquals(0, journal.size());
+        Assert.assertTrue(journal.readAll().isEmpty());
+        journal.append("second");
+        Assert.assertEquals(Arrays.asList("second"), journal.readAll());
+    }
+}
@@ -0,0 +1,146 @@
+package org.rapla.storage.dbfile.tests;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.storage.RaplaSecurityException;
+import org.rapla.storage.dbfile.FileOperator;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** stores changes with the journal enabled and checks that reopening the operator restores them, also after a crash during the snapshot */
+@RunWith(JUnit4.class)
+public class FileOperatorJournalTest
+{
+    File dir;
+    File dataFile;
+    File journalFile;
+    RaplaFacade facade;
+    FileOperator operator;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        dir = Files.createTempDirectory("rapla-journal").toFile();
+        dataFile = new File(dir, "data.xml");
+        journalFile = new File(dir, "data.xml.journal");
+        Files.copy(new File(RaplaTestCase.getTestDataFile("/testdefault.xml")).toPath(), dataFile.toPath());
+        facade = RaplaTestCase.createFacadeWithFile(logger, dataFile.getPath(), new FileOperator.DefaultFileIO());
+        operator = (FileOperator) facade.getOperator();
+        // the journal must be enabled before connect
+        operator.disconnect();
+        operator.setJournalEnabled(true);
+        operator.setSnapshotInterval(1000);
+        operator.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+        for (File file : dir.listFiles())
+        {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void replayAfterCrashBeforeSnapshot() throws Exception
+    {
+        final byte[] dataBeforeChanges = Files.readAllBytes(dataFile.toPath());
+        final Map<String, Object> expected = storeChanges();
+        final byte[] journal = Files.readAllBytes(journalFile.toPath());
+        Assert.assertTrue(journal.length > 0);
+        // the data file is only written on disconnect, so the changes are only in the journal
+        Assert.assertArrayEquals(dataBeforeChanges, Files.readAllBytes(dataFile.toPath()));
+        operator.disconnect();
+        // simulate a crash before the disconnect wrote the data file
+        Files.write(dataFile.toPath(), dataBeforeChanges);
+        Files.write(journalFile.toPath(), journal);
+        operator.connect();
+        assertState(expected);
+        // the replayed changes are written to the data file and the journal is truncated
+        Assert.assertEquals(0, journalFile.length());
+        operator.disconnect();
+        operator.connect();
+        assertState(expected);
+    }
+
+    @Test
+    public void replayAfterCrashBeforeJournalTruncate() throws Exception
+    {
+        final Map<String, Object> expected = storeChanges();
+        final File journalCopy = new File(dir, "journal.copy");
+        Files.copy(journalFile.toPath(), journalCopy.toPath());
+        operator.disconnect();
+        Assert.assertEquals(0, journalFile.length());
+        // simulate a crash after the data file was written but before the journal was truncated, so the changes are applied twice
+        Files.copy(journalCopy.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        operator.connect();
+        assertState(expected);
+    }
+
+    /** stores a new resource, changes it, removes another one and changes the password of homer. Returns the resource names by id*/
+    private Map<String, Object> storeChanges() throws Exception
+    {
+        final User user = facade.getUser("homer");
+        final DynamicType resourceType = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESOURCE)[0];
+        final Allocatable changed = facade.newAllocatable(resourceType.newClassification(), user);
+        changed.getClassification().setValue("name", "journal stored");
+        final Allocatable removed = facade.newAllocatable(resourceType.newClassification(), user);
+        removed.getClassification().setValue("name", "journal removed");
+        facade.storeAndRemove(new Entity[] { changed, removed }, Entity.ENTITY_ARRAY, user);
+
+        final Allocatable edit = facade.edit(facade.getPersistant(changed));
+        edit.getClassification().setValue("name", "journal changed");
+        facade.storeAndRemove(new Entity[] { edit }, new Entity[] { facade.getPersistant(removed) }, user);
+
+        operator.changePassword(user, "duffs".toCharArray(), "journal".toCharArray());
+        return getNames();
+    }
+
+    private Map<String, Object> getNames() throws Exception
+    {
+        final Map<String, Object> names = new TreeMap<>();
+        for (Allocatable allocatable : facade.getAllocatables())
+        {
+            names.put(allocatable.getId(), allocatable.getClassification().getValue("name"));
+        }
+        return names;
+    }
+
+    private void assertState(Map<String, Object> expected) throws Exception
+    {
+        final Map<String, Object> names = getNames();
+        Assert.assertEquals(expected, names);
+        Assert.assertTrue(names.containsValue("journal changed"));
+        Assert.assertFalse(names.containsValue("journal stored"));
+        Assert.assertFalse(names.containsValue("journal removed"));
+        Assert.assertNotNull(operator.authenticate("homer", "journal"));
+        try
+        {
+            operator.authenticate("homer", "duffs");
+            Assert.fail("old password still valid");
+        }
+        catch (RaplaSecurityException ex)
+        {
+        }
+    }
+}
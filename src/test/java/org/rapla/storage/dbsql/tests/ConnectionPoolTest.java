@@ -0,0 +1,86 @@
+package org.rapla.storage.dbsql.tests;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.storage.dbsql.ConnectionPool;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+@RunWith(JUnit4.class)
+public class ConnectionPoolTest
+{
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        JDBCDataSource datasource = new JDBCDataSource();
+        datasource.setUrl("jdbc:hsqldb:mem:pooltest");
+        datasource.setUser("sa");
+        datasource.setPassword("");
+        pool = new ConnectionPool(datasource, RaplaTestCase.initLoger(), 1, 2, 10, true);
+        pool.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.close();
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception
+    {
+        Assert.assertEquals(1, pool.getOpenCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+        try (Connection c1 = pool.getConnection(); Connection c2 = pool.getConnection())
+        {
+            Assert.assertEquals(2, pool.getOpenCount());
+            Assert.assertEquals(0, pool.getIdleCount());
+            c1.setAutoCommit(false);
+        }
+        Assert.assertEquals(2, pool.getIdleCount());
+        try (Connection c = pool.getConnection())
+        {
+            Assert.assertFalse(c.isClosed());
+        }
+        Assert.assertEquals(2, pool.getCreateCount());
+        Assert.assertEquals(4, pool.getBorrowCount());
+    }
+
+    @Test
+    public void statementsAreCached() throws Exception
+    {
+        final String sql = "VALUES(?)";
+        for (int i = 0; i < 3; i++)
+        {
+            try (Connection c = pool.getConnection(); PreparedStatement stmt = c.prepareStatement(sql))
+            {
+                stmt.setInt(1, i);
+                try (ResultSet result = stmt.executeQuery())
+                {
+                    Assert.assertTrue(result.next());
+                    Assert.assertEquals(i, result.getInt(1));
+                }
+            }
+        }
+        Assert.assertEquals(1, pool.getStatementMisses());
+        Assert.assertEquals(2, pool.getStatementHits());
+
+        // a statement that is still in use is not shared
+        try (Connection c = pool.getConnection(); PreparedStatement outer = c.prepareStatement(sql); PreparedStatement inner = c.prepareStatement(sql))
+        {
+            Assert.assertNotSame(outer, inner);
+            Assert.assertSame(c, outer.getConnection());
+        }
+        Assert.assertEquals(2, pool.getStatementMisses());
+    }
+}
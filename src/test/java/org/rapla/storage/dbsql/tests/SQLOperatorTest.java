@@ -69,6 +69,10 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(JUnit4.class)
 public class SQLOperatorTest extends AbstractOperatorTest
@@ -701,6 +705,100 @@ public class SQLOperatorTest extends AbstractOperatorTest
         facade.storeAndRemove(new Entity[]{reservation}, Entity.ENTITY_ARRAY, user);
         facade.storeAndRemove(Entity.ENTITY_ARRAY, new Entity[]{reservation} , user);
     }
+
+    @Test
+    public void testConnectWithParallelLoad() throws Exception
+    {
+        final DBOperator operator = (DBOperator) getOperator();
+        final int reservationCount = RaplaTestCase.waitForWithRaplaException(facade.getReservationsForAllocatable(null, null, null, null), 10000).size();
+        final int allocatableCount = facade.getAllocatables().length;
+        operator.disconnect();
+        operator.setLoadParallelism(4);
+        operator.setPoolMaxSize(4);
+        // connect holds the operator lock while the appointment tables are read over other connections
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            final Future<?> connect = executor.submit(() ->
+            {
+                operator.connect();
+                return null;
+            });
+            connect.get(60, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        facade.refresh();
+        Assert.assertEquals(allocatableCount, facade.getAllocatables().length);
+        Assert.assertEquals(reservationCount, RaplaTestCase.waitForWithRaplaException(facade.getReservationsForAllocatable(null, null, null, null), 10000).size());
+    }
+
+    @Test
+    public void testAppointmentRowChanges() throws Exception
+    {
+        final DBOperator operator = (DBOperator) facade.getOperator();
+        final User user = facade.getUser("homer");
+        final Date start = DateTools.cutDate(new Date());
+        Reservation reservation = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+        reservation.getClassification().setValue("name", "Row changes");
+        reservation.addAllocatable(facade.getAllocatables()[0]);
+        final Appointment changed = facade.newAppointmentWithUser(new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), new Date(start.getTime() + 2 * DateTools.MILLISECONDS_PER_HOUR), user);
+        final Appointment removed = facade.newAppointmentWithUser(new Date(start.getTime() + 3 * DateTools.MILLISECONDS_PER_HOUR), new Date(start.getTime() + 4 * DateTools.MILLISECONDS_PER_HOUR), user);
+        reservation.addAppointment(changed);
+        reservation.addAppointment(removed);
+        facade.storeAndRemove(new Entity[] { reservation }, Entity.ENTITY_ARRAY, user);
+        Assert.assertEquals(2, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT WHERE EVENT_ID = ?", reservation.getId()));
+        Assert.assertEquals(1, countRows(operator, "SELECT COUNT(*) FROM ALLOCATION WHERE APPOINTMENT_ID = ?", removed.getId()));
+
+        // update one appointment, delete one and insert one
+        final Reservation edited = facade.edit(facade.getOperator().resolve(reservation.getReference()));
+        final Appointment editedAppointment = edited.findAppointment(changed);
+        editedAppointment.setRepeatingEnabled(true);
+        editedAppointment.getRepeating().setType(RepeatingType.DAILY);
+        editedAppointment.getRepeating().setNumber(5);
+        editedAppointment.getRepeating().addException(DateTools.addDays(start, 1));
+        edited.removeAppointment(edited.findAppointment(removed));
+        final Appointment added = facade.newAppointmentWithUser(new Date(start.getTime() + 5 * DateTools.MILLISECONDS_PER_HOUR), new Date(start.getTime() + 6 * DateTools.MILLISECONDS_PER_HOUR), user);
+        edited.addAppointment(added);
+        facade.storeAndRemove(new Entity[] { edited }, Entity.ENTITY_ARRAY, user);
+        Assert.assertEquals(2, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT WHERE EVENT_ID = ?", reservation.getId()));
+        Assert.assertEquals(1, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT WHERE ID = ? AND REPETITION_TYPE = 'daily' AND REPETITION_NUMBER = 5", changed.getId()));
+        Assert.assertEquals(0, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT WHERE ID = ?", removed.getId()));
+        Assert.assertEquals(0, countRows(operator, "SELECT COUNT(*) FROM ALLOCATION WHERE APPOINTMENT_ID = ?", removed.getId()));
+        Assert.assertEquals(1, countRows(operator, "SELECT COUNT(*) FROM ALLOCATION WHERE APPOINTMENT_ID = ?", added.getId()));
+        Assert.assertEquals(1, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT_EXCEPTION WHERE APPOINTMENT_ID = ?", changed.getId()));
+
+        // rows that were changed behind the back of the cache, e.g. by another server, are compared with the database and not with the cache
+        try (Connection connection = operator.createConnection(false); Statement stmt = connection.createStatement())
+        {
+            stmt.executeUpdate("DELETE FROM APPOINTMENT WHERE ID = '" + added.getId() + "'");
+            stmt.executeUpdate("INSERT INTO APPOINTMENT_EXCEPTION (APPOINTMENT_ID, EXCEPTION_DATE) SELECT APPOINTMENT_ID, EXCEPTION_DATE FROM APPOINTMENT_EXCEPTION WHERE APPOINTMENT_ID = '"
+                    + changed.getId() + "'");
+        }
+        Assert.assertEquals(2, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT_EXCEPTION WHERE APPOINTMENT_ID = ?", changed.getId()));
+        final Reservation editedAgain = facade.edit(facade.getOperator().resolve(reservation.getReference()));
+        editedAgain.getClassification().setValue("name", "Row changes again");
+        facade.storeAndRemove(new Entity[] { editedAgain }, Entity.ENTITY_ARRAY, user);
+        Assert.assertEquals(1, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT WHERE ID = ?", added.getId()));
+        Assert.assertEquals(1, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT_EXCEPTION WHERE APPOINTMENT_ID = ?", changed.getId()));
+        Assert.assertEquals(2, countRows(operator, "SELECT COUNT(*) FROM APPOINTMENT WHERE EVENT_ID = ?", reservation.getId()));
+    }
+
+    private int countRows(DBOperator operator, String sql, String id) throws Exception
+    {
+        try (Connection connection = operator.createConnection(false); PreparedStatement stmt = connection.prepareStatement(sql))
+        {
+            stmt.setString(1, id);
+            try (ResultSet rset = stmt.executeQuery())
+            {
+                Assert.assertTrue(rset.next());
+                return rset.getInt(1);
+            }
+        }
+    }
+
     @Test
     @Ignore
     public void testChangesAddChangeDelete() throws Exception
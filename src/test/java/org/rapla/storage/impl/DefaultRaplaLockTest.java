@@ -0,0 +1,44 @@
+package org.rapla.storage.impl;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.test.util.RaplaTestCase;
+
+@RunWith(JUnit4.class)
+public class DefaultRaplaLockTest
+{
+    private DefaultRaplaLock lockManager;
+
+    @Before
+    public void setUp()
+    {
+        lockManager = new DefaultRaplaLock(RaplaTestCase.initLoger());
+    }
+
+    @Test
+    public void locksAreReentrantAndReleased() throws Exception
+    {
+        final RaplaLock.ReadLock readLock = lockManager.readLock(getClass(), "read");
+        Assert.assertEquals(1, lockManager.readWriteLock.getReadHoldCount());
+        lockManager.unlock(readLock);
+
+        final RaplaLock.WriteLock writeLock = lockManager.writeLock(getClass(), "write");
+        // the locks are reentrant
+        final RaplaLock.WriteLock nestedWriteLock = lockManager.writeLock(getClass(), "nested write");
+        final RaplaLock.ReadLock nestedReadLock = lockManager.readLock(getClass(), "nested read");
+        Assert.assertEquals(2, lockManager.writeLocks.size());
+        Assert.assertEquals(1, lockManager.readLocks.size());
+        lockManager.unlock(nestedReadLock);
+        lockManager.unlock(nestedWriteLock);
+        Assert.assertEquals(1, lockManager.readWriteLock.getWriteHoldCount());
+        lockManager.unlock(writeLock);
+
+        Assert.assertEquals(0, lockManager.readWriteLock.getWriteHoldCount());
+        Assert.assertEquals(0, lockManager.readWriteLock.getReadHoldCount());
+        Assert.assertTrue(lockManager.readLocks.isEmpty());
+        Assert.assertTrue(lockManager.writeLocks.isEmpty());
+    }
+}
@@ -0,0 +1,192 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.AppointmentStartComparator;
+import org.rapla.entities.domain.Repeating;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.internal.AppointmentImpl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+@RunWith(JUnit4.class)
+public class AppointmentIntervalIndexTest
+{
+    private static final long DAY = DateTools.MILLISECONDS_PER_DAY;
+    private final long base = DateTools.cutDate(new Date(0)).getTime();
+    private AppointmentIntervalIndex index;
+    private List<Appointment> appointments;
+
+    @Before
+    public void setUp()
+    {
+        index = new AppointmentIntervalIndex();
+        appointments = new ArrayList<>();
+        Random random = new Random(4711);
+        for (int i = 0; i < 500; i++)
+        {
+            long start = base + random.nextInt(3650) * DAY + random.nextInt(24) * DateTools.MILLISECONDS_PER_HOUR;
+            long end = start + (1 + random.nextInt(8)) * DateTools.MILLISECONDS_PER_HOUR;
+            AppointmentImpl appointment = new AppointmentImpl(new Date(start), new Date(end));
+            appointment.setId("a" + i);
+            if (i % 10 == 0)
+            {
+                appointment.setRepeatingEnabled(true);
+                final Repeating repeating = appointment.getRepeating();
+                repeating.setType(RepeatingType.WEEKLY);
+                repeating.setNumber(1 + random.nextInt(50));
+            }
+            if (i % 97 == 0)
+            {
+                appointment.setRepeatingEnabled(true);
+                final Repeating repeating = appointment.getRepeating();
+                repeating.setType(RepeatingType.DAILY);
+                repeating.setEnd(null);
+            }
+            appointments.add(appointment);
+            index.add(appointment);
+        }
+    }
+
+    @Test
+    public void sortedIteration()
+    {
+        SortedSet<Appointment> expected = new TreeSet<>(new AppointmentStartComparator());
+        expected.addAll(appointments);
+        Assert.assertEquals(expected.size(), index.size());
+        Assert.assertEquals(new ArrayList<>(expected), new ArrayList<>(index));
+    }
+
+    @Test
+    public void visitStopsWhenVisitorReturnsFalse()
+    {
+        final long start = base + 100 * DAY;
+        final long end = base + 1000 * DAY;
+        List<Appointment> all = new ArrayList<>();
+        index.forEachCandidate(start, end, all::add);
+        List<Appointment> firstTen = new ArrayList<>();
+        Assert.assertFalse(index.visitCandidates(start, end, (appointment) -> firstTen.add(appointment) && firstTen.size() < 10));
+        Assert.assertEquals(all.subList(0, 10), firstTen);
+        List<Appointment> visited = new ArrayList<>();
+        Assert.assertTrue(index.visitCandidates(start, end, visited::add));
+        Assert.assertEquals(all, visited);
+    }
+
+    @Test
+    public void visitFromSkipsEarlierAppointments()
+    {
+        final long start = base + 100 * DAY;
+        final long end = base + 1000 * DAY;
+        List<Appointment> all = new ArrayList<>();
+        index.forEachCandidate(start, end, all::add);
+        final long from = all.get(all.size() / 2).getStart().getTime();
+        List<Appointment> expected = new ArrayList<>();
+        for (Appointment appointment : all)
+        {
+            if (appointment.getStart().getTime() >= from)
+            {
+                expected.add(appointment);
+            }
+        }
+        List<Appointment> visited = new ArrayList<>();
+        Assert.assertTrue(index.visitCandidates(start, end, from, visited::add));
+        Assert.assertEquals(expected, visited);
+    }
+
+    @Test
+    public void endingBeforeMatchesFullScan()
+    {
+        Random random = new Random(17);
+        for (int i = 0; i < 50; i++)
+        {
+            long end = base + random.nextInt(3700) * DAY;
+            List<Appointment> expected = new ArrayList<>();
+            for (Appointment appointment : index)
+            {
+                if (AppointmentIntervalIndex.getMaxEnd(appointment) <= end)
+                {
+                    expected.add(appointment);
+                }
+            }
+            List<Appointment> result = new ArrayList<>();
+            index.forEachEndingBefore(end, result::add);
+            Assert.assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void candidatesMatchFullScan()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++)
+        {
+            long start = base + random.nextInt(3700) * DAY;
+            long end = start + (1 + random.nextInt(14)) * DAY;
+            List<Appointment> expected = new ArrayList<>();
+            for (Appointment appointment : index)
+            {
+                if (appointment.getStart().getTime() < end && AppointmentIntervalIndex.getMaxEnd(appointment) > start)
+                {
+                    expected.add(appointment);
+                }
+            }
+            List<Appointment> result = new ArrayList<>();
+            index.forEachCandidate(start, end, result::add);
+            Assert.assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void removal()
+    {
+        for (int i = 0; i < appointments.size(); i += 2)
+        {
+            Assert.assertTrue(index.remove(appointments.get(i)));
+        }
+        Assert.assertFalse(index.remove(appointments.get(0)));
+        Assert.assertEquals(appointments.size() / 2, index.size());
+        Iterator<Appointment> it = index.iterator();
+        while (it.hasNext())
+        {
+            it.next();
+            it.remove();
+        }
+        Assert.assertTrue(index.isEmpty());
+        List<Appointment> result = new ArrayList<>();
+        index.forEachCandidate(null, null, result::add);
+        Assert.assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByChanges()
+    {
+        final List<Appointment> before = new ArrayList<>(index);
+        final AppointmentIntervalIndex snapshot = index.snapshot();
+        for (int i = 0; i < appointments.size(); i += 3)
+        {
+            Assert.assertTrue(index.remove(appointments.get(i)));
+        }
+        final AppointmentImpl added = new AppointmentImpl(new Date(base), new Date(base + DAY));
+        added.setId("added");
+        index.add(added);
+        Assert.assertEquals(before, new ArrayList<>(snapshot));
+        Assert.assertEquals(before.size(), snapshot.size());
+        Assert.assertFalse(snapshot.contains(added));
+        Assert.assertTrue(index.contains(added));
+        Assert.assertEquals(appointments.size() - (appointments.size() + 2) / 3 + 1, index.size());
+        List<Appointment> result = new ArrayList<>();
+        snapshot.forEachCandidate(null, null, result::add);
+        Assert.assertEquals(before, result);
+    }
+}
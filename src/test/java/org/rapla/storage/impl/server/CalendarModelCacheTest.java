@@ -0,0 +1,162 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Attribute;
+import org.rapla.entities.dynamictype.AttributeType;
+import org.rapla.entities.dynamictype.ClassificationFilter;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.CalendarSelectionModel;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.facade.internal.CalendarModelImpl;
+import org.rapla.logger.Logger;
+import org.rapla.plugin.exchangeconnector.ExchangeConnectorPlugin;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** compares the index of the exported calendar models with a scan of all models */
+@RunWith(JUnit4.class)
+public class CalendarModelCacheTest
+{
+    RaplaFacade facade;
+    CalendarModelCache cache;
+    User homer;
+    User monty;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "testdefault.xml");
+        cache = ((LocalAbstractCachableOperator) facade.getOperator()).getCalendarModelCache();
+        homer = facade.getUser("homer");
+        monty = facade.getUser("monty");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+    }
+
+    @Test
+    public void indexMatchesFullScan() throws Exception
+    {
+        final DynamicType room = facade.getDynamicType("room");
+        final DynamicType event = facade.getDynamicType("event");
+        final Allocatable[] allocatables = facade.getAllocatables();
+        // selection by type
+        export(homer, "rooms", Collections.singleton(room), null);
+        // selection of one allocatable with a filter for the events
+        final ClassificationFilter filter = event.newClassificationFilter();
+        filter.addRule("name", new Object[][] { { "contains", "e" } });
+        export(monty, "single", Collections.singleton(allocatables[0]), new ClassificationFilter[] { filter });
+        // no selection matches all allocatables
+        export(monty, "all", Collections.emptyList(), null);
+        assertIndexMatchesScan();
+
+        // selection change
+        final List<Allocatable> twoAllocatables = Arrays.asList(allocatables[0], allocatables[1]);
+        export(monty, "single", twoAllocatables, new ClassificationFilter[] { filter });
+        assertIndexMatchesScan();
+
+        // filter change
+        final ClassificationFilter otherFilter = event.newClassificationFilter();
+        otherFilter.addRule("name", new Object[][] { { "contains", "room" } });
+        export(monty, "single", twoAllocatables, new ClassificationFilter[] { otherFilter });
+        assertIndexMatchesScan();
+
+        // a new room enters the selection by type
+        final Allocatable newRoom = facade.newAllocatable(room.newClassification(), homer);
+        newRoom.getClassification().setValue("name", "new room");
+        final Reservation reservation = facade.newReservation(event.newClassification(), homer);
+        reservation.getClassification().setValue("name", "room event");
+        final Date start = DateTools.addDays(DateTools.cutDate(new Date()), 1);
+        reservation.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), homer));
+        reservation.addAllocatable(newRoom);
+        facade.storeAndRemove(new Entity[] { newRoom, reservation }, Entity.ENTITY_ARRAY, homer);
+        assertIndexMatchesScan();
+        Assert.assertTrue(cache.findMatchingUsers(facade.getPersistant(newRoom)).contains(homer.getReference()));
+
+        // type change
+        final DynamicType editRoom = facade.edit(room);
+        final Attribute attribute = facade.newAttribute(AttributeType.STRING);
+        attribute.setKey("modelcachetest");
+        editRoom.addAttribute(attribute);
+        facade.store(editRoom);
+        assertIndexMatchesScan();
+
+        // the removed room leaves the selection
+        facade.storeAndRemove(Entity.ENTITY_ARRAY, new Entity[] { facade.getPersistant(reservation), facade.getPersistant(newRoom) }, homer);
+        assertIndexMatchesScan();
+    }
+
+    private void export(User user, String filename, Collection<?> selection, ClassificationFilter[] reservationFilter) throws Exception
+    {
+        final CalendarSelectionModel model = facade.newCalendarModel(user);
+        model.setSelectedObjects(selection);
+        model.setReservationFilter(reservationFilter);
+        model.setOption(ExchangeConnectorPlugin.EXCHANGE_EXPORT, "true");
+        RaplaTestCase.waitForWithRaplaException(model.save(filename), 10000);
+    }
+
+    private void assertIndexMatchesScan() throws Exception
+    {
+        final Map<ReferenceInfo<User>, List<CalendarModelImpl>> models = cache.getCalendarModels();
+        Assert.assertFalse(models.isEmpty());
+        for (Allocatable allocatable : facade.getAllocatables())
+        {
+            final Set<ReferenceInfo<User>> expected = new HashSet<>();
+            for (Map.Entry<ReferenceInfo<User>, List<CalendarModelImpl>> entry : models.entrySet())
+            {
+                for (CalendarModelImpl model : entry.getValue())
+                {
+                    if (model.getAllAllocatables().contains(allocatable))
+                    {
+                        expected.add(entry.getKey());
+                    }
+                }
+            }
+            Assert.assertEquals(allocatable.toString(), expected, new HashSet<>(cache.findMatchingUsers(allocatable)));
+        }
+        final Collection<Reservation> reservations = RaplaTestCase.waitForWithRaplaException(facade.getReservationsForAllocatable(null, null, null, null), 10000);
+        Assert.assertFalse(reservations.isEmpty());
+        for (Reservation reservation : reservations)
+        {
+            for (Appointment appointment : reservation.getAppointments())
+            {
+                final Set<ReferenceInfo<User>> expected = new HashSet<>();
+                for (Map.Entry<ReferenceInfo<User>, List<CalendarModelImpl>> entry : models.entrySet())
+                {
+                    for (CalendarModelImpl model : entry.getValue())
+                    {
+                        if (model.isMatchingSelectionAndFilter(appointment))
+                        {
+                            expected.add(entry.getKey());
+                        }
+                    }
+                }
+                Assert.assertEquals(appointment.toString(), expected, new HashSet<>(cache.findMatchingUser(appointment)));
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.rapla.storage.impl.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the full sweep line recalculation of the conflicts of a busy resource with the incremental recalculation
+ * that is used when a single appointment of that resource changes.
+ * Run with the main method or via the jmh runner from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConflictFinderBenchmark
+{
+    @Param({ "500", "5000" })
+    int reservationCount;
+
+    ConflictFinderFixture fixture;
+    ConflictFinder conflictFinder;
+    Allocatable allocatable;
+    Date today;
+    Map<ReferenceInfo<Conflict>, Conflict> conflictsBefore;
+    AllocationChange change;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        fixture = new ConflictFinderFixture(reservationCount, 5 * 365, 10, 39);
+        conflictFinder = fixture.conflictFinder;
+        allocatable = fixture.allocatable;
+        today = fixture.today;
+        conflictsBefore = conflictFinder.recalculateConflicts(allocatable, today, Collections.emptyMap(), null);
+        // simulate saving one event of the resource
+        final List<Appointment> appointments = fixture.appointments;
+        Appointment changed = appointments.get(new Random(42).nextInt(appointments.size()));
+        change = new AllocationChange();
+        change.toRemove.add(changed);
+        change.toChange.add(changed);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        fixture.dispose();
+    }
+
+    @Benchmark
+    public Map<ReferenceInfo<Conflict>, Conflict> fullSweep()
+    {
+        return conflictFinder.recalculateConflicts(allocatable, today, conflictsBefore, null);
+    }
+
+    @Benchmark
+    public Map<ReferenceInfo<Conflict>, Conflict> incremental()
+    {
+        return conflictFinder.recalculateConflicts(allocatable, today, conflictsBefore, change);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder().include(ConflictFinderBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
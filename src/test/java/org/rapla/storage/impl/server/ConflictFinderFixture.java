@@ -0,0 +1,152 @@
+package org.rapla.storage.impl.server;
+
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.Entity;
+import org.rapla.entities.EntityNotFoundException;
+import org.rapla.entities.User;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.domain.RepeatingType;
+import org.rapla.entities.domain.Reservation;
+import org.rapla.entities.dynamictype.Classification;
+import org.rapla.entities.dynamictype.DynamicType;
+import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
+import org.rapla.entities.storage.EntityResolver;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.RaplaFacade;
+import org.rapla.logger.Logger;
+import org.rapla.test.util.DefaultPermissionControllerSupport;
+import org.rapla.test.util.RaplaTestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** random reservations of one resource and a conflict finder for them. Used by the ConflictFinderTest and the ConflictFinderBenchmark*/
+class ConflictFinderFixture
+{
+    final RaplaFacade facade;
+    final Allocatable allocatable;
+    final Date today;
+    final List<Appointment> appointments = new ArrayList<>();
+    final AppointmentIntervalIndex index;
+    final ConflictFinder conflictFinder;
+
+    /**
+     * creates reservationCount reservations with one appointment of two hours that starts within the next days.
+     * Every fifth appointment repeats weekly between minRepeatings and maxRepeatings times.
+     */
+    ConflictFinderFixture(int reservationCount, int days, int minRepeatings, int maxRepeatings) throws Exception
+    {
+        Logger logger = RaplaTestCase.initLoger();
+        facade = RaplaTestCase.createFacadeWithFile(logger, "testdefault.xml");
+        User user = facade.getUser("homer");
+        allocatable = facade.getAllocatables()[0];
+        Classification classification = facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification();
+        today = DateTools.cutDate(new Date());
+        Random random = new Random(4711);
+        for (int i = 0; i < reservationCount; i++)
+        {
+            Reservation reservation = facade.newReservation(classification, user);
+            reservation.addAllocatable(allocatable);
+            long start = today.getTime() + random.nextInt(days) * DateTools.MILLISECONDS_PER_DAY + random.nextInt(20) * DateTools.MILLISECONDS_PER_HOUR;
+            Appointment appointment = facade.newAppointmentWithUser(new Date(start), new Date(start + 2 * DateTools.MILLISECONDS_PER_HOUR), user);
+            if (i % 5 == 0)
+            {
+                appointment.setRepeatingEnabled(true);
+                appointment.getRepeating().setType(RepeatingType.WEEKLY);
+                appointment.getRepeating().setNumber(minRepeatings + random.nextInt(maxRepeatings - minRepeatings + 1));
+            }
+            reservation.addAppointment(appointment);
+            appointments.add(appointment);
+        }
+        index = new AppointmentIntervalIndex(appointments);
+        AllocationMap allocationMap = new AllocationMap()
+        {
+            @Override
+            public AppointmentIntervalIndex getAppointments(Allocatable allocatable)
+            {
+                return index;
+            }
+
+            @Override
+            public Collection<Allocatable> getAllocatables()
+            {
+                return Collections.singletonList(allocatable);
+            }
+        };
+        conflictFinder = new ConflictFinder(allocationMap, today, logger, createResolver(), DefaultPermissionControllerSupport.getController(facade.getOperator()));
+    }
+
+    /** the appointments are not stored, so they are resolved from the appointment list */
+    private EntityResolver createResolver()
+    {
+        final Map<String, Appointment> appointmentMap = new HashMap<>();
+        for (Appointment appointment : appointments)
+        {
+            appointmentMap.put(appointment.getId(), appointment);
+        }
+        final EntityResolver operator = facade.getOperator();
+        return new EntityResolver()
+        {
+            @Override
+            public <T extends Entity> T tryResolve(String id, Class<T> entityClass)
+            {
+                if (entityClass == Appointment.class && appointmentMap.containsKey(id))
+                {
+                    return entityClass.cast(appointmentMap.get(id));
+                }
+                return operator.tryResolve(id, entityClass);
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public <T extends Entity> T tryResolve(ReferenceInfo<T> referenceInfo)
+            {
+                if (referenceInfo.getType() == Appointment.class && appointmentMap.containsKey(referenceInfo.getId()))
+                {
+                    return (T) appointmentMap.get(referenceInfo.getId());
+                }
+                return operator.tryResolve(referenceInfo);
+            }
+
+            @Override
+            public <T extends Entity> T resolve(String id, Class<T> entityClass) throws EntityNotFoundException
+            {
+                T result = tryResolve(id, entityClass);
+                if (result == null)
+                {
+                    throw new EntityNotFoundException("Not found " + id);
+                }
+                return result;
+            }
+
+            @Override
+            public <T extends Entity> T resolve(ReferenceInfo<T> referenceInfo) throws EntityNotFoundException
+            {
+                T result = tryResolve(referenceInfo);
+                if (result == null)
+                {
+                    throw new EntityNotFoundException("Not found " + referenceInfo);
+                }
+                return result;
+            }
+
+            @Override
+            public DynamicType getDynamicType(String key)
+            {
+                return operator.getDynamicType(key);
+            }
+        };
+    }
+
+    void dispose() throws Exception
+    {
+        RaplaTestCase.dispose(facade);
+    }
+}
@@ -0,0 +1,85 @@
+package org.rapla.storage.impl.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rapla.components.util.DateTools;
+import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.Appointment;
+import org.rapla.entities.storage.ReferenceInfo;
+import org.rapla.facade.Conflict;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class ConflictFinderTest
+{
+    ConflictFinderFixture fixture;
+    Allocatable allocatable;
+    Date today;
+    List<Appointment> appointments;
+    AppointmentIntervalIndex index;
+    ConflictFinder conflictFinder;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        fixture = new ConflictFinderFixture(200, 100, 2, 11);
+        allocatable = fixture.allocatable;
+        today = fixture.today;
+        appointments = fixture.appointments;
+        index = fixture.index;
+        conflictFinder = fixture.conflictFinder;
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        fixture.dispose();
+    }
+
+    @Test
+    public void incrementalMatchesFullSweep()
+    {
+        Map<ReferenceInfo<Conflict>, Conflict> conflicts = conflictFinder.recalculateConflicts(allocatable, today, Collections.emptyMap(), null);
+        Assert.assertFalse(conflicts.isEmpty());
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++)
+        {
+            Appointment appointment = appointments.get(random.nextInt(appointments.size()));
+            index.remove(appointment);
+            appointment.moveTo(new Date(appointment.getStart().getTime() + (random.nextInt(20) - 10) * DateTools.MILLISECONDS_PER_DAY));
+            index.add(appointment);
+            AllocationChange change = new AllocationChange();
+            change.toRemove.add(appointment);
+            change.toChange.add(appointment);
+            Map<ReferenceInfo<Conflict>, Conflict> incremental = conflictFinder.recalculateConflicts(allocatable, today, conflicts, change);
+            Map<ReferenceInfo<Conflict>, Conflict> full = conflictFinder.recalculateConflicts(allocatable, today, conflicts, null);
+            Assert.assertEquals(full.keySet(), incremental.keySet());
+            conflicts = incremental;
+        }
+    }
+
+    @Test
+    public void incrementalDropsExpiredConflicts()
+    {
+        Map<ReferenceInfo<Conflict>, Conflict> conflicts = conflictFinder.recalculateConflicts(allocatable, today, Collections.emptyMap(), null);
+        Assert.assertFalse(conflicts.isEmpty());
+        for (int days : new int[] { 30, 60, 90, 200 })
+        {
+            Date later = DateTools.addDays(today, days);
+            // nothing changed, only the day moved on
+            AllocationChange change = new AllocationChange();
+            Map<ReferenceInfo<Conflict>, Conflict> incremental = conflictFinder.recalculateConflicts(allocatable, later, conflicts, change);
+            Map<ReferenceInfo<Conflict>, Conflict> full = conflictFinder.recalculateConflicts(allocatable, later, conflicts, null);
+            Assert.assertEquals(full.keySet(), incremental.keySet());
+        }
+    }
+}
@@ -5,7 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.rapla.entities.Entity;
 import org.rapla.entities.domain.Allocatable;
+import org.rapla.entities.domain.internal.AllocatableImpl;
 import org.rapla.entities.storage.ReferenceInfo;
 
 import java.util.Date;
@@ -54,4 +56,58 @@ public class TestEntityHistory
         entityHistory.addHistoryEntry(ref,json, timestamp, false);
         Assert.assertEquals(entityHistory.getHistoryList(ref)+"", 1, entityHistory.getHistoryList(ref).size());
     }
+
+    @Test
+    public void encoding()
+    {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            buf.append("{\"id\":\"" + i + "\",\"name\":\"R\u00e4um " + i + "\"}");
+        }
+        final String large = buf.toString();
+        final byte[] data = EntityHistory.encode(large);
+        Assert.assertTrue(data.length < large.length());
+        Assert.assertEquals(large, EntityHistory.decode(data));
+        final String small = "{\"id\":\"\u00fc\"}";
+        Assert.assertEquals(small, EntityHistory.decode(EntityHistory.encode(small)));
+        Assert.assertNull(EntityHistory.decode(EntityHistory.encode(null)));
+    }
+
+    @Test
+    public void parsedVersionIsShared() throws Exception
+    {
+        final Date timestamp = new Date();
+        final AllocatableImpl resource = new AllocatableImpl(timestamp, timestamp);
+        resource.setId("resource1");
+        final EntityHistory.HistoryEntry entry = entityHistory.addHistoryEntry(resource, timestamp, false);
+        final Date since = new Date(timestamp.getTime() + 1);
+        final Entity first = entityHistory.get(entry.getId(), since);
+        Assert.assertEquals(resource.getReference(), first.getReference());
+        Assert.assertSame(first, entityHistory.get(entry.getId(), since));
+        Assert.assertTrue(((AllocatableImpl) first).isReadOnly());
+        // entities for the cache are parsed again and can be modified
+        final Entity copy = entityHistory.getEntity(entry);
+        Assert.assertNotSame(first, copy);
+        Assert.assertFalse(((AllocatableImpl) copy).isReadOnly());
+    }
+
+    @Test
+    public void parsedVersionsAreBounded() throws Exception
+    {
+        final Date timestamp = new Date();
+        final Date since = new Date(timestamp.getTime() + 1);
+        final EntityHistory.HistoryEntry[] entries = new EntityHistory.HistoryEntry[EntityHistory.PARSED_CACHE_SIZE + 1];
+        final Entity[] parsed = new Entity[entries.length];
+        for (int i = 0; i < entries.length; i++)
+        {
+            final AllocatableImpl resource = new AllocatableImpl(timestamp, timestamp);
+            resource.setId("resource" + i);
+            entries[i] = entityHistory.addHistoryEntry(resource, timestamp, false);
+            parsed[i] = entityHistory.get(entries[i].getId(), since);
+        }
+        // the least recently used version was removed and is parsed again
+        Assert.assertNotSame(parsed[0], entityHistory.get(entries[0].getId(), since));
+        Assert.assertSame(parsed[entries.length - 1], entityHistory.get(entries[entries.length - 1].getId(), since));
+    }
 }
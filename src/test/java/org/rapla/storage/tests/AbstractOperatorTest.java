@@ -14,6 +14,7 @@ package org.rapla.storage.tests;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.rapla.components.util.DateTools;
 import org.rapla.entities.Category;
 import org.rapla.entities.Entity;
 import org.rapla.entities.User;
@@ -29,9 +30,14 @@ import org.rapla.entities.dynamictype.DynamicTypeAnnotations;
 import org.rapla.facade.RaplaFacade;
 import org.rapla.framework.RaplaException;
 import org.rapla.storage.CachableStorageOperator;
+import org.rapla.storage.ReservationPage;
 import org.rapla.test.util.RaplaTestCase;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public abstract class AbstractOperatorTest  {
 
@@ -84,6 +90,47 @@ public abstract class AbstractOperatorTest  {
         }
     }
 
+	@Test
+	public void testReservationPaging() throws RaplaException
+	{
+		RaplaFacade facade = getFacade();
+		final User user = facade.getUsers()[0];
+		final Date start = new Date(DateTools.cutDate(new Date()).getTime() + 10 * DateTools.MILLISECONDS_PER_DAY + 10 * DateTools.MILLISECONDS_PER_HOUR);
+		final Set<String> created = new HashSet<>();
+		final List<Entity> toStore = new ArrayList<>();
+		for (int i = 0; i < 7; i++)
+		{
+			Reservation r = facade.newReservation(facade.getDynamicTypes(DynamicTypeAnnotations.VALUE_CLASSIFICATION_TYPE_RESERVATION)[0].newClassification(), user);
+			r.getClassification().setValue("name", "paging" + i);
+			// all reservations start at the same time and have a second appointment, so they are visited twice
+			r.addAppointment(facade.newAppointmentWithUser(start, new Date(start.getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+			r.addAppointment(facade.newAppointmentWithUser(DateTools.addDays(start, 1), new Date(DateTools.addDays(start, 1).getTime() + DateTools.MILLISECONDS_PER_HOUR), user));
+			created.add(r.getId());
+			toStore.add(r);
+		}
+		facade.storeAndRemove(toStore.toArray(Entity.ENTITY_ARRAY), Entity.ENTITY_ARRAY, user);
+
+		final CachableStorageOperator operator = getOperator();
+		final List<String> paged = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do
+		{
+			final ReservationPage page = operator.getReservationPage(null, DateTools.addDays(start, -1), DateTools.addDays(start, 3),
+					(reservation) -> created.contains(reservation.getId()), cursor, 3);
+			for (Reservation reservation : page.getReservations())
+			{
+				paged.add(reservation.getId());
+			}
+			cursor = page.getNextCursor();
+			pages++;
+		}
+		while (cursor != null && pages < 10);
+		Assert.assertEquals(3, pages);
+		Assert.assertEquals(7, paged.size());
+		Assert.assertEquals(created, new HashSet<>(paged));
+	}
+
 	@Test
     public void testUserStore() throws RaplaException {
 		RaplaFacade facade = getFacade();